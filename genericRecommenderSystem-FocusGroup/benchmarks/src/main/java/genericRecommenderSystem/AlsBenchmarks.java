@@ -0,0 +1,116 @@
+package genericRecommenderSystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+
+/**
+ * ALS training and top-N ranking on synthetic ratings, against ranking the same users with
+ * ItemKNN's {@link TopNRanker}. The ALS ranking cost depends on the number of factors and
+ * items only; the ItemKNN one grows with the density of the ratings.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class AlsBenchmarks {
+
+    @Param("20000")
+    int users;
+
+    @Param("5000")
+    int items;
+
+    @Param({"0.002", "0.02"})
+    double density;
+
+    @Param("2.0")
+    double skew;
+
+    @Param({"16", "64"})
+    int factors;
+
+    @Param({"explicit", "implicit"})
+    String feedback;
+
+    @Param("5")
+    int iterations;
+
+    @Param("10")
+    int topN;
+
+    private Path dir;
+    private SequentialAccessSparseMatrix trainMatrix;
+    private AlsModel model;
+    private TopNRanker itemKnn;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("als-bench");
+        SyntheticData data = new SyntheticData(users, items, density, skew, 42L);
+        Properties props = data.properties(dir, dir);
+        Configuration conf = RecommenderSession.prepareLibRecConfiguration(dir, props);
+        DataModel dataModel = new InMemoryDataModel(conf, data.ratings());
+        dataModel.buildDataModel();
+        trainMatrix = (SequentialAccessSparseMatrix) dataModel.getTrainDataSet();
+        pool = SimilarityEngine.newPool(0);
+        model = trainAls();
+
+        SimilarityEngine engine = SimilarityEngine.of(trainMatrix, false, conf.getInt("rec.similarity.shrinkage", 0));
+        NeighborIndex index = NeighborIndex.build(engine, conf.getInt("rec.neighbors.knn.number", 50), pool);
+        int[] userPtr = new int[trainMatrix.rowSize() + 1];
+        int[] userItems = new int[trainMatrix.size()];
+        for (int u = 0; u < trainMatrix.rowSize(); u++) {
+            int n = trainMatrix.row(u).getNumEntries();
+            for (int p = 0; p < n; p++) userItems[userPtr[u] + p] = trainMatrix.row(u).getIndexAtPosition(p);
+            userPtr[u + 1] = userPtr[u] + n;
+        }
+        itemKnn = new TopNRanker(index, userPtr, userItems);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        BenchmarkRunner.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public AlsModel trainAls() {
+        return AlsModel.train(trainMatrix, factors, iterations, 0.1, "implicit".equals(feedback), 10.0,
+                AlsPipeline.ALS_SEED, pool);
+    }
+
+    @Benchmark
+    public RankedResults rankAls() {
+        return model.rank(topN, pool);
+    }
+
+    @Benchmark
+    public RankedResults rankItemKnn() {
+        return itemKnn.rank(topN, pool);
+    }
+}
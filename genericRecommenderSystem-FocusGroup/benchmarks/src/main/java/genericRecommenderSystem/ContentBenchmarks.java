@@ -0,0 +1,112 @@
+package genericRecommenderSystem;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Content-based scoring on a synthetic catalog: {@code items} items with
+ * {@code featuresPerItem} features each, drawn from {@code vocabulary} features with a
+ * power-law popularity ({@code skew}), as tags and attribute values usually are. A cold-start
+ * profile of {@code profileFeatures} features, drawn the same way, is scored against the whole
+ * catalog per operation; the GC profiler should report no allocation for it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContentBenchmarks {
+
+    @Param({"100000", "1000000"})
+    int items;
+
+    @Param("20")
+    int featuresPerItem;
+
+    @Param("50000")
+    int vocabulary;
+
+    @Param("1.2")
+    double skew;
+
+    @Param({"5", "50"})
+    int profileFeatures;
+
+    private String[] featureNames;
+    private ContentIndex index;
+    private ContentIndex.Scratch scratch;
+    private int[][] profiles;
+    private int[] outItems;
+    private float[] outScores;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42L);
+        featureNames = new String[vocabulary];
+        for (int f = 0; f < vocabulary; f++) featureNames[f] = "tags=t" + f;
+        index = buildIndex(random);
+        scratch = index.newScratch(10);
+        profiles = new int[1024][];
+        for (int p = 0; p < profiles.length; p++) {
+            profiles[p] = new int[profileFeatures];
+            for (int k = 0; k < profileFeatures; k++) {
+                profiles[p][k] = index.featureOf(featureNames[draw(random)]);
+            }
+        }
+        outItems = new int[10];
+        outScores = new float[10];
+    }
+
+    private ContentIndex buildIndex(SplittableRandom random) {
+        ContentIndex.Builder builder = new ContentIndex.Builder();
+        for (int i = 0; i < items; i++) {
+            for (int k = 0; k < featuresPerItem; k++) {
+                builder.addItemFeature(i, featureNames[draw(random)]);
+            }
+        }
+        return builder.build(items, 0);
+    }
+
+    // Feature rank with P(f) ~ 1 / (f + 1)^skew, by inverting the continuous approximation
+    private int draw(SplittableRandom random) {
+        double u = random.nextDouble();
+        double a = 1.0 - skew;
+        double max = Math.pow(vocabulary + 1.0, a);
+        int f = (int) Math.pow(1.0 + u * (max - 1.0), 1.0 / a) - 1;
+        return Math.min(Math.max(f, 0), vocabulary - 1);
+    }
+
+    @Benchmark
+    public int coldStartProfile() {
+        int[] profile = profiles[next++ & (profiles.length - 1)];
+        scratch.clear();
+        for (int f : profile) {
+            if (f >= 0) scratch.addFeature(f, 1f);
+        }
+        return scratch.rank(outItems, outScores, 0);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public ContentIndex buildIndex() {
+        return buildIndex(new SplittableRandom(42L));
+    }
+}
@@ -0,0 +1,145 @@
+package genericRecommenderSystem;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.epsilon.emc.emf.EmfModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The model stages of a RecommenderSession: metamodel registration, loading the recommender and domain
+ * models (from XMI and from the binary cache), and extracting the ratings with EOL or
+ * directly from the UserItemMatrix. Every benchmark runs in its own fork, so proxies
+ * resolved by one extraction run do not carry over to another benchmark.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmfBenchmarks {
+
+    @Param("2000")
+    int users;
+
+    @Param("1000")
+    int items;
+
+    @Param("0.02")
+    double density;
+
+    @Param("2.0")
+    double skew;
+
+    private Path dir;
+    private Properties props;
+    private RecommenderSession session;
+    private EPackage.Registry metamodels;
+    private EmfResourceCache emfCache;
+    private List<EmfModel> models;
+    private List<String> metamodelUris;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("emf-bench");
+        SyntheticData data = new SyntheticData(users, items, density, skew, 42L);
+        data.writeModels(dir);
+        props = data.properties(dir, SyntheticData.modelsDir());
+        session = new RecommenderSession(props, null, new PrintStream(OutputStream.nullOutputStream()));
+        ResourceSet resourceSet = RecommenderSession.createResourceSet(null);
+        session.registerMetamodels(resourceSet, null);
+        metamodels = resourceSet.getPackageRegistry();
+
+        // Fill the binary cache once, so the cached benchmarks measure warm loads only
+        emfCache = session.openEmfCache();
+        session.registerMetamodels(RecommenderSession.createResourceSet(emfCache), emfCache);
+        for (EmfModel model : loadModels(emfCache)) model.dispose();
+
+        models = loadModels(null);
+        metamodelUris = new ArrayList<>();
+        for (String key : props.getProperty("models.to.load").split(",")) {
+            metamodelUris.add(props.getProperty("model." + key + ".metamodel_uri"));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (EmfModel model : models) model.dispose();
+        BenchmarkRunner.deleteRecursively(dir);
+    }
+
+    // Each load gets a fresh resource set with the metamodels already registered
+    private List<EmfModel> loadModels(EmfResourceCache cache) throws Exception {
+        ResourceSet resourceSet = RecommenderSession.createResourceSet(cache);
+        resourceSet.getPackageRegistry().putAll(metamodels);
+        List<EmfModel> loaded = new ArrayList<>();
+        for (String key : props.getProperty("models.to.load").split(",")) {
+            loaded.add(RecommenderSession.loadEmfModel(resourceSet, props.getProperty("model." + key + ".name"),
+                    props.getProperty("model." + key + ".path"),
+                    props.getProperty("model." + key + ".metamodel_uri")));
+        }
+        return loaded;
+    }
+
+    @Benchmark
+    public void registerMetamodels() {
+        session.registerMetamodels(RecommenderSession.createResourceSet(null), null);
+    }
+
+    @Benchmark
+    public void registerMetamodelsCached() {
+        session.registerMetamodels(RecommenderSession.createResourceSet(emfCache), emfCache);
+    }
+
+    @Benchmark
+    public int loadModels() throws Exception {
+        List<EmfModel> loaded = loadModels(null);
+        int size = loaded.get(0).getResource().getContents().size();
+        for (EmfModel model : loaded) model.dispose();
+        return size;
+    }
+
+    @Benchmark
+    public int loadModelsCached() throws Exception {
+        List<EmfModel> loaded = loadModels(emfCache);
+        int size = loaded.get(0).getResource().getContents().size();
+        for (EmfModel model : loaded) model.dispose();
+        return size;
+    }
+
+    @Benchmark
+    public RatingEncoder extractWithEol() throws Exception {
+        RatingEncoder ratings = new RatingEncoder();
+        session.runExtractionScript(models, ratings);
+        return ratings;
+    }
+
+    @Benchmark
+    public RatingEncoder extractFromMatrix() {
+        RatingEncoder ratings = new RatingEncoder();
+        session.extractFromMatrix(models, metamodelUris, ratings);
+        return ratings;
+    }
+}
@@ -0,0 +1,126 @@
+package genericRecommenderSystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+
+/**
+ * Exact against MinHash/LSH item neighbors on clustered synthetic ratings with heavy users,
+ * where the exact engine's cost grows fastest. Each {@code lsh} setting is
+ * {@code <bands>x<rows>}; buildLsh also reports, as the {@code recall} counter, the fraction
+ * of the exact top-K neighbors it found.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class LshBenchmarks {
+
+    @Param("2000")
+    int users;
+
+    @Param("50000")
+    int items;
+
+    @Param("0.02")
+    double density;
+
+    @Param("2.0")
+    double skew;
+
+    @Param("2500")
+    int clusters;
+
+    @Param("20")
+    int knn;
+
+    @Param({"16x2", "32x2", "64x4"})
+    String lsh;
+
+    @Param("100")
+    int maxBucket;
+
+    @Param({"100", "200"})
+    int candidates;
+
+    @Param("100")
+    int popular;
+
+    private Path dir;
+    private SimilarityEngine engine;
+    private NeighborIndex exact;
+    private int bands;
+    private int rows;
+    private ForkJoinPool pool;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Recall {
+        public double recall;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            recall = 0.0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("lsh-bench");
+        SyntheticData data = new SyntheticData(users, items, density, skew, clusters, 42L);
+        Properties props = data.properties(dir, dir);
+        Configuration conf = RecommenderSession.prepareLibRecConfiguration(dir, props);
+        DataModel dataModel = new InMemoryDataModel(conf, data.ratings());
+        dataModel.buildDataModel();
+        SequentialAccessSparseMatrix trainMatrix = (SequentialAccessSparseMatrix) dataModel.getTrainDataSet();
+        engine = SimilarityEngine.of(trainMatrix, false, conf.getInt("rec.similarity.shrinkage", 0));
+        pool = SimilarityEngine.newPool(0);
+        exact = NeighborIndex.build(engine, knn, pool);
+        String[] setting = lsh.split("x");
+        bands = Integer.parseInt(setting[0]);
+        rows = Integer.parseInt(setting[1]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        BenchmarkRunner.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public NeighborIndex buildExact() {
+        return NeighborIndex.build(engine, knn, pool);
+    }
+
+    @Benchmark
+    public NeighborIndex buildLsh(Recall recall) {
+        NeighborIndex index = MinHashNeighbors.build(engine, bands, rows, maxBucket, candidates, popular,
+                ParallelItemSimilarity.LSH_SEED, pool).neighborIndex(knn, pool);
+        recall.recall = index.recall(exact);
+        return index;
+    }
+}
@@ -0,0 +1,192 @@
+package genericRecommenderSystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.data.model.TextDataModel;
+import net.librec.eval.EvalContext;
+import net.librec.eval.RecommenderEvaluator;
+import net.librec.eval.ranking.NormalizedDCGEvaluator;
+import net.librec.eval.ranking.PrecisionEvaluator;
+import net.librec.eval.ranking.RecallEvaluator;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.recommender.RecommenderContext;
+import net.librec.recommender.item.RecommendedList;
+import net.librec.similarity.CosineSimilarity;
+
+/**
+ * The LibRec stages of a RecommenderSession on synthetic ratings: writing librec_input.txt, building the
+ * data model (from the text file and in memory), the similarity matrix, training, ranking
+ * and evaluation. The inputs of each stage are prepared once per trial from the output of
+ * the previous ones, with the settings a session uses by default.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipelineBenchmarks {
+
+    @Param("5000")
+    int users;
+
+    @Param("2000")
+    int items;
+
+    @Param("0.01")
+    double density;
+
+    @Param("2.0")
+    double skew;
+
+    @Param("50")
+    int knn;
+
+    private Path dir;
+    private RatingEncoder ratings;
+    private List<Map<String, Object>> ratingsList;
+    private Configuration conf;
+    private DataModel dataModel;
+    private RecommenderContext context;
+    private TopKItemKNNRecommender recommender;
+    private RankedResults results;
+    private SequentialAccessSparseMatrix testMatrix;
+    private RecommendedList recommendedList;
+    private RankingEvaluator evaluator;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("pipeline-bench");
+        SyntheticData data = new SyntheticData(users, items, density, skew, 42L);
+        ratings = data.ratings();
+        ratingsList = data.ratingsList();
+
+        Properties props = data.properties(dir, dir);
+        props.setProperty("rec.knn", Integer.toString(knn));
+        props.setProperty("rec.eval.cutoffs", "5,10,20,50");
+        props.setProperty("rec.eval.metrics", "ndcg,precision,recall,map,mrr,hitrate,coverage");
+        conf = RecommenderSession.prepareLibRecConfiguration(dir, props);
+        ratings.writeLibrecInput(dir.resolve(RecommenderSession.LIBREC_INPUT_FILENAME));
+
+        dataModel = new InMemoryDataModel(conf, ratings);
+        dataModel.buildDataModel();
+        context = new RecommenderContext(conf, dataModel);
+        context.setSimilarity(new RecommenderSession(props).buildSimilarity(dataModel));
+        recommender = train();
+        results = recommender.rankTopN();
+        testMatrix = (SequentialAccessSparseMatrix) dataModel.getTestDataSet();
+        recommendedList = results.toRecommendedList();
+        evaluator = RankingEvaluator.fromConfiguration(conf);
+        pool = SimilarityEngine.newPool(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        BenchmarkRunner.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void writeLibrecInputFile() throws IOException {
+        RecommenderSession.writeLibrecInputFile(new File(dir.toFile(), "bench_input.txt"), ratingsList);
+    }
+
+    @Benchmark
+    public RatingEncoder encodeRatings() {
+        return RatingEncoder.encode(ratingsList);
+    }
+
+    @Benchmark
+    public DataModel buildTextDataModel() throws Exception {
+        // LibRec marks the conversion as done in the shared configuration after every build
+        conf.setBoolean("data.convert.read.ready", false);
+        DataModel model = new TextDataModel(conf);
+        model.buildDataModel();
+        return model;
+    }
+
+    @Benchmark
+    public DataModel buildInMemoryDataModel() throws Exception {
+        conf.setBoolean("data.convert.read.ready", false);
+        DataModel model = new InMemoryDataModel(conf, ratings);
+        model.buildDataModel();
+        return model;
+    }
+
+    @Benchmark
+    public NeighborIndex buildSimilarity() {
+        ParallelItemSimilarity similarity = new ParallelItemSimilarity();
+        similarity.buildSimilarityMatrix(dataModel);
+        return similarity.getNeighborIndex();
+    }
+
+    @Benchmark
+    public Object buildSimilarityLibrec() {
+        CosineSimilarity similarity = new CosineSimilarity();
+        similarity.buildSimilarityMatrix(dataModel);
+        return similarity.getSimilarityMatrix();
+    }
+
+    @Benchmark
+    public TopKItemKNNRecommender train() throws Exception {
+        TopKItemKNNRecommender trained = new TopKItemKNNRecommender();
+        trained.setContext(context);
+        trained.train(context);
+        return trained;
+    }
+
+    @Benchmark
+    public RankedResults rank() throws Exception {
+        return recommender.rankTopN();
+    }
+
+    @Benchmark
+    public RecommendedList recommendRank() throws Exception {
+        return recommender.recommendRank();
+    }
+
+    @Benchmark
+    public RankingEvaluator.Result evaluate() {
+        return evaluator.evaluate(results, testMatrix, pool);
+    }
+
+    /**
+     * What Main did before RankingEvaluator: three LibRec evaluators at @10.
+     */
+    @Benchmark
+    public double evaluateLibrec() throws Exception {
+        EvalContext evalContext = new EvalContext(conf, recommendedList, testMatrix);
+        double sum = 0.0;
+        for (RecommenderEvaluator evaluator : new RecommenderEvaluator[] {
+                new NormalizedDCGEvaluator(), new PrecisionEvaluator(), new RecallEvaluator()}) {
+            evaluator.setTopN(10);
+            sum += evaluator.evaluate(evalContext);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,97 @@
+package genericRecommenderSystem;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole pipeline runs, {@code sessions} at a time on one shared pool of {@code threads}
+ * workers (0 for all cores). One operation is one batch of sessions, so the aggregate
+ * throughput is the score times {@code sessions}; compare it across sessions=1,2,4,... and
+ * machines with more cores. The model cache is off, so every session trains from scratch.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionBenchmarks {
+
+    @Param("2000")
+    int users;
+
+    @Param("1000")
+    int items;
+
+    @Param("0.02")
+    double density;
+
+    @Param({"1", "2", "4"})
+    int sessions;
+
+    @Param("0")
+    int threads;
+
+    private Path dir;
+    private Properties props;
+    private ForkJoinPool pool;
+    private ExecutorService executor;
+    private PrintStream discard;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("session-bench");
+        SyntheticData data = new SyntheticData(users, items, density, 2.0, 42L);
+        data.writeModels(dir);
+        props = data.properties(dir, SyntheticData.modelsDir());
+        props.setProperty("metrics.report.enabled", "false");
+        pool = SimilarityEngine.newPool(threads);
+        executor = Executors.newFixedThreadPool(sessions);
+        discard = new PrintStream(OutputStream.nullOutputStream());
+        // Fills the binary model cache, so every measured session loads warm
+        new RecommenderSession(props, pool, discard).run();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executor.shutdown();
+        pool.shutdown();
+        BenchmarkRunner.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public double concurrentSessions() throws Exception {
+        List<Future<RecommenderSession.Result>> running = new ArrayList<>();
+        for (int s = 0; s < sessions; s++) {
+            running.add(executor.submit(() -> new RecommenderSession(props, pool, discard).run()));
+        }
+        double ndcg = 0.0;
+        for (Future<RecommenderSession.Result> result : running) ndcg += result.get().getNdcg();
+        return ndcg;
+    }
+}
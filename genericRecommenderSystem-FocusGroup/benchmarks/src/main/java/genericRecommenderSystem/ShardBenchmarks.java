@@ -0,0 +1,80 @@
+package genericRecommenderSystem;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading the same synthetic ratings split into {@code shards} recommender models with
+ * ShardedIngestion on {@code threads} workers, binary EMF cache warm. With enough shards the
+ * time should fall with the threads and stay flat as the shards grow.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardBenchmarks {
+
+    @Param("5000")
+    int users;
+
+    @Param("2000")
+    int items;
+
+    @Param("0.01")
+    double density;
+
+    @Param("2.0")
+    double skew;
+
+    @Param({"1", "8", "32"})
+    int shards;
+
+    @Param({"1", "4"})
+    int threads;
+
+    private Path dir;
+    private RecommenderSession session;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("shard-bench");
+        SyntheticData data = new SyntheticData(users, items, density, skew, 42L);
+        data.writeShards(dir, shards);
+        Properties props = data.properties(dir, SyntheticData.modelsDir());
+        props.setProperty("rating.shards.threads", Integer.toString(threads));
+        session = new RecommenderSession(props, null, new PrintStream(OutputStream.nullOutputStream()));
+        // Fill the binary cache once
+        ingest();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkRunner.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public RatingEncoder ingest() throws IOException {
+        return session.ingestShards(dir.resolve("Recommender-*.model").toString(), new PipelineMetrics()).ratings;
+    }
+}
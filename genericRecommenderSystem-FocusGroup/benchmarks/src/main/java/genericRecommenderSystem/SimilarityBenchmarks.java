@@ -0,0 +1,126 @@
+package genericRecommenderSystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.similarity.CosineSimilarity;
+import net.librec.similarity.MSDSimilarity;
+import net.librec.similarity.PCCSimilarity;
+import net.librec.similarity.RecommenderSimilarity;
+
+/**
+ * The item similarities of each SimilarityFunction on synthetic ratings, against LibRec's
+ * implementation of the same function where it has one: CosineSimilarity for cosine,
+ * PCCSimilarity for pearson. LibRec has no Euclidean similarity; MSDSimilarity, the closest
+ * distance-based one, stands in for it. Haversine neighbors are built over {@code items}
+ * random coordinates.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SimilarityBenchmarks {
+
+    @Param("5000")
+    int users;
+
+    @Param("2000")
+    int items;
+
+    @Param("0.01")
+    double density;
+
+    @Param("2.0")
+    double skew;
+
+    @Param("50")
+    int knn;
+
+    @Param({"cosine", "pearson", "euclidean"})
+    String function;
+
+    private Path dir;
+    private DataModel dataModel;
+    private GeoNeighbors coordinates;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("similarity-bench");
+        SyntheticData data = new SyntheticData(users, items, density, skew, 42L);
+        Properties props = data.properties(dir, dir);
+        props.setProperty("rec.knn", Integer.toString(knn));
+        props.setProperty("rec.similarity.function", function);
+        Configuration conf = RecommenderSession.prepareLibRecConfiguration(dir, props);
+        dataModel = new InMemoryDataModel(conf, data.ratings());
+        dataModel.buildDataModel();
+
+        SplittableRandom random = new SplittableRandom(42L);
+        GeoNeighbors.Builder builder = new GeoNeighbors.Builder();
+        for (int i = 0; i < items; i++) {
+            builder.latitude(i, Math.toDegrees(Math.asin(random.nextDouble(-1.0, 1.0))));
+            builder.longitude(i, random.nextDouble(-180.0, 180.0));
+        }
+        coordinates = builder.build(items);
+        pool = SimilarityEngine.newPool(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        BenchmarkRunner.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public NeighborIndex buildParallel() {
+        ParallelItemSimilarity similarity = new ParallelItemSimilarity();
+        similarity.setPool(pool);
+        similarity.buildSimilarityMatrix(dataModel);
+        return similarity.getNeighborIndex();
+    }
+
+    @Benchmark
+    public Object buildLibrec() {
+        RecommenderSimilarity similarity;
+        switch (SimilarityFunction.parse(function)) {
+            case PEARSON:
+                similarity = new PCCSimilarity();
+                break;
+            case EUCLIDEAN:
+                similarity = new MSDSimilarity();
+                break;
+            default:
+                similarity = new CosineSimilarity();
+        }
+        similarity.buildSimilarityMatrix(dataModel);
+        return similarity.getSimilarityMatrix();
+    }
+
+    @Benchmark
+    public NeighborIndex buildHaversine() {
+        return coordinates.neighborIndex(knn, pool);
+    }
+}
@@ -0,0 +1,263 @@
+package genericRecommenderSystem;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+
+/**
+ * Synthetic ratings of a given size and sparsity, and the matching model files: a Movies
+ * domain model (viewers and movies) and a recommendersystemGeneric model whose UserItemMatrix
+ * references them, like the bundled Models_Examples.
+ *
+ * Users {@code u0..} each rate about {@code density * items} distinct items (at least one),
+ * with values 1-5. Item popularity is skewed: an item is drawn as {@code items * r^skew} for
+ * a uniform r, so skew 1 is uniform and larger values favor the low ids. With
+ * {@code clusters} groups, the items are split into that many ranges, drawn with the same
+ * skew, and 80% of a user's draws rate each item of a drawn range with probability 0.8,
+ * which gives items real neighbors. The same parameters and seed always give the same
+ * ratings in the same order.
+ *
+ * Usage: SyntheticData &lt;dir&gt; [users] [items] [density] [skew] writes the models and a
+ * bench.properties for Main into dir.
+ */
+public final class SyntheticData {
+
+    static final String DOMAIN_FILE = "Domain.model";
+    static final String RECOMMENDER_FILE = "Recommender.model";
+
+    final int numUsers;
+    final int numItems;
+    final double density;
+    final double skew;
+    final long seed;
+    final int clusters;
+
+    private RatingEncoder ratings;
+
+    public SyntheticData(int numUsers, int numItems, double density, double skew, long seed) {
+        this(numUsers, numItems, density, skew, 0, seed);
+    }
+
+    public SyntheticData(int numUsers, int numItems, double density, double skew, int clusters, long seed) {
+        if (numUsers <= 0 || numItems <= 0 || density <= 0.0 || density > 1.0 || skew < 1.0
+                || clusters < 0 || clusters > numItems) {
+            throw new IllegalArgumentException(
+                    "Need users > 0, items > 0, 0 < density <= 1, skew >= 1 and 0 <= clusters <= items");
+        }
+        this.numUsers = numUsers;
+        this.numItems = numItems;
+        this.density = density;
+        this.skew = skew;
+        this.seed = seed;
+        this.clusters = clusters;
+    }
+
+    /**
+     * The ratings, encoded once and shared; users and items are interned in id order.
+     */
+    public synchronized RatingEncoder ratings() {
+        if (ratings == null) {
+            SplittableRandom random = new SplittableRandom(seed);
+            double perUser = density * numItems;
+            RatingEncoder encoder = new RatingEncoder((int) Math.min(Integer.MAX_VALUE - 8, perUser * numUsers));
+            for (int u = 0; u < numUsers; u++) encoder.internUser(userId(u));
+            for (int i = 0; i < numItems; i++) encoder.internItem(itemId(i));
+            IntOpenHashSet rated = new IntOpenHashSet();
+            for (int u = 0; u < numUsers; u++) {
+                // Between half and one and a half times the mean, never more than the catalog allows
+                int count = (int) Math.max(1, Math.min(numItems * 0.9, Math.round(perUser * (0.5 + random.nextDouble()))));
+                rated.clear();
+                while (rated.size() < count) {
+                    // Without clusters no extra number is drawn, so the ratings stay as they were
+                    if (clusters > 0 && random.nextDouble() < 0.8) {
+                        int group = (int) (clusters * Math.pow(random.nextDouble(), skew));
+                        long to = (long) numItems * (group + 1) / clusters;
+                        for (long item = (long) numItems * group / clusters; item < to && rated.size() < count; item++) {
+                            if (random.nextDouble() < 0.8 && rated.add((int) item)) {
+                                encoder.add(userId(u), itemId((int) item), 1 + random.nextInt(5));
+                            }
+                        }
+                        continue;
+                    }
+                    int item = (int) (numItems * Math.pow(random.nextDouble(), skew));
+                    if (rated.add(item)) {
+                        encoder.add(userId(u), itemId(item), 1 + random.nextInt(5));
+                    }
+                }
+            }
+            ratings = encoder;
+        }
+        return ratings;
+    }
+
+    /**
+     * The ratings in the shape the EOL script used to return them.
+     */
+    public List<Map<String, Object>> ratingsList() {
+        RatingEncoder encoder = ratings();
+        List<Map<String, Object>> list = new ArrayList<>(encoder.size());
+        for (int k = 0; k < encoder.size(); k++) {
+            Map<String, Object> row = new HashMap<>(4);
+            row.put("userId", encoder.getUserId(encoder.getUsers()[k]));
+            row.put("itemId", encoder.getItemId(encoder.getItems()[k]));
+            row.put("rating", encoder.getValues()[k]);
+            list.add(row);
+        }
+        return list;
+    }
+
+    static String userId(int u) {
+        return "u" + u;
+    }
+
+    static String itemId(int i) {
+        return "i" + i;
+    }
+
+    /**
+     * Writes Domain.model and Recommender.model into {@code dir}.
+     */
+    public void writeModels(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        RatingEncoder encoder = ratings();
+        try (BufferedWriter out = Files.newBufferedWriter(dir.resolve(DOMAIN_FILE), StandardCharsets.UTF_8)) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            out.write("<movies:MovieDatabase xmi:version=\"2.0\" xmlns:xmi=\"http://www.omg.org/XMI\""
+                    + " xmlns:movies=\"http://movies/1.0\" xmi:id=\"db\" name=\"Synthetic\">\n");
+            for (int i = 0; i < numItems; i++) {
+                out.write("  <movies xmi:id=\"m" + i + "\" itemId=\"" + itemId(i) + "\" name=\"Movie " + i
+                        + "\" year=\"" + (1950 + i % 70) + "\"/>\n");
+            }
+            for (int u = 0; u < numUsers; u++) {
+                out.write("  <persons xmi:id=\"v" + u + "\" userId=\"" + userId(u) + "\" name=\"Viewer " + u + "\"/>\n");
+            }
+            out.write("</movies:MovieDatabase>\n");
+        }
+        int[] users = encoder.getUsers();
+        int[] items = encoder.getItems();
+        double[] values = encoder.getValues();
+        try (BufferedWriter out = Files.newBufferedWriter(dir.resolve(RECOMMENDER_FILE), StandardCharsets.UTF_8)) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            out.write("<org.rs:Algorithm xmi:version=\"2.0\" xmlns:xmi=\"http://www.omg.org/XMI\""
+                    + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns:movies=\"http://movies/1.0\""
+                    + " xmlns:org.rs=\"http://org.rs\">\n");
+            out.write("  <filteringRS xsi:type=\"org.rs:CollaborativeFiltering\" _name=\"SyntheticCF\">\n");
+            out.write("    <data>\n");
+            // Ratings were interned in id order, so index k is user/item k
+            for (int k = 0; k < encoder.size(); k++) {
+                out.write("      <rows value=\"" + values[k] + "\">\n");
+                out.write("        <_user href=\"" + DOMAIN_FILE + "#v" + users[k] + "\"/>\n");
+                out.write("        <_item xsi:type=\"movies:Movie\" href=\"" + DOMAIN_FILE + "#m" + items[k] + "\"/>\n");
+                out.write("      </rows>\n");
+            }
+            out.write("    </data>\n");
+            out.write("  </filteringRS>\n");
+            out.write("</org.rs:Algorithm>\n");
+        }
+    }
+
+    /**
+     * Writes Domain.model and the ratings split into {@code shards} recommender models,
+     * Recommender-000.model and on, user {@code u}'s ratings in shard {@code u % shards}, as
+     * for a split by region. Returns the shard files.
+     */
+    public List<Path> writeShards(Path dir, int shards) throws IOException {
+        writeModels(dir);
+        RatingEncoder encoder = ratings();
+        int[] users = encoder.getUsers();
+        int[] items = encoder.getItems();
+        double[] values = encoder.getValues();
+        List<Path> files = new ArrayList<>(shards);
+        for (int s = 0; s < shards; s++) {
+            Path file = dir.resolve(String.format("Recommender-%03d.model", s));
+            try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+                out.write("<org.rs:Algorithm xmi:version=\"2.0\" xmlns:xmi=\"http://www.omg.org/XMI\""
+                        + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns:movies=\"http://movies/1.0\""
+                        + " xmlns:org.rs=\"http://org.rs\">\n");
+                out.write("  <filteringRS xsi:type=\"org.rs:CollaborativeFiltering\" _name=\"SyntheticCF\">\n");
+                out.write("    <data>\n");
+                for (int k = 0; k < encoder.size(); k++) {
+                    if (users[k] % shards != s) continue;
+                    out.write("      <rows value=\"" + values[k] + "\">\n");
+                    out.write("        <_user href=\"" + DOMAIN_FILE + "#v" + users[k] + "\"/>\n");
+                    out.write("        <_item xsi:type=\"movies:Movie\" href=\"" + DOMAIN_FILE + "#m" + items[k] + "\"/>\n");
+                    out.write("      </rows>\n");
+                }
+                out.write("    </data>\n");
+                out.write("  </filteringRS>\n");
+                out.write("</org.rs:Algorithm>\n");
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * A Main configuration for the models in {@code dir}, with the metamodels and EOL script
+     * taken from {@code modelsDir} (the project's src/main/Models).
+     */
+    public Properties properties(Path dir, Path modelsDir) {
+        Properties props = new Properties();
+        props.setProperty("metamodels.to.register", "recommender,domain");
+        props.setProperty("metamodel.recommender.path", modelsDir.resolve("recommendersystemGeneric.ecore").toString());
+        props.setProperty("metamodel.domain.path", modelsDir.resolve("Metamodels_Examples/Movies.ecore").toString());
+        props.setProperty("models.to.load", "recommender_instance,domain_instance");
+        props.setProperty("model.recommender_instance.name", "Recommender");
+        props.setProperty("model.recommender_instance.path", dir.resolve(RECOMMENDER_FILE).toString());
+        props.setProperty("model.recommender_instance.metamodel_uri", "http://org.rs");
+        props.setProperty("model.domain_instance.name", "Domain");
+        props.setProperty("model.domain_instance.path", dir.resolve(DOMAIN_FILE).toString());
+        props.setProperty("model.domain_instance.metamodel_uri", "http://movies/1.0");
+        props.setProperty("eol.script", modelsDir.resolve("EOL_scripts/dataExtraction.eol").toString());
+        props.setProperty("output.tmp", dir.resolve("tmp").toString());
+        props.setProperty("model.cache.enabled", "false");
+        return props;
+    }
+
+    /**
+     * The project's src/main/Models: bench.models.dir if set, else looked up from the working directory.
+     */
+    static Path modelsDir() {
+        String configured = System.getProperty("bench.models.dir");
+        if (configured != null) return Paths.get(configured).toAbsolutePath();
+        for (Path dir = Paths.get("").toAbsolutePath(); dir != null; dir = dir.getParent()) {
+            Path candidate = dir.resolve("src/main/Models");
+            if (Files.isRegularFile(candidate.resolve("recommendersystemGeneric.ecore"))) return candidate;
+        }
+        throw new IllegalStateException("src/main/Models not found; set -Dbench.models.dir");
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: SyntheticData <dir> [users] [items] [density] [skew]");
+            return;
+        }
+        Path dir = Paths.get(args[0]).toAbsolutePath();
+        SyntheticData data = new SyntheticData(
+                args.length > 1 ? Integer.parseInt(args[1]) : 10000,
+                args.length > 2 ? Integer.parseInt(args[2]) : 2000,
+                args.length > 3 ? Double.parseDouble(args[3]) : 0.01,
+                args.length > 4 ? Double.parseDouble(args[4]) : 2.0,
+                42L);
+        data.writeModels(dir);
+        Properties props = data.properties(dir, modelsDir());
+        try (OutputStream out = Files.newOutputStream(dir.resolve("bench.properties"))) {
+            props.store(out, "Synthetic models for genericRecommenderSystem.Main");
+        }
+        System.out.printf("Wrote %d ratings of %d users and %d items to %s%n",
+                data.ratings().size(), data.numUsers, data.numItems, dir);
+    }
+}
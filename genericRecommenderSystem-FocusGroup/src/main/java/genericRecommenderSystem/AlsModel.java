@@ -0,0 +1,435 @@
+package genericRecommenderSystem;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
+
+/**
+ * Matrix factorization by alternating least squares: every user and item gets a vector of
+ * {@code factors} latent factors, and a user's score for an item is the dot product of the
+ * two. Each iteration solves all the user vectors with the item vectors fixed, then the
+ * reverse; every vector is an independent {@code factors x factors} least-squares problem,
+ * solved by Cholesky on the worker that owns its block.
+ *
+ * Explicit feedback fits the ratings themselves, with the regularization of each vector
+ * scaled by its number of ratings (ALS-WR). Implicit feedback (Hu, Koren and Volinsky)
+ * fits a preference of 1 for every rated pair and 0 for every other, with a confidence of
+ * {@code 1 + alpha * rating}; the Gram matrix of the fixed side is computed once per half
+ * iteration so that the unrated pairs cost nothing.
+ *
+ * Ranking is independent of how dense the ratings are: the items are scored in tiles small
+ * enough to stay in cache while a block of users is scored against them, and rated items
+ * and items outside the user's {@link RuleFilter} mask are skipped as in {@link TopNRanker}.
+ *
+ * The factors are kept in flat {@code float[]} arrays, {@code factors} per row.
+ */
+class AlsModel {
+
+    static final int BLOCK_SIZE = 64;
+    // Items per tile of the ranking kernel: 256 items of 64 factors take 64 KB
+    static final int TILE_SIZE = 256;
+
+    private final int numUsers;
+    private final int numItems;
+    private final int factors;
+    private final float[] userFactors;
+    private final float[] itemFactors;
+    // Train ratings by user and by item
+    private final int[] userPtr;
+    private final int[] userItems;
+    private final float[] userValues;
+    private final int[] itemPtr;
+    private final int[] itemUsers;
+    private final float[] itemValues;
+
+    private AlsModel(SequentialAccessSparseMatrix trainMatrix, int factors) {
+        this.numUsers = trainMatrix.rowSize();
+        this.numItems = trainMatrix.columnSize();
+        this.factors = factors;
+        this.userFactors = new float[numUsers * factors];
+        this.itemFactors = new float[numItems * factors];
+
+        userPtr = new int[numUsers + 1];
+        itemPtr = new int[numItems + 1];
+        for (int u = 0; u < numUsers; u++) {
+            SequentialSparseVector row = trainMatrix.row(u);
+            userPtr[u + 1] = userPtr[u] + row.getNumEntries();
+            for (int p = 0, n = row.getNumEntries(); p < n; p++) itemPtr[row.getIndexAtPosition(p) + 1]++;
+        }
+        for (int i = 0; i < numItems; i++) itemPtr[i + 1] += itemPtr[i];
+        int numRatings = userPtr[numUsers];
+        userItems = new int[numRatings];
+        userValues = new float[numRatings];
+        itemUsers = new int[numRatings];
+        itemValues = new float[numRatings];
+        int[] fill = new int[numItems];
+        System.arraycopy(itemPtr, 0, fill, 0, numItems);
+        for (int u = 0; u < numUsers; u++) {
+            SequentialSparseVector row = trainMatrix.row(u);
+            for (int p = 0, n = row.getNumEntries(); p < n; p++) {
+                int i = row.getIndexAtPosition(p);
+                float value = (float) row.getAtPosition(p);
+                userItems[userPtr[u] + p] = i;
+                userValues[userPtr[u] + p] = value;
+                itemUsers[fill[i]] = u;
+                itemValues[fill[i]++] = value;
+            }
+        }
+    }
+
+    /**
+     * Factorizes {@code trainMatrix} (users by items) in {@code iterations} alternations.
+     * {@code seed} fixes the initial item factors, so that the same ratings and settings
+     * always give the same model whatever the pool size.
+     */
+    static AlsModel train(SequentialAccessSparseMatrix trainMatrix, int factors, int iterations, double lambda,
+            boolean implicit, double alpha, long seed, ForkJoinPool pool) {
+        if (factors < 1 || iterations < 0 || lambda < 0.0 || alpha < 0.0) {
+            throw new IllegalArgumentException("ALS needs factors >= 1, iterations >= 0, lambda >= 0 and alpha >= 0");
+        }
+        AlsModel model = new AlsModel(trainMatrix, factors);
+        SplittableRandom random = new SplittableRandom(seed);
+        double scale = 1.0 / Math.sqrt(factors);
+        for (int p = 0; p < model.itemFactors.length; p++) model.itemFactors[p] = (float) (random.nextDouble() * scale);
+        for (int it = 0; it < iterations; it++) {
+            model.solve(model.userFactors, model.numUsers, model.userPtr, model.userItems, model.userValues,
+                    model.itemFactors, model.numItems, lambda, implicit, alpha, pool);
+            model.solve(model.itemFactors, model.numItems, model.itemPtr, model.itemUsers, model.itemValues,
+                    model.userFactors, model.numUsers, lambda, implicit, alpha, pool);
+        }
+        return model;
+    }
+
+    int numUsers() {
+        return numUsers;
+    }
+
+    int numItems() {
+        return numItems;
+    }
+
+    int factors() {
+        return factors;
+    }
+
+    /** Root mean squared error of the model on the train ratings. */
+    double trainRmse() {
+        double sum = 0.0;
+        for (int u = 0; u < numUsers; u++) {
+            for (int p = userPtr[u]; p < userPtr[u + 1]; p++) {
+                double error = userValues[p] - dot(userFactors, u * factors, itemFactors, userItems[p] * factors, factors);
+                sum += error * error;
+            }
+        }
+        return userPtr[numUsers] == 0 ? 0.0 : Math.sqrt(sum / userPtr[numUsers]);
+    }
+
+    /** Size of the factors, in bytes. */
+    long sizeInBytes() {
+        return 4L * (userFactors.length + itemFactors.length);
+    }
+
+    // Solves every row of target with fixed held constant; ptr/index/values are target's ratings
+    private void solve(float[] target, int numTarget, int[] ptr, int[] index, float[] values, float[] fixed,
+            int numFixed, double lambda, boolean implicit, double alpha, ForkJoinPool pool) {
+        int numBlocks = (numTarget + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (numBlocks == 0) return;
+        double[] gram = implicit ? pool.invoke(new GramTask(fixed, 0, numFixed)) : null;
+        HalfStep step = new HalfStep(target, numTarget, ptr, index, values, fixed, gram, lambda, implicit, alpha);
+        pool.invoke(new SolveTask(step, ThreadLocal.withInitial(Solver::new), 0, numBlocks));
+    }
+
+    private static final class HalfStep {
+        final float[] target;
+        final int numTarget;
+        final int[] ptr;
+        final int[] index;
+        final float[] values;
+        final float[] fixed;
+        final double[] gram;
+        final double lambda;
+        final boolean implicit;
+        final double alpha;
+
+        HalfStep(float[] target, int numTarget, int[] ptr, int[] index, float[] values, float[] fixed, double[] gram,
+                double lambda, boolean implicit, double alpha) {
+            this.target = target;
+            this.numTarget = numTarget;
+            this.ptr = ptr;
+            this.index = index;
+            this.values = values;
+            this.fixed = fixed;
+            this.gram = gram;
+            this.lambda = lambda;
+            this.implicit = implicit;
+            this.alpha = alpha;
+        }
+    }
+
+    private final class SolveTask extends RecursiveAction {
+        private final HalfStep step;
+        private final ThreadLocal<Solver> solvers;
+        private final int fromBlock, toBlock;
+
+        SolveTask(HalfStep step, ThreadLocal<Solver> solvers, int fromBlock, int toBlock) {
+            this.step = step;
+            this.solvers = solvers;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+        }
+
+        @Override
+        protected void compute() {
+            if (toBlock - fromBlock > 1) {
+                int mid = (fromBlock + toBlock) >>> 1;
+                invokeAll(new SolveTask(step, solvers, fromBlock, mid), new SolveTask(step, solvers, mid, toBlock));
+                return;
+            }
+            Solver s = solvers.get();
+            int to = Math.min((fromBlock + 1) * BLOCK_SIZE, step.numTarget);
+            for (int row = fromBlock * BLOCK_SIZE; row < to; row++) s.solveRow(step, row);
+        }
+    }
+
+    private final class Solver {
+        // Lower triangle of the normal equations, then of their Cholesky factor
+        final double[] a = new double[factors * factors];
+        final double[] b = new double[factors];
+
+        void solveRow(HalfStep step, int row) {
+            int f = factors;
+            float[] target = step.target;
+            float[] fixed = step.fixed;
+            int[] ptr = step.ptr;
+            boolean implicit = step.implicit;
+            double alpha = step.alpha;
+            int from = ptr[row], to = ptr[row + 1];
+            int offset = row * f;
+            if (from == to) {
+                // Nothing to fit: a vector of zeros scores 0 against everything
+                for (int k = 0; k < f; k++) target[offset + k] = 0f;
+                return;
+            }
+            if (implicit) {
+                System.arraycopy(step.gram, 0, a, 0, f * f);
+            } else {
+                Arrays.fill(a, 0.0);
+            }
+            Arrays.fill(b, 0.0);
+            for (int p = from; p < to; p++) {
+                int y = step.index[p] * f;
+                double value = step.values[p];
+                double weight, rhs;
+                if (implicit) {
+                    // Pairs rated 0 or less have preference 0 and confidence 1, as the unrated ones
+                    if (value <= 0.0) continue;
+                    weight = alpha * value;
+                    rhs = 1.0 + alpha * value;
+                } else {
+                    weight = 1.0;
+                    rhs = value;
+                }
+                for (int r = 0; r < f; r++) {
+                    double wy = weight * fixed[y + r];
+                    int base = r * f;
+                    for (int c = 0; c <= r; c++) a[base + c] += wy * fixed[y + c];
+                    b[r] += rhs * fixed[y + r];
+                }
+            }
+            double reg = implicit ? step.lambda : step.lambda * (to - from);
+            for (int r = 0; r < f; r++) a[r * f + r] += reg;
+            if (!cholesky(a, f)) {
+                for (int k = 0; k < f; k++) target[offset + k] = 0f;
+                return;
+            }
+            solveCholesky(a, b, f);
+            for (int k = 0; k < f; k++) target[offset + k] = (float) b[k];
+        }
+    }
+
+    // In place on the lower triangle; false when a is not positive definite
+    private static boolean cholesky(double[] a, int n) {
+        for (int j = 0; j < n; j++) {
+            int rowJ = j * n;
+            double d = a[rowJ + j];
+            for (int k = 0; k < j; k++) d -= a[rowJ + k] * a[rowJ + k];
+            if (!(d > 0.0)) return false;
+            double l = Math.sqrt(d);
+            a[rowJ + j] = l;
+            for (int i = j + 1; i < n; i++) {
+                int rowI = i * n;
+                double s = a[rowI + j];
+                for (int k = 0; k < j; k++) s -= a[rowI + k] * a[rowJ + k];
+                a[rowI + j] = s / l;
+            }
+        }
+        return true;
+    }
+
+    // Solves L L^T x = b in place
+    private static void solveCholesky(double[] l, double[] b, int n) {
+        for (int i = 0; i < n; i++) {
+            double s = b[i];
+            for (int k = 0; k < i; k++) s -= l[i * n + k] * b[k];
+            b[i] = s / l[i * n + i];
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            double s = b[i];
+            for (int k = i + 1; k < n; k++) s -= l[k * n + i] * b[k];
+            b[i] = s / l[i * n + i];
+        }
+    }
+
+    // Lower triangle of the Gram matrix of rows [from, to) of vectors
+    private final class GramTask extends RecursiveTask<double[]> {
+        private final float[] vectors;
+        private final int from, to;
+
+        GramTask(float[] vectors, int from, int to) {
+            this.vectors = vectors;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected double[] compute() {
+            int f = factors;
+            if (to - from > BLOCK_SIZE * 16) {
+                int mid = (from + to) >>> 1;
+                GramTask right = new GramTask(vectors, mid, to);
+                right.fork();
+                double[] gram = new GramTask(vectors, from, mid).compute();
+                double[] other = right.join();
+                for (int p = 0; p < gram.length; p++) gram[p] += other[p];
+                return gram;
+            }
+            double[] gram = new double[f * f];
+            for (int v = from; v < to; v++) {
+                int y = v * f;
+                for (int r = 0; r < f; r++) {
+                    double yr = vectors[y + r];
+                    int base = r * f;
+                    for (int c = 0; c <= r; c++) gram[base + c] += yr * vectors[y + c];
+                }
+            }
+            return gram;
+        }
+    }
+
+    static float dot(float[] x, int xOffset, float[] y, int yOffset, int n) {
+        // Four independent sums, so that the additions pipeline
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int k = 0;
+        for (; k + 3 < n; k += 4) {
+            s0 += x[xOffset + k] * y[yOffset + k];
+            s1 += x[xOffset + k + 1] * y[yOffset + k + 1];
+            s2 += x[xOffset + k + 2] * y[yOffset + k + 2];
+            s3 += x[xOffset + k + 3] * y[yOffset + k + 3];
+        }
+        for (; k < n; k++) s0 += x[xOffset + k] * y[yOffset + k];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /** The predicted score of {@code item} for {@code user}. */
+    float score(int user, int item) {
+        return dot(userFactors, user * factors, itemFactors, item * factors, factors);
+    }
+
+    RankedResults rank(int topN, ForkJoinPool pool) {
+        return rank(topN, null, pool);
+    }
+
+    /**
+     * The best {@code topN} unrated items of every user, best first; with {@code rules},
+     * only the items of the user's mask, boosted items scaled.
+     */
+    RankedResults rank(int topN, RuleFilter rules, ForkJoinPool pool) {
+        RankedResults results = new RankedResults(numUsers, topN);
+        int numBlocks = (numUsers + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        ThreadLocal<RankScratch> scratch = ThreadLocal.withInitial(() -> new RankScratch(topN));
+        if (numBlocks > 0) pool.invoke(new RankTask(results, rules, scratch, 0, numBlocks));
+        return results;
+    }
+
+    private static final class RankScratch {
+        final TopKHeap[] heaps = new TopKHeap[BLOCK_SIZE];
+        // Per user of the block: position of the next rated item not yet passed
+        final int[] cursors = new int[BLOCK_SIZE];
+        final long[][] masks = new long[BLOCK_SIZE][];
+        final long[][] boosts = new long[BLOCK_SIZE][];
+
+        RankScratch(int topN) {
+            for (int k = 0; k < BLOCK_SIZE; k++) heaps[k] = new TopKHeap(topN);
+        }
+    }
+
+    private void rankBlock(int block, RankScratch s, RuleFilter rules, RankedResults results) {
+        int from = block * BLOCK_SIZE, to = Math.min(from + BLOCK_SIZE, numUsers);
+        int f = factors;
+        for (int u = from; u < to; u++) {
+            s.heaps[u - from].clear();
+            s.cursors[u - from] = userPtr[u];
+            s.masks[u - from] = rules == null ? null : rules.mask(u);
+            s.boosts[u - from] = rules == null ? null : rules.boost(u);
+        }
+        // Each tile of item factors is read from memory once per block of users
+        for (int tile = 0; tile < numItems; tile += TILE_SIZE) {
+            int tileEnd = Math.min(tile + TILE_SIZE, numItems);
+            for (int u = from; u < to; u++) {
+                int k = u - from;
+                TopKHeap heap = s.heaps[k];
+                long[] mask = s.masks[k];
+                long[] boost = s.boosts[k];
+                int cursor = s.cursors[k];
+                int end = userPtr[u + 1];
+                int x = u * f;
+                for (int i = tile; i < tileEnd; i++) {
+                    // The rated items are sorted, so one cursor per user passes them all
+                    if (cursor < end && userItems[cursor] == i) {
+                        cursor++;
+                        continue;
+                    }
+                    if (mask != null && !RuleFilter.contains(mask, i)) continue;
+                    double score = dot(userFactors, x, itemFactors, i * f, f);
+                    if (boost != null && RuleFilter.contains(boost, i)) score *= rules.boostFactor();
+                    heap.offer(i, score);
+                }
+                s.cursors[k] = cursor;
+            }
+        }
+        for (int u = from; u < to; u++) {
+            results.set(u, s.heaps[u - from].drainDescending(results.items(), results.scores(), u * results.topN()));
+        }
+    }
+
+    private final class RankTask extends RecursiveAction {
+        private final RankedResults results;
+        private final RuleFilter rules;
+        private final ThreadLocal<RankScratch> scratch;
+        private final int fromBlock, toBlock;
+
+        RankTask(RankedResults results, RuleFilter rules, ThreadLocal<RankScratch> scratch, int fromBlock, int toBlock) {
+            this.results = results;
+            this.rules = rules;
+            this.scratch = scratch;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+        }
+
+        @Override
+        protected void compute() {
+            if (toBlock - fromBlock > 1) {
+                int mid = (fromBlock + toBlock) >>> 1;
+                invokeAll(new RankTask(results, rules, scratch, fromBlock, mid),
+                        new RankTask(results, rules, scratch, mid, toBlock));
+                return;
+            }
+            rankBlock(fromBlock, scratch.get(), rules, results);
+        }
+    }
+}
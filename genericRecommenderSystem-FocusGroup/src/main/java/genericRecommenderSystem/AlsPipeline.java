@@ -0,0 +1,78 @@
+package genericRecommenderSystem;
+
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+
+/**
+ * The ALS run of a {@link RecommenderSession} (rec.recommender=als): recommends from an
+ * {@link AlsModel} factorization of the train ratings (rec.als.feedback, explicit or implicit;
+ * rec.als.factors, .iterations, .lambda and .alpha), trained on rec.similarity.threads
+ * workers. Nothing is cached.
+ */
+final class AlsPipeline {
+
+    // Fixed, so that the same ratings and settings always give the same ALS model
+    static final long ALS_SEED = 42L;
+
+    private final RecommenderSession session;
+
+    AlsPipeline(RecommenderSession session) {
+        this.session = session;
+    }
+
+    RecommenderSession.Result run(RatingEncoder ratings, RuleFilter rules, Configuration conf, PipelineMetrics metrics)
+            throws LibrecException {
+        String feedback = session.property("rec.als.feedback", "implicit").trim().toLowerCase(Locale.ROOT);
+        if (!"explicit".equals(feedback) && !"implicit".equals(feedback)) {
+            throw new IllegalArgumentException("rec.als.feedback must be explicit or implicit, not " + feedback);
+        }
+        boolean implicit = "implicit".equals(feedback);
+        int factors = Integer.parseInt(session.property("rec.als.factors", "32"));
+        int iterations = Integer.parseInt(session.property("rec.als.iterations", "10"));
+        double lambda = Double.parseDouble(session.property("rec.als.lambda", "0.1"));
+        double alpha = Double.parseDouble(session.property("rec.als.alpha", "10"));
+
+        DataModel dataModel = session.buildDataModel(conf, ratings, metrics);
+        SequentialAccessSparseMatrix trainMatrix = (SequentialAccessSparseMatrix) dataModel.getTrainDataSet();
+        AlsModel model;
+        try (PipelineMetrics.Stage stage = metrics.stage("train")) {
+            long start = System.nanoTime();
+            ForkJoinPool stagePool = session.acquirePool(conf.getInt("rec.similarity.threads", 0));
+            try {
+                model = AlsModel.train(trainMatrix, factors, iterations, lambda, implicit, alpha, ALS_SEED, stagePool);
+            } finally {
+                session.releasePool(stagePool);
+            }
+            // The implicit model fits preferences, not the rating values the RMSE is measured on
+            session.out().printf("ALS (%s, %d factors, %d iterations, lambda %s) trained in %.1f ms, %s%d bytes of factors%n",
+                    feedback, factors, iterations, lambda, (System.nanoTime() - start) / 1e6,
+                    implicit ? "alpha " + alpha + ", " : String.format("train RMSE %.4f, ", model.trainRmse()),
+                    model.sizeInBytes());
+            stage.users(model.numUsers()).items(model.numItems()).ratings(trainMatrix.size());
+        }
+        RankedResults results;
+        try (PipelineMetrics.Stage stage = metrics.stage("rank")) {
+            results = rank(model, rules, conf);
+            stage.users(results.numUsers()).items(model.numItems());
+        }
+        return session.finish(results, dataModel, conf, metrics);
+    }
+
+    private RankedResults rank(AlsModel model, RuleFilter rules, Configuration conf) {
+        long start = System.nanoTime();
+        ForkJoinPool stagePool = session.acquirePool(conf.getInt("rec.ranking.threads", 0));
+        try {
+            RankedResults results = model.rank(conf.getInt("rec.recommender.ranking.topn", 10), rules, stagePool);
+            session.out().printf("Ranked top-%d for %d users in %.1f ms%n", results.topN(), results.numUsers(),
+                    (System.nanoTime() - start) / 1e6);
+            return results;
+        } finally {
+            session.releasePool(stagePool);
+        }
+    }
+}
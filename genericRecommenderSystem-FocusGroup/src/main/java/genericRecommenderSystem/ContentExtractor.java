@@ -0,0 +1,136 @@
+package genericRecommenderSystem;
+
+import java.util.List;
+
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EEnumLiteral;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+
+/**
+ * Reads what content-based filtering needs from the loaded models: the features of every
+ * Item and the preferences of every ContentBasedPreference. A feature is
+ * {@code name=value} for each value of a set attribute or non-containment reference, so
+ * {@code Movie.year} gives {@code year=1994} and {@code Item.tags} gives {@code tags=noir};
+ * a referenced object stands for its id, or its URI fragment (the xmi:id) when it has none.
+ * Preferences are read with the same rule, so a domain Preference subclass matches the
+ * items whose features have the same names and values. The features of an item's
+ * wrappedModel count as the item's own.
+ */
+class ContentExtractor {
+
+    /**
+     * Receives the features of items and the preferred features of users.
+     */
+    interface Sink {
+        void itemFeature(String itemId, String feature);
+
+        void userPreference(String userId, String feature);
+    }
+
+    private final EClass itemClass;
+    private final EClass preferenceClass;
+    private final EAttribute itemId;
+    private final EAttribute userId;
+    private final EReference wrappedModel;
+    private final EReference preferenceUser;
+    private final EReference prefs;
+
+    private ContentExtractor(EPackage recommender) {
+        itemClass = (EClass) recommender.getEClassifier("Item");
+        preferenceClass = (EClass) recommender.getEClassifier("ContentBasedPreference");
+        itemId = (EAttribute) itemClass.getEStructuralFeature("itemId");
+        userId = (EAttribute) ((EClass) recommender.getEClassifier("User")).getEStructuralFeature("userId");
+        wrappedModel = (EReference) itemClass.getEStructuralFeature("wrappedModel");
+        preferenceUser = (EReference) preferenceClass.getEStructuralFeature("_user");
+        prefs = (EReference) preferenceClass.getEStructuralFeature("_prefs");
+    }
+
+    /**
+     * An extractor for models of {@code recommender}, or null if it is not the recommender metamodel.
+     */
+    static ContentExtractor forPackage(EPackage recommender) {
+        if (recommender == null || !(recommender.getEClassifier("Item") instanceof EClass)
+                || !(recommender.getEClassifier("User") instanceof EClass)
+                || !(recommender.getEClassifier("ContentBasedPreference") instanceof EClass)) {
+            return null;
+        }
+        return new ContentExtractor(recommender);
+    }
+
+    /**
+     * Passes the features of every item and preference in {@code resource} to {@code sink}
+     * and returns the number of objects visited.
+     */
+    @SuppressWarnings("unchecked")
+    int extract(Resource resource, Sink sink) {
+        int visited = 0;
+        for (TreeIterator<EObject> it = resource.getAllContents(); it.hasNext(); ) {
+            EObject eObject = it.next();
+            EClass eClass = eObject.eClass();
+            if (itemClass.isSuperTypeOf(eClass)) {
+                Object id = eObject.eGet(itemId);
+                if (id == null) continue;
+                String item = id.toString();
+                features(eObject, feature -> sink.itemFeature(item, feature));
+                EObject wrapped = (EObject) eObject.eGet(wrappedModel);
+                if (wrapped != null && !wrapped.eIsProxy()) features(wrapped, feature -> sink.itemFeature(item, feature));
+                visited++;
+            } else if (preferenceClass.isSuperTypeOf(eClass)) {
+                EObject user = (EObject) eObject.eGet(preferenceUser);
+                Object id = user == null || user.eIsProxy() ? null : user.eGet(userId);
+                if (id == null) continue;
+                String u = id.toString();
+                for (EObject pref : (List<EObject>) eObject.eGet(prefs)) {
+                    if (!pref.eIsProxy()) features(pref, feature -> sink.userPreference(u, feature));
+                }
+                visited++;
+            }
+        }
+        return visited;
+    }
+
+    private interface FeatureSink {
+        void accept(String feature);
+    }
+
+    private void features(EObject eObject, FeatureSink sink) {
+        for (EStructuralFeature feature : eObject.eClass().getEAllStructuralFeatures()) {
+            if (feature == itemId || feature == wrappedModel || !eObject.eIsSet(feature)) continue;
+            if (feature instanceof EAttribute && ((EAttribute) feature).isID()) continue;
+            if (feature instanceof EReference && (((EReference) feature).isContainment() || ((EReference) feature).isContainer())) {
+                continue;
+            }
+            Object value = eObject.eGet(feature);
+            String prefix = feature.getName() + "=";
+            if (feature.isMany()) {
+                for (Object v : (List<?>) value) {
+                    String key = keyOf(v);
+                    if (key != null) sink.accept(prefix + key);
+                }
+            } else {
+                String key = keyOf(value);
+                if (key != null) sink.accept(prefix + key);
+            }
+        }
+    }
+
+    private static String keyOf(Object value) {
+        if (value instanceof EObject) {
+            EObject target = (EObject) value;
+            if (target.eIsProxy()) return null;
+            String id = EcoreUtil.getID(target);
+            if (id != null) return id;
+            Resource resource = target.eResource();
+            return resource == null ? null : resource.getURIFragment(target);
+        }
+        if (value instanceof EEnumLiteral) return ((EEnumLiteral) value).getName();
+        return value == null ? null : value.toString();
+    }
+}
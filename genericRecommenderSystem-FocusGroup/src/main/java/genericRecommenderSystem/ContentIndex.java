@@ -0,0 +1,398 @@
+package genericRecommenderSystem;
+
+import java.util.Arrays;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * Inverted index from item features (tags and structural features such as
+ * {@code "year=1994"} or {@code "persons=director_nolan"}) to the items that have them.
+ * Features are weighted by their inverse document frequency and items are compared to a
+ * profile by cosine similarity, so the score of item i is
+ * {@code sum(q(f) * idf(f)^2 for the profile's features f that i has) / norm(i)}, up to the
+ * profile's own norm.
+ *
+ * Every posting list is a sorted run of item positions in one shared {@code int[]}, so the
+ * whole index is a handful of flat arrays however many features there are. Positions number
+ * the items by ascending norm: walking the lists in position order visits the items from the
+ * largest possible score to the smallest, which lets a top-N query stop long before the end
+ * of its lists.
+ *
+ * The explicit preferences of users (ContentBasedPreference) are kept alongside, as one
+ * feature list per user in the same dictionary.
+ */
+class ContentIndex {
+
+    private final String[] featureNames;
+    private final Object2IntOpenHashMap<String> featureIds;
+    private final int numItems;
+
+    // feature -> item positions, ascending
+    private final int[] postingPtr;
+    private final int[] postingItems;
+    // item -> features, ascending
+    private final int[] itemPtr;
+    private final int[] itemFeatures;
+    // user -> preferred features, ascending
+    private final int[] preferencePtr;
+    private final int[] preferenceFeatures;
+
+    private final float[] idf;
+    // position <-> item, and 1 / norm of the item at each position (non-increasing)
+    private final int[] itemAt;
+    private final int[] positionOf;
+    private final float[] inverseNorms;
+
+    private ContentIndex(Builder builder, int numItems, int numUsers) {
+        int numFeatures = builder.featureIds.size();
+        this.featureNames = Arrays.copyOf(builder.featureNames, numFeatures);
+        this.featureIds = builder.featureIds;
+        this.numItems = numItems;
+
+        itemPtr = new int[numItems + 1];
+        itemFeatures = group(builder.itemRows, builder.itemColumns, builder.numItemPairs, numItems, itemPtr);
+        preferencePtr = new int[numUsers + 1];
+        preferenceFeatures = group(builder.userRows, builder.userColumns, builder.numUserPairs, numUsers, preferencePtr);
+
+        postingPtr = new int[numFeatures + 1];
+        for (int f : itemFeatures) postingPtr[f + 1]++;
+        for (int f = 0; f < numFeatures; f++) postingPtr[f + 1] += postingPtr[f];
+        idf = new float[numFeatures];
+        for (int f = 0; f < numFeatures; f++) {
+            int df = postingPtr[f + 1] - postingPtr[f];
+            idf[f] = df == 0 ? 0f : (float) Math.log(1.0 + (double) numItems / df);
+        }
+
+        // Items without features have no norm; they match nothing and go last
+        long[] keys = new long[numItems];
+        for (int i = 0; i < numItems; i++) {
+            double sum = 0.0;
+            for (int p = itemPtr[i]; p < itemPtr[i + 1]; p++) {
+                float w = idf[itemFeatures[p]];
+                sum += w * w;
+            }
+            float norm = sum > 0.0 ? (float) Math.sqrt(sum) : Float.MAX_VALUE;
+            keys[i] = (long) Float.floatToIntBits(norm) << 32 | i;
+        }
+        Arrays.sort(keys);
+        itemAt = new int[numItems];
+        positionOf = new int[numItems];
+        inverseNorms = new float[numItems];
+        for (int r = 0; r < numItems; r++) {
+            int i = (int) keys[r];
+            itemAt[r] = i;
+            positionOf[i] = r;
+            float norm = Float.intBitsToFloat((int) (keys[r] >>> 32));
+            inverseNorms[r] = norm == Float.MAX_VALUE ? 0f : 1f / norm;
+        }
+
+        // Filling the lists in position order leaves every one of them sorted
+        postingItems = new int[itemFeatures.length];
+        int[] fill = Arrays.copyOf(postingPtr, numFeatures);
+        for (int r = 0; r < numItems; r++) {
+            int i = itemAt[r];
+            for (int p = itemPtr[i]; p < itemPtr[i + 1]; p++) {
+                postingItems[fill[itemFeatures[p]]++] = r;
+            }
+        }
+    }
+
+    /**
+     * Buckets (row, column) pairs by row into CSR form, each row sorted and without duplicates.
+     */
+    private static int[] group(int[] rows, int[] columns, int n, int numRows, int[] ptr) {
+        long[] keys = new long[n];
+        int[] offsets = InMemoryDataModel.sortRows(numRows, rows, columns, n, keys);
+        int[] out = new int[n];
+        int length = 0;
+        for (int r = 0; r < numRows; r++) {
+            int rowStart = length;
+            for (int p = offsets[r]; p < offsets[r + 1]; p++) {
+                int column = (int) (keys[p] >>> 32);
+                if (length > rowStart && out[length - 1] == column) continue;
+                out[length++] = column;
+            }
+            ptr[r + 1] = length;
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    int numItems() {
+        return numItems;
+    }
+
+    int numFeatures() {
+        return featureNames.length;
+    }
+
+    int numPostings() {
+        return postingItems.length;
+    }
+
+    int numUsers() {
+        return preferencePtr.length - 1;
+    }
+
+    /** Index of a feature, or -1 if no item or preference has it. */
+    int featureOf(String name) {
+        return featureIds.getInt(name);
+    }
+
+    boolean hasPreferences(int userIdx) {
+        return preferencePtr[userIdx + 1] > preferencePtr[userIdx];
+    }
+
+    /** Bytes held by the posting, item and preference lists and the weights. */
+    long sizeInBytes() {
+        return 4L * (postingPtr.length + postingItems.length + itemPtr.length + itemFeatures.length
+                + preferencePtr.length + preferenceFeatures.length + idf.length
+                + itemAt.length + positionOf.length + inverseNorms.length);
+    }
+
+    Scratch newScratch(int topN) {
+        return new Scratch(topN);
+    }
+
+    /**
+     * Per-thread buffers for building and scoring profiles. Stamps mark what belongs to the
+     * current profile, so nothing is cleared or allocated between profiles.
+     */
+    final class Scratch {
+        private final float[] weights = new float[featureNames.length];
+        private final int[] weightStamp = new int[featureNames.length];
+        private final int[] features = new int[featureNames.length];
+        private final int[] excludedStamp = new int[numItems];
+        // The profile's features by ascending q * idf^2, with the running sum of q * idf^2
+        private final long[] order = new long[featureNames.length];
+        private final double[] termWeights = new double[featureNames.length];
+        private final double[] bounds = new double[featureNames.length];
+        private final int[] cursors = new int[featureNames.length];
+        private final int[] ends = new int[featureNames.length];
+        private final TopKHeap heap;
+        private int stamp;
+        private int numFeatures;
+        // Rule mask and boost of the current profile (by item), see RuleFilter
+        private long[] mask;
+        private long[] boost;
+        private double boostFactor = 1.0;
+
+        private Scratch(int topN) {
+            heap = new TopKHeap(topN);
+        }
+
+        /** Starts an empty profile. */
+        void clear() {
+            if (++stamp == 0) {
+                Arrays.fill(weightStamp, 0);
+                Arrays.fill(excludedStamp, 0);
+                stamp = 1;
+            }
+            numFeatures = 0;
+            mask = null;
+            boost = null;
+            boostFactor = 1.0;
+        }
+
+        /**
+         * Ranks only the items in {@code mask} (all when null) and multiplies the scores of
+         * those in {@code boost} by {@code factor}.
+         */
+        void setRules(long[] mask, long[] boost, double factor) {
+            this.mask = mask;
+            this.boost = boost;
+            this.boostFactor = boost == null ? 1.0 : factor;
+        }
+
+        void addFeature(int feature, float weight) {
+            if (weightStamp[feature] != stamp) {
+                weightStamp[feature] = stamp;
+                weights[feature] = 0f;
+                features[numFeatures++] = feature;
+            }
+            weights[feature] += weight;
+        }
+
+        /** Adds every feature of {@code item} with {@code weight}. */
+        void addItem(int item, float weight) {
+            for (int p = itemPtr[item]; p < itemPtr[item + 1]; p++) {
+                addFeature(itemFeatures[p], weight);
+            }
+        }
+
+        /** Adds the explicit preferences of {@code userIdx}, each with {@code weight}. */
+        void addPreferences(int userIdx, float weight) {
+            for (int p = preferencePtr[userIdx]; p < preferencePtr[userIdx + 1]; p++) {
+                addFeature(preferenceFeatures[p], weight);
+            }
+        }
+
+        /** Keeps {@code item} out of this profile's list, e.g. because the user rated it. */
+        void exclude(int item) {
+            excludedStamp[positionOf[item]] = stamp;
+        }
+
+        /**
+         * Writes the items most similar to the profile to {@code outItems/outScores[offset, ...)}
+         * and returns how many there are.
+         *
+         * The lists are merged in position order (MaxScore). At the current item, the features
+         * whose q * idf^2 add up to less than the N-th best score times the item's norm cannot
+         * bring in a new item on their own: they are only searched, by galloping, for the items
+         * the other lists produce, and only while the item can still make the list. As the norm
+         * only grows along the lists, more and more features drop out, and the merge ends when
+         * not even all of them together could beat the N-th best.
+         */
+        int rank(int[] outItems, float[] outScores, int offset) {
+            int n = 0;
+            double profileNorm = 0.0;
+            for (int k = 0; k < numFeatures; k++) {
+                int f = features[k];
+                double q = weights[f] * idf[f];
+                if (q <= 0.0 || postingPtr[f] == postingPtr[f + 1]) continue;
+                profileNorm += q * q;
+                // Non-negative floats order like their bits
+                order[n++] = (long) Float.floatToIntBits((float) (q * idf[f])) << 32 | f;
+            }
+            Arrays.sort(order, 0, n);
+            double sum = 0.0;
+            for (int t = 0; t < n; t++) {
+                int f = (int) order[t];
+                termWeights[t] = (double) weights[f] * idf[f] * idf[f];
+                // Rounded up, so that a bound is never below a score summed in another order
+                sum += termWeights[t] * (1.0 + 0x1p-20);
+                bounds[t] = sum;
+                cursors[t] = postingPtr[f];
+                ends[t] = postingPtr[f + 1];
+            }
+
+            heap.clear();
+            double threshold = heap.threshold();
+            // Bounds must hold for boosted items too
+            double boundScale = Math.max(1.0, boostFactor);
+            int essential = 0;
+            while (essential < n) {
+                int candidate = Integer.MAX_VALUE;
+                for (int t = essential; t < n; t++) {
+                    if (cursors[t] < ends[t]) candidate = Math.min(candidate, postingItems[cursors[t]]);
+                }
+                if (candidate == Integer.MAX_VALUE) break;
+                double matched = 0.0;
+                for (int t = essential; t < n; t++) {
+                    int p = cursors[t];
+                    if (p < ends[t] && postingItems[p] == candidate) {
+                        matched += termWeights[t];
+                        cursors[t] = p + 1;
+                    }
+                }
+                if (excludedStamp[candidate] == stamp) continue;
+                int item = itemAt[candidate];
+                if (mask != null && !RuleFilter.contains(mask, item)) continue;
+                double inverseNorm = inverseNorms[candidate] * boundScale;
+                int t = essential - 1;
+                for (; t >= 0 && (matched + bounds[t]) * inverseNorm >= threshold; t--) {
+                    int p = gallop(cursors[t], ends[t], candidate);
+                    cursors[t] = p;
+                    if (p < ends[t] && postingItems[p] == candidate) matched += termWeights[t];
+                }
+                if (t >= 0) continue;
+                double score = matched * inverseNorms[candidate];
+                if (boost != null && RuleFilter.contains(boost, item)) score *= boostFactor;
+                heap.offer(candidate, score);
+                threshold = heap.threshold();
+                // The items still to come have at most this item's 1 / norm
+                while (essential < n && bounds[essential] * inverseNorm < threshold) essential++;
+            }
+
+            int length = heap.drainDescending(outItems, outScores, offset);
+            float scale = (float) (1.0 / Math.sqrt(profileNorm));
+            for (int r = offset; r < offset + length; r++) {
+                outItems[r] = itemAt[outItems[r]];
+                outScores[r] *= scale;
+            }
+            return length;
+        }
+
+        /** First position in {@code [from, end)} whose item is not below {@code item}. */
+        private int gallop(int from, int end, int item) {
+            if (from >= end || postingItems[from] >= item) return from;
+            int low = from, step = 1;
+            int high = from + 1;
+            while (high < end && postingItems[high] < item) {
+                low = high;
+                step <<= 1;
+                high = low + step;
+            }
+            high = Math.min(high, end);
+            low++;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (postingItems[mid] < item) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Collects (item, feature) and (user, feature) pairs under string feature names.
+     */
+    static final class Builder {
+        private final Object2IntOpenHashMap<String> featureIds = new Object2IntOpenHashMap<>();
+        private String[] featureNames = new String[16];
+        private int[] itemRows = new int[16];
+        private int[] itemColumns = new int[16];
+        private int numItemPairs;
+        private int[] userRows = new int[16];
+        private int[] userColumns = new int[16];
+        private int numUserPairs;
+
+        Builder() {
+            featureIds.defaultReturnValue(-1);
+        }
+
+        int feature(String name) {
+            int id = featureIds.getInt(name);
+            if (id < 0) {
+                id = featureIds.size();
+                featureIds.put(name, id);
+                if (id == featureNames.length) featureNames = Arrays.copyOf(featureNames, id * 2);
+                featureNames[id] = name;
+            }
+            return id;
+        }
+
+        void addItemFeature(int item, String feature) {
+            if (numItemPairs == itemRows.length) {
+                itemRows = Arrays.copyOf(itemRows, numItemPairs * 2);
+                itemColumns = Arrays.copyOf(itemColumns, numItemPairs * 2);
+            }
+            itemRows[numItemPairs] = item;
+            itemColumns[numItemPairs++] = feature(feature);
+        }
+
+        void addPreference(int userIdx, String feature) {
+            if (numUserPairs == userRows.length) {
+                userRows = Arrays.copyOf(userRows, numUserPairs * 2);
+                userColumns = Arrays.copyOf(userColumns, numUserPairs * 2);
+            }
+            userRows[numUserPairs] = userIdx;
+            userColumns[numUserPairs++] = feature(feature);
+        }
+
+        int numItemFeatures() {
+            return numItemPairs;
+        }
+
+        int numPreferences() {
+            return numUserPairs;
+        }
+
+        /**
+         * The index over items {@code [0, numItems)} and the preferences of users
+         * {@code [0, numUsers)}; items without features are simply never matched.
+         */
+        ContentIndex build(int numItems, int numUsers) {
+            return new ContentIndex(this, numItems, numUsers);
+        }
+    }
+}
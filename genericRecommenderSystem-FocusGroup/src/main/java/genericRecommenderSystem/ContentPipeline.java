@@ -0,0 +1,67 @@
+package genericRecommenderSystem;
+
+import java.util.concurrent.ForkJoinPool;
+
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+
+/**
+ * The content-based run of a {@link RecommenderSession} (rec.recommender=content): recommends
+ * by item features instead of co-ratings. The ratings are split as usual, and every user is
+ * ranked against the content index from their train ratings and explicit preferences.
+ * Nothing is cached, as building the index is cheaper than loading it.
+ */
+final class ContentPipeline {
+
+    private final RecommenderSession session;
+
+    ContentPipeline(RecommenderSession session) {
+        this.session = session;
+    }
+
+    RecommenderSession.Result run(RatingEncoder ratings, ContentIndex.Builder content, RuleFilter rules,
+            Configuration conf, PipelineMetrics metrics) throws LibrecException {
+        DataModel dataModel = session.buildDataModel(conf, ratings, metrics);
+        ContentIndex index = buildIndex(ratings, content, metrics);
+        SequentialAccessSparseMatrix trainMatrix = (SequentialAccessSparseMatrix) dataModel.getTrainDataSet();
+        RankedResults results;
+        ForkJoinPool stagePool = session.acquirePool(conf.getInt("rec.ranking.threads", 0));
+        try {
+            results = rank(index, trainMatrix, rules, conf.getInt("rec.recommender.ranking.topn", 10), stagePool, metrics, "rank");
+        } finally {
+            session.releasePool(stagePool);
+        }
+        return session.finish(results, dataModel, conf, metrics);
+    }
+
+    ContentIndex buildIndex(RatingEncoder ratings, ContentIndex.Builder content, PipelineMetrics metrics) {
+        try (PipelineMetrics.Stage stage = metrics.stage("content index")) {
+            long start = System.nanoTime();
+            ContentIndex index = content.build(ratings.numItems(), ratings.numUsers());
+            session.out().printf("Content index: %d features, %d postings over %d items, %d preferences, %d bytes in %.1f ms%n",
+                    index.numFeatures(), index.numPostings(), index.numItems(), content.numPreferences(),
+                    index.sizeInBytes(), (System.nanoTime() - start) / 1e6);
+            stage.users(index.numUsers()).items(index.numItems());
+            return index;
+        }
+    }
+
+    /**
+     * Ranks every user's top-{@code topN} by content on {@code stagePool}, timed as the stage
+     * {@code stageName}.
+     */
+    RankedResults rank(ContentIndex index, SequentialAccessSparseMatrix trainMatrix, RuleFilter rules, int topN,
+            ForkJoinPool stagePool, PipelineMetrics metrics, String stageName) {
+        try (PipelineMetrics.Stage stage = metrics.stage(stageName)) {
+            long start = System.nanoTime();
+            ContentRanker ranker = new ContentRanker(index, trainMatrix, rules);
+            RankedResults results = ranker.rank(topN, stagePool);
+            session.out().printf("Ranked top-%d by content for %d users (%d cold start) in %.1f ms%n", results.topN(),
+                    results.numUsers(), ranker.numColdStartUsers(), (System.nanoTime() - start) / 1e6);
+            stage.users(results.numUsers()).items(index.numItems());
+            return results;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package genericRecommenderSystem;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
+
+/**
+ * Ranks every user's items against a {@link ContentIndex}. A user's profile is their
+ * explicit preferences plus the features of the items they rated in the train matrix,
+ * each rated item weighted by its rating over the user's highest rating and the sum
+ * divided by the number of items, so that a long history does not drown the explicit
+ * preferences. Users with preferences but no ratings (cold start) are ranked the same
+ * way from their preferences alone. Rated items are never recommended, nor are items
+ * outside the user's {@link RuleFilter} mask.
+ *
+ * Users are processed in blocks on a fork-join pool, each worker with its own scratch.
+ */
+class ContentRanker {
+
+    static final int BLOCK_SIZE = 256;
+
+    private final ContentIndex index;
+    private final SequentialAccessSparseMatrix trainMatrix;
+    private final int numUsers;
+    private final RuleFilter rules;
+
+    ContentRanker(ContentIndex index, SequentialAccessSparseMatrix trainMatrix) {
+        this(index, trainMatrix, null);
+    }
+
+    ContentRanker(ContentIndex index, SequentialAccessSparseMatrix trainMatrix, RuleFilter rules) {
+        this.index = index;
+        this.rules = rules;
+        this.trainMatrix = trainMatrix;
+        this.numUsers = Math.min(index.numUsers(), trainMatrix.rowSize());
+    }
+
+    RankedResults rank(int topN, ForkJoinPool pool) {
+        RankedResults results = new RankedResults(numUsers, topN);
+        int numBlocks = (numUsers + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        ThreadLocal<ContentIndex.Scratch> scratch = ThreadLocal.withInitial(() -> index.newScratch(topN));
+        if (numBlocks > 0) pool.invoke(new RankTask(results, scratch, 0, numBlocks));
+        return results;
+    }
+
+    /** Number of users that have explicit preferences and no train ratings. */
+    int numColdStartUsers() {
+        int n = 0;
+        for (int u = 0; u < numUsers; u++) {
+            if (index.hasPreferences(u) && trainMatrix.row(u).getNumEntries() == 0) n++;
+        }
+        return n;
+    }
+
+    void rankUser(int userIdx, ContentIndex.Scratch s, RankedResults results) {
+        s.clear();
+        if (rules != null) s.setRules(rules.mask(userIdx), rules.boost(userIdx), rules.boostFactor());
+        s.addPreferences(userIdx, 1f);
+        SequentialSparseVector row = trainMatrix.row(userIdx);
+        double max = 0.0;
+        int liked = 0;
+        int n = row.getNumEntries();
+        for (int p = 0; p < n; p++) {
+            s.exclude(row.getIndexAtPosition(p));
+            double value = row.getAtPosition(p);
+            if (value > 0.0) {
+                max = Math.max(max, value);
+                liked++;
+            }
+        }
+        for (int p = 0; p < n; p++) {
+            double value = row.getAtPosition(p);
+            if (value > 0.0) s.addItem(row.getIndexAtPosition(p), (float) (value / max / liked));
+        }
+        results.set(userIdx, s.rank(results.items(), results.scores(), userIdx * results.topN()));
+    }
+
+    private final class RankTask extends RecursiveAction {
+        private final RankedResults results;
+        private final ThreadLocal<ContentIndex.Scratch> scratch;
+        private final int fromBlock, toBlock;
+
+        RankTask(RankedResults results, ThreadLocal<ContentIndex.Scratch> scratch, int fromBlock, int toBlock) {
+            this.results = results;
+            this.scratch = scratch;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+        }
+
+        @Override
+        protected void compute() {
+            if (toBlock - fromBlock > 1) {
+                int mid = (fromBlock + toBlock) >>> 1;
+                invokeAll(new RankTask(results, scratch, fromBlock, mid), new RankTask(results, scratch, mid, toBlock));
+                return;
+            }
+            ContentIndex.Scratch s = scratch.get();
+            int to = Math.min((fromBlock + 1) * BLOCK_SIZE, numUsers);
+            for (int u = fromBlock * BLOCK_SIZE; u < to; u++) {
+                rankUser(u, s, results);
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package genericRecommenderSystem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EcorePackage;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.resource.impl.BinaryResourceImpl;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.xmi.XMLResource;
+
+/**
+ * Binary copies of XMI models and Ecore metamodels, so that later runs skip the XML parse.
+ *
+ * Resource sets from {@link #createResourceSet()} load a file: resource from its binary copy
+ * when the copy is newer than both the source and every registered metamodel, and otherwise
+ * parse the source as usual and write a fresh copy. Resources keep their original URIs, so
+ * cross-document references still point at the .model/.ecore files and stay proxies until
+ * navigated. XMI ids are not part of EMF's binary format; they are stored alongside the
+ * objects so that fragments like {@code Movies.model#movie_titanic} still resolve.
+ */
+public class EmfResourceCache {
+
+    private static final int MAGIC = 0x454D4631; // "EMF1"
+
+    private static final Map<Object, Object> SAVE_OPTIONS = new HashMap<>();
+    private static final Map<Object, Object> LOAD_OPTIONS = new HashMap<>();
+    static {
+        SAVE_OPTIONS.put(BinaryResourceImpl.OPTION_STYLE_BINARY_FLOATING_POINT, Boolean.TRUE);
+        SAVE_OPTIONS.put(BinaryResourceImpl.OPTION_STYLE_BINARY_ENUMERATOR, Boolean.TRUE);
+        SAVE_OPTIONS.put(BinaryResourceImpl.OPTION_STYLE_BINARY_DATE, Boolean.TRUE);
+        LOAD_OPTIONS.put(BinaryResourceImpl.OPTION_EAGER_PROXY_RESOLUTION, Boolean.FALSE);
+        // Binary copies name their packages by nsURI; Ecore's own must be registered before the first read
+        EcorePackage.eINSTANCE.eClass();
+    }
+
+    private final Path dir;
+    private final long dependenciesModified;
+    private final PrintStream out;
+    private final Map<URI, String> origins = new ConcurrentHashMap<>();
+
+    /**
+     * @param dependenciesModified newest modification time of the files the copies depend on,
+     *                             e.g. the metamodels; older copies are rebuilt
+     * @param out                  where copies that could not be written are reported
+     */
+    public EmfResourceCache(Path dir, long dependenciesModified, PrintStream out) {
+        this.dir = dir;
+        this.dependenciesModified = dependenciesModified;
+        this.out = out;
+    }
+
+    public ResourceSet createResourceSet() {
+        return new CachingResourceSet();
+    }
+
+    /**
+     * "binary" or "XMI" for the last load of {@code uri} through this cache, or null.
+     */
+    public String origin(URI uri) {
+        return origins.get(uri);
+    }
+
+    Path fileFor(Path source) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(source.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int b = 0; b < 8; b++) hex.append(String.format("%02x", digest[b]));
+            return dir.resolve(source.getFileName() + "-" + hex + ".bin");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Path sourceOf(URI uri) {
+        if (!uri.isFile()) return null;
+        Path source = Paths.get(uri.toFileString());
+        return Files.isRegularFile(source) ? source : null;
+    }
+
+    private boolean isFresh(Path source, Path copy) {
+        try {
+            if (!Files.isRegularFile(copy)) return false;
+            long copied = Files.getLastModifiedTime(copy).toMillis();
+            return copied >= Files.getLastModifiedTime(source).toMillis() && copied >= dependenciesModified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes {@code resource} (any kind) in EMF's binary format, preceded by its XMI ids.
+     */
+    void store(Resource resource, Path copy) throws IOException {
+        List<Integer> positions = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        int position = 0;
+        for (TreeIterator<EObject> it = resource.getAllContents(); it.hasNext(); position++) {
+            String id = idOf(resource, it.next());
+            if (id != null) {
+                positions.add(position);
+                ids.add(id);
+            }
+        }
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, copy.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                DataOutputStream data = new DataOutputStream(out);
+                data.writeInt(MAGIC);
+                data.writeInt(ids.size());
+                for (int k = 0; k < ids.size(); k++) {
+                    data.writeInt(positions.get(k));
+                    data.writeUTF(ids.get(k));
+                }
+                data.flush();
+                BinaryResourceImpl.EObjectOutputStream objects = new BinaryResourceImpl.EObjectOutputStream(out, SAVE_OPTIONS);
+                objects.saveResource(resource);
+                objects.flush();
+            }
+            Files.move(tmp, copy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static String idOf(Resource resource, EObject eObject) {
+        if (resource instanceof XMLResource) return ((XMLResource) resource).getID(eObject);
+        if (resource instanceof CachedResource) return ((CachedResource) resource).objectToId.get(eObject);
+        return null;
+    }
+
+    /**
+     * Demand-loads file resources from their binary copies where possible.
+     */
+    private final class CachingResourceSet extends ResourceSetImpl {
+
+        @Override
+        protected Resource demandCreateResource(URI uri) {
+            Path source = sourceOf(uri);
+            if (source == null || !isFresh(source, fileFor(source))) {
+                return super.demandCreateResource(uri);
+            }
+            Resource resource = new CachedResource(uri, fileFor(source));
+            getResources().add(resource);
+            return resource;
+        }
+
+        @Override
+        protected void demandLoad(Resource resource) throws IOException {
+            if (resource instanceof CachedResource) {
+                CachedResource cached = (CachedResource) resource;
+                try (InputStream in = new BufferedInputStream(Files.newInputStream(cached.copy))) {
+                    cached.load(in, LOAD_OPTIONS);
+                    origins.put(resource.getURI(), "binary");
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    // Unreadable copy: parse the source into the same resource and replace the copy
+                    cached.unload();
+                    cached.getContents().clear();
+                    cached.loadFrom(super.demandCreateResource(resource.getURI()), this);
+                    Files.deleteIfExists(cached.copy);
+                }
+            } else {
+                super.demandLoad(resource);
+            }
+            origins.put(resource.getURI(), "XMI");
+            Path source = sourceOf(resource.getURI());
+            if (source != null) {
+                try {
+                    store(resource, fileFor(source));
+                } catch (IOException | RuntimeException e) {
+                    out.println("Could not cache " + source + " as binary: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Binary resource that also answers the extrinsic ids its source had.
+     */
+    private static final class CachedResource extends BinaryResourceImpl {
+        final Path copy;
+        private final Map<String, EObject> idToObject = new HashMap<>();
+        private final Map<EObject, String> objectToId = new HashMap<>();
+
+        CachedResource(URI uri, Path copy) {
+            super(uri);
+            this.copy = copy;
+        }
+
+        @Override
+        protected void doLoad(InputStream in, Map<?, ?> options) throws IOException {
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != MAGIC) {
+                throw new IOException("Not a cached resource: " + copy);
+            }
+            int[] positions = new int[data.readInt()];
+            String[] ids = new String[positions.length];
+            for (int k = 0; k < positions.length; k++) {
+                positions[k] = data.readInt();
+                ids[k] = data.readUTF();
+            }
+            super.doLoad(in, options);
+            int position = 0, next = 0;
+            for (TreeIterator<EObject> it = getAllContents(); it.hasNext() && next < ids.length; position++) {
+                EObject eObject = it.next();
+                if (positions[next] == position) setID(eObject, ids[next++]);
+            }
+        }
+
+        /**
+         * Takes over the contents and ids of a resource parsed from the source instead.
+         */
+        void loadFrom(Resource source, ResourceSet resourceSet) throws IOException {
+            resourceSet.getResources().remove(source);
+            source.load(resourceSet.getLoadOptions());
+            List<EObject> contents = new ArrayList<>(source.getContents());
+            Map<EObject, String> ids = new HashMap<>();
+            for (TreeIterator<EObject> it = source.getAllContents(); it.hasNext(); ) {
+                EObject eObject = it.next();
+                String id = idOf(source, eObject);
+                if (id != null) ids.put(eObject, id);
+            }
+            getContents().addAll(contents);
+            ids.forEach(this::setID);
+            setLoaded(true);
+        }
+
+        private void setID(EObject eObject, String id) {
+            idToObject.put(id, eObject);
+            objectToId.put(eObject, id);
+        }
+
+        @Override
+        protected EObject getEObjectByID(String id) {
+            EObject eObject = idToObject.get(id);
+            return eObject != null ? eObject : super.getEObjectByID(id);
+        }
+
+        @Override
+        public String getURIFragment(EObject eObject) {
+            String id = objectToId.get(eObject);
+            return id != null ? id : super.getURIFragment(eObject);
+        }
+
+        @Override
+        protected void doUnload() {
+            super.doUnload();
+            idToObject.clear();
+            objectToId.clear();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package genericRecommenderSystem;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Item neighbors by great-circle distance (HAVERSINE), for domains whose items carry a
+ * latitude and a longitude. The similarity of two items is 1 / (1 + distance in km).
+ *
+ * Every located item is also kept as a unit vector in three contiguous arrays, whose dot
+ * product falls as the distance grows. An item's row first computes its dot product with
+ * every other item in one pass of multiply-adds over those arrays, a loop C2 compiles to
+ * SIMD instructions, and keeps the K largest. The haversine formula, whose trigonometry
+ * costs far more than the dot products, is then evaluated only for those K items and the
+ * few just below them that can still tie the K-th at the stored float precision.
+ */
+class GeoNeighbors {
+
+    static final double EARTH_RADIUS_KM = 6371.0088;
+
+    private final int numItems;
+    private final int numLocated;
+    // Located items by position, and the position of each item (-1 when it has no coordinates)
+    private final int[] items;
+    private final int[] positionOf;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] cosLatitudes;
+    private final double[] xs, ys, zs;
+    private final ThreadLocal<Scratch> scratch;
+
+    private GeoNeighbors(int numItems, double[] latitudeDegrees, double[] longitudeDegrees) {
+        this.numItems = numItems;
+        positionOf = new int[numItems];
+        Arrays.fill(positionOf, -1);
+        int n = 0;
+        for (int i = 0; i < numItems; i++) {
+            if (isCoordinate(latitudeDegrees[i], 90.0) && isCoordinate(longitudeDegrees[i], 180.0)) positionOf[i] = n++;
+        }
+        numLocated = n;
+        items = new int[n];
+        latitudes = new double[n];
+        longitudes = new double[n];
+        cosLatitudes = new double[n];
+        xs = new double[n];
+        ys = new double[n];
+        zs = new double[n];
+        for (int i = 0; i < numItems; i++) {
+            int p = positionOf[i];
+            if (p < 0) continue;
+            items[p] = i;
+            latitudes[p] = Math.toRadians(latitudeDegrees[i]);
+            longitudes[p] = Math.toRadians(longitudeDegrees[i]);
+            cosLatitudes[p] = Math.cos(latitudes[p]);
+            xs[p] = cosLatitudes[p] * Math.cos(longitudes[p]);
+            ys[p] = cosLatitudes[p] * Math.sin(longitudes[p]);
+            zs[p] = Math.sin(latitudes[p]);
+        }
+        scratch = ThreadLocal.withInitial(Scratch::new);
+    }
+
+    private static boolean isCoordinate(double degrees, double max) {
+        return degrees >= -max && degrees <= max;
+    }
+
+    int numItems() {
+        return numItems;
+    }
+
+    int numLocated() {
+        return numLocated;
+    }
+
+    /** The best {@code k} neighbors of every item (all of them when k is 0). */
+    NeighborIndex neighborIndex(int k, ForkJoinPool pool) {
+        return NeighborIndex.build(numItems, k, pool, this::offerRow);
+    }
+
+    private final class Scratch {
+        final double[] dots = new double[numLocated];
+        TopKHeap nearest = new TopKHeap(0);
+    }
+
+    private void offerRow(int item, TopKHeap heap) {
+        int p = positionOf[item];
+        if (p < 0) return;
+        Scratch s = scratch.get();
+        if (s.nearest.capacity() != heap.capacity()) s.nearest = new TopKHeap(heap.capacity());
+        double[] d = s.dots;
+        dotProducts(xs[p], ys[p], zs[p], xs, ys, zs, d, numLocated);
+
+        TopKHeap nearest = s.nearest;
+        nearest.clear();
+        double kth = nearest.threshold();
+        for (int q = 0; q < numLocated; q++) {
+            if (d[q] >= kth && q != p) {
+                nearest.offer(q, d[q]);
+                kth = nearest.threshold();
+            }
+        }
+        for (int q = 0; q < numLocated; q++) {
+            if (q != p && d[q] >= kth) offer(p, q, heap);
+        }
+        if (heap.size() < heap.capacity()) return;
+
+        // Items scoring below the float just under the K-th score are rejected; the rest are
+        // within maxKm, so their dot product is at least the cutoff (less rounding)
+        double maxKm = 1.0 / Math.nextDown((float) heap.threshold()) - 1.0;
+        double cutoff = Math.cos(Math.min(maxKm / EARTH_RADIUS_KM, Math.PI)) - 1e-12;
+        for (int q = 0; q < numLocated; q++) {
+            if (q != p && d[q] < kth && d[q] >= cutoff) offer(p, q, heap);
+        }
+    }
+
+    private void offer(int p, int q, TopKHeap heap) {
+        double km = haversineKm(latitudes[p], longitudes[p], cosLatitudes[p], latitudes[q], longitudes[q], cosLatitudes[q]);
+        // Ranked at the stored precision, as in NeighborIndex.build
+        heap.offer(items[q], (float) (1.0 / (1.0 + km)));
+    }
+
+    /** {@code out[j] = x * xs[j] + y * ys[j] + z * zs[j]} for {@code j < n}. */
+    static void dotProducts(double x, double y, double z, double[] xs, double[] ys, double[] zs, double[] out, int n) {
+        for (int j = 0; j < n; j++) {
+            out[j] = x * xs[j] + y * ys[j] + z * zs[j];
+        }
+    }
+
+    /** Great-circle distance of two points given in radians, with the cosines of their latitudes. */
+    static double haversineKm(double lat1, double lon1, double cosLat1, double lat2, double lon2, double cosLat2) {
+        double sinLat = Math.sin((lat2 - lat1) * 0.5);
+        double sinLon = Math.sin((lon2 - lon1) * 0.5);
+        double a = sinLat * sinLat + cosLat1 * cosLat2 * sinLon * sinLon;
+        return 2.0 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    /**
+     * Collects the coordinates of items in degrees; items missing either one are not located.
+     */
+    static final class Builder {
+        private double[] latitudes = new double[0];
+        private double[] longitudes = new double[0];
+
+        void latitude(int item, double degrees) {
+            ensureCapacity(item + 1);
+            latitudes[item] = degrees;
+        }
+
+        void longitude(int item, double degrees) {
+            ensureCapacity(item + 1);
+            longitudes[item] = degrees;
+        }
+
+        private void ensureCapacity(int items) {
+            int length = latitudes.length;
+            if (items <= length) return;
+            int capacity = Math.max(items, Math.max(16, length * 2));
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            Arrays.fill(latitudes, length, capacity, Double.NaN);
+            Arrays.fill(longitudes, length, capacity, Double.NaN);
+        }
+
+        GeoNeighbors build(int numItems) {
+            double[] lat = new double[numItems];
+            double[] lon = new double[numItems];
+            Arrays.fill(lat, Double.NaN);
+            Arrays.fill(lon, Double.NaN);
+            System.arraycopy(latitudes, 0, lat, 0, Math.min(latitudes.length, numItems));
+            System.arraycopy(longitudes, 0, lon, 0, Math.min(longitudes.length, numItems));
+            return new GeoNeighbors(numItems, lat, lon);
+        }
+    }
+}
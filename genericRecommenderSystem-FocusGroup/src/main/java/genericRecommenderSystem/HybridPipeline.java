@@ -0,0 +1,82 @@
+package genericRecommenderSystem;
+
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.recommender.Recommender;
+
+/**
+ * The hybrid run of a {@link RecommenderSession} (rec.recommender=hybrid): runs the components
+ * of the model's HybridBased (both when there is none) on one split, ItemKNN first and then
+ * the content-based one, each ranked to rec.hybrid.depth times the list length, and fuses
+ * their lists with {@link HybridRanker} (rec.hybrid.fusion, weighted or rank;
+ * rec.hybrid.cf.weight, rec.hybrid.cb.weight). Each component uses the whole pool in turn, so
+ * the stages in the run report do not overlap. Nothing is cached.
+ */
+final class HybridPipeline {
+
+    private final RecommenderSession session;
+
+    HybridPipeline(RecommenderSession session) {
+        this.session = session;
+    }
+
+    RecommenderSession.Result run(RatingEncoder ratings, ContentIndex.Builder content, HybridRanker.Components components,
+            RuleFilter rules, GeoNeighbors coordinates, Configuration conf, PipelineMetrics metrics) throws LibrecException {
+        HybridRanker.Fusion fusion = HybridRanker.Fusion.parse(session.property("rec.hybrid.fusion", "weighted"));
+        double cfWeight = Double.parseDouble(session.property("rec.hybrid.cf.weight", "0.5"));
+        double cbWeight = Double.parseDouble(session.property("rec.hybrid.cb.weight", "0.5"));
+        if (cfWeight < 0.0 || cbWeight < 0.0) {
+            throw new IllegalArgumentException("rec.hybrid.cf.weight and rec.hybrid.cb.weight must not be negative");
+        }
+        int topN = conf.getInt("rec.recommender.ranking.topn", 10);
+        int depth = topN * Math.max(1, Integer.parseInt(session.property("rec.hybrid.depth", "3")));
+        if (components.found) {
+            session.out().printf("HybridBased '%s': %s%s%n", components.name,
+                    components.collaborative ? "collaborative" : "", components.contentBased
+                            ? (components.collaborative ? " + content-based" : "content-based") : "");
+        }
+        if (components.neighbors > 0) conf.set("rec.neighbors.knn.number", Integer.toString(components.neighbors));
+
+        DataModel dataModel = session.buildDataModel(conf, ratings, metrics);
+        SequentialAccessSparseMatrix trainMatrix = (SequentialAccessSparseMatrix) dataModel.getTrainDataSet();
+        RankedResults results;
+        ForkJoinPool stagePool = session.acquirePool(conf.getInt("rec.ranking.threads", 0));
+        // The components rank deeper than the final lists, so that fusion has candidates to reorder
+        conf.setInt("rec.recommender.ranking.topn", depth);
+        try {
+            RankedResults cfResults = null;
+            if (components.collaborative) {
+                Recommender recommender = session.trainItemKnn(dataModel, rules, coordinates, conf, metrics);
+                try (PipelineMetrics.Stage stage = metrics.stage("rank")) {
+                    cfResults = session.rankTopN(recommender, conf);
+                    stage.users(cfResults.numUsers()).items(ratings.numItems());
+                }
+            }
+            RankedResults cb = null;
+            if (components.contentBased) {
+                ContentPipeline contentPipeline = new ContentPipeline(session);
+                ContentIndex index = contentPipeline.buildIndex(ratings, content, metrics);
+                cb = contentPipeline.rank(index, trainMatrix, rules, depth, stagePool, metrics, "rank content");
+            }
+            try (PipelineMetrics.Stage stage = metrics.stage("fuse")) {
+                long start = System.nanoTime();
+                HybridRanker ranker = new HybridRanker(cfResults, cb, cfWeight, cbWeight, fusion,
+                        Double.parseDouble(session.property("rec.hybrid.rank.k", "60")), ratings.numItems());
+                results = ranker.fuse(topN, stagePool);
+                session.out().printf("Fused top-%d (%s) for %d users from top-%d component lists, %.0f%% of their entries read, in %.1f ms%n",
+                        topN, fusion.name().toLowerCase(Locale.ROOT), results.numUsers(), depth,
+                        100.0 * ranker.fractionRead(), (System.nanoTime() - start) / 1e6);
+                stage.users(results.numUsers()).items(ratings.numItems());
+            }
+        } finally {
+            conf.setInt("rec.recommender.ranking.topn", topN);
+            session.releasePool(stagePool);
+        }
+        return session.finish(results, dataModel, conf, metrics);
+    }
+}
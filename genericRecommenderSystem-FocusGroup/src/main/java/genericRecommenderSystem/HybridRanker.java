@@ -0,0 +1,185 @@
+package genericRecommenderSystem;
+
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fuses the ranked lists of the components of a HybridBased recommender (collaborative
+ * filtering and content-based) into one top-N per user. Each component supplies a bounded
+ * stream: its top-K list, best first, K a few times N; entries scored 0 or less end the
+ * stream, as they are padding rather than evidence. An item missing from a component's
+ * stream contributes nothing from it.
+ *
+ * WEIGHTED fusion sums each component's weight times the item's score over the component's
+ * best score for the user; RANK fusion sums weight / (k + rank), with rank counted from 1.
+ * Both grow with the score in every component, so the lists are merged threshold-algorithm
+ * style: they are read in parallel by depth, every item met is completed by a lookup in the
+ * other list, and the merge stops once N items score above what an item not yet met could
+ * still reach (the sum of the contributions at the current depth).
+ *
+ * Users are processed in blocks on a fork-join pool, each worker with its own scratch.
+ */
+class HybridRanker {
+
+    static final int BLOCK_SIZE = 256;
+
+    enum Fusion {
+        WEIGHTED, RANK;
+
+        static Fusion parse(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Which components the model's HybridBased declares, and the neighbors of its
+     * collaborative component (0 when not set). Without a HybridBased both components run.
+     */
+    static final class Components {
+        boolean found;
+        boolean collaborative = true;
+        boolean contentBased = true;
+        int neighbors;
+        String name;
+    }
+
+    private final RankedResults cf;
+    private final RankedResults cb;
+    private final double cfWeight;
+    private final double cbWeight;
+    private final Fusion fusion;
+    private final double rankConstant;
+    private final int numItems;
+    private final int numUsers;
+    private final LongAdder entriesRead = new LongAdder();
+    private final LongAdder entriesTotal = new LongAdder();
+
+    /**
+     * @param cf the collaborative lists, or null when the component does not run
+     * @param cb the content-based lists, or null when the component does not run
+     */
+    HybridRanker(RankedResults cf, RankedResults cb, double cfWeight, double cbWeight, Fusion fusion,
+            double rankConstant, int numItems) {
+        this.cf = cf;
+        this.cb = cb;
+        this.cfWeight = cfWeight;
+        this.cbWeight = cbWeight;
+        this.fusion = fusion;
+        this.rankConstant = rankConstant;
+        this.numItems = numItems;
+        this.numUsers = Math.max(cf == null ? 0 : cf.numUsers(), cb == null ? 0 : cb.numUsers());
+    }
+
+    RankedResults fuse(int topN, ForkJoinPool pool) {
+        RankedResults results = new RankedResults(numUsers, topN);
+        int numBlocks = (numUsers + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(() -> new Scratch(topN));
+        if (numBlocks > 0) pool.invoke(new FuseTask(results, scratch, 0, numBlocks));
+        return results;
+    }
+
+    /** Fraction of the component entries the last fusion read before stopping. */
+    double fractionRead() {
+        long total = entriesTotal.sum();
+        return total == 0 ? 1.0 : (double) entriesRead.sum() / total;
+    }
+
+    private final class Scratch {
+        // Rank of an item in the other list, valid when its stamp is the user stamp
+        final int[] cfRank = new int[numItems];
+        final int[] cbRank = new int[numItems];
+        final int[] cfStamp = new int[numItems];
+        final int[] cbStamp = new int[numItems];
+        final int[] seenStamp = new int[numItems];
+        final TopKHeap heap;
+        int stamp;
+
+        Scratch(int topN) {
+            heap = new TopKHeap(topN);
+        }
+    }
+
+    private static int streamLength(RankedResults results, int userIdx) {
+        if (results == null || userIdx >= results.numUsers()) return 0;
+        int n = results.size(userIdx);
+        while (n > 0 && !(results.scoreAt(userIdx, n - 1) > 0f)) n--;
+        return n;
+    }
+
+    private double contribution(RankedResults results, double weight, double best, int userIdx, int rank) {
+        if (fusion == Fusion.RANK) return weight / (rankConstant + rank + 1);
+        return weight * results.scoreAt(userIdx, rank) / best;
+    }
+
+    private void fuseUser(int userIdx, Scratch s, RankedResults results) {
+        int stamp = ++s.stamp;
+        int cfLength = streamLength(cf, userIdx);
+        int cbLength = streamLength(cb, userIdx);
+        double cfBest = cfLength > 0 ? cf.scoreAt(userIdx, 0) : 1.0;
+        double cbBest = cbLength > 0 ? cb.scoreAt(userIdx, 0) : 1.0;
+        for (int r = 0; r < cfLength; r++) {
+            int item = cf.itemAt(userIdx, r);
+            s.cfStamp[item] = stamp;
+            s.cfRank[item] = r;
+        }
+        for (int r = 0; r < cbLength; r++) {
+            int item = cb.itemAt(userIdx, r);
+            s.cbStamp[item] = stamp;
+            s.cbRank[item] = r;
+        }
+
+        TopKHeap heap = s.heap;
+        heap.clear();
+        int depth = 0;
+        int maxDepth = Math.max(cfLength, cbLength);
+        while (depth < maxDepth) {
+            if (depth < cfLength) offer(s, stamp, cf.itemAt(userIdx, depth), userIdx, cfBest, cbBest);
+            if (depth < cbLength) offer(s, stamp, cb.itemAt(userIdx, depth), userIdx, cfBest, cbBest);
+            depth++;
+            double bound = (depth < cfLength ? contribution(cf, cfWeight, cfBest, userIdx, depth) : 0.0)
+                    + (depth < cbLength ? contribution(cb, cbWeight, cbBest, userIdx, depth) : 0.0);
+            if (heap.threshold() > bound) break;
+        }
+        entriesRead.add(Math.min(depth, cfLength) + Math.min(depth, cbLength));
+        entriesTotal.add(cfLength + cbLength);
+        results.set(userIdx, heap.drainDescending(results.items(), results.scores(), userIdx * results.topN()));
+    }
+
+    private void offer(Scratch s, int stamp, int item, int userIdx, double cfBest, double cbBest) {
+        if (s.seenStamp[item] == stamp) return;
+        s.seenStamp[item] = stamp;
+        double score = 0.0;
+        if (s.cfStamp[item] == stamp) score += contribution(cf, cfWeight, cfBest, userIdx, s.cfRank[item]);
+        if (s.cbStamp[item] == stamp) score += contribution(cb, cbWeight, cbBest, userIdx, s.cbRank[item]);
+        s.heap.offer(item, score);
+    }
+
+    private final class FuseTask extends RecursiveAction {
+        private final RankedResults results;
+        private final ThreadLocal<Scratch> scratch;
+        private final int fromBlock, toBlock;
+
+        FuseTask(RankedResults results, ThreadLocal<Scratch> scratch, int fromBlock, int toBlock) {
+            this.results = results;
+            this.scratch = scratch;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+        }
+
+        @Override
+        protected void compute() {
+            if (toBlock - fromBlock > 1) {
+                int mid = (fromBlock + toBlock) >>> 1;
+                invokeAll(new FuseTask(results, scratch, fromBlock, mid), new FuseTask(results, scratch, mid, toBlock));
+                return;
+            }
+            Scratch s = scratch.get();
+            int to = Math.min((fromBlock + 1) * BLOCK_SIZE, numUsers);
+            for (int u = fromBlock * BLOCK_SIZE; u < to; u++) {
+                fuseUser(u, s, results);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package genericRecommenderSystem;
+
+import java.util.Arrays;
+
+import com.google.common.collect.BiMap;
+
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.data.convertor.AbstractDataConvertor;
+import net.librec.data.model.AbstractDataModel;
+import net.librec.math.structure.DataSet;
+import net.librec.math.structure.RowSequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.VectorBasedSequentialSparseVector;
+
+/**
+ * LibRec data model built straight from the ratings extracted by the EOL script.
+ * Users and items keep their original ids in the mapping BiMaps and get the same
+ * inner indices TextDataModel would assign (first-seen order), so the split,
+ * the similarity and the recommendations behave exactly as with librec_input.txt.
+ */
+public class InMemoryDataModel extends AbstractDataModel {
+
+    private final RatingEncoder ratings;
+    private final BiMap<String, Integer> userMapping;
+    private final BiMap<String, Integer> itemMapping;
+
+    public InMemoryDataModel(Configuration conf, RatingEncoder ratings) {
+        this.conf = conf;
+        this.ratings = ratings;
+        this.userMapping = ratings.userMapping();
+        this.itemMapping = ratings.itemMapping();
+    }
+
+    @Override
+    protected void buildConvert() throws LibrecException {
+        dataConvertor = new RatingsConvertor();
+        dataConvertor.getPreferenceMatrix(conf);
+        LOG.info(String.format("user number: %d,\t item number is: %d", userMapping.size(), itemMapping.size()));
+    }
+
+    @Override
+    public BiMap<String, Integer> getUserMappingData() {
+        return userMapping;
+    }
+
+    @Override
+    public BiMap<String, Integer> getItemMappingData() {
+        return itemMapping;
+    }
+
+    @Override
+    public DataSet getDatetimeDataSet() {
+        return null;
+    }
+
+    public RatingEncoder getRatings() {
+        return ratings;
+    }
+
+    /**
+     * Builds a row-sorted LibRec matrix from parallel (row, column, value) arrays.
+     * When a cell appears more than once the first occurrence wins, as in DataFrame.toSparseMatrix.
+     */
+    static SequentialAccessSparseMatrix buildMatrix(int numRows, int numColumns,
+            int[] rowIdx, int[] columnIdx, double[] values, int n, double binThold) {
+        long[] keys = new long[n];
+        int[] offsets = sortRows(numRows, rowIdx, columnIdx, n, keys);
+
+        VectorBasedSequentialSparseVector[] rows = new VectorBasedSequentialSparseVector[numRows];
+        for (int r = 0; r < numRows; r++) {
+            int from = offsets[r], to = offsets[r + 1];
+            int[] rowColumns = new int[to - from];
+            double[] rowValues = new double[to - from];
+            int len = 0;
+            for (int p = from; p < to; p++) {
+                int column = (int) (keys[p] >>> 32);
+                if (len > 0 && rowColumns[len - 1] == column) continue;
+                rowColumns[len] = column;
+                rowValues[len++] = rate(values[(int) keys[p]], binThold);
+            }
+            rows[r] = new VectorBasedSequentialSparseVector(numColumns,
+                    Arrays.copyOf(rowColumns, len), Arrays.copyOf(rowValues, len));
+        }
+        return new SequentialAccessSparseMatrix(
+                new RowSequentialAccessSparseMatrix(numRows, numColumns, rows, true), true);
+    }
+
+    /**
+     * Buckets the entries by row into {@code keys} as {@code column << 32 | position}, each
+     * bucket sorted so the first occurrence of a duplicate comes first. Returns the bucket offsets.
+     */
+    static int[] sortRows(int numRows, int[] rowIdx, int[] columnIdx, int n, long[] keys) {
+        int[] offsets = new int[numRows + 1];
+        for (int k = 0; k < n; k++) offsets[rowIdx[k] + 1]++;
+        for (int r = 0; r < numRows; r++) offsets[r + 1] += offsets[r];
+        int[] fill = Arrays.copyOf(offsets, numRows);
+        for (int k = 0; k < n; k++) {
+            keys[fill[rowIdx[k]]++] = ((long) columnIdx[k] << 32) | k;
+        }
+        for (int r = 0; r < numRows; r++) {
+            Arrays.sort(keys, offsets[r], offsets[r + 1]);
+        }
+        return offsets;
+    }
+
+    static double rate(double value, double binThold) {
+        if (binThold >= 0.0) {
+            return value > binThold ? 1.0 : -1.0;
+        }
+        return value;
+    }
+
+    /**
+     * Hands the encoded ratings to LibRec's splitters as a preference matrix, without a DataFrame.
+     */
+    private class RatingsConvertor extends AbstractDataConvertor {
+
+        @Override
+        public void processData() {
+            getPreferenceMatrix(conf);
+        }
+
+        @Override
+        public SequentialAccessSparseMatrix getPreferenceMatrix() {
+            return getPreferenceMatrix(conf);
+        }
+
+        @Override
+        public SequentialAccessSparseMatrix getPreferenceMatrix(Configuration conf) {
+            if (preferenceMatrix == null) {
+                double binThold = conf.getDouble("data.convert.binarize.threshold", -1.0);
+                preferenceMatrix = buildMatrix(ratings.numUsers(), ratings.numItems(),
+                        ratings.getUsers(), ratings.getItems(), ratings.getValues(), ratings.size(), binThold);
+            }
+            return preferenceMatrix;
+        }
+
+        @Override
+        public SequentialAccessSparseMatrix getDatetimeMatrix() {
+            return null;
+        }
+
+        @Override
+        public void progress() {
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package genericRecommenderSystem;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Brings a cached model up to date with a new set of ratings without retraining it.
+ *
+ * Ratings are diffed against the previous entry: ratings that were in its test split
+ * stay there, everything else is train data, and a train rating that is new, gone or
+ * has a different value marks its user and item as changed. Only the changed items'
+ * similarity rows are recomputed. The top-K lists of the other items are patched with
+ * the new similarities, and recomputed in full only when a patch leaves a full list
+ * unable to prove its last entry. Finally only users who rated an item whose
+ * neighbor lists moved, or whose own ratings changed, are re-ranked.
+ *
+ * Copying the unchanged lists into the new flat index is linear in the index size;
+ * the similarity and ranking work scales with the change.
+ */
+class IncrementalUpdate {
+
+    final ModelCache.Entry entry;
+    final int changedRatings;
+    final int changedItems;
+    final int patchedLists;
+    final int recomputedLists;
+    final int rerankedUsers;
+
+    private IncrementalUpdate(ModelCache.Entry entry, int changedRatings, int changedItems,
+            int patchedLists, int recomputedLists, int rerankedUsers) {
+        this.entry = entry;
+        this.changedRatings = changedRatings;
+        this.changedItems = changedItems;
+        this.patchedLists = patchedLists;
+        this.recomputedLists = recomputedLists;
+        this.rerankedUsers = rerankedUsers;
+    }
+
+    /**
+     * Updates {@code previous} to {@code ratings}, or returns null when more than
+     * {@code maxChange} (a fraction of the ratings) changed and a full rebuild is cheaper,
+     * or when the remaining items were renumbered out of their previous order.
+     */
+    static IncrementalUpdate apply(ModelCache.Entry previous, RatingEncoder ratings, int shrinkage,
+            SimilarityFunction function, double binThold, int topN, double maxChange, ForkJoinPool pool) {
+        int numUsers = ratings.numUsers();
+        int numItems = ratings.numItems();
+        int k = previous.index.k();
+
+        // Old indices -> new indices (-1 when the user or item is gone)
+        int[] userMap = new int[previous.numUsers];
+        for (int u = 0; u < previous.numUsers; u++) userMap[u] = ratings.userIndexOf(previous.userIds[u]);
+        int[] itemMap = new int[previous.numItems];
+        int[] oldItem = new int[numItems];
+        Arrays.fill(oldItem, -1);
+        boolean sameItemIndices = numItems >= previous.numItems;
+        int lastItem = -1;
+        for (int i = 0; i < previous.numItems; i++) {
+            itemMap[i] = ratings.itemIndexOf(previous.itemIds[i]);
+            sameItemIndices &= itemMap[i] == i;
+            if (itemMap[i] < 0) continue;
+            // Equal scores are ordered by index, so kept lists are only valid if the order is
+            if (itemMap[i] < lastItem) return null;
+            lastItem = itemMap[i];
+            oldItem[itemMap[i]] = i;
+        }
+
+        boolean[] changedUser = new boolean[numUsers];
+        boolean[] changedItem = new boolean[numItems];
+        int changed = 0;
+        int[] oldUser = new int[numUsers];
+        Arrays.fill(oldUser, -1);
+        for (int u = 0; u < previous.numUsers; u++) {
+            if (userMap[u] >= 0) {
+                oldUser[userMap[u]] = u;
+                continue;
+            }
+            // Ratings of a user that no longer exists
+            for (int p = previous.trainPtr[u]; p < previous.trainPtr[u + 1]; p++) {
+                int i = itemMap[previous.trainItems[p]];
+                if (i >= 0) changedItem[i] = true;
+                changed++;
+            }
+        }
+
+        // Split the new ratings like the previous run and collect what changed. Item indices
+        // kept their order, so each user's old and new rows are merged as sorted lists.
+        long[] keys = new long[ratings.size()];
+        int[] rowPtr = InMemoryDataModel.sortRows(numUsers, ratings.getUsers(), ratings.getItems(), ratings.size(), keys);
+        double[] values = ratings.getValues();
+        int[] trainPtr = new int[numUsers + 1], testPtr = new int[numUsers + 1];
+        IntArrayList trainItems = new IntArrayList(ratings.size()), testItems = new IntArrayList();
+        double[] trainValues = new double[ratings.size()], testValues = new double[ratings.size()];
+        for (int u = 0; u < numUsers; u++) {
+            int old = oldUser[u];
+            int train = old < 0 ? 0 : previous.trainPtr[old], trainEnd = old < 0 ? 0 : previous.trainPtr[old + 1];
+            int test = old < 0 ? 0 : previous.testPtr[old], testEnd = old < 0 ? 0 : previous.testPtr[old + 1];
+            int last = -1;
+            for (int q = rowPtr[u]; q < rowPtr[u + 1]; q++) {
+                int i = (int) (keys[q] >>> 32);
+                if (i == last) continue;
+                last = i;
+                double value = InMemoryDataModel.rate(values[(int) keys[q]], binThold);
+                while (test < testEnd && itemMap[previous.testItems[test]] < i) test++;
+                if (test < testEnd && itemMap[previous.testItems[test]] == i) {
+                    testValues[testItems.size()] = value;
+                    testItems.add(i);
+                    continue;
+                }
+                boolean same = false;
+                for (; train < trainEnd && itemMap[previous.trainItems[train]] <= i; train++) {
+                    int j = itemMap[previous.trainItems[train]];
+                    if (j == i) {
+                        same = previous.trainValues[train] == value;
+                    } else {
+                        // Removed rating
+                        if (j >= 0) changedItem[j] = true;
+                        changedUser[u] = true;
+                        changed++;
+                    }
+                }
+                if (!same) {
+                    changedUser[u] = true;
+                    changedItem[i] = true;
+                    changed++;
+                }
+                trainValues[trainItems.size()] = value;
+                trainItems.add(i);
+            }
+            for (; train < trainEnd; train++) {
+                int j = itemMap[previous.trainItems[train]];
+                if (j >= 0) changedItem[j] = true;
+                changedUser[u] = true;
+                changed++;
+            }
+            trainPtr[u + 1] = trainItems.size();
+            testPtr[u + 1] = testItems.size();
+        }
+        if (changed > maxChange * Math.max(ratings.size(), 1)) {
+            return null;
+        }
+
+        // Item-major copy of the train data for the engine, and for the raters of an item
+        int[] colPtr = new int[numItems + 1];
+        for (int p = 0; p < trainItems.size(); p++) colPtr[trainItems.getInt(p) + 1]++;
+        for (int i = 0; i < numItems; i++) colPtr[i + 1] += colPtr[i];
+        int[] colUsers = new int[trainItems.size()];
+        double[] colValues = new double[trainItems.size()];
+        int[] fill = Arrays.copyOf(colPtr, numItems);
+        double[] rowValues = new double[trainItems.size()];
+        for (int u = 0; u < numUsers; u++) {
+            for (int p = trainPtr[u]; p < trainPtr[u + 1]; p++) {
+                int slot = fill[trainItems.getInt(p)]++;
+                colUsers[slot] = u;
+                colValues[slot] = trainValues[p];
+                rowValues[p] = trainValues[p];
+            }
+        }
+        int[] rowItems = trainItems.toIntArray();
+        SimilarityEngine engine = new SimilarityEngine(numItems, numUsers, colPtr, colUsers, colValues,
+                trainPtr, rowItems, rowValues, shrinkage, function);
+
+        // New similarity rows of the changed items
+        IntArrayList changedList = new IntArrayList();
+        for (int i = 0; i < numItems; i++) if (changedItem[i]) changedList.add(i);
+        int[] changedItems = changedList.toIntArray();
+        List<Rows> changedRows = computeRows(engine, changedItems, pool);
+
+        // Similarities of the changed items, grouped by the other item of the pair
+        int[] incomingPtr = new int[numItems + 1];
+        for (Rows rows : changedRows) {
+            for (int p = 0; p < rows.size; p++) if (!changedItem[rows.ids[p]]) incomingPtr[rows.ids[p] + 1]++;
+        }
+        for (int i = 0; i < numItems; i++) incomingPtr[i + 1] += incomingPtr[i];
+        int[] incomingIds = new int[incomingPtr[numItems]];
+        double[] incomingSims = new double[incomingPtr[numItems]];
+        fill = Arrays.copyOf(incomingPtr, numItems);
+        int position = 0;
+        for (Rows rows : changedRows) {
+            for (int r = 0; r < rows.rowLengths.length; r++) {
+                int a = changedItems[position + r];
+                for (int p = rows.rowStarts[r], end = p + rows.rowLengths[r]; p < end; p++) {
+                    int b = rows.ids[p];
+                    if (changedItem[b]) continue;
+                    incomingIds[fill[b]] = a;
+                    incomingSims[fill[b]++] = rows.sims[p];
+                }
+            }
+            position += rows.rowLengths.length;
+        }
+
+        // New lists: changed items from their rows, others patched or recomputed
+        int[][] newIds = new int[numItems][];
+        float[][] newScores = new float[numItems][];
+        TopKHeap heap = new TopKHeap(k);
+        int[] ids = new int[k];
+        float[] scores = new float[k];
+        position = 0;
+        for (Rows rows : changedRows) {
+            for (int r = 0; r < rows.rowLengths.length; r++) {
+                int a = changedItems[position + r];
+                heap.clear();
+                for (int p = rows.rowStarts[r], end = p + rows.rowLengths[r]; p < end; p++) {
+                    heap.offer(rows.ids[p], (float) rows.sims[p]);
+                }
+                int length = heap.drainDescending(ids, scores, 0);
+                newIds[a] = Arrays.copyOf(ids, length);
+                newScores[a] = Arrays.copyOf(scores, length);
+            }
+            position += rows.rowLengths.length;
+        }
+
+        IntArrayList recompute = new IntArrayList();
+        int patched = 0;
+        NeighborIndex index = previous.index;
+        for (int b = 0; b < numItems; b++) {
+            if (changedItem[b]) continue;
+            int old = oldItem[b];
+            int start = old < 0 ? 0 : index.start(old), end = old < 0 ? 0 : index.end(old);
+            boolean touched = incomingPtr[b] < incomingPtr[b + 1];
+            for (int p = start; p < end && !touched; p++) {
+                int j = itemMap[index.neighborAt(p)];
+                touched = j < 0 || changedItem[j];
+            }
+            if (!touched) continue;
+
+            heap.clear();
+            for (int p = start; p < end; p++) {
+                int j = itemMap[index.neighborAt(p)];
+                if (j >= 0 && !changedItem[j]) heap.offer(j, index.scoreAt(p));
+            }
+            for (int p = incomingPtr[b]; p < incomingPtr[b + 1]; p++) {
+                heap.offer(incomingIds[p], (float) incomingSims[p]);
+            }
+            int length = heap.drainDescending(ids, scores, 0);
+            int oldLength = end - start;
+            // A full list only proves its last entry while that entry did not get worse
+            if (oldLength == k && k > 0 && (length < k || worse(ids[length - 1], scores[length - 1],
+                    itemMap[index.neighborAt(end - 1)], index.scoreAt(end - 1)))) {
+                recompute.add(b);
+                continue;
+            }
+            newIds[b] = Arrays.copyOf(ids, length);
+            newScores[b] = Arrays.copyOf(scores, length);
+            patched++;
+        }
+
+        int[] recomputeItems = recompute.toIntArray();
+        position = 0;
+        for (Rows rows : computeRows(engine, recomputeItems, pool)) {
+            for (int r = 0; r < rows.rowLengths.length; r++) {
+                int b = recomputeItems[position + r];
+                heap.clear();
+                for (int p = rows.rowStarts[r], end = p + rows.rowLengths[r]; p < end; p++) {
+                    heap.offer(rows.ids[p], (float) rows.sims[p]);
+                }
+                int length = heap.drainDescending(ids, scores, 0);
+                newIds[b] = Arrays.copyOf(ids, length);
+                newScores[b] = Arrays.copyOf(scores, length);
+            }
+            position += rows.rowLengths.length;
+        }
+
+        // Assemble the new index; note which items entered, left or moved in some list
+        boolean[] movedItem = new boolean[numItems];
+        int numEntries = 0;
+        for (int i = 0; i < numItems; i++) {
+            numEntries += newIds[i] != null ? newIds[i].length
+                    : oldItem[i] < 0 ? 0 : index.end(oldItem[i]) - index.start(oldItem[i]);
+        }
+        NeighborIndex.Builder builder = new NeighborIndex.Builder(numItems, k, numEntries);
+        for (int i = 0; i < numItems; i++) {
+            int old = oldItem[i];
+            int start = old < 0 ? 0 : index.start(old), end = old < 0 ? 0 : index.end(old);
+            if (newIds[i] == null) {
+                int length = 0;
+                for (int p = start; p < end; p++) {
+                    ids[length] = itemMap[index.neighborAt(p)];
+                    scores[length++] = index.scoreAt(p);
+                }
+                builder.addRow(ids, scores, 0, length);
+                continue;
+            }
+            builder.addRow(newIds[i], newScores[i], 0, newIds[i].length);
+            markMoved(newIds[i], newScores[i], index, start, end, itemMap, movedItem);
+        }
+        NeighborIndex newIndex = builder.build();
+
+        ModelCache.Entry entry = new ModelCache.Entry(numUsers, numItems, trainItems.size(), testItems.size(), newIndex);
+        System.arraycopy(trainPtr, 0, entry.trainPtr, 0, numUsers + 1);
+        System.arraycopy(rowItems, 0, entry.trainItems, 0, rowItems.length);
+        System.arraycopy(trainValues, 0, entry.trainValues, 0, rowItems.length);
+        System.arraycopy(testPtr, 0, entry.testPtr, 0, numUsers + 1);
+        testItems.getElements(0, entry.testItems, 0, testItems.size());
+        System.arraycopy(testValues, 0, entry.testValues, 0, testItems.size());
+        System.arraycopy(ratings.getUserIds(), 0, entry.userIds, 0, numUsers);
+        System.arraycopy(ratings.getItemIds(), 0, entry.itemIds, 0, numItems);
+
+        // Carry over the previous top-N lists and re-rank only the users they may be stale for
+        RankedResults oldResults = previous.results;
+        boolean rerankAll = oldResults == null || oldResults.topN() != topN || !sameItemIndices;
+        RankedResults results = new RankedResults(numUsers, topN);
+        boolean[] rerank = new boolean[numUsers];
+        boolean[] knownUser = new boolean[numUsers];
+        for (int u = 0; u < previous.numUsers && !rerankAll; u++) {
+            int nu = userMap[u];
+            if (nu < 0) continue;
+            knownUser[nu] = true;
+            int size = oldResults.size(u);
+            System.arraycopy(oldResults.items(), u * topN, results.items(), nu * topN, size);
+            System.arraycopy(oldResults.scores(), u * topN, results.scores(), nu * topN, size);
+            results.set(nu, size);
+            // Short lists ran out of candidates; new items may now fill them
+            rerank[nu] = size < topN && numItems != previous.numItems;
+        }
+        IntArrayList rerankUsers = new IntArrayList();
+        for (int u = 0; u < numUsers; u++) {
+            boolean stale = rerankAll || !knownUser[u] || rerank[u] || changedUser[u];
+            for (int p = trainPtr[u]; p < trainPtr[u + 1] && !stale; p++) {
+                stale = movedItem[rowItems[p]];
+            }
+            if (stale) rerankUsers.add(u);
+        }
+        new TopNRanker(newIndex, entry.trainPtr, entry.trainItems)
+                .rankUsers(results, rerankUsers.elements(), rerankUsers.size(), pool);
+        entry.results = results;
+
+        return new IncrementalUpdate(entry, changed, changedItems.length, patched,
+                recomputeItems.length, rerankUsers.size());
+    }
+
+    private static boolean worse(int id, float score, int otherId, float otherScore) {
+        return score < otherScore || (score == otherScore && id > otherId);
+    }
+
+    /**
+     * Marks every neighbor whose presence or score differs between the new list and the old one.
+     */
+    private static void markMoved(int[] ids, float[] scores, NeighborIndex index, int start, int end,
+            int[] itemMap, boolean[] movedItem) {
+        for (int n = 0; n < ids.length; n++) {
+            boolean same = false;
+            for (int p = start; p < end && !same; p++) {
+                same = itemMap[index.neighborAt(p)] == ids[n] && index.scoreAt(p) == scores[n];
+            }
+            if (!same) movedItem[ids[n]] = true;
+        }
+        for (int p = start; p < end; p++) {
+            int j = itemMap[index.neighborAt(p)];
+            if (j < 0) continue;
+            boolean same = false;
+            for (int n = 0; n < ids.length && !same; n++) {
+                same = ids[n] == j && scores[n] == index.scoreAt(p);
+            }
+            if (!same) movedItem[j] = true;
+        }
+    }
+
+    private static List<Rows> computeRows(SimilarityEngine engine, int[] items, ForkJoinPool pool) {
+        return engine.mapBlocks(pool, items.length, (from, to, s) -> {
+            Rows rows = new Rows(to - from);
+            for (int r = from; r < to; r++) {
+                engine.computeRow(items[r], s);
+                rows.add(r - from, s);
+            }
+            return rows;
+        });
+    }
+
+    /**
+     * Full similarity rows of one block of items, concatenated.
+     */
+    private static final class Rows {
+        final int[] rowStarts;
+        final int[] rowLengths;
+        int[] ids = new int[64];
+        double[] sims = new double[64];
+        int size;
+
+        Rows(int numRows) {
+            rowStarts = new int[numRows];
+            rowLengths = new int[numRows];
+        }
+
+        void add(int row, SimilarityEngine.Scratch s) {
+            if (size + s.length > ids.length) {
+                int capacity = Math.max(size + s.length, ids.length * 2);
+                ids = Arrays.copyOf(ids, capacity);
+                sims = Arrays.copyOf(sims, capacity);
+            }
+            System.arraycopy(s.neighbors, 0, ids, size, s.length);
+            System.arraycopy(s.sims, 0, sims, size, s.length);
+            rowStarts[row] = size;
+            rowLengths[row] = s.length;
+            size += s.length;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package genericRecommenderSystem;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram that many threads can record into without locking. Values (nanoseconds)
+ * are bucketed log-linearly: each power of two is split into 16 linear sub-buckets, so a
+ * reported percentile is at most about 6% above the recorded value.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int NUM_BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    void record(long nanos) {
+        long value = Math.max(nanos, 0L);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    double mean() {
+        long n = count.sum();
+        return n == 0 ? 0.0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * The value below which a fraction {@code q} of the recordings fall, as the upper
+     * bound of its bucket (never above the maximum recorded).
+     */
+    long percentile(double q) {
+        long n = count.sum();
+        if (n == 0) return 0L;
+        long rank = Math.max(1L, (long) Math.ceil(q * n));
+        long seen = 0;
+        for (int b = 0; b < NUM_BUCKETS; b++) {
+            seen += counts.get(b);
+            if (seen >= rank) return Math.min(upperBound(b), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * One line summary in milliseconds.
+     */
+    String summary() {
+        return String.format("count=%d mean=%.3f p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f ms",
+                count(), mean() / 1e6, percentile(0.50) / 1e6, percentile(0.90) / 1e6,
+                percentile(0.99) / 1e6, percentile(0.999) / 1e6, max() / 1e6);
+    }
+
+    void appendJson(StringBuilder out) {
+        out.append("{\"count\":").append(count())
+                .append(",\"mean_us\":").append(Math.round(mean() / 1e3))
+                .append(",\"p50_us\":").append(percentile(0.50) / 1000)
+                .append(",\"p90_us\":").append(percentile(0.90) / 1000)
+                .append(",\"p99_us\":").append(percentile(0.99) / 1000)
+                .append(",\"p999_us\":").append(percentile(0.999) / 1000)
+                .append(",\"max_us\":").append(max() / 1000)
+                .append('}');
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_COUNT) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) ((value >>> shift) & (SUB_COUNT - 1));
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_COUNT) return bucket;
+        int shift = bucket / SUB_COUNT - 1;
+        long lower = (long) (SUB_COUNT + bucket % SUB_COUNT) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
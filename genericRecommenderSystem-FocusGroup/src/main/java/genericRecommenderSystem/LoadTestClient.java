@@ -0,0 +1,117 @@
+package genericRecommenderSystem;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closed-loop load generator for {@link RecommendationServer}: every worker sends its next
+ * request as soon as the previous one is answered, for random users and items of the served
+ * model. Reports throughput and client-side latency percentiles, then the server's own.
+ *
+ * Usage: LoadTestClient [url] [threads] [requests] [batch] [similarShare]
+ * (defaults http://127.0.0.1:8085 8 10000 1 0.2). A batch above 1 sends that many queries
+ * per POST /query instead of one GET each.
+ */
+public class LoadTestClient {
+
+    public static void main(String[] args) throws Exception {
+        String url = args.length > 0 ? args[0] : "http://127.0.0.1:8085";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+        int batch = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        double similarShare = args.length > 4 ? Double.parseDouble(args[4]) : 0.2;
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        String[] users = get(client, url + "/users").split("\n");
+        String[] items = get(client, url + "/items").split("\n");
+        System.out.printf("Load test against %s: %d users, %d items, %d threads, %d requests of %d queries%n",
+                url, users.length, items.length, threads, requests, batch);
+
+        // Warm up the server and the client before measuring
+        run(client, url, users, items, threads, Math.min(1000, Math.max(requests / 10, 1)), batch, similarShare);
+        Result result = run(client, url, users, items, threads, requests, batch, similarShare);
+
+        System.out.printf("%d requests (%d queries) in %.2f s: %.0f requests/s, %.0f queries/s, %d errors%n",
+                requests, (long) requests * batch, result.seconds, requests / result.seconds,
+                requests * (double) batch / result.seconds, result.errors.sum());
+        System.out.println("Client latency: " + result.latency.summary());
+        System.out.println("Server latency: " + get(client, url + "/metrics"));
+    }
+
+    private static final class Result {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        double seconds;
+    }
+
+    private static Result run(HttpClient client, String url, String[] users, String[] items, int threads,
+            int requests, int batch, double similarShare) throws InterruptedException {
+        Result result = new Result();
+        AtomicInteger remaining = new AtomicInteger(requests);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            workers.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (remaining.getAndDecrement() > 0) {
+                    HttpRequest request = batch > 1
+                            ? bulkRequest(url, users, items, batch, similarShare, random)
+                            : singleRequest(url, users, items, similarShare, random);
+                    long sent = System.nanoTime();
+                    try {
+                        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                        if (response.statusCode() != 200) result.errors.increment();
+                    } catch (Exception e) {
+                        result.errors.increment();
+                    }
+                    result.latency.record(System.nanoTime() - sent);
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.HOURS);
+        result.seconds = (System.nanoTime() - start) / 1e9;
+        return result;
+    }
+
+    private static HttpRequest singleRequest(String url, String[] users, String[] items, double similarShare,
+            ThreadLocalRandom random) {
+        String path = random.nextDouble() < similarShare
+                ? "/similar?item=" + encode(items[random.nextInt(items.length)])
+                : "/recommend?user=" + encode(users[random.nextInt(users.length)]);
+        return HttpRequest.newBuilder(URI.create(url + path)).GET().build();
+    }
+
+    private static HttpRequest bulkRequest(String url, String[] users, String[] items, int batch, double similarShare,
+            ThreadLocalRandom random) {
+        StringBuilder body = new StringBuilder(batch * 24);
+        for (int q = 0; q < batch; q++) {
+            if (random.nextDouble() < similarShare) {
+                body.append("similar ").append(items[random.nextInt(items.length)]).append('\n');
+            } else {
+                body.append("recommend ").append(users[random.nextInt(users.length)]).append('\n');
+            }
+        }
+        return HttpRequest.newBuilder(URI.create(url + "/query"))
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString())).build();
+    }
+
+    private static String encode(String id) {
+        return URLEncoder.encode(id, StandardCharsets.UTF_8);
+    }
+
+    private static String get(HttpClient client, String url) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create(url)).GET().build(),
+                HttpResponse.BodyHandlers.ofString()).body();
+    }
+}
@@ -0,0 +1,228 @@
+package genericRecommenderSystem;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Approximate top-K neighbors for catalogs too large for the exact engine, whose cost grows
+ * with the square of the vectors' rater overlap. Every vector gets a MinHash signature of
+ * {@code bands * rows} values over the set of its entries (the raters of an item); vectors whose signatures agree
+ * on all the rows of at least one band share a bucket, which happens with probability
+ * {@code 1 - (1 - J^rows)^bands} for Jaccard similarity J. Of the vectors sharing a bucket
+ * with a row's vector, the {@code maxCandidates} sharing the most are scored, exactly, with
+ * {@link SimilarityEngine#similarity}, so every neighbor found has its exact score and the
+ * approximation only loses neighbors. More bands and candidates raise recall; more rows make
+ * the buckets smaller and the build faster.
+ *
+ * The most rated vectors rarely share a bucket with the others, their Jaccard similarity with
+ * a vector of few entries being small, yet with shrinkage they are often its best neighbors;
+ * the {@code numPopular} of them with the most entries are scored for every vector, on top of
+ * the candidates.
+ *
+ * A bucket holding more than {@code maxBucket} vectors (raters of almost everything, or
+ * vectors with a single popular rater) only contributes the {@code maxBucket} vectors
+ * around the one being scored, which keeps the worst case linear.
+ */
+class MinHashNeighbors {
+
+    // Steps of the shared-entries estimate candidates are ranked on
+    private static final int STEPS = 1024;
+
+    private final SimilarityEngine engine;
+    private final int count;
+    private final int bands;
+    private final int maxBucket;
+    private final int maxCandidates;
+    // The vectors with the most entries, always candidates
+    private final int[] popular;
+    private final boolean[] isPopular;
+    // Per band: vectors sorted by bucket, with the bucket hash in the high half of each entry
+    private final long[][] buckets;
+    // Per band: position of each vector in buckets[band]
+    private final int[][] positions;
+    private final ThreadLocal<Scratch> scratch;
+
+    private MinHashNeighbors(SimilarityEngine engine, int bands, int maxBucket, int maxCandidates, int[] popular,
+            long[][] buckets, int[][] positions) {
+        this.engine = engine;
+        this.count = engine.count();
+        this.bands = bands;
+        this.maxBucket = maxBucket;
+        this.maxCandidates = maxCandidates;
+        this.popular = popular;
+        this.isPopular = new boolean[count];
+        for (int p : popular) isPopular[p] = true;
+        this.buckets = buckets;
+        this.positions = positions;
+        this.scratch = ThreadLocal.withInitial(Scratch::new);
+    }
+
+    /**
+     * Signs and buckets the vectors of {@code engine}; {@code seed} fixes the hash functions.
+     * {@code maxCandidates} of 0 scores every vector sharing a bucket.
+     */
+    static MinHashNeighbors build(SimilarityEngine engine, int bands, int rows, int maxBucket, int maxCandidates,
+            int numPopular, long seed, ForkJoinPool pool) {
+        if (bands < 1 || rows < 1) throw new IllegalArgumentException("LSH needs at least one band and one row");
+        int count = engine.count();
+        int numHashes = bands * rows;
+        // Multiply-shift hashing: h(x) = (a * x + b) >>> 32 with a odd
+        SplittableRandom random = new SplittableRandom(seed);
+        long[] a = new long[numHashes];
+        long[] b = new long[numHashes];
+        for (int h = 0; h < numHashes; h++) {
+            a[h] = random.nextLong() | 1L;
+            b[h] = random.nextLong();
+        }
+
+        // Only the band hashes are kept, sorted with the vector in the low half of each entry
+        long[][] buckets = new long[bands][count];
+        engine.mapBlocks(pool, (from, to, s) -> {
+            int[] signature = new int[numHashes];
+            for (int v = from; v < to; v++) {
+                sign(engine, v, a, b, signature);
+                for (int band = 0; band < bands; band++) {
+                    buckets[band][v] = (long) bandHash(signature, band * rows, rows) << 32 | v;
+                }
+            }
+            return null;
+        });
+        int[][] positions = new int[bands][count];
+        pool.invoke(new SortTask(buckets, positions, 0, bands));
+        return new MinHashNeighbors(engine, bands, maxBucket, maxCandidates, mostEntries(engine, numPopular), buckets,
+                positions);
+    }
+
+    private static int[] mostEntries(SimilarityEngine engine, int n) {
+        int count = engine.count();
+        TopKHeap heap = new TopKHeap(Math.min(n, count));
+        for (int v = 0; v < count; v++) {
+            if (engine.numEntries(v) > 0) heap.offer(v, engine.numEntries(v));
+        }
+        int[] ids = new int[heap.size()];
+        heap.drainDescending(ids, new float[ids.length], 0);
+        return ids;
+    }
+
+    private static void sign(SimilarityEngine engine, int v, long[] a, long[] b, int[] signature) {
+        int numHashes = a.length;
+        // A vector without entries keeps the maximum everywhere and never gets a neighbor
+        Arrays.fill(signature, -1);
+        for (int n = 0, entries = engine.numEntries(v); n < entries; n++) {
+            long x = engine.entryIndex(v, n);
+            for (int h = 0; h < numHashes; h++) {
+                int value = (int) ((a[h] * x + b[h]) >>> 32);
+                if (Integer.compareUnsigned(value, signature[h]) < 0) signature[h] = value;
+            }
+        }
+    }
+
+    private static int bandHash(int[] signatures, int from, int rows) {
+        int hash = 1;
+        for (int r = 0; r < rows; r++) hash = 31 * hash + signatures[from + r];
+        // Spread the bits so that the buckets sort evenly
+        return hash * 0x9E3779B9;
+    }
+
+    private final class Scratch {
+        // Bands each candidate shares with the row's vector, and the candidates in order met
+        final int[] hits = new int[count];
+        final int[] candidates = new int[count];
+        final int[] histogram = new int[STEPS];
+        final SimilarityEngine.Scratch engine = MinHashNeighbors.this.engine.scratch();
+    }
+
+    /**
+     * Offers the exact similarity of {@code index} with the vectors likely to share the most
+     * entries with it, at most {@code maxCandidates} of them, to {@code heap}.
+     */
+    void offerRow(int index, TopKHeap heap) {
+        if (engine.numEntries(index) == 0) return;
+        Scratch s = scratch.get();
+        int numCandidates = 0;
+        for (int band = 0; band < bands; band++) {
+            long[] sorted = buckets[band];
+            int at = positions[band][index];
+            long bucket = sorted[at] >>> 32;
+            // The bucket, or the window of maxBucket vectors of it centered on this one
+            int lo = at, hi = at + 1;
+            while (lo > 0 && at - lo < maxBucket / 2 && sorted[lo - 1] >>> 32 == bucket) lo--;
+            while (hi < count && hi - lo < maxBucket && sorted[hi] >>> 32 == bucket) hi++;
+            while (lo > 0 && hi - lo < maxBucket && sorted[lo - 1] >>> 32 == bucket) lo--;
+            for (int p = lo; p < hi; p++) {
+                int that = (int) sorted[p];
+                if (that != index && s.hits[that]++ == 0) s.candidates[numCandidates++] = that;
+            }
+        }
+        for (int that : popular) {
+            if (that != index && s.hits[that] == 0) s.candidates[numCandidates++] = that;
+        }
+
+        // The share of bands two vectors collide in estimates their Jaccard similarity J, and
+        // so their number of co-rated entries, J / (1 + J) of their sizes summed. Candidates
+        // are ranked on that estimate in steps of 1/8, best steps first, in order met within
+        // the last step taken; the shrinkage makes finer differences beyond 128 irrelevant.
+        int size = engine.numEntries(index);
+        Arrays.fill(s.histogram, 0);
+        for (int c = 0; c < numCandidates; c++) {
+            int that = s.candidates[c];
+            double jaccard = (double) s.hits[that] / bands;
+            double shared = jaccard / (1.0 + jaccard) * (size + engine.numEntries(that));
+            if (isPopular[that]) {
+                // Outside the budget: above every step
+                s.hits[that] = STEPS;
+                continue;
+            }
+            int step = (int) Math.min(STEPS - 1, shared * 8.0);
+            s.hits[that] = step;
+            s.histogram[step]++;
+        }
+        int level = STEPS - 1;
+        int remaining = maxCandidates > 0 ? maxCandidates : Integer.MAX_VALUE;
+        while (level >= 0 && s.histogram[level] <= remaining) remaining -= s.histogram[level--];
+
+        engine.scatter(index, s.engine);
+        for (int c = 0; c < numCandidates; c++) {
+            int that = s.candidates[c];
+            int step = s.hits[that];
+            s.hits[that] = 0;
+            if (step < level || step == level && remaining-- <= 0) continue;
+            double sim = engine.similarity(s.engine, that);
+            // Ranked at the stored precision, as in NeighborIndex.build
+            if (!Double.isNaN(sim) && sim != 0.0) heap.offer(that, (float) sim);
+        }
+    }
+
+    private static final class SortTask extends RecursiveAction {
+        private final long[][] buckets;
+        private final int[][] positions;
+        private final int fromBand, toBand;
+
+        SortTask(long[][] buckets, int[][] positions, int fromBand, int toBand) {
+            this.buckets = buckets;
+            this.positions = positions;
+            this.fromBand = fromBand;
+            this.toBand = toBand;
+        }
+
+        @Override
+        protected void compute() {
+            if (toBand - fromBand > 1) {
+                int mid = (fromBand + toBand) >>> 1;
+                invokeAll(new SortTask(buckets, positions, fromBand, mid), new SortTask(buckets, positions, mid, toBand));
+                return;
+            }
+            long[] sorted = buckets[fromBand];
+            Arrays.sort(sorted);
+            int[] position = positions[fromBand];
+            for (int p = 0; p < sorted.length; p++) position[(int) sorted[p]] = p;
+        }
+    }
+
+    /** The approximate best {@code k} neighbors of every vector (all candidates when k is 0). */
+    NeighborIndex neighborIndex(int k, ForkJoinPool pool) {
+        return NeighborIndex.build(count, k, pool, this::offerRow);
+    }
+}
@@ -0,0 +1,432 @@
+package genericRecommenderSystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ForkJoinPool;
+
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
+
+/**
+ * On-disk cache of trained models, one file per input fingerprint. A file holds the
+ * neighbor index, the train/test split it was trained on and the user/item id
+ * dictionaries, and is memory-mapped on load; the neighbor index is used in place.
+ * The ranked top-N lists are stored as well when available.
+ *
+ * For every combination of settings a small {@code .latest} file names the entry of
+ * the last run, which the incremental mode diffs the next ratings against.
+ *
+ * File layout (little endian):
+ * <pre>
+ *   header (64 bytes): int magic, int version, byte[32] key, int numUsers, int numItems,
+ *                      int trainSize, int testSize, long indexBytes
+ *   neighbor index    (NeighborIndex layout)
+ *   train             int ptr[numUsers + 1], int items[trainSize], double values[trainSize]
+ *   test              int ptr[numUsers + 1], int items[testSize], double values[testSize]
+ *   results           int topN, then unless 0: int sizes[numUsers], int items[numUsers * topN],
+ *                     float scores[numUsers * topN]
+ *   dictionaries      numUsers + numItems times: int length, UTF-8 bytes
+ * </pre>
+ */
+public class ModelCache {
+
+    static final int MAGIC = 0x52534D43; // "RSMC"
+    static final int VERSION = 3;
+    static final int HEADER_BYTES = 64;
+    static final String EXTENSION = ".rsmc";
+
+    // Settings that change the trained model; anything else can reuse a cache entry
+    private static final String[] MODEL_SETTINGS = {
+            "rec.recommender.similarity.key", "rec.similarity.shrinkage", "rec.similarity.function",
+            "rec.neighbors.knn.number", "rec.recommender.isranking", "data.convert.binarize.threshold",
+            "data.model.splitter", "data.splitter.ratio", "data.splitter.trainset.ratio", "rec.similarity.lsh",
+            "rec.similarity.lsh.bands", "rec.similarity.lsh.rows", "rec.similarity.lsh.max.bucket",
+            "rec.similarity.lsh.candidates", "rec.similarity.lsh.popular"
+    };
+
+    private final Path dir;
+
+    public ModelCache(Path dir) {
+        this.dir = dir;
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    /**
+     * SHA-256 over the cache version, the ratings (ids and values, in order) and the model settings.
+     */
+    public static String fingerprint(RatingEncoder ratings, Configuration conf) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(12 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(VERSION).putInt(ratings.numUsers()).putInt(ratings.numItems()).putInt(ratings.size());
+        for (int u = 0; u < ratings.numUsers(); u++) {
+            buf = update(digest, buf, ratings.getUserId(u));
+        }
+        for (int i = 0; i < ratings.numItems(); i++) {
+            buf = update(digest, buf, ratings.getItemId(i));
+        }
+        int[] users = ratings.getUsers(), items = ratings.getItems();
+        double[] values = ratings.getValues();
+        for (int k = 0; k < ratings.size(); k++) {
+            if (buf.remaining() < 16) flush(digest, buf);
+            buf.putInt(users[k]).putInt(items[k]).putDouble(values[k]);
+        }
+        for (String key : MODEL_SETTINGS) {
+            buf = update(digest, buf, key + "=" + conf.get(key, ""));
+        }
+        flush(digest, buf);
+        return hex(digest.digest());
+    }
+
+    /**
+     * SHA-256 over the cache version, the model settings and {@code domainKey} (the models the
+     * ratings come from), naming the {@code .latest} pointer; domains with the same settings
+     * sharing a cache directory keep pointers of their own.
+     */
+    public static String settingsFingerprint(Configuration conf, String domainKey) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(VERSION);
+        for (String key : MODEL_SETTINGS) {
+            buf = update(digest, buf, key + "=" + conf.get(key, ""));
+        }
+        buf = update(digest, buf, domainKey);
+        flush(digest, buf);
+        return hex(digest.digest());
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Key of the entry last stored for these settings, or null.
+     */
+    public String latest(String settingsKey) throws IOException {
+        Path pointer = dir.resolve(settingsKey + ".latest");
+        if (!Files.isRegularFile(pointer)) return null;
+        String key = new String(Files.readAllBytes(pointer), StandardCharsets.US_ASCII).trim();
+        return key.length() == 64 ? key : null;
+    }
+
+    public void markLatest(String settingsKey, String key) throws IOException {
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, settingsKey, ".tmp");
+        try {
+            Files.write(tmp, key.getBytes(StandardCharsets.US_ASCII));
+            Files.move(tmp, dir.resolve(settingsKey + ".latest"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static ByteBuffer update(MessageDigest digest, ByteBuffer buf, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (buf.remaining() < bytes.length + 4) flush(digest, buf);
+        if (buf.remaining() < bytes.length + 4) {
+            digest.update(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, bytes.length));
+            digest.update(bytes);
+            return buf;
+        }
+        return buf.putInt(bytes.length).put(bytes);
+    }
+
+    private static void flush(MessageDigest digest, ByteBuffer buf) {
+        buf.flip();
+        digest.update(buf);
+        buf.clear();
+    }
+
+    Path fileFor(String key) {
+        return dir.resolve(key + EXTENSION);
+    }
+
+    /**
+     * Maps the entry stored under {@code key}, or returns null when there is none or it
+     * was written by another cache version.
+     */
+    public Entry load(String key) throws IOException {
+        Path file = fileFor(key);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer buf = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.capacity() < HEADER_BYTES || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            return null;
+        }
+        for (int k = 0; k < 32; k++) {
+            if (buf.get(8 + k) != (byte) Integer.parseInt(key.substring(2 * k, 2 * k + 2), 16)) return null;
+        }
+        int numUsers = buf.getInt(40), numItems = buf.getInt(44);
+        int trainSize = buf.getInt(48), testSize = buf.getInt(52);
+        long indexBytes = buf.getLong(56);
+
+        buf.position(HEADER_BYTES).limit(HEADER_BYTES + (int) indexBytes);
+        NeighborIndex index = new NeighborIndex(buf.slice());
+        buf.limit(buf.capacity()).position(HEADER_BYTES + (int) indexBytes);
+
+        Entry entry = new Entry(numUsers, numItems, trainSize, testSize, index);
+        readCsr(buf, entry.trainPtr, entry.trainItems, entry.trainValues);
+        readCsr(buf, entry.testPtr, entry.testItems, entry.testValues);
+        int topN = buf.getInt();
+        if (topN > 0) {
+            RankedResults results = new RankedResults(numUsers, topN);
+            buf.asIntBuffer().get(results.sizes());
+            buf.position(buf.position() + 4 * numUsers);
+            buf.asIntBuffer().get(results.items());
+            buf.position(buf.position() + 4 * results.items().length);
+            buf.asFloatBuffer().get(results.scores());
+            buf.position(buf.position() + 4 * results.scores().length);
+            entry.results = results;
+        }
+        for (int u = 0; u < numUsers; u++) entry.userIds[u] = readString(buf);
+        for (int i = 0; i < numItems; i++) entry.itemIds[i] = readString(buf);
+        return entry;
+    }
+
+    /**
+     * Writes the entry to a temporary file and moves it into place, so a concurrent
+     * run never maps a half-written file.
+     */
+    public void store(String key, Entry entry) throws IOException {
+        Files.createDirectories(dir);
+        byte[][] userIds = encode(entry.userIds);
+        byte[][] itemIds = encode(entry.itemIds);
+        ByteBuffer index = entry.index.buffer();
+        long size = HEADER_BYTES + index.remaining()
+                + csrBytes(entry.numUsers, entry.trainItems.length)
+                + csrBytes(entry.numUsers, entry.testItems.length)
+                + 4 + (hasResults(entry) ? 4L * entry.numUsers + 8L * entry.results.items().length : 0)
+                + dictionaryBytes(userIds) + dictionaryBytes(itemIds);
+
+        Path tmp = Files.createTempFile(dir, key, ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+                buf.putInt(MAGIC).putInt(VERSION);
+                for (int k = 0; k < 32; k++) {
+                    buf.put((byte) Integer.parseInt(key.substring(2 * k, 2 * k + 2), 16));
+                }
+                buf.putInt(entry.numUsers).putInt(entry.numItems)
+                        .putInt(entry.trainItems.length).putInt(entry.testItems.length)
+                        .putLong(index.remaining());
+                buf.put(index);
+                writeCsr(buf, entry.trainPtr, entry.trainItems, entry.trainValues);
+                writeCsr(buf, entry.testPtr, entry.testItems, entry.testValues);
+                if (!hasResults(entry)) {
+                    buf.putInt(0);
+                } else {
+                    buf.putInt(entry.results.topN());
+                    for (int length : entry.results.sizes()) buf.putInt(length);
+                    for (int item : entry.results.items()) buf.putInt(item);
+                    for (float score : entry.results.scores()) buf.putFloat(score);
+                }
+                for (byte[] id : userIds) buf.putInt(id.length).put(id);
+                for (byte[] id : itemIds) buf.putInt(id.length).put(id);
+            }
+            Files.move(tmp, fileFor(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // Lists ranked with top-0 (rating mode) have nothing to store and are written like none
+    private static boolean hasResults(Entry entry) {
+        return entry.results != null && entry.results.topN() > 0;
+    }
+
+    private static long csrBytes(int numRows, int size) {
+        return 4L * (numRows + 1) + 12L * size;
+    }
+
+    private static long dictionaryBytes(byte[][] ids) {
+        long bytes = 0;
+        for (byte[] id : ids) bytes += 4 + id.length;
+        return bytes;
+    }
+
+    private static byte[][] encode(String[] ids) {
+        byte[][] bytes = new byte[ids.length][];
+        for (int k = 0; k < ids.length; k++) bytes[k] = ids[k].getBytes(StandardCharsets.UTF_8);
+        return bytes;
+    }
+
+    private static void writeCsr(ByteBuffer buf, int[] ptr, int[] items, double[] values) {
+        for (int p : ptr) buf.putInt(p);
+        for (int i : items) buf.putInt(i);
+        for (double v : values) buf.putDouble(v);
+    }
+
+    private static void readCsr(ByteBuffer buf, int[] ptr, int[] items, double[] values) {
+        buf.asIntBuffer().get(ptr);
+        buf.position(buf.position() + 4 * ptr.length);
+        buf.asIntBuffer().get(items);
+        buf.position(buf.position() + 4 * items.length);
+        buf.asDoubleBuffer().get(values);
+        buf.position(buf.position() + 8 * values.length);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A trained model: neighbor index, the split it was trained on, and the id dictionaries.
+     */
+    public static class Entry {
+        final int numUsers;
+        final int numItems;
+        final int[] trainPtr;
+        final int[] trainItems;
+        final double[] trainValues;
+        final int[] testPtr;
+        final int[] testItems;
+        final double[] testValues;
+        final String[] userIds;
+        final String[] itemIds;
+        final NeighborIndex index;
+        RankedResults results;
+
+        Entry(int numUsers, int numItems, int trainSize, int testSize, NeighborIndex index) {
+            this.numUsers = numUsers;
+            this.numItems = numItems;
+            this.trainPtr = new int[numUsers + 1];
+            this.trainItems = new int[trainSize];
+            this.trainValues = new double[trainSize];
+            this.testPtr = new int[numUsers + 1];
+            this.testItems = new int[testSize];
+            this.testValues = new double[testSize];
+            this.userIds = new String[numUsers];
+            this.itemIds = new String[numItems];
+            this.index = index;
+        }
+
+        /**
+         * Snapshot of a trained data model. The ids come from the encoder, whose indices
+         * are the ones the data model uses.
+         */
+        public static Entry of(RatingEncoder ratings, DataModel dataModel, NeighborIndex index) {
+            return of(ratings, (SequentialAccessSparseMatrix) dataModel.getTrainDataSet(),
+                    (SequentialAccessSparseMatrix) dataModel.getTestDataSet(), index);
+        }
+
+        static Entry of(RatingEncoder ratings, SequentialAccessSparseMatrix train, SequentialAccessSparseMatrix test,
+                NeighborIndex index) {
+            Entry entry = new Entry(train.rowSize(), train.columnSize(), train.size(), test == null ? 0 : test.size(), index);
+            copyCsr(train, entry.trainPtr, entry.trainItems, entry.trainValues);
+            if (test != null) copyCsr(test, entry.testPtr, entry.testItems, entry.testValues);
+            System.arraycopy(ratings.getUserIds(), 0, entry.userIds, 0, entry.numUsers);
+            System.arraycopy(ratings.getItemIds(), 0, entry.itemIds, 0, entry.numItems);
+            return entry;
+        }
+
+        private static void copyCsr(SequentialAccessSparseMatrix matrix, int[] ptr, int[] items, double[] values) {
+            for (int u = 0; u < matrix.rowSize(); u++) {
+                SequentialSparseVector row = matrix.row(u);
+                int offset = ptr[u];
+                for (int p = 0, n = row.getNumEntries(); p < n; p++) {
+                    items[offset + p] = row.getIndexAtPosition(p);
+                    values[offset + p] = row.getAtPosition(p);
+                }
+                ptr[u + 1] = offset + row.getNumEntries();
+            }
+        }
+
+        /**
+         * True when the cached dictionaries are exactly the encoder's, i.e. the inner
+         * indices in this entry mean the same users and items.
+         */
+        public boolean matches(RatingEncoder ratings) {
+            if (ratings.numUsers() != numUsers || ratings.numItems() != numItems) return false;
+            for (int u = 0; u < numUsers; u++) {
+                if (!userIds[u].equals(ratings.getUserId(u))) return false;
+            }
+            for (int i = 0; i < numItems; i++) {
+                if (!itemIds[i].equals(ratings.getItemId(i))) return false;
+            }
+            return true;
+        }
+
+        /**
+         * The stored top-N lists when they were ranked with the same N, otherwise a fresh ranking.
+         */
+        public RankedResults rank(int topN, ForkJoinPool pool) {
+            if (results == null || results.topN() != topN) {
+                results = new TopNRanker(index, trainPtr, trainItems).rank(topN, pool);
+            }
+            return results;
+        }
+
+        /**
+         * A fresh ranking filtered by {@code rules}, which replaces this entry's results in
+         * memory only; without rules, same as {@link #rank(int, ForkJoinPool)}.
+         */
+        RankedResults rank(int topN, ForkJoinPool pool, RuleFilter rules) {
+            if (rules == null) return rank(topN, pool);
+            results = new TopNRanker(index, trainPtr, trainItems, rules).rank(topN, pool);
+            return results;
+        }
+
+        public RankedResults getResults() {
+            return results;
+        }
+
+        public void setResults(RankedResults results) {
+            this.results = results;
+        }
+
+        public SequentialAccessSparseMatrix testMatrix() {
+            int[] rows = new int[testItems.length];
+            for (int u = 0; u < numUsers; u++) {
+                for (int p = testPtr[u]; p < testPtr[u + 1]; p++) rows[p] = u;
+            }
+            return InMemoryDataModel.buildMatrix(numUsers, numItems, rows, testItems, testValues, testItems.length, -1.0);
+        }
+
+        public NeighborIndex getIndex() {
+            return index;
+        }
+
+        public String[] getUserIds() {
+            return userIds.clone();
+        }
+
+        public String[] getItemIds() {
+            return itemIds.clone();
+        }
+    }
+}
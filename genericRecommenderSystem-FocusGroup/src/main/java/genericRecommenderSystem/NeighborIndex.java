@@ -0,0 +1,377 @@
+package genericRecommenderSystem;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import net.librec.math.structure.SymmMatrix;
+
+/**
+ * Top-K neighbor lists kept in one flat off-heap buffer instead of a SymmMatrix.
+ * Each vector (item, or user for user-based similarity) has at most K neighbors,
+ * stored best first as {@code int} ids and {@code float} scores, so the index costs
+ * O(count * K) bytes and nothing of it lives on the Java heap.
+ *
+ * Buffer layout (little endian):
+ * <pre>
+ *   int magic, int count, int k, int numEntries
+ *   int offsets[count + 1]
+ *   int neighbors[numEntries]
+ *   float scores[numEntries]
+ * </pre>
+ * The same layout is used on disk, so a persisted index can be wrapped as-is.
+ */
+public class NeighborIndex {
+
+    static final int MAGIC = 0x4E425231; // "NBR1"
+    static final int HEADER_BYTES = 16;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int k;
+    private final int numEntries;
+    private final IntBuffer offsets;
+    private final IntBuffer neighbors;
+    private final FloatBuffer scores;
+
+    /**
+     * Wraps a buffer holding an index in the layout above (e.g. a mapped file).
+     */
+    public NeighborIndex(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.buffer.position(0);
+        if (this.buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a neighbor index buffer");
+        }
+        this.count = this.buffer.getInt(4);
+        this.k = this.buffer.getInt(8);
+        this.numEntries = this.buffer.getInt(12);
+        if (sizeInBytes(count, numEntries) > this.buffer.capacity()) {
+            throw new IllegalArgumentException("Neighbor index buffer is truncated");
+        }
+        this.offsets = slice(HEADER_BYTES, count + 1).asIntBuffer();
+        int neighborsAt = HEADER_BYTES + 4 * (count + 1);
+        this.neighbors = slice(neighborsAt, numEntries).asIntBuffer();
+        this.scores = slice(neighborsAt + 4 * numEntries, numEntries).asFloatBuffer();
+    }
+
+    private ByteBuffer slice(int position, int ints) {
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(position).limit(position + 4 * ints);
+        return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // A ByteBuffer holds at most Integer.MAX_VALUE bytes
+    static int sizeInBytes(int count, int numEntries) {
+        long size = HEADER_BYTES + 4L * (count + 1) + 8L * numEntries;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Neighbor index of " + count + " lists and " + numEntries
+                    + " entries needs " + size + " bytes, more than a buffer can hold; lower rec.knn");
+        }
+        return (int) size;
+    }
+
+    /**
+     * Builds the index straight from the similarity engine: every row is pruned to its
+     * best K neighbors as soon as it is computed, so the full matrix never exists.
+     */
+    static NeighborIndex build(SimilarityEngine engine, int k, ForkJoinPool pool) {
+        return build(engine, k, pool, (i, s, heap) -> {
+            int length = engine.computeRow(i, s);
+            // Ranked at the stored precision, so that equal scores always break ties by id
+            for (int p = 0; p < length; p++) {
+                heap.offer(s.neighbors[p], (float) s.sims[p]);
+            }
+        });
+    }
+
+    /**
+     * Candidate neighbors of one vector, offered to a heap that keeps the best K.
+     */
+    interface RowSource {
+        void offer(int index, SimilarityEngine.Scratch scratch, TopKHeap heap);
+    }
+
+    /**
+     * Builds the index from the rows of {@code source}, block by block over the vectors of
+     * {@code engine}.
+     */
+    static NeighborIndex build(SimilarityEngine engine, int k, ForkJoinPool pool, RowSource source) {
+        int count = engine.count();
+        int maxK = k > 0 ? k : Math.max(count - 1, 0);
+        List<BlockRows> blocks = engine.mapBlocks(pool, (from, to, s) -> {
+            BlockRows rows = new BlockRows(to - from, maxK);
+            TopKHeap heap = new TopKHeap(maxK);
+            for (int i = from; i < to; i++) {
+                heap.clear();
+                source.offer(i, s, heap);
+                rows.add(heap);
+            }
+            return rows;
+        });
+        return assemble(count, maxK, blocks);
+    }
+
+    /**
+     * Candidate neighbors of one vector, for sources that keep their own per-thread state.
+     */
+    interface IndexedRowSource {
+        void offer(int index, TopKHeap heap);
+    }
+
+    /**
+     * Builds the index of {@code count} vectors from the rows of {@code source}, in blocks of
+     * {@link SimilarityEngine#BLOCK_SIZE} on the pool.
+     */
+    static NeighborIndex build(int count, int k, ForkJoinPool pool, IndexedRowSource source) {
+        int maxK = k > 0 ? k : Math.max(count - 1, 0);
+        int numBlocks = (count + SimilarityEngine.BLOCK_SIZE - 1) / SimilarityEngine.BLOCK_SIZE;
+        BlockRows[] blocks = new BlockRows[numBlocks];
+        if (numBlocks > 0) pool.invoke(new BuildTask(source, blocks, count, maxK, 0, numBlocks));
+        return assemble(count, maxK, Arrays.asList(blocks));
+    }
+
+    private static NeighborIndex assemble(int count, int maxK, List<BlockRows> blocks) {
+        int numEntries = 0;
+        for (BlockRows rows : blocks) numEntries += rows.size;
+        Builder builder = new Builder(count, maxK, numEntries);
+        for (BlockRows rows : blocks) {
+            for (int r = 0; r < rows.lengths.length; r++) {
+                builder.addRow(rows.ids, rows.scores, rows.starts[r], rows.lengths[r]);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Prunes an existing SymmMatrix to its best K neighbors per row, with the same
+     * ordering rules as {@link #build}.
+     */
+    static NeighborIndex fromSymmMatrix(SymmMatrix matrix, int k) {
+        int count = matrix.getDim();
+        int maxK = k > 0 ? k : Math.max(count - 1, 0);
+        int[] ids = new int[maxK];
+        float[] values = new float[maxK];
+        int[] lengths = new int[count];
+        int[][] rowIds = new int[count][];
+        float[][] rowScores = new float[count][];
+        int numEntries = 0;
+        TopKHeap heap = new TopKHeap(maxK);
+        for (int i = 0; i < count; i++) {
+            heap.clear();
+            for (Map.Entry<Integer, Double> entry : matrix.row(i).entrySet()) {
+                heap.offer(entry.getKey(), entry.getValue().floatValue());
+            }
+            int length = heap.drainDescending(ids, values, 0);
+            rowIds[i] = Arrays.copyOf(ids, length);
+            rowScores[i] = Arrays.copyOf(values, length);
+            lengths[i] = length;
+            numEntries += length;
+        }
+        Builder builder = new Builder(count, maxK, numEntries);
+        for (int i = 0; i < count; i++) {
+            builder.addRow(rowIds[i], rowScores[i], 0, lengths[i]);
+        }
+        return builder.build();
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int k() {
+        return k;
+    }
+
+    public int numEntries() {
+        return numEntries;
+    }
+
+    public int start(int index) {
+        return offsets.get(index);
+    }
+
+    public int end(int index) {
+        return offsets.get(index + 1);
+    }
+
+    public int neighborAt(int position) {
+        return neighbors.get(position);
+    }
+
+    public float scoreAt(int position) {
+        return scores.get(position);
+    }
+
+    /** Read-only view of the whole index in its serialized layout. */
+    public ByteBuffer buffer() {
+        return buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public long sizeInBytes() {
+        return sizeInBytes(count, numEntries);
+    }
+
+    /**
+     * Symmetric matrix holding only the kept edges, for code that still expects a
+     * RecommenderSimilarity matrix. Taking the top K of each of its rows gives back
+     * exactly this index.
+     */
+    public SymmMatrix toSymmMatrix() {
+        SymmMatrix matrix = new SymmMatrix(count);
+        for (int i = 0; i < count; i++) {
+            for (int p = start(i), end = end(i); p < end; p++) {
+                matrix.set(i, neighborAt(p), scoreAt(p));
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Returns the number of rows whose neighbor lists differ from {@code other}, by id
+     * or by score.
+     */
+    int countDifferences(NeighborIndex other) {
+        if (count != other.count) return Math.max(count, other.count);
+        int differences = 0;
+        for (int i = 0; i < count; i++) {
+            int p = start(i), q = other.start(i);
+            int length = end(i) - p;
+            boolean same = length == other.end(i) - q;
+            for (int n = 0; same && n < length; n++) {
+                same = neighborAt(p + n) == other.neighborAt(q + n) && scoreAt(p + n) == other.scoreAt(q + n);
+            }
+            if (!same) differences++;
+        }
+        return differences;
+    }
+
+    /**
+     * Fraction of the neighbors listed in {@code exact} that this index lists for the same
+     * vector (1 when {@code exact} has none).
+     */
+    double recall(NeighborIndex exact) {
+        if (count != exact.count) throw new IllegalArgumentException("Indexes of different sizes");
+        long found = 0;
+        // listed[n] == i + 1 when this index lists n as a neighbor of i
+        int[] listed = new int[count];
+        for (int i = 0; i < count; i++) {
+            for (int p = start(i), pEnd = end(i); p < pEnd; p++) listed[neighborAt(p)] = i + 1;
+            for (int q = exact.start(i), qEnd = exact.end(i); q < qEnd; q++) {
+                if (listed[exact.neighborAt(q)] == i + 1) found++;
+            }
+        }
+        return exact.numEntries == 0 ? 1.0 : (double) found / exact.numEntries;
+    }
+
+    /**
+     * Writes rows into a fresh direct buffer, one row after the other.
+     */
+    static final class Builder {
+        private final ByteBuffer buffer;
+        private final int count;
+        private final int neighborsAt;
+        private final int scoresAt;
+        private int row;
+        private int position;
+
+        Builder(int count, int k, int numEntries) {
+            this.count = count;
+            this.buffer = ByteBuffer.allocateDirect(sizeInBytes(count, numEntries)).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(0, MAGIC).putInt(4, count).putInt(8, k).putInt(12, numEntries);
+            this.neighborsAt = HEADER_BYTES + 4 * (count + 1);
+            this.scoresAt = neighborsAt + 4 * numEntries;
+            buffer.putInt(HEADER_BYTES, 0);
+        }
+
+        void addRow(int[] ids, float[] values, int from, int length) {
+            for (int n = 0; n < length; n++) {
+                buffer.putInt(neighborsAt + 4 * (position + n), ids[from + n]);
+                buffer.putFloat(scoresAt + 4 * (position + n), values[from + n]);
+            }
+            position += length;
+            buffer.putInt(HEADER_BYTES + 4 * (++row), position);
+        }
+
+        NeighborIndex build() {
+            if (row != count) {
+                throw new IllegalStateException("Expected " + count + " rows, got " + row);
+            }
+            return new NeighborIndex(buffer);
+        }
+    }
+
+    private static final class BuildTask extends RecursiveAction {
+        private final IndexedRowSource source;
+        private final BlockRows[] blocks;
+        private final int count, maxK;
+        private final int fromBlock, toBlock;
+
+        BuildTask(IndexedRowSource source, BlockRows[] blocks, int count, int maxK, int fromBlock, int toBlock) {
+            this.source = source;
+            this.blocks = blocks;
+            this.count = count;
+            this.maxK = maxK;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+        }
+
+        @Override
+        protected void compute() {
+            if (toBlock - fromBlock > 1) {
+                int mid = (fromBlock + toBlock) >>> 1;
+                invokeAll(new BuildTask(source, blocks, count, maxK, fromBlock, mid),
+                        new BuildTask(source, blocks, count, maxK, mid, toBlock));
+                return;
+            }
+            int from = fromBlock * SimilarityEngine.BLOCK_SIZE;
+            int to = Math.min(from + SimilarityEngine.BLOCK_SIZE, count);
+            BlockRows rows = new BlockRows(to - from, maxK);
+            TopKHeap heap = new TopKHeap(maxK);
+            for (int i = from; i < to; i++) {
+                heap.clear();
+                source.offer(i, heap);
+                rows.add(heap);
+            }
+            blocks[fromBlock] = rows;
+        }
+    }
+
+    /**
+     * Pruned rows of one block, concatenated.
+     */
+    private static final class BlockRows {
+        final int[] starts;
+        final int[] lengths;
+        int[] ids;
+        float[] scores;
+        int size;
+        private int rows;
+
+        BlockRows(int numRows, int k) {
+            starts = new int[numRows];
+            lengths = new int[numRows];
+            int capacity = (int) Math.min((long) numRows * k, 1 << 16);
+            ids = new int[Math.max(capacity, 16)];
+            scores = new float[ids.length];
+        }
+
+        void add(TopKHeap heap) {
+            int length = heap.size();
+            if (size + length > ids.length) {
+                int capacity = Math.max(size + length, ids.length * 2);
+                ids = Arrays.copyOf(ids, capacity);
+                scores = Arrays.copyOf(scores, capacity);
+            }
+            starts[rows] = size;
+            lengths[rows++] = heap.drainDescending(ids, scores, size);
+            size += length;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package genericRecommenderSystem;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import net.librec.data.DataModel;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SymmMatrix;
+import net.librec.similarity.AbstractRecommenderSimilarity;
+
+/**
+ * The parallel similarity engine of the pipeline, computing the {@link SimilarityFunction} in
+ * {@code rec.similarity.function}: COSINE (the default), PEARSON, EUCLIDEAN, or HAVERSINE from
+ * the item coordinates passed to {@link #setCoordinates} (item-based only, always as a
+ * neighbor index). Instead of correlating every pair of vectors (O(n^2) merges, most of them
+ * empty), only pairs that share a rater are visited, block by block on a fork-join pool sized
+ * by {@code rec.similarity.threads}. For COSINE and PEARSON, shrinkage and the NaN/zero
+ * filtering are the same as in LibRec's CosineSimilarity and PCCSimilarity, so a full
+ * SymmMatrix holds the same entries as theirs.
+ *
+ * By default only the best {@code rec.neighbors.knn.number} neighbors of each vector are
+ * kept, in a {@link NeighborIndex}; set {@code rec.similarity.full} to keep every pair.
+ *
+ * With {@code rec.similarity.lsh} the neighbor index is approximate: only the pairs that
+ * {@link MinHashNeighbors} buckets together, and the rows of the most rated vectors, are
+ * scored (rec.similarity.lsh.bands, .rows, .max.bucket, .candidates and .popular trade recall
+ * for speed).
+ */
+public class ParallelItemSimilarity extends AbstractRecommenderSimilarity {
+
+    // Fixed, so that the same ratings always give the same approximate neighbors
+    static final long LSH_SEED = 42L;
+
+    private NeighborIndex neighborIndex;
+    private ForkJoinPool sharedPool;
+    private GeoNeighbors coordinates;
+
+    public ParallelItemSimilarity() {
+    }
+
+    /**
+     * Wraps an index built elsewhere (e.g. by {@link RawSimilarity}) instead of building one.
+     */
+    ParallelItemSimilarity(NeighborIndex neighborIndex) {
+        this.neighborIndex = neighborIndex;
+    }
+
+    /**
+     * Builds on {@code pool} instead of a pool of its own; the pool is not shut down.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.sharedPool = pool;
+    }
+
+    /**
+     * Item coordinates for the HAVERSINE function.
+     */
+    void setCoordinates(GeoNeighbors coordinates) {
+        this.coordinates = coordinates;
+    }
+
+    @Override
+    public void buildSimilarityMatrix(DataModel dataModel) {
+        conf = dataModel.getContext().getConf();
+        String similarityKey = conf.get("rec.recommender.similarity.key", "user");
+        if (similarityKey == null || similarityKey.trim().isEmpty()) {
+            return;
+        }
+        if ("social".equals(similarityKey)) {
+            super.buildSimilarityMatrix(dataModel);
+            return;
+        }
+
+        boolean isUser = "user".equals(similarityKey);
+        SimilarityFunction function = SimilarityFunction.parse(conf.get("rec.similarity.function", "cosine"));
+        if (function == SimilarityFunction.HAVERSINE && (isUser || coordinates == null)) {
+            throw new IllegalStateException("HAVERSINE needs item-based similarity and item coordinates");
+        }
+
+        ForkJoinPool pool = sharedPool != null ? sharedPool : SimilarityEngine.newPool(conf.getInt("rec.similarity.threads", 0));
+        try {
+            if (function == SimilarityFunction.HAVERSINE) {
+                neighborIndex = coordinates.neighborIndex(conf.getInt("rec.neighbors.knn.number", 0), pool);
+                similarityMatrix = null;
+                return;
+            }
+            SequentialAccessSparseMatrix trainMatrix = dataModel.getDataSplitter().getTrainData();
+            SimilarityEngine engine = SimilarityEngine.of(trainMatrix, isUser, conf.getInt("rec.similarity.shrinkage", 0), function);
+            if (conf.getBoolean("rec.similarity.full", false)) {
+                similarityMatrix = buildFullMatrix(engine, pool);
+            } else if (conf.getBoolean("rec.similarity.lsh", false)) {
+                MinHashNeighbors lsh = MinHashNeighbors.build(engine, conf.getInt("rec.similarity.lsh.bands", 32),
+                        conf.getInt("rec.similarity.lsh.rows", 2), conf.getInt("rec.similarity.lsh.max.bucket", 100),
+                        conf.getInt("rec.similarity.lsh.candidates", 200), conf.getInt("rec.similarity.lsh.popular", 100),
+                        LSH_SEED, pool);
+                neighborIndex = lsh.neighborIndex(conf.getInt("rec.neighbors.knn.number", 0), pool);
+                similarityMatrix = null;
+            } else {
+                // Only the neighbors ItemKNN will use are kept; the matrix is derived on demand
+                neighborIndex = NeighborIndex.build(engine, conf.getInt("rec.neighbors.knn.number", 0), pool);
+                similarityMatrix = null;
+            }
+        } finally {
+            if (pool != sharedPool) pool.shutdown();
+        }
+    }
+
+    private static SymmMatrix buildFullMatrix(SimilarityEngine engine, ForkJoinPool pool) {
+        List<BlockEntries> blocks = engine.mapBlocks(pool, (from, to, s) -> {
+            BlockEntries entries = new BlockEntries();
+            for (int i = from; i < to; i++) {
+                int length = engine.computeRow(i, s);
+                for (int k = 0; k < length; k++) {
+                    // Each pair is computed from both ends; keep the upper triangle only
+                    if (s.neighbors[k] > i) entries.add(i, s.neighbors[k], s.sims[k]);
+                }
+            }
+            return entries;
+        });
+        // SymmMatrix is backed by a HashBasedTable, which is not thread-safe
+        SymmMatrix matrix = new SymmMatrix(engine.count());
+        for (BlockEntries entries : blocks) {
+            for (int k = 0; k < entries.size; k++) {
+                matrix.set(entries.rows[k], entries.columns[k], entries.values[k]);
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Top-K neighbor lists, or null when {@code rec.similarity.full} asked for the whole matrix.
+     */
+    public NeighborIndex getNeighborIndex() {
+        return neighborIndex;
+    }
+
+    /**
+     * The full matrix with {@code rec.similarity.full}, otherwise a matrix holding only the
+     * pruned edges, built the first time it is asked for.
+     */
+    @Override
+    public SymmMatrix getSimilarityMatrix() {
+        if (similarityMatrix == null && neighborIndex != null) {
+            similarityMatrix = neighborIndex.toSymmMatrix();
+        }
+        return similarityMatrix;
+    }
+
+    @Override
+    protected double getSimilarity(List<? extends Number> thisList, List<? extends Number> thatList) {
+        if (thisList == null || thatList == null || thisList.size() < 1 || thatList.size() < 1
+                || thisList.size() != thatList.size()) {
+            return Double.NaN;
+        }
+        double innerProduct = 0.0, thisPower2 = 0.0, thatPower2 = 0.0;
+        for (int i = 0; i < thisList.size(); i++) {
+            double x = thisList.get(i).doubleValue();
+            double y = thatList.get(i).doubleValue();
+            innerProduct += x * y;
+            thisPower2 += x * x;
+            thatPower2 += y * y;
+        }
+        return innerProduct / Math.sqrt(thisPower2 * thatPower2);
+    }
+
+    private static final class BlockEntries {
+        int[] rows = new int[64];
+        int[] columns = new int[64];
+        double[] values = new double[64];
+        int size;
+
+        void add(int row, int column, double value) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+                columns = Arrays.copyOf(columns, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            rows[size] = row;
+            columns[size] = column;
+            values[size++] = value;
+        }
+    }
+}
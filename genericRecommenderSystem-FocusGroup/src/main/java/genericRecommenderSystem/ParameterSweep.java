@@ -0,0 +1,339 @@
+package genericRecommenderSystem;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.recommender.RecommenderContext;
+import net.librec.recommender.cf.UserKNNRecommender;
+
+/**
+ * Evaluates every combination of the values listed in sweep.rec.similarity.key,
+ * sweep.rec.similarity.shrinkage and sweep.rec.knn (comma-separated; a missing list keeps
+ * the configured value) and ranks them by sweep.rank.by, e.g. ndcg@10 (by default NDCG at
+ * the cutoff the pipeline reports).
+ *
+ * Nothing that does not depend on these parameters is repeated per point: the models are
+ * loaded and the ratings extracted once, the data is split once, so every point is tested
+ * on the same test set, and the similarities are computed once per key, before shrinkage
+ * and truncation, which each point applies to the shared {@link RawSimilarity}. The points
+ * run sweep.threads at a time (all cores by default) on one shared pool.
+ */
+public class ParameterSweep {
+
+    static final String KEY = "rec.similarity.key";
+    static final String SHRINKAGE = "rec.similarity.shrinkage";
+    static final String KNN = "rec.knn";
+
+    private final Properties props;
+    private final ForkJoinPool sharedPool;
+    private final PrintStream out;
+
+    /**
+     * @param pool runs the similarity, ranking and evaluation work of all points; null for
+     *             a pool of rec.similarity.threads workers that is shut down after the run
+     */
+    public ParameterSweep(Properties props, ForkJoinPool pool, PrintStream out) {
+        this.props = new Properties();
+        this.props.putAll(props);
+        this.sharedPool = pool;
+        this.out = out;
+    }
+
+    public static void main(String[] args) {
+        try {
+            new ParameterSweep(Main.loadConfigFromArgs(), null, System.out).run();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs the whole grid and returns its points, best first. The table is also printed and
+     * written as JSON to sweep.report.file (by default sweep-report.json in output.tmp).
+     */
+    public List<Point> run() throws Exception {
+        ForkJoinPool pool = sharedPool != null ? sharedPool
+                : SimilarityEngine.newPool(Integer.parseInt(props.getProperty("rec.similarity.threads", "0")));
+        try {
+            return run(pool);
+        } finally {
+            if (pool != sharedPool) pool.shutdown();
+        }
+    }
+
+    private List<Point> run(ForkJoinPool pool) throws Exception {
+        List<Properties> grid = grid();
+        PipelineMetrics metrics = new PipelineMetrics();
+        RecommenderSession session = new RecommenderSession(props, pool, out);
+        RatingEncoder ratings = session.extractRatings(metrics);
+        if (ratings.size() == 0) {
+            out.println("No rating data available from the models. Exiting.");
+            return Collections.emptyList();
+        }
+
+        Path tmpDir = Paths.get(props.getProperty("output.tmp")).toAbsolutePath();
+        Files.createDirectories(tmpDir);
+        Configuration conf = RecommenderSession.prepareLibRecConfiguration(tmpDir, props);
+        int[] cutoffs = RankingEvaluator.fromConfiguration(conf).cutoffs();
+        RankingEvaluator.Metric rankMetric = rankMetric();
+        int rankCutoff = rankCutoff(cutoffs);
+
+        DataModel dataModel;
+        try (PipelineMetrics.Stage stage = metrics.stage("data model")) {
+            dataModel = new InMemoryDataModel(conf, ratings);
+            dataModel.buildDataModel();
+            stage.users(dataModel.getUserMappingData().size()).items(dataModel.getItemMappingData().size())
+                    .ratings(dataModel.getTrainDataSet().size());
+        }
+        SequentialAccessSparseMatrix trainMatrix = (SequentialAccessSparseMatrix) dataModel.getTrainDataSet();
+        SimilarityFunction function = SimilarityFunction.parse(conf.get("rec.similarity.function"));
+        Map<String, RawSimilarity> raw = new LinkedHashMap<>();
+        for (Properties point : grid) {
+            String key = point.getProperty(KEY);
+            if (raw.containsKey(key)) continue;
+            try (PipelineMetrics.Stage stage = metrics.stage("similarity " + key)) {
+                RawSimilarity similarity = RawSimilarity.build(trainMatrix, "user".equals(key), function, pool);
+                raw.put(key, similarity);
+                stage.neighbors(similarity.numEntries());
+            }
+        }
+        out.printf("Sweeping %d points on %d users, %d items; similarities of %s computed once%n", grid.size(),
+                dataModel.getUserMappingData().size(), dataModel.getItemMappingData().size(), raw.keySet());
+
+        List<Point> points = new ArrayList<>();
+        try (PipelineMetrics.Stage stage = metrics.stage("grid")) {
+            int threads = Integer.parseInt(props.getProperty("sweep.threads", "0"));
+            ExecutorService executor = Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+            try {
+                List<Future<Point>> running = new ArrayList<>();
+                for (Properties point : grid) {
+                    running.add(executor.submit(() -> evaluate(point, tmpDir, dataModel, raw.get(point.getProperty(KEY)),
+                            rankMetric, rankCutoff, pool)));
+                }
+                for (Future<Point> point : running) points.add(point.get());
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        metrics.finish();
+
+        points.sort(Comparator.comparingDouble((Point p) -> -orMin(p.score)).thenComparingLong(p -> p.totalNanos));
+        out.println("\n=== Sweep Results (by " + rankName(rankMetric, rankCutoff) + ") ===\n"
+                + table(points, rankCutoff));
+        out.println("\n=== Shared Stages ===\n" + metrics.table());
+        writeReport(points, rankMetric, rankCutoff);
+        return Collections.unmodifiableList(points);
+    }
+
+    /**
+     * One set of properties per combination, in key, shrinkage, knn order.
+     */
+    List<Properties> grid() {
+        List<Properties> grid = new ArrayList<>();
+        for (String key : values(KEY, "item")) {
+            if (!"item".equals(key) && !"user".equals(key)) {
+                throw new IllegalArgumentException("sweep." + KEY + " supports item and user, not " + key);
+            }
+            for (String shrinkage : values(SHRINKAGE, "10")) {
+                for (String knn : values(KNN, "200")) {
+                    Properties point = new Properties();
+                    point.putAll(props);
+                    point.setProperty(KEY, key);
+                    point.setProperty(SHRINKAGE, Integer.toString(Integer.parseInt(shrinkage)));
+                    point.setProperty(KNN, Integer.toString(Integer.parseInt(knn)));
+                    grid.add(point);
+                }
+            }
+        }
+        return grid;
+    }
+
+    private List<String> values(String name, String fallback) {
+        String list = props.getProperty("sweep." + name, props.getProperty(name, fallback));
+        List<String> values = new ArrayList<>();
+        for (String value : list.split(",")) {
+            if (!value.trim().isEmpty() && !values.contains(value.trim())) values.add(value.trim());
+        }
+        return values;
+    }
+
+    private Point evaluate(Properties point, Path tmpDir, DataModel dataModel, RawSimilarity raw,
+            RankingEvaluator.Metric rankMetric, int rankCutoff, ForkJoinPool pool) throws LibrecException {
+        long start = System.nanoTime();
+        Configuration conf = RecommenderSession.prepareLibRecConfiguration(tmpDir, point);
+        String key = point.getProperty(KEY);
+        int shrinkage = Integer.parseInt(point.getProperty(SHRINKAGE));
+        int knn = Integer.parseInt(point.getProperty(KNN));
+        NeighborIndex index = raw.neighborIndex(shrinkage, knn, pool);
+        long indexed = System.nanoTime();
+
+        RecommenderContext context = new RecommenderContext(conf, dataModel);
+        context.setSimilarity(new ParallelItemSimilarity(index));
+        RankedResults results;
+        long trained;
+        if ("user".equals(key)) {
+            // User neighbors are used by LibRec's UserKNN, through the pruned matrix
+            UserKNNRecommender recommender = new UserKNNRecommender();
+            recommender.setContext(context);
+            recommender.train(context);
+            trained = System.nanoTime();
+            results = RankedResults.fromRecommendedList(recommender.recommendRank(), conf.getInt("rec.recommender.ranking.topn", 10));
+        } else {
+            TopKItemKNNRecommender recommender = new TopKItemKNNRecommender();
+            recommender.setPool(pool);
+            recommender.setContext(context);
+            recommender.train(context);
+            trained = System.nanoTime();
+            results = recommender.rankTopN();
+        }
+        long ranked = System.nanoTime();
+
+        RankingEvaluator.Result evaluation = RankingEvaluator.fromConfiguration(conf)
+                .evaluate(results, (SequentialAccessSparseMatrix) dataModel.getTestDataSet(), pool);
+        long evaluated = System.nanoTime();
+        Point result = new Point(key, shrinkage, knn, index.numEntries(), evaluation, evaluation.get(rankMetric, rankCutoff),
+                indexed - start, trained - indexed, ranked - trained, evaluated - ranked);
+        out.printf(Locale.ROOT, "  %s: %s %.4f in %.1f ms%n", result.label(), rankName(rankMetric, rankCutoff),
+                result.score, result.totalNanos / 1e6);
+        return result;
+    }
+
+    private RankingEvaluator.Metric rankMetric() {
+        String rankBy = props.getProperty("sweep.rank.by", "ndcg");
+        int at = rankBy.indexOf('@');
+        return RankingEvaluator.Metric.parse(at < 0 ? rankBy : rankBy.substring(0, at));
+    }
+
+    // The cutoff given in sweep.rank.by, else @10, or the smallest cutoff if 10 is not evaluated
+    private int rankCutoff(int[] cutoffs) {
+        String rankBy = props.getProperty("sweep.rank.by", "ndcg");
+        int at = rankBy.indexOf('@');
+        if (at < 0) return Arrays.binarySearch(cutoffs, 10) >= 0 ? 10 : cutoffs[0];
+        int cutoff = Integer.parseInt(rankBy.substring(at + 1).trim());
+        if (Arrays.binarySearch(cutoffs, cutoff) < 0) {
+            throw new IllegalArgumentException("sweep.rank.by cutoff @" + cutoff + " is not in rec.eval.cutoffs");
+        }
+        return cutoff;
+    }
+
+    private static String rankName(RankingEvaluator.Metric metric, int cutoff) {
+        return metric.name().toLowerCase(Locale.ROOT) + "@" + cutoff;
+    }
+
+    private static double orMin(double value) {
+        return Double.isNaN(value) ? -Double.MAX_VALUE : value;
+    }
+
+    static String table(List<Point> points, int cutoff) {
+        List<RankingEvaluator.Metric> metrics = points.isEmpty()
+                ? Collections.emptyList() : new ArrayList<>(points.get(0).evaluation.metrics());
+        StringBuilder sb = new StringBuilder(String.format("%4s %-5s %9s %6s %10s", "rank", "key", "shrinkage", "knn", "neighbors"));
+        for (RankingEvaluator.Metric metric : metrics) sb.append(String.format("%13s", rankName(metric, cutoff)));
+        sb.append(String.format("%10s %10s %10s %10s %10s", "index ms", "train ms", "rank ms", "eval ms", "total ms"));
+        for (int r = 0; r < points.size(); r++) {
+            Point p = points.get(r);
+            sb.append(String.format(Locale.ROOT, "%n%4d %-5s %9d %6d %10d", r + 1, p.key, p.shrinkage, p.knn, p.neighbors));
+            for (RankingEvaluator.Metric metric : metrics) {
+                sb.append(String.format(Locale.ROOT, "%13.4f", p.evaluation.get(metric, cutoff)));
+            }
+            sb.append(String.format(Locale.ROOT, "%10.1f %10.1f %10.1f %10.1f %10.1f", p.indexNanos / 1e6, p.trainNanos / 1e6,
+                    p.rankNanos / 1e6, p.evaluateNanos / 1e6, p.totalNanos / 1e6));
+        }
+        return sb.toString();
+    }
+
+    private void writeReport(List<Point> points, RankingEvaluator.Metric rankMetric, int rankCutoff) {
+        String file = props.getProperty("sweep.report.file");
+        Path report = file != null ? Paths.get(file) : Paths.get(props.getProperty("output.tmp", "."), "sweep-report.json");
+        try (Writer w = Files.newBufferedWriter(report, StandardCharsets.UTF_8)) {
+            w.write("{\n  \"rankBy\": " + PipelineMetrics.quote(rankName(rankMetric, rankCutoff)) + ",\n  \"points\": [");
+            for (int r = 0; r < points.size(); r++) {
+                Point p = points.get(r);
+                w.write(r == 0 ? "\n" : ",\n");
+                w.write(String.format(Locale.ROOT, "    {\"key\": %s, \"shrinkage\": %d, \"knn\": %d, \"neighbors\": %d, "
+                        + "\"indexMs\": %.3f, \"trainMs\": %.3f, \"rankMs\": %.3f, \"evalMs\": %.3f, \"metrics\": {",
+                        PipelineMetrics.quote(p.key), p.shrinkage, p.knn, p.neighbors, p.indexNanos / 1e6,
+                        p.trainNanos / 1e6, p.rankNanos / 1e6, p.evaluateNanos / 1e6));
+                boolean first = true;
+                for (RankingEvaluator.Metric metric : p.evaluation.metrics()) {
+                    for (int cutoff : p.evaluation.cutoffs()) {
+                        double value = p.evaluation.get(metric, cutoff);
+                        w.write((first ? "" : ", ") + PipelineMetrics.quote(rankName(metric, cutoff)) + ": "
+                                + (Double.isNaN(value) ? "null" : String.format(Locale.ROOT, "%.6f", value)));
+                        first = false;
+                    }
+                }
+                w.write("}}");
+            }
+            w.write(points.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+            out.println("Sweep report written to " + report.toAbsolutePath());
+        } catch (IOException e) {
+            out.println("Could not write the sweep report " + report + ": " + e);
+        }
+    }
+
+    /**
+     * One grid point: its parameters, all its metrics and the time spent on each step.
+     */
+    public static final class Point {
+        final String key;
+        final int shrinkage;
+        final int knn;
+        final int neighbors;
+        final RankingEvaluator.Result evaluation;
+        final double score;
+        final long indexNanos, trainNanos, rankNanos, evaluateNanos, totalNanos;
+
+        Point(String key, int shrinkage, int knn, int neighbors, RankingEvaluator.Result evaluation, double score,
+                long indexNanos, long trainNanos, long rankNanos, long evaluateNanos) {
+            this.key = key;
+            this.shrinkage = shrinkage;
+            this.knn = knn;
+            this.neighbors = neighbors;
+            this.evaluation = evaluation;
+            this.score = score;
+            this.indexNanos = indexNanos;
+            this.trainNanos = trainNanos;
+            this.rankNanos = rankNanos;
+            this.evaluateNanos = evaluateNanos;
+            this.totalNanos = indexNanos + trainNanos + rankNanos + evaluateNanos;
+        }
+
+        String label() {
+            return "key=" + key + ", shrinkage=" + shrinkage + ", knn=" + knn;
+        }
+
+        public String getKey() { return key; }
+        public int getShrinkage() { return shrinkage; }
+        public int getKnn() { return knn; }
+        public RankingEvaluator.Result getEvaluation() { return evaluation; }
+        /** The sweep.rank.by metric the points are ordered by. */
+        public double getScore() { return score; }
+        public long getTotalNanos() { return totalNanos; }
+    }
+}
@@ -0,0 +1,336 @@
+package genericRecommenderSystem;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of one pipeline run: the stages in the order they ran, each with its wall time,
+ * CPU time, allocated bytes, GC activity and the sizes it worked on, plus named values
+ * (cache hits, evaluation results, ...). Stages are recorded with
+ * <pre>
+ *   try (PipelineMetrics.Stage stage = metrics.stage("similarity")) {
+ *       ...
+ *       stage.items(n);
+ *   }
+ * </pre>
+ *
+ * CPU time is the process CPU time, so it includes the pools of parallel stages (and the
+ * JIT and GC threads). Allocated bytes are summed over all live threads plus the workers of
+ * {@link #WORKER_FACTORY} pools that terminated, which covers every pool of the pipeline.
+ * Both are process-wide: while several sessions run at once, each one's figures include
+ * the work of the others; only the wall times are a session's own.
+ */
+public class PipelineMetrics {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final OperatingSystemMXBean OS = ManagementFactory.getOperatingSystemMXBean();
+    private static final boolean ALLOCATION_SUPPORTED = enableAllocationCounting();
+
+    // Allocations of pool workers that are gone, and the ids of those not yet gone
+    private static final LongAdder retiredBytes = new LongAdder();
+    private static final Set<Long> retiredIds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Worker threads that hand their allocation count over when they terminate.
+     */
+    static final ForkJoinPool.ForkJoinWorkerThreadFactory WORKER_FACTORY = pool -> new ForkJoinWorkerThread(pool) {
+        @Override
+        protected void onTermination(Throwable exception) {
+            long bytes = threadAllocatedBytes(getId());
+            if (bytes > 0) {
+                retiredIds.add(getId());
+                retiredBytes.add(bytes);
+            }
+            super.onTermination(exception);
+        }
+    };
+
+    private final Instant started = Instant.now();
+    private final long startNanos = System.nanoTime();
+    private final Snapshot startSnapshot = Snapshot.take();
+    private final List<Stage> stages = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, Object> values = Collections.synchronizedMap(new LinkedHashMap<>());
+    private volatile Snapshot endSnapshot;
+    private volatile long endNanos;
+
+    /**
+     * Starts a stage; it is recorded when closed.
+     */
+    public Stage stage(String name) {
+        return new Stage(name);
+    }
+
+    /**
+     * Sets a named value of the run; numbers, booleans and strings are written to the report.
+     */
+    public void set(String name, Object value) {
+        values.put(name, value);
+    }
+
+    public Object get(String name) {
+        return values.get(name);
+    }
+
+    /**
+     * Marks the end of the run; the totals are measured up to here.
+     */
+    public void finish() {
+        if (endSnapshot == null) {
+            endNanos = System.nanoTime();
+            endSnapshot = Snapshot.take();
+        }
+    }
+
+    public List<Stage> stages() {
+        synchronized (stages) {
+            return new ArrayList<>(stages);
+        }
+    }
+
+    public Map<String, Object> values() {
+        synchronized (values) {
+            return new LinkedHashMap<>(values);
+        }
+    }
+
+    public Instant started() {
+        return started;
+    }
+
+    public long wallNanos() {
+        return (endSnapshot != null ? endNanos : System.nanoTime()) - startNanos;
+    }
+
+    public long cpuNanos() {
+        return delta(startSnapshot.cpuNanos, (endSnapshot != null ? endSnapshot : Snapshot.take()).cpuNanos);
+    }
+
+    public long allocatedBytes() {
+        return delta(startSnapshot.allocatedBytes, (endSnapshot != null ? endSnapshot : Snapshot.take()).allocatedBytes);
+    }
+
+    /**
+     * The stages as a fixed-width table, one line per stage and a total line.
+     */
+    public String table() {
+        StringBuilder sb = new StringBuilder(String.format("%-16s %10s %10s %12s %6s %10s %9s %9s %11s%n",
+                "stage", "wall ms", "cpu ms", "alloc MB", "gc", "users", "items", "ratings", "neighbors"));
+        for (Stage stage : stages()) {
+            sb.append(String.format(Locale.ROOT, "%-16s %10.1f %10.1f %12.1f %6d %10s %9s %9s %11s%n", stage.name,
+                    stage.wallNanos / 1e6, stage.cpuNanos / 1e6, stage.allocatedBytes / 1048576.0, stage.gcCount,
+                    count(stage.users), count(stage.items), count(stage.ratings), count(stage.neighbors)));
+        }
+        sb.append(String.format(Locale.ROOT, "%-16s %10.1f %10.1f %12.1f", "total",
+                wallNanos() / 1e6, cpuNanos() / 1e6, allocatedBytes() / 1048576.0));
+        return sb.toString();
+    }
+
+    private static String count(long value) {
+        return value < 0 ? "-" : Long.toString(value);
+    }
+
+    /**
+     * Writes the run as JSON: start time, totals, the stages and the named values.
+     */
+    public void writeJson(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Runtime runtime = Runtime.getRuntime();
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("{\n");
+            out.write("  \"started\": " + quote(started.toString()) + ",\n");
+            out.write("  \"wallMs\": " + millis(wallNanos()) + ",\n");
+            out.write("  \"cpuMs\": " + millis(cpuNanos()) + ",\n");
+            out.write("  \"allocatedBytes\": " + allocatedBytes() + ",\n");
+            out.write("  \"jvm\": {\"version\": " + quote(System.getProperty("java.version"))
+                    + ", \"processors\": " + runtime.availableProcessors() + ", \"maxHeapBytes\": " + runtime.maxMemory() + "},\n");
+            out.write("  \"stages\": [");
+            List<Stage> list = stages();
+            for (int s = 0; s < list.size(); s++) {
+                Stage stage = list.get(s);
+                out.write(s == 0 ? "\n" : ",\n");
+                out.write("    {\"name\": " + quote(stage.name) + ", \"wallMs\": " + millis(stage.wallNanos)
+                        + ", \"cpuMs\": " + millis(stage.cpuNanos) + ", \"allocatedBytes\": " + stage.allocatedBytes
+                        + ", \"gcCount\": " + stage.gcCount + ", \"gcMs\": " + stage.gcMillis);
+                writeCount(out, "users", stage.users);
+                writeCount(out, "items", stage.items);
+                writeCount(out, "ratings", stage.ratings);
+                writeCount(out, "neighbors", stage.neighbors);
+                out.write("}");
+            }
+            out.write(list.isEmpty() ? "],\n" : "\n  ],\n");
+            out.write("  \"values\": {");
+            boolean first = true;
+            for (Map.Entry<String, Object> e : values().entrySet()) {
+                out.write(first ? "\n" : ",\n");
+                out.write("    " + quote(e.getKey()) + ": " + jsonValue(e.getValue()));
+                first = false;
+            }
+            out.write(first ? "}\n" : "\n  }\n");
+            out.write("}\n");
+        }
+    }
+
+    private static void writeCount(Writer out, String name, long value) throws IOException {
+        if (value >= 0) out.write(", \"" + name + "\": " + value);
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String jsonValue(Object value) {
+        if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            return Double.isFinite(d) ? Double.toString(d) : "null";
+        }
+        if (value instanceof Number || value instanceof Boolean) return value.toString();
+        return value == null ? "null" : quote(value.toString());
+    }
+
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static long delta(long from, long to) {
+        return from < 0 || to < 0 ? -1L : Math.max(0L, to - from);
+    }
+
+    /**
+     * A stage of the run. Counts that are not set stay -1 and are left out of the report.
+     */
+    public final class Stage implements AutoCloseable {
+        final String name;
+        private final long start;
+        private final Snapshot startSnapshot;
+        long wallNanos, cpuNanos, allocatedBytes, gcCount, gcMillis;
+        long users = -1, items = -1, ratings = -1, neighbors = -1;
+        private boolean closed;
+
+        private Stage(String name) {
+            this.name = name;
+            this.startSnapshot = Snapshot.take();
+            this.start = System.nanoTime();
+        }
+
+        public Stage users(long count) { users = count; return this; }
+        public Stage items(long count) { items = count; return this; }
+        public Stage ratings(long count) { ratings = count; return this; }
+        public Stage neighbors(long count) { neighbors = count; return this; }
+
+        public String name() { return name; }
+        public long wallNanos() { return wallNanos; }
+        public long cpuNanos() { return cpuNanos; }
+        public long allocatedBytes() { return allocatedBytes; }
+        public long gcCount() { return gcCount; }
+        public long gcMillis() { return gcMillis; }
+        public long users() { return users; }
+        public long items() { return items; }
+        public long ratings() { return ratings; }
+        public long neighbors() { return neighbors; }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            wallNanos = System.nanoTime() - start;
+            Snapshot end = Snapshot.take();
+            cpuNanos = delta(startSnapshot.cpuNanos, end.cpuNanos);
+            allocatedBytes = delta(startSnapshot.allocatedBytes, end.allocatedBytes);
+            gcCount = end.gcCount - startSnapshot.gcCount;
+            gcMillis = end.gcMillis - startSnapshot.gcMillis;
+            stages.add(this);
+        }
+    }
+
+    private static final class Snapshot {
+        final long cpuNanos;
+        final long allocatedBytes;
+        final long gcCount;
+        final long gcMillis;
+
+        private Snapshot(long cpuNanos, long allocatedBytes, long gcCount, long gcMillis) {
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        static Snapshot take() {
+            long gcCount = 0, gcMillis = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                gcCount += Math.max(0L, gc.getCollectionCount());
+                gcMillis += Math.max(0L, gc.getCollectionTime());
+            }
+            return new Snapshot(processCpuNanos(), totalAllocatedBytes(), gcCount, gcMillis);
+        }
+    }
+
+    private static long processCpuNanos() {
+        if (OS instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) OS).getProcessCpuTime();
+        }
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1L;
+    }
+
+    private static boolean enableAllocationCounting() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) return false;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        if (!threads.isThreadAllocatedMemorySupported()) return false;
+        if (!threads.isThreadAllocatedMemoryEnabled()) threads.setThreadAllocatedMemoryEnabled(true);
+        return true;
+    }
+
+    private static long threadAllocatedBytes(long id) {
+        return ALLOCATION_SUPPORTED ? ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(id) : -1L;
+    }
+
+    private static long totalAllocatedBytes() {
+        if (!ALLOCATION_SUPPORTED) return -1L;
+        long[] ids = THREADS.getAllThreadIds();
+        long[] bytes = ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(ids);
+        long total = retiredBytes.sum();
+        Set<Long> live = new HashSet<>();
+        for (int t = 0; t < ids.length; t++) {
+            live.add(ids[t]);
+            // A terminating worker has already been counted as retired
+            if (bytes[t] > 0 && !retiredIds.contains(ids[t])) total += bytes[t];
+        }
+        retiredIds.retainAll(live);
+        return total;
+    }
+}
@@ -0,0 +1,107 @@
+package genericRecommenderSystem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.librec.recommender.item.KeyValue;
+import net.librec.recommender.item.RecommendedList;
+
+/**
+ * Top-N recommendations of every user in flat arrays: user {@code u} owns slots
+ * {@code [u * topN, u * topN + size(u))} of {@code items}/{@code scores}, best first.
+ */
+public class RankedResults {
+
+    private final int numUsers;
+    private final int topN;
+    private final int[] sizes;
+    private final int[] items;
+    private final float[] scores;
+
+    RankedResults(int numUsers, int topN) {
+        this.numUsers = numUsers;
+        this.topN = topN;
+        this.sizes = new int[numUsers];
+        this.items = new int[numUsers * topN];
+        this.scores = new float[numUsers * topN];
+    }
+
+    /**
+     * Copies a LibRec list, e.g. from a recommender that does not rank through TopNRanker.
+     * Lists longer than {@code topN} are truncated.
+     */
+    public static RankedResults fromRecommendedList(RecommendedList list, int topN) {
+        int maxSize = 0;
+        for (int u = 0; u < list.size(); u++) {
+            maxSize = Math.max(maxSize, list.getKeyValueListByContext(u).size());
+        }
+        RankedResults results = new RankedResults(list.size(), Math.min(topN, maxSize));
+        for (int u = 0; u < list.size(); u++) {
+            List<KeyValue<Integer, Double>> recs = list.getKeyValueListByContext(u);
+            int n = Math.min(recs.size(), results.topN);
+            for (int r = 0; r < n; r++) {
+                results.items[u * results.topN + r] = recs.get(r).getKey();
+                results.scores[u * results.topN + r] = recs.get(r).getValue().floatValue();
+            }
+            results.sizes[u] = n;
+        }
+        return results;
+    }
+
+    void set(int userIdx, int size) {
+        sizes[userIdx] = size;
+    }
+
+    int[] sizes() {
+        return sizes;
+    }
+
+    int[] items() {
+        return items;
+    }
+
+    float[] scores() {
+        return scores;
+    }
+
+    public int numUsers() {
+        return numUsers;
+    }
+
+    public int topN() {
+        return topN;
+    }
+
+    public int size(int userIdx) {
+        return sizes[userIdx];
+    }
+
+    public int itemAt(int userIdx, int rank) {
+        return items[userIdx * topN + rank];
+    }
+
+    public float scoreAt(int userIdx, int rank) {
+        return scores[userIdx * topN + rank];
+    }
+
+    public long numRecommendations() {
+        long total = 0;
+        for (int size : sizes) total += size;
+        return total;
+    }
+
+    /**
+     * Boxed copy for LibRec's evaluators.
+     */
+    public RecommendedList toRecommendedList() {
+        RecommendedList list = new RecommendedList(numUsers);
+        for (int u = 0; u < numUsers; u++) {
+            ArrayList<KeyValue<Integer, Double>> recs = new ArrayList<>(sizes[u]);
+            for (int r = 0; r < sizes[u]; r++) {
+                recs.add(new KeyValue<>(itemAt(u, r), (double) scoreAt(u, r)));
+            }
+            list.addList(recs);
+        }
+        return list;
+    }
+}
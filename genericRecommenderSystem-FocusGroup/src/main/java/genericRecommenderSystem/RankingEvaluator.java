@@ -0,0 +1,341 @@
+package genericRecommenderSystem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import net.librec.conf.Configuration;
+import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+
+/**
+ * Evaluates ranked lists against a test matrix for several metrics at several cutoffs in a
+ * single pass: each user's list is walked once up to the largest cutoff, and the hits seen
+ * so far are folded into every metric when a cutoff is reached. Users are processed in
+ * blocks on a fork-join pool; each worker keeps its own sums, which are added up at the end.
+ *
+ * NDCG, precision, recall, MAP and MRR follow LibRec's evaluators of the same name, so that
+ * the numbers match what NormalizedDCGEvaluator etc. report for the same lists (including
+ * their choice of users and denominators). Hit rate is the share of test users with at
+ * least one test item in the list, and coverage the share of all items that appear in
+ * some user's list.
+ */
+public class RankingEvaluator {
+
+    static final int BLOCK_SIZE = 256;
+
+    public enum Metric {
+        NDCG, PRECISION, RECALL, MAP, MRR, HITRATE, COVERAGE;
+
+        static Metric parse(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown metric '" + name.trim() + "', expected one of "
+                        + Arrays.toString(values()).toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+
+    private final int[] cutoffs;
+    private final EnumSet<Metric> metrics;
+
+    /**
+     * @param cutoffs list lengths to evaluate at, in any order
+     */
+    public RankingEvaluator(int[] cutoffs, EnumSet<Metric> metrics) {
+        this.cutoffs = Arrays.stream(cutoffs).distinct().sorted().toArray();
+        this.metrics = EnumSet.copyOf(metrics);
+        if (this.cutoffs.length == 0 || this.cutoffs[0] <= 0) {
+            throw new IllegalArgumentException("Cutoffs must be positive: " + Arrays.toString(cutoffs));
+        }
+    }
+
+    /**
+     * Reads rec.eval.cutoffs and rec.eval.metrics (comma-separated; defaults 10 and ndcg,precision,recall).
+     */
+    public static RankingEvaluator fromConfiguration(Configuration conf) {
+        String[] cutoffNames = conf.get("rec.eval.cutoffs", "10").split(",");
+        List<Integer> cutoffs = new ArrayList<>();
+        for (String cutoff : cutoffNames) {
+            if (!cutoff.trim().isEmpty()) cutoffs.add(Integer.parseInt(cutoff.trim()));
+        }
+        EnumSet<Metric> metrics = EnumSet.noneOf(Metric.class);
+        for (String metric : conf.get("rec.eval.metrics", "ndcg,precision,recall").split(",")) {
+            if (!metric.trim().isEmpty()) metrics.add(Metric.parse(metric));
+        }
+        return new RankingEvaluator(cutoffs.stream().mapToInt(Integer::intValue).toArray(), metrics);
+    }
+
+    public int[] cutoffs() {
+        return cutoffs.clone();
+    }
+
+    public int maxCutoff() {
+        return cutoffs[cutoffs.length - 1];
+    }
+
+    public Result evaluate(RankedResults results, SequentialAccessSparseMatrix testMatrix, ForkJoinPool pool) {
+        long start = System.nanoTime();
+        TestSet test = new TestSet(testMatrix);
+        int numUsers = Math.min(results.numUsers(), test.numUsers);
+        // Every worker accumulates into its own scratch; they are summed once all users are done
+        List<Scratch> scratches = new CopyOnWriteArrayList<>();
+        ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(() -> {
+            Scratch s = new Scratch(cutoffs.length, test.numItems, maxCutoff());
+            scratches.add(s);
+            return s;
+        });
+        int numBlocks = (numUsers + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (numBlocks > 0) {
+            pool.invoke(new EvalTask(results, test, scratch, numUsers, 0, numBlocks));
+        }
+        Scratch total = new Scratch(cutoffs.length, test.numItems, 0);
+        for (Scratch s : scratches) total.add(s);
+        return new Result(cutoffs, metrics, total, test.numItems, System.nanoTime() - start);
+    }
+
+    /**
+     * The test ratings in CSR form, user by user in column order like LibRec's ground truth lists.
+     */
+    private static final class TestSet {
+        final int numUsers;
+        final int numItems;
+        final int[] ptr;
+        final int[] items;
+        final double[] values;
+
+        TestSet(SequentialAccessSparseMatrix matrix) {
+            numUsers = matrix.rowSize();
+            numItems = matrix.columnSize();
+            int numEntries = matrix.getNumEntries();
+            ptr = new int[numUsers + 1];
+            items = new int[numEntries];
+            values = new double[numEntries];
+            int p = 0;
+            for (MatrixEntry entry : matrix) {
+                ptr[entry.row() + 1]++;
+                items[p] = entry.column();
+                values[p++] = entry.get();
+            }
+            for (int u = 0; u < numUsers; u++) ptr[u + 1] += ptr[u];
+        }
+    }
+
+    /**
+     * A worker's per-cutoff metric sums and user counts, and its per-user buffers.
+     */
+    private static final class Scratch {
+        final double[][] totals = new double[Metric.values().length][];
+        int testUsers;
+        final int[] mapUsers;
+        final int wordsPerCutoff;
+        // Items in some list up to each cutoff, one bitset per cutoff
+        final long[] covered;
+        // testStamp[i] == u + 1 marks a test item of user u, with its rating in testValue[i]
+        final int[] testStamp;
+        final double[] testValue;
+        final double[] hitValues;
+
+        Scratch(int numCutoffs, int numItems, int maxCutoff) {
+            for (int m = 0; m < totals.length; m++) totals[m] = new double[numCutoffs];
+            mapUsers = new int[numCutoffs];
+            wordsPerCutoff = (numItems + 63) >>> 6;
+            covered = new long[numCutoffs * wordsPerCutoff];
+            testStamp = new int[maxCutoff > 0 ? numItems : 0];
+            testValue = new double[maxCutoff > 0 ? numItems : 0];
+            hitValues = new double[maxCutoff];
+        }
+
+        void add(Scratch other) {
+            for (int m = 0; m < totals.length; m++) {
+                for (int c = 0; c < totals[m].length; c++) totals[m][c] += other.totals[m][c];
+            }
+            testUsers += other.testUsers;
+            for (int c = 0; c < mapUsers.length; c++) mapUsers[c] += other.mapUsers[c];
+            for (int w = 0; w < covered.length; w++) covered[w] |= other.covered[w];
+        }
+    }
+
+    private final class EvalTask extends RecursiveAction {
+        private final RankedResults results;
+        private final TestSet test;
+        private final ThreadLocal<Scratch> scratch;
+        private final int n;
+        private final int fromBlock, toBlock;
+
+        EvalTask(RankedResults results, TestSet test, ThreadLocal<Scratch> scratch, int n, int fromBlock, int toBlock) {
+            this.results = results;
+            this.test = test;
+            this.scratch = scratch;
+            this.n = n;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+        }
+
+        @Override
+        protected void compute() {
+            if (toBlock - fromBlock > 1) {
+                int mid = (fromBlock + toBlock) >>> 1;
+                invokeAll(new EvalTask(results, test, scratch, n, fromBlock, mid),
+                        new EvalTask(results, test, scratch, n, mid, toBlock));
+                return;
+            }
+            Scratch s = scratch.get();
+            int to = Math.min((fromBlock + 1) * BLOCK_SIZE, n);
+            for (int u = fromBlock * BLOCK_SIZE; u < to; u++) {
+                evaluateUser(u, results, test, s);
+            }
+        }
+    }
+
+    private void evaluateUser(int u, RankedResults results, TestSet test, Scratch s) {
+        int size = results.size(u);
+        if (metrics.contains(Metric.COVERAGE)) {
+            for (int r = 0, c = 0, end = Math.min(maxCutoff(), size); r < end; r++) {
+                while (r >= cutoffs[c]) c++;
+                int item = results.itemAt(u, r);
+                if (item >= test.numItems) continue;
+                for (int cc = c; cc < cutoffs.length; cc++) {
+                    s.covered[cc * s.wordsPerCutoff + (item >>> 6)] |= 1L << item;
+                }
+            }
+        }
+
+        int from = test.ptr[u], to = test.ptr[u + 1];
+        if (to == from) return;
+        int stamp = u + 1;
+        for (int p = from; p < to; p++) {
+            s.testStamp[test.items[p]] = stamp;
+            s.testValue[test.items[p]] = test.values[p];
+        }
+        int numTest = to - from;
+        s.testUsers++;
+
+        int hits = 0;
+        int firstHit = -1;
+        double dcg = 0.0;
+        double precisionSum = 0.0;
+        int r = 0;
+        for (int c = 0; c < cutoffs.length; c++) {
+            int topK = Math.min(cutoffs[c], size);
+            for (; r < topK; r++) {
+                int item = results.itemAt(u, r);
+                if (item >= test.numItems || s.testStamp[item] != stamp) continue;
+                double value = s.testValue[item];
+                s.hitValues[hits++] = value;
+                dcg += value / log2(r + 2);
+                precisionSum += (double) hits / (r + 1);
+                if (firstHit < 0) firstHit = r;
+            }
+            double[][] totals = s.totals;
+            totals[Metric.PRECISION.ordinal()][c] += (double) hits / cutoffs[c];
+            totals[Metric.RECALL.ordinal()][c] += (double) hits / numTest;
+            totals[Metric.HITRATE.ordinal()][c] += hits > 0 ? 1.0 : 0.0;
+            totals[Metric.MRR.ordinal()][c] += firstHit >= 0 ? 1.0 / (firstHit + 1) : 0.0;
+            if (topK > 0) {
+                totals[Metric.MAP.ordinal()][c] += precisionSum / Math.min(numTest, topK);
+                s.mapUsers[c]++;
+            }
+            if (metrics.contains(Metric.NDCG) && dcg != 0.0) {
+                totals[Metric.NDCG.ordinal()][c] += dcg / idealDcg(s.hitValues, hits);
+            }
+        }
+    }
+
+    /**
+     * LibRec's ideal DCG: the hit items' test ratings in descending order.
+     */
+    private static double idealDcg(double[] hitValues, int hits) {
+        double[] sorted = Arrays.copyOf(hitValues, hits);
+        Arrays.sort(sorted);
+        double idcg = 0.0;
+        for (int k = 0; k < hits; k++) {
+            idcg += sorted[hits - 1 - k] / log2(k + 2);
+        }
+        return idcg;
+    }
+
+    private static double log2(int x) {
+        return Math.log(x) / Math.log(2);
+    }
+
+    /**
+     * Metric values by cutoff. Metrics that were not requested are absent.
+     */
+    public static final class Result {
+        private final int[] cutoffs;
+        private final EnumSet<Metric> metrics;
+        private final double[][] values = new double[Metric.values().length][];
+        private final int numTestUsers;
+        private final long elapsedNanos;
+
+        Result(int[] cutoffs, EnumSet<Metric> metrics, Scratch sums, int numItems, long elapsedNanos) {
+            this.cutoffs = cutoffs;
+            this.metrics = metrics;
+            this.numTestUsers = sums.testUsers;
+            this.elapsedNanos = elapsedNanos;
+            int wordsPerCutoff = sums.wordsPerCutoff;
+            for (Metric metric : metrics) {
+                double[] v = new double[cutoffs.length];
+                for (int c = 0; c < cutoffs.length; c++) {
+                    if (metric == Metric.COVERAGE) {
+                        long count = 0;
+                        for (int w = 0; w < wordsPerCutoff; w++) count += Long.bitCount(sums.covered[c * wordsPerCutoff + w]);
+                        v[c] = numItems > 0 ? (double) count / numItems : 0.0;
+                    } else {
+                        int users = metric == Metric.MAP ? sums.mapUsers[c] : numTestUsers;
+                        v[c] = users > 0 ? sums.totals[metric.ordinal()][c] / users : 0.0;
+                    }
+                }
+                values[metric.ordinal()] = v;
+            }
+        }
+
+        public int[] cutoffs() {
+            return cutoffs.clone();
+        }
+
+        public EnumSet<Metric> metrics() {
+            return EnumSet.copyOf(metrics);
+        }
+
+        public boolean has(Metric metric, int cutoff) {
+            return metrics.contains(metric) && Arrays.binarySearch(cutoffs, cutoff) >= 0;
+        }
+
+        /**
+         * The value of {@code metric} at {@code cutoff}, or NaN if it was not evaluated.
+         */
+        public double get(Metric metric, int cutoff) {
+            int c = Arrays.binarySearch(cutoffs, cutoff);
+            return c < 0 || values[metric.ordinal()] == null ? Double.NaN : values[metric.ordinal()][c];
+        }
+
+        public int numTestUsers() {
+            return numTestUsers;
+        }
+
+        public long elapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * One row per metric, one column per cutoff.
+         */
+        public String table() {
+            StringBuilder out = new StringBuilder(String.format("%-10s", ""));
+            for (int cutoff : cutoffs) out.append(String.format("%10s", "@" + cutoff));
+            for (Metric metric : metrics) {
+                out.append(String.format("%n%-10s", metric.name().toLowerCase(Locale.ROOT)));
+                for (double value : values[metric.ordinal()]) out.append(String.format("%10.4f", value));
+            }
+            return out.toString();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package genericRecommenderSystem;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * Interns user and item ids into dense indices (first-seen order) and stores the
+ * ratings as parallel {@code int[] users, int[] items, double[] values} arrays;
+ * values are kept as doubles so they reach LibRec exactly as the text input delivered them.
+ */
+public class RatingEncoder {
+
+    private static final int WRITE_BLOCK = 8192;
+
+    private final Object2IntOpenHashMap<String> userIndex;
+    private final Object2IntOpenHashMap<String> itemIndex;
+    private String[] userIds;
+    private String[] itemIds;
+
+    private int[] users;
+    private int[] items;
+    private double[] values;
+    private int size;
+
+    public RatingEncoder() {
+        this(16);
+    }
+
+    public RatingEncoder(int expectedRatings) {
+        int capacity = Math.max(expectedRatings, 16);
+        userIndex = new Object2IntOpenHashMap<>();
+        itemIndex = new Object2IntOpenHashMap<>();
+        userIndex.defaultReturnValue(-1);
+        itemIndex.defaultReturnValue(-1);
+        userIds = new String[16];
+        itemIds = new String[16];
+        users = new int[capacity];
+        items = new int[capacity];
+        values = new double[capacity];
+    }
+
+    /**
+     * Encodes the ratings list returned by the EOL script, skipping rows without a user or item.
+     */
+    public static RatingEncoder encode(List<Map<String, Object>> ratingsList) {
+        RatingEncoder encoder = new RatingEncoder(ratingsList.size());
+        for (Map<String, Object> r : ratingsList) {
+            encoder.add(r.get("userId"), r.get("itemId"), r.get("rating"));
+        }
+        return encoder;
+    }
+
+    /**
+     * Adds one rating and returns its row, or -1 when the user or item id is missing.
+     */
+    public int add(Object userId, Object itemId, Object rating) {
+        if (userId == null || itemId == null) return -1;
+        return add(userId.toString(), itemId.toString(), ratingValue(rating));
+    }
+
+    public int add(String userId, String itemId, double rating) {
+        return addIndexed(internUser(userId), internItem(itemId), rating);
+    }
+
+    /**
+     * Adds one rating of ids already interned in this encoder and returns its row.
+     */
+    int addIndexed(int userIdx, int itemIdx, double rating) {
+        if (size == users.length) {
+            int capacity = size + (size >> 1) + 1;
+            users = Arrays.copyOf(users, capacity);
+            items = Arrays.copyOf(items, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        users[size] = userIdx;
+        items[size] = itemIdx;
+        values[size] = rating;
+        return size++;
+    }
+
+    public int internUser(String userId) {
+        int idx = userIndex.getInt(userId);
+        if (idx < 0) {
+            idx = userIndex.size();
+            userIndex.put(userId, idx);
+            if (idx == userIds.length) userIds = Arrays.copyOf(userIds, idx * 2);
+            userIds[idx] = userId;
+        }
+        return idx;
+    }
+
+    public int internItem(String itemId) {
+        int idx = itemIndex.getInt(itemId);
+        if (idx < 0) {
+            idx = itemIndex.size();
+            itemIndex.put(itemId, idx);
+            if (idx == itemIds.length) itemIds = Arrays.copyOf(itemIds, idx * 2);
+            itemIds[idx] = itemId;
+        }
+        return idx;
+    }
+
+    /**
+     * Writes the ratings in LibRec's UIR text format with 1-based indices, as UTF-8.
+     */
+    public void writeLibrecInput(Path outFile) throws IOException {
+        try (BufferedWriter bw = Files.newBufferedWriter(outFile, StandardCharsets.UTF_8)) {
+            writeLibrecInput(bw, 0, size);
+        }
+    }
+
+    // Rows are formatted into one builder and handed to the writer a block at a time
+    void writeLibrecInput(Writer out, int from, int to) throws IOException {
+        StringBuilder block = new StringBuilder(WRITE_BLOCK + 64);
+        for (int k = from; k < to; k++) {
+            block.append(users[k] + 1).append('\t').append(items[k] + 1).append('\t').append(values[k]).append('\n');
+            if (block.length() >= WRITE_BLOCK) {
+                out.append(block);
+                block.setLength(0);
+            }
+        }
+        out.append(block);
+    }
+
+    public int size() { return size; }
+    public int numUsers() { return userIndex.size(); }
+    public int numItems() { return itemIndex.size(); }
+    public int[] getUsers() { return users; }
+    public int[] getItems() { return items; }
+    public double[] getValues() { return values; }
+
+    public int userIndexOf(String userId) { return userIndex.getInt(userId); }
+    public int itemIndexOf(String itemId) { return itemIndex.getInt(itemId); }
+    public String getUserId(int userIdx) { return userIds[userIdx]; }
+    public String getItemId(int itemIdx) { return itemIds[itemIdx]; }
+    public String[] getUserIds() { return Arrays.copyOf(userIds, numUsers()); }
+    public String[] getItemIds() { return Arrays.copyOf(itemIds, numItems()); }
+
+    public BiMap<String, Integer> userMapping() {
+        return toBiMap(userIds, numUsers());
+    }
+
+    public BiMap<String, Integer> itemMapping() {
+        return toBiMap(itemIds, numItems());
+    }
+
+    private static BiMap<String, Integer> toBiMap(String[] ids, int count) {
+        BiMap<String, Integer> mapping = HashBiMap.create(count);
+        for (int i = 0; i < count; i++) {
+            mapping.put(ids[i], i);
+        }
+        return mapping;
+    }
+
+    static double ratingValue(Object v) {
+        if (v instanceof Number) {
+            return ((Number) v).doubleValue();
+        }
+        return Double.parseDouble(String.valueOf(v));
+    }
+}
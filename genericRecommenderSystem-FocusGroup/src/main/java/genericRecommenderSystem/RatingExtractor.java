@@ -0,0 +1,113 @@
+package genericRecommenderSystem;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+
+/**
+ * Reads the ratings of a recommender model's first UserItemMatrix straight from its
+ * UserItemRows, as dataExtraction.eol does, but without running EOL or building a map per
+ * row. The features are looked up once on the recommender metamodel, so domain subclasses
+ * of User and Item are handled like the originals.
+ */
+class RatingExtractor {
+
+    /**
+     * Receives one rating at a time, in the matrix's row order.
+     */
+    interface Sink {
+        void accept(String userId, String itemId, double value);
+    }
+
+    private final EClass matrixClass;
+    private final EReference rows;
+    private final EReference user;
+    private final EReference item;
+    private final EAttribute value;
+    private final EAttribute userId;
+    private final EAttribute itemId;
+
+    private RatingExtractor(EPackage recommender) {
+        matrixClass = (EClass) recommender.getEClassifier("UserItemMatrix");
+        EClass rowClass = (EClass) recommender.getEClassifier("UserItemRow");
+        rows = (EReference) matrixClass.getEStructuralFeature("rows");
+        user = (EReference) rowClass.getEStructuralFeature("_user");
+        item = (EReference) rowClass.getEStructuralFeature("_item");
+        value = (EAttribute) rowClass.getEStructuralFeature("value");
+        userId = (EAttribute) ((EClass) recommender.getEClassifier("User")).getEStructuralFeature("userId");
+        itemId = (EAttribute) ((EClass) recommender.getEClassifier("Item")).getEStructuralFeature("itemId");
+    }
+
+    /**
+     * An extractor for models of {@code recommender}, or null if it is not the recommender metamodel.
+     */
+    static RatingExtractor forPackage(EPackage recommender) {
+        if (recommender == null || !(recommender.getEClassifier("UserItemMatrix") instanceof EClass)
+                || !(recommender.getEClassifier("UserItemRow") instanceof EClass)
+                || !(recommender.getEClassifier("User") instanceof EClass)
+                || !(recommender.getEClassifier("Item") instanceof EClass)) {
+            return null;
+        }
+        return new RatingExtractor(recommender);
+    }
+
+    /**
+     * The first UserItemMatrix of {@code resource} in document order, or null.
+     */
+    EObject findMatrix(Resource resource) {
+        for (TreeIterator<EObject> it = resource.getAllContents(); it.hasNext(); ) {
+            EObject eObject = it.next();
+            if (matrixClass.isSuperTypeOf(eObject.eClass())) return eObject;
+        }
+        return null;
+    }
+
+    /**
+     * Passes every row of {@code matrix} with a user and an item id to {@code sink} and
+     * returns the number of rows visited.
+     */
+    @SuppressWarnings("unchecked")
+    int extract(EObject matrix, Sink sink) {
+        List<EObject> matrixRows = (List<EObject>) matrix.eGet(rows);
+        // Rows usually point into the domain model; each distinct proxy is resolved only once
+        Map<URI, String> proxyIds = new HashMap<>();
+        for (EObject row : matrixRows) {
+            String u = idOf(row, user, userId, proxyIds);
+            String i = idOf(row, item, itemId, proxyIds);
+            if (u == null || i == null) continue;
+            Object rating = row.eGet(value);
+            sink.accept(u, i, rating instanceof Number ? ((Number) rating).doubleValue() : 0.0);
+        }
+        return matrixRows.size();
+    }
+
+    private static String idOf(EObject row, EReference reference, EAttribute id, Map<URI, String> proxyIds) {
+        EObject target = (EObject) row.eGet(reference, false);
+        if (target == null) return null;
+        if (!target.eIsProxy()) return stringOf(target, id);
+        URI uri = ((InternalEObject) target).eProxyURI();
+        String value = proxyIds.get(uri);
+        if (value == null && !proxyIds.containsKey(uri)) {
+            value = stringOf(EcoreUtil.resolve(target, row), id);
+            proxyIds.put(uri, value);
+        }
+        return value;
+    }
+
+    private static String stringOf(EObject eObject, EAttribute attribute) {
+        if (eObject.eIsProxy()) return null;
+        Object id = eObject.eGet(attribute);
+        return id == null ? null : id.toString();
+    }
+}
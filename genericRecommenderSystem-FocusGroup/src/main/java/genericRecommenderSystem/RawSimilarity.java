@@ -0,0 +1,121 @@
+package genericRecommenderSystem;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+
+/**
+ * Every non-zero similarity of a train matrix before shrinkage, with the number of
+ * co-raters of each pair, so that neighbor indexes for any shrinkage and K can be derived
+ * without running the engine again. Holds every pair that shares a rater (16 bytes each: an
+ * int neighbor, a double similarity and an int count), so it is meant for tuning runs rather
+ * than for the regular pipeline.
+ */
+class RawSimilarity {
+
+    private final SimilarityEngine engine;
+    private final int[] rowPtr;
+    private final int[] neighbors;
+    private final double[] sims;
+    private final int[] counts;
+
+    private RawSimilarity(SimilarityEngine engine, int[] rowPtr, int[] neighbors, double[] sims, int[] counts) {
+        this.engine = engine;
+        this.rowPtr = rowPtr;
+        this.neighbors = neighbors;
+        this.sims = sims;
+        this.counts = counts;
+    }
+
+    static RawSimilarity build(SequentialAccessSparseMatrix trainMatrix, boolean userBased, SimilarityFunction function,
+            ForkJoinPool pool) {
+        SimilarityEngine engine = SimilarityEngine.of(trainMatrix, userBased, 0, function);
+        List<BlockRows> blocks = engine.mapBlocks(pool, (from, to, s) -> {
+            BlockRows rows = new BlockRows(to - from);
+            for (int i = from; i < to; i++) {
+                rows.add(s, engine.computeRow(i, s));
+            }
+            return rows;
+        });
+
+        long total = 0;
+        for (BlockRows rows : blocks) total += rows.size;
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException(total + " similar pairs are too many to keep in memory");
+        }
+        int[] rowPtr = new int[engine.count() + 1];
+        int[] neighbors = new int[(int) total];
+        double[] sims = new double[(int) total];
+        int[] counts = new int[(int) total];
+        int row = 0, position = 0;
+        for (BlockRows rows : blocks) {
+            System.arraycopy(rows.neighbors, 0, neighbors, position, rows.size);
+            System.arraycopy(rows.sims, 0, sims, position, rows.size);
+            System.arraycopy(rows.counts, 0, counts, position, rows.size);
+            for (int r = 0; r < rows.lengths.length; r++) {
+                rowPtr[row + 1] = rowPtr[row] + rows.lengths[r];
+                row++;
+            }
+            position += rows.size;
+        }
+        return new RawSimilarity(engine, rowPtr, neighbors, sims, counts);
+    }
+
+    int count() {
+        return engine.count();
+    }
+
+    long numEntries() {
+        return neighbors.length;
+    }
+
+    /**
+     * The index {@link ParallelItemSimilarity} would build with this shrinkage and K:
+     * shrinkage is applied to each pair exactly as the engine applies it.
+     */
+    NeighborIndex neighborIndex(int shrinkage, int k, ForkJoinPool pool) {
+        return NeighborIndex.build(engine, k, pool, (i, s, heap) -> {
+            for (int p = rowPtr[i], end = rowPtr[i + 1]; p < end; p++) {
+                double sim = sims[p];
+                if (shrinkage > 0) {
+                    int n = counts[p];
+                    sim *= (double) n / ((double) (n + shrinkage) + 0.0);
+                    if (sim == 0.0) continue;
+                }
+                heap.offer(neighbors[p], (float) sim);
+            }
+        });
+    }
+
+    /**
+     * Rows of one block, concatenated.
+     */
+    private static final class BlockRows {
+        final int[] lengths;
+        int[] neighbors = new int[256];
+        double[] sims = new double[256];
+        int[] counts = new int[256];
+        int size;
+        private int rows;
+
+        BlockRows(int numRows) {
+            lengths = new int[numRows];
+        }
+
+        void add(SimilarityEngine.Scratch s, int length) {
+            if (size + length > neighbors.length) {
+                int capacity = Math.max(size + length, neighbors.length * 2);
+                neighbors = Arrays.copyOf(neighbors, capacity);
+                sims = Arrays.copyOf(sims, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+            }
+            System.arraycopy(s.neighbors, 0, neighbors, size, length);
+            System.arraycopy(s.sims, 0, sims, size, length);
+            System.arraycopy(s.counts, 0, counts, size, length);
+            lengths[rows++] = length;
+            size += length;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package genericRecommenderSystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Writes every user's list of a {@link RankedResults} to one file. The ids are resolved
+ * through arrays indexed like the results, the item ids encoded once; users are encoded in
+ * chunks of {@link #CHUNK_SIZE} on a fork-join pool, a window of chunks at a time, and each
+ * window is written in order with one gathering write. Users with an empty list are left out.
+ *
+ * Formats:
+ * <ul>
+ * <li>csv: a {@code user,item,rank,score} header, then one line per recommendation, rank
+ * from 1, ids quoted when they need it;</li>
+ * <li>jsonl: one {@code {"user":..,"items":[{"item":..,"score":..},..]}} object per line;</li>
+ * <li>binary, little endian: {@code MAGIC, VERSION}, the number of items and their ids
+ * (length and UTF-8 bytes each), then per user the id, the list length and, per
+ * recommendation, the item index and the score as a float.</li>
+ * </ul>
+ * Scores are written with four decimals in the text formats, as the console output shows them.
+ */
+final class RecommendationExport {
+
+    static final int MAGIC = 0x52454353; // "RECS"
+    static final int VERSION = 1;
+    static final int CHUNK_SIZE = 1024;
+
+    enum Format {
+        CSV("csv"), JSONL("jsonl"), BINARY("bin");
+
+        final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        static Format parse(String name) {
+            String key = name.trim().toLowerCase(Locale.ROOT);
+            for (Format format : values()) {
+                if (format.name().toLowerCase(Locale.ROOT).equals(key) || format.extension.equals(key)) return format;
+            }
+            throw new IllegalArgumentException("Unknown export format '" + name + "': use csv, jsonl or binary");
+        }
+    }
+
+    private final RankedResults results;
+    private final String[] userIds;
+    private final byte[][] itemIds;
+    private final Format format;
+
+    private RecommendationExport(RankedResults results, String[] userIds, String[] itemIds, Format format) {
+        this.results = results;
+        this.userIds = userIds;
+        this.format = format;
+        this.itemIds = new byte[itemIds.length][];
+        for (int i = 0; i < itemIds.length; i++) this.itemIds[i] = encodeId(itemIds[i], format);
+    }
+
+    /**
+     * Writes {@code results} to {@code file}, replacing it once complete. {@code userIds} and
+     * {@code itemIds} map the results' indices back to the model's ids.
+     */
+    static Summary write(RankedResults results, String[] userIds, String[] itemIds, Format format, Path file,
+            ForkJoinPool pool) throws IOException {
+        long start = System.nanoTime();
+        RecommendationExport export = new RecommendationExport(results, userIds, itemIds, format);
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        long bytes = 0;
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                bytes += writeFully(channel, new ByteBuffer[] {export.header()}, 1);
+                int numChunks = (results.numUsers() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+                int window = Math.max(1, pool.getParallelism()) * 4;
+                // One sink per slot of the window, reused from window to window
+                Sink[] sinks = new Sink[Math.min(window, Math.max(numChunks, 1))];
+                for (int k = 0; k < sinks.length; k++) sinks[k] = new Sink();
+                ByteBuffer[] buffers = new ByteBuffer[sinks.length];
+                for (int first = 0; first < numChunks; first += window) {
+                    int last = Math.min(numChunks, first + window);
+                    pool.invoke(export.new EncodeTask(sinks, first, first, last));
+                    for (int c = first; c < last; c++) buffers[c - first] = sinks[c - first].buffer();
+                    bytes += writeFully(channel, buffers, last - first);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        long recommendations = 0;
+        int users = 0;
+        for (int u = 0; u < results.numUsers(); u++) {
+            recommendations += results.size(u);
+            if (results.size(u) > 0) users++;
+        }
+        return new Summary(file, format, users, recommendations, bytes, System.nanoTime() - start);
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer[] buffers, int n) throws IOException {
+        long remaining = 0;
+        for (int k = 0; k < n; k++) remaining += buffers[k].remaining();
+        for (long left = remaining; left > 0; ) left -= channel.write(buffers, 0, n);
+        return remaining;
+    }
+
+    /** What {@link #write} wrote. */
+    static final class Summary {
+        final Path file;
+        final Format format;
+        final int users;
+        final long recommendations;
+        final long bytes;
+        final long nanos;
+
+        Summary(Path file, Format format, int users, long recommendations, long bytes, long nanos) {
+            this.file = file;
+            this.format = format;
+            this.users = users;
+            this.recommendations = recommendations;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+    }
+
+    private ByteBuffer header() {
+        Sink sink = new Sink();
+        switch (format) {
+            case CSV:
+                sink.ascii("user,item,rank,score\n");
+                break;
+            case BINARY:
+                sink.putInt(MAGIC).putInt(VERSION).putInt(itemIds.length);
+                for (byte[] id : itemIds) sink.putInt(id.length).put(id);
+                break;
+            default:
+        }
+        return sink.buffer();
+    }
+
+    private void encodeUser(int u, Sink sink) {
+        int n = results.size(u);
+        if (n == 0) return;
+        byte[] user = encodeId(userIds[u], format);
+        int offset = u * results.topN();
+        int[] items = results.items();
+        float[] scores = results.scores();
+        switch (format) {
+            case CSV:
+                for (int r = 0; r < n; r++) {
+                    sink.put(user).put((byte) ',').put(itemIds[items[offset + r]]).put((byte) ',');
+                    sink.putDecimal(r + 1).put((byte) ',');
+                    sink.putScore(scores[offset + r], false).put((byte) '\n');
+                }
+                break;
+            case JSONL:
+                sink.ascii("{\"user\":").put(user).ascii(",\"items\":[");
+                for (int r = 0; r < n; r++) {
+                    if (r > 0) sink.put((byte) ',');
+                    sink.ascii("{\"item\":").put(itemIds[items[offset + r]]).ascii(",\"score\":");
+                    sink.putScore(scores[offset + r], true).put((byte) '}');
+                }
+                sink.ascii("]}\n");
+                break;
+            case BINARY:
+                sink.putInt(user.length).put(user).putInt(n);
+                for (int r = 0; r < n; r++) sink.putInt(items[offset + r]).putFloat(scores[offset + r]);
+                break;
+            default:
+        }
+    }
+
+    // The bytes of an id as the format writes it: quoted and escaped for csv and jsonl when needed
+    static byte[] encodeId(String id, Format format) {
+        if (id == null) id = "";
+        switch (format) {
+            case CSV:
+                if (id.chars().noneMatch(c -> c == ',' || c == '"' || c == '\n' || c == '\r')) break;
+                return ('"' + id.replace("\"", "\"\"") + '"').getBytes(StandardCharsets.UTF_8);
+            case JSONL: {
+                StringBuilder json = new StringBuilder(id.length() + 2).append('"');
+                for (int k = 0; k < id.length(); k++) {
+                    char c = id.charAt(k);
+                    if (c == '"' || c == '\\') json.append('\\').append(c);
+                    else if (c < 0x20) json.append(String.format("\\u%04x", (int) c));
+                    else json.append(c);
+                }
+                return json.append('"').toString().getBytes(StandardCharsets.UTF_8);
+            }
+            default:
+        }
+        return id.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Growable byte array that formats without going through String
+    private static final class Sink {
+        private byte[] bytes = new byte[1 << 16];
+        private final byte[] digits = new byte[20];
+        private int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        ByteBuffer buffer() {
+            return ByteBuffer.wrap(bytes, 0, size);
+        }
+
+        private void ensure(int n) {
+            if (size + n > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + n));
+        }
+
+        Sink put(byte b) {
+            ensure(1);
+            bytes[size++] = b;
+            return this;
+        }
+
+        Sink put(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, size, b.length);
+            size += b.length;
+            return this;
+        }
+
+        Sink ascii(String s) {
+            ensure(s.length());
+            for (int k = 0; k < s.length(); k++) bytes[size++] = (byte) s.charAt(k);
+            return this;
+        }
+
+        Sink putInt(int v) {
+            ensure(4);
+            bytes[size++] = (byte) v;
+            bytes[size++] = (byte) (v >>> 8);
+            bytes[size++] = (byte) (v >>> 16);
+            bytes[size++] = (byte) (v >>> 24);
+            return this;
+        }
+
+        Sink putFloat(float v) {
+            return putInt(Float.floatToIntBits(v));
+        }
+
+        Sink putDecimal(long v) {
+            if (v < 0) {
+                put((byte) '-');
+                v = -v;
+            }
+            int n = 0;
+            do {
+                digits[n++] = (byte) ('0' + v % 10);
+                v /= 10;
+            } while (v > 0);
+            ensure(n);
+            while (n > 0) bytes[size++] = digits[--n];
+            return this;
+        }
+
+        // Four decimals, like %.4f; JSON has no NaN or infinities, so those become null
+        Sink putScore(float score, boolean json) {
+            if (!Float.isFinite(score)) return ascii(json ? "null" : Float.toString(score));
+            long scaled = Math.round(score * 10000.0);
+            if (scaled < 0) {
+                put((byte) '-');
+                scaled = -scaled;
+            }
+            putDecimal(scaled / 10000).put((byte) '.');
+            int fraction = (int) (scaled % 10000);
+            ensure(4);
+            for (int div = 1000; div > 0; div /= 10) bytes[size++] = (byte) ('0' + fraction / div % 10);
+            return this;
+        }
+    }
+
+    private final class EncodeTask extends RecursiveAction {
+        private final Sink[] sinks;
+        private final int firstChunk;
+        private final int fromChunk, toChunk;
+
+        EncodeTask(Sink[] sinks, int firstChunk, int fromChunk, int toChunk) {
+            this.sinks = sinks;
+            this.firstChunk = firstChunk;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (toChunk - fromChunk > 1) {
+                int mid = (fromChunk + toChunk) >>> 1;
+                invokeAll(new EncodeTask(sinks, firstChunk, fromChunk, mid), new EncodeTask(sinks, firstChunk, mid, toChunk));
+                return;
+            }
+            Sink sink = sinks[fromChunk - firstChunk];
+            sink.clear();
+            int to = Math.min((fromChunk + 1) * CHUNK_SIZE, results.numUsers());
+            for (int u = fromChunk * CHUNK_SIZE; u < to; u++) encodeUser(u, sink);
+        }
+    }
+}
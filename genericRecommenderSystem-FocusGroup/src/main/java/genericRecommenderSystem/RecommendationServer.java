@@ -0,0 +1,328 @@
+package genericRecommenderSystem;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * Keeps a trained model in memory and answers queries about it over HTTP on the loopback
+ * interface, instead of running the batch pipeline for every question.
+ *
+ * <pre>
+ * GET  /recommend?user=&lt;id&gt;[&amp;n=&lt;count&gt;]  top-N items of a user
+ * GET  /similar?item=&lt;id&gt;[&amp;n=&lt;count&gt;]    nearest neighbors of an item
+ * POST /query                            one query per line: "recommend &lt;user&gt; [n]" or "similar &lt;item&gt; [n]"
+ * GET  /users, /items                    known ids, one per line
+ * GET  /metrics                          latency percentiles per endpoint
+ * </pre>
+ *
+ * Lines of a bulk query mirror the modelled RecommendationQuery (a user and a task) and are
+ * answered as a JSON array in the same order. {@code n} is capped at the stored list lengths:
+ * rec.recommender.ranking.topn for users and rec.knn for items.
+ *
+ * Run with -Dconfig.file=&lt;config&gt;; the pipeline runs once, then server.port and server.threads apply.
+ */
+public class RecommendationServer {
+
+    private final ModelCache.Entry model;
+    private final RankedResults results;
+    private final NeighborIndex index;
+    private final Object2IntOpenHashMap<String> userIndex;
+    private final Object2IntOpenHashMap<String> itemIndex;
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public RecommendationServer(ModelCache.Entry model) {
+        this.model = model;
+        this.results = model.getResults();
+        this.index = model.getIndex();
+        this.userIndex = indexOf(model.userIds);
+        this.itemIndex = indexOf(model.itemIds);
+        if (results == null) {
+            throw new IllegalArgumentException("The model has no ranked results to serve");
+        }
+    }
+
+    private static Object2IntOpenHashMap<String> indexOf(String[] ids) {
+        Object2IntOpenHashMap<String> map = new Object2IntOpenHashMap<>(ids.length);
+        map.defaultReturnValue(-1);
+        for (int k = 0; k < ids.length; k++) map.put(ids[k], k);
+        return map;
+    }
+
+    /**
+     * Binds to the loopback address; port 0 picks a free port. Returns the bound address.
+     */
+    public InetSocketAddress start(int port, int threads) throws IOException {
+        // Without TCP_NODELAY small responses wait for the client's delayed ACK (~40 ms)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+        server.setExecutor(executor);
+        route("/recommend", exchange -> {
+            Map<String, String> params = parameters(exchange);
+            StringBuilder out = new StringBuilder(512);
+            return appendRecommendations(out, require(params, "user"), count(params)) ? respond(exchange, 200, out)
+                    : respond(exchange, 404, out);
+        });
+        route("/similar", exchange -> {
+            Map<String, String> params = parameters(exchange);
+            StringBuilder out = new StringBuilder(512);
+            return appendNeighbors(out, require(params, "item"), count(params)) ? respond(exchange, 200, out)
+                    : respond(exchange, 404, out);
+        });
+        route("/query", this::bulk);
+        route("/users", exchange -> respond(exchange, 200, lines(model.userIds)));
+        route("/items", exchange -> respond(exchange, 200, lines(model.itemIds)));
+        server.createContext("/metrics", exchange -> respond(exchange, 200, metrics()));
+        server.start();
+        return server.getAddress();
+    }
+
+    public void stop() {
+        if (server == null) return;
+        server.stop(0);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server = null;
+    }
+
+    private interface Endpoint {
+        int handle(HttpExchange exchange) throws IOException;
+    }
+
+    private void route(String path, Endpoint endpoint) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        latencies.put(path, histogram);
+        server.createContext(path, exchange -> {
+            long start = System.nanoTime();
+            try {
+                endpoint.handle(exchange);
+            } catch (IllegalArgumentException e) {
+                StringBuilder out = new StringBuilder();
+                appendError(out, e.getMessage());
+                respond(exchange, 400, out);
+            } catch (RuntimeException e) {
+                // A bug, not a bad request; the client still gets an answer instead of a dropped connection
+                e.printStackTrace();
+                if (exchange.getResponseCode() < 0) {
+                    StringBuilder out = new StringBuilder();
+                    appendError(out, "Internal error: " + e);
+                    respond(exchange, 500, out);
+                }
+            } finally {
+                histogram.record(System.nanoTime() - start);
+            }
+        });
+    }
+
+    private int bulk(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            throw new IllegalArgumentException("POST one query per line");
+        }
+        StringBuilder out = new StringBuilder(4096).append('[');
+        int numQueries = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                if (numQueries++ > 0) out.append(',');
+                String[] query = line.split("\\s+");
+                int n;
+                try {
+                    n = query.length > 2 ? parseCount(query[2]) : Integer.MAX_VALUE;
+                } catch (IllegalArgumentException e) {
+                    // Like an unknown task, a bad count only fails its own line
+                    appendError(out, e.getMessage());
+                    continue;
+                }
+                if (query.length < 2) {
+                    appendError(out, "Expected '<task> <id> [n]': " + line);
+                } else if ("recommend".equals(query[0])) {
+                    appendRecommendations(out, query[1], n);
+                } else if ("similar".equals(query[0])) {
+                    appendNeighbors(out, query[1], n);
+                } else {
+                    appendError(out, "Unknown task: " + query[0]);
+                }
+            }
+        }
+        return respond(exchange, 200, out.append(']'));
+    }
+
+    /**
+     * Appends the user's top-N list, or an error object if the user is unknown.
+     */
+    boolean appendRecommendations(StringBuilder out, String userId, int n) {
+        int u = userIndex.getInt(userId);
+        if (u < 0) {
+            appendError(out, "Unknown user: " + userId);
+            return false;
+        }
+        out.append("{\"user\":");
+        quote(out, userId).append(",\"items\":[");
+        for (int r = 0, size = Math.min(n, results.size(u)); r < size; r++) {
+            if (r > 0) out.append(',');
+            out.append("{\"item\":");
+            quote(out, model.itemIds[results.itemAt(u, r)]).append(",\"score\":").append(results.scoreAt(u, r)).append('}');
+        }
+        out.append("]}");
+        return true;
+    }
+
+    /**
+     * Appends the item's nearest neighbors, or an error object if the item is unknown.
+     */
+    boolean appendNeighbors(StringBuilder out, String itemId, int n) {
+        int i = itemIndex.getInt(itemId);
+        if (i < 0) {
+            appendError(out, "Unknown item: " + itemId);
+            return false;
+        }
+        out.append("{\"item\":");
+        quote(out, itemId).append(",\"neighbors\":[");
+        for (int p = index.start(i), end = Math.min(index.end(i), index.start(i) + n); p < end; p++) {
+            if (p > index.start(i)) out.append(',');
+            out.append("{\"item\":");
+            quote(out, model.itemIds[index.neighborAt(p)]).append(",\"score\":").append(index.scoreAt(p)).append('}');
+        }
+        out.append("]}");
+        return true;
+    }
+
+    StringBuilder metrics() {
+        StringBuilder out = new StringBuilder(512).append('{');
+        boolean first = true;
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            if (!first) out.append(',');
+            first = false;
+            quote(out, entry.getKey()).append(':');
+            entry.getValue().appendJson(out);
+        }
+        return out.append('}');
+    }
+
+    private static StringBuilder lines(String[] ids) {
+        StringBuilder out = new StringBuilder(ids.length * 12);
+        for (String id : ids) out.append(id).append('\n');
+        return out;
+    }
+
+    private static int respond(HttpExchange exchange, int status, StringBuilder out) throws IOException {
+        byte[] body = out.toString().getBytes(StandardCharsets.UTF_8);
+        boolean json = out.length() > 0 && (out.charAt(0) == '{' || out.charAt(0) == '[');
+        exchange.getResponseHeaders().set("Content-Type", json ? "application/json; charset=utf-8" : "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+        return status;
+    }
+
+    private static Map<String, String> parameters(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static String require(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        return value;
+    }
+
+    private static int count(Map<String, String> params) {
+        String n = params.get("n");
+        return n == null ? Integer.MAX_VALUE : parseCount(n);
+    }
+
+    private static int parseCount(String n) {
+        try {
+            return Math.max(0, Integer.parseInt(n));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a count: " + n);
+        }
+    }
+
+    private static void appendError(StringBuilder out, String message) {
+        out.append("{\"error\":");
+        quote(out, message).append('}');
+    }
+
+    static StringBuilder quote(StringBuilder out, String value) {
+        out.append('"');
+        for (int k = 0; k < value.length(); k++) {
+            char c = value.charAt(k);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.append('"');
+    }
+
+    public static void main(String[] args) {
+        try {
+            Properties props = Main.loadConfigFromArgs();
+            ModelCache.Entry model = new RecommenderSession(props).run().getModel();
+            if (model == null) {
+                System.out.println("Nothing to serve: the server needs a model from rec.similarity.engine=parallel.");
+                return;
+            }
+            RecommendationServer server = new RecommendationServer(model);
+            InetSocketAddress address = server.start(Integer.parseInt(props.getProperty("server.port", "8085")),
+                    Integer.parseInt(props.getProperty("server.threads", "0")));
+            System.out.printf("Serving %d users and %d items on http://%s:%d%n", model.numUsers, model.numItems,
+                    address.getHostString(), address.getPort());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                for (Map.Entry<String, LatencyHistogram> entry : server.latencies.entrySet()) {
+                    if (entry.getValue().count() > 0) {
+                        System.out.printf("%-10s %s%n", entry.getKey(), entry.getValue().summary());
+                    }
+                }
+            }));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package genericRecommenderSystem;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.swing.table.AbstractTableModel;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+import net.librec.data.DataModel;
+
+/**
+ * Table of (user, item, score) rows read straight from a {@link RankedResults}: nothing is
+ * copied per row, a row is a slot of the result arrays and the cells are looked up when
+ * the table paints them. Filtering and sorting produce a {@link View} (an array of slots)
+ * that can be computed off the event thread, and only one page of the view is shown.
+ */
+class RecommendationTableModel extends AbstractTableModel {
+
+    static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private static final String[] COLUMNS = {"User ID", "Item ID", "Score"};
+
+    enum SortKey {
+        RANK("User order, best first"),
+        USER("User ID"),
+        ITEM("Item ID"),
+        SCORE("Score (highest first)");
+
+        private final String label;
+
+        SortKey(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private final int pageSize;
+    private Source source;
+    private View view;
+    private int page;
+
+    RecommendationTableModel() {
+        this(DEFAULT_PAGE_SIZE);
+    }
+
+    RecommendationTableModel(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Shows all rows of {@code source} in rank order (null clears the table).
+     */
+    void setSource(Source source) {
+        this.source = source;
+        this.view = source == null ? null : source.query(null, Float.NEGATIVE_INFINITY, SortKey.RANK);
+        this.page = 0;
+        fireTableDataChanged();
+    }
+
+    Source getSource() {
+        return source;
+    }
+
+    /**
+     * Shows a view computed by {@link Source#query}; ignored if it belongs to an older source.
+     */
+    void setView(View view) {
+        if (view == null || view.source != source) return;
+        this.view = view;
+        this.page = 0;
+        fireTableDataChanged();
+    }
+
+    void setPage(int page) {
+        this.page = Math.max(0, Math.min(page, pageCount() - 1));
+        fireTableDataChanged();
+    }
+
+    int getPage() {
+        return page;
+    }
+
+    int pageCount() {
+        return view == null || view.size == 0 ? 1 : (view.size + pageSize - 1) / pageSize;
+    }
+
+    int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Rows that pass the current filter, over all pages.
+     */
+    int viewSize() {
+        return view == null ? 0 : view.size;
+    }
+
+    int totalSize() {
+        return source == null ? 0 : source.size();
+    }
+
+    @Override
+    public int getRowCount() {
+        if (view == null) return 0;
+        return Math.max(0, Math.min(pageSize, view.size - page * pageSize));
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    /**
+     * The order a click on the header of {@code column} (a model index) sorts the rows by.
+     */
+    static SortKey forColumn(int column) {
+        switch (column) {
+            case 0: return SortKey.USER;
+            case 1: return SortKey.ITEM;
+            case 2: return SortKey.SCORE;
+            default: throw new IllegalArgumentException("No column " + column);
+        }
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == 2 ? Float.class : String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        int slot = view.slotAt(page * pageSize + row);
+        switch (column) {
+            case 0: return source.userIds[slot / source.topN];
+            case 1: return source.itemIds[source.items[slot]];
+            default: return source.scores[slot];
+        }
+    }
+
+    /**
+     * The result arrays with the ids of their inner indices, and the orders needed for
+     * sorting. Immutable, so it can be built and queried on any thread.
+     */
+    static final class Source {
+        final RankedResults results;
+        final String[] userIds;
+        final String[] itemIds;
+        final int topN;
+        final int[] items;
+        final float[] scores;
+        // First row of each user in rank order, and the rank of every user/item by id
+        private final int[] rowStart;
+        private final int[] usersById;
+        private final int[] itemRank;
+
+        Source(RankedResults results, String[] userIds, String[] itemIds) {
+            this.results = results;
+            this.userIds = userIds;
+            this.itemIds = itemIds;
+            this.topN = results.topN();
+            this.items = results.items();
+            this.scores = results.scores();
+            int numUsers = results.numUsers();
+            rowStart = new int[numUsers + 1];
+            for (int u = 0; u < numUsers; u++) rowStart[u + 1] = rowStart[u] + results.size(u);
+            usersById = identity(numUsers);
+            IntArrays.quickSort(usersById, (a, b) -> compareIds(userIds[a], userIds[b]));
+            int[] itemsById = identity(itemIds.length);
+            IntArrays.quickSort(itemsById, (a, b) -> compareIds(itemIds[a], itemIds[b]));
+            itemRank = new int[itemIds.length];
+            for (int r = 0; r < itemsById.length; r++) {
+                // Equal ids share a rank, so their rows are ordered by score
+                boolean same = r > 0 && compareIds(itemIds[itemsById[r - 1]], itemIds[itemsById[r]]) == 0;
+                itemRank[itemsById[r]] = same ? itemRank[itemsById[r - 1]] : r;
+            }
+        }
+
+        /**
+         * Ids of the data model's inner indices; taken from the encoder when the model has one.
+         */
+        static Source of(RankedResults results, DataModel dataModel) {
+            if (dataModel instanceof InMemoryDataModel) {
+                RatingEncoder ratings = ((InMemoryDataModel) dataModel).getRatings();
+                return new Source(results, ratings.getUserIds(), ratings.getItemIds());
+            }
+            return new Source(results, idsByIndex(dataModel.getUserMappingData()), idsByIndex(dataModel.getItemMappingData()));
+        }
+
+        private static String[] idsByIndex(Map<String, Integer> mapping) {
+            String[] ids = new String[mapping.size()];
+            for (Map.Entry<String, Integer> e : mapping.entrySet()) ids[e.getValue()] = e.getKey();
+            return ids;
+        }
+
+        private static int[] identity(int n) {
+            int[] a = new int[n];
+            for (int i = 0; i < n; i++) a[i] = i;
+            return a;
+        }
+
+        private static int compareIds(String a, String b) {
+            if (a == null || b == null) return a == null ? (b == null ? 0 : 1) : -1;
+            return a.compareTo(b);
+        }
+
+        int size() {
+            return rowStart[rowStart.length - 1];
+        }
+
+        /**
+         * The rows whose user id contains {@code userFilter} (ignoring case; null or empty
+         * for all users) with a score of at least {@code minScore}, in the given order.
+         */
+        View query(String userFilter, float minScore, SortKey sort) {
+            String needle = userFilter == null || userFilter.trim().isEmpty()
+                    ? null : userFilter.trim().toLowerCase(Locale.ROOT);
+            if (needle == null && minScore == Float.NEGATIVE_INFINITY && sort == SortKey.RANK) {
+                return new View(this, null, size());
+            }
+            int[] slots = new int[size()];
+            int n = 0;
+            int numUsers = results.numUsers();
+            for (int k = 0; k < numUsers; k++) {
+                // By user id, the users are visited in id order; otherwise in index order
+                int u = sort == SortKey.USER ? usersById[k] : k;
+                if (needle != null && (userIds[u] == null || !userIds[u].toLowerCase(Locale.ROOT).contains(needle))) continue;
+                for (int r = 0, size = results.size(u); r < size; r++) {
+                    int slot = u * topN + r;
+                    if (scores[slot] >= minScore) slots[n++] = slot;
+                }
+            }
+            IntComparator order = null;
+            if (sort == SortKey.SCORE) {
+                order = (a, b) -> a == b ? 0 : scores[a] != scores[b] ? Float.compare(scores[b], scores[a]) : Integer.compare(a, b);
+            } else if (sort == SortKey.ITEM) {
+                order = (a, b) -> a == b ? 0 : itemRank[items[a]] != itemRank[items[b]]
+                        ? Integer.compare(itemRank[items[a]], itemRank[items[b]]) : Float.compare(scores[b], scores[a]);
+            }
+            if (order != null) IntArrays.parallelQuickSort(slots, 0, n, order);
+            return new View(this, slots, n);
+        }
+
+        /**
+         * Slot of the {@code row}-th row in rank order.
+         */
+        int slotOfRow(int row) {
+            int u = Arrays.binarySearch(rowStart, row);
+            if (u < 0) {
+                u = -u - 2;
+            } else {
+                // Skip users without recommendations, whose start equals the next user's
+                while (rowStart[u + 1] == row) u++;
+            }
+            return u * topN + (row - rowStart[u]);
+        }
+    }
+
+    /**
+     * Rows of a source after filtering and sorting; null slots means every row in rank order.
+     */
+    static final class View {
+        final Source source;
+        final int[] slots;
+        final int size;
+
+        View(Source source, int[] slots, int size) {
+            this.source = source;
+            this.slots = slots;
+            this.size = size;
+        }
+
+        int slotAt(int index) {
+            return slots != null ? slots[index] : source.slotOfRow(index);
+        }
+    }
+}
@@ -7,18 +7,22 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.GridLayout;
 import java.awt.Insets;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
-import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -32,27 +36,36 @@ import javax.swing.JTable;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.border.TitledBorder;
+import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.DefaultTableModel;
+import javax.swing.text.BadLocationException;
 import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.w3c.dom.Document;
 
-import com.google.common.collect.BiMap;
-
-import net.librec.data.model.TextDataModel;
-import net.librec.recommender.item.KeyValue;
-import net.librec.recommender.item.RecommendedList;
-
 public class RecommenderDashboard extends JFrame {
 
+    // The log view keeps at most this many characters; older lines are dropped
+    static final int MAX_LOG_CHARS = 500_000;
+
     private final Properties configProperties = new Properties();
     
     // UI Components
     private final JTextArea logArea;
     private final JLabel statusLabel;
     private final JButton runBtn;
-    private final DefaultTableModel resultsModel;
+    private final JCheckBox saveLogBox;
+    private final RecommendationTableModel resultsModel;
+    private final JTextField userFilterField, minScoreField;
+    private final JComboBox<RecommendationTableModel.SortKey> sortBox;
+    private final JButton prevPageBtn, nextPageBtn;
+    private final JLabel pageLabel;
+    private int queryGeneration;
     private final JLabel ndcgLabel, precisionLabel, recallLabel, f1Label;
+    private final DefaultTableModel stagesModel;
+    private final JLabel performanceLabel;
 
     // Configuration Text Fields
     private final JTextField rsMetamodelField, domainMetamodelField;
@@ -64,11 +77,27 @@ public class RecommenderDashboard extends JFrame {
         logArea = new JTextArea();
         statusLabel = new JLabel("Status: Please configure file paths and run.");
         runBtn = new JButton("Run Recommender");
-        resultsModel = new DefaultTableModel(new String[]{"User ID", "Item ID", "Score"}, 0);
-        ndcgLabel = createMetricLabel("NDCG@10");
-        precisionLabel = createMetricLabel("Precision@10");
-        recallLabel = createMetricLabel("Recall@10");
-        f1Label = createMetricLabel("F1@10");
+        saveLogBox = new JCheckBox("Save full log to output.tmp");
+        resultsModel = new RecommendationTableModel();
+        userFilterField = new JTextField(12);
+        minScoreField = new JTextField(6);
+        sortBox = new JComboBox<>(RecommendationTableModel.SortKey.values());
+        prevPageBtn = new JButton("<");
+        nextPageBtn = new JButton(">");
+        pageLabel = new JLabel();
+        // Titled with the default cutoff until a run reports the one it used
+        ndcgLabel = createMetricLabel(metricTitle("NDCG", 10));
+        precisionLabel = createMetricLabel(metricTitle("Precision", 10));
+        recallLabel = createMetricLabel(metricTitle("Recall", 10));
+        f1Label = createMetricLabel(metricTitle("F1", 10));
+        stagesModel = new DefaultTableModel(new String[]{"Stage", "Wall ms", "% of run", "CPU ms", "Allocated MB",
+                "GCs", "Users", "Items", "Ratings", "Neighbors"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        performanceLabel = new JLabel("No run yet.");
 
         rsMetamodelField = new JTextField(40);
         domainMetamodelField = new JTextField(40);
@@ -86,6 +115,7 @@ public class RecommenderDashboard extends JFrame {
         JTabbedPane tabbedPane = new JTabbedPane();
         tabbedPane.addTab("Configuration", createConfigPanel());
         tabbedPane.addTab("Execution & Results", createExecutionPanel());
+        tabbedPane.addTab("Performance", createPerformancePanel());
         
         add(tabbedPane);
     }
@@ -146,6 +176,7 @@ public class RecommenderDashboard extends JFrame {
         JPanel controlsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         runBtn.addActionListener(e -> runRecommender());
         controlsPanel.add(runBtn);
+        controlsPanel.add(saveLogBox);
         panel.add(controlsPanel, BorderLayout.NORTH);
         
         JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, createResultsSection(), createLogSection());
@@ -167,11 +198,105 @@ public class RecommenderDashboard extends JFrame {
         panel.add(metricsPanel, BorderLayout.NORTH);
 
         JTable resultsTable = new JTable(resultsModel);
+        resultsTable.setDefaultRenderer(Float.class, new DefaultTableCellRenderer() {
+            @Override
+            protected void setValue(Object value) {
+                setHorizontalAlignment(RIGHT);
+                setText(value == null ? "" : String.format("%.4f", value));
+            }
+        });
+        // Sorting is done by the model over all rows, not per page by the table
+        resultsTable.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = resultsTable.columnAtPoint(e.getPoint());
+                if (column < 0) return;
+                sortBox.setSelectedItem(RecommendationTableModel.forColumn(resultsTable.convertColumnIndexToModel(column)));
+            }
+        });
         JScrollPane tableScrollPane = new JScrollPane(resultsTable);
-        tableScrollPane.setBorder(BorderFactory.createTitledBorder("Recommendations"));
-        panel.add(tableScrollPane, BorderLayout.CENTER);
+
+        JPanel queryPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        queryPanel.add(new JLabel("User:"));
+        queryPanel.add(userFilterField);
+        queryPanel.add(new JLabel("Min score:"));
+        queryPanel.add(minScoreField);
+        queryPanel.add(new JLabel("Sort by:"));
+        queryPanel.add(sortBox);
+        JButton applyBtn = new JButton("Apply");
+        queryPanel.add(applyBtn);
+        queryPanel.add(prevPageBtn);
+        queryPanel.add(pageLabel);
+        queryPanel.add(nextPageBtn);
+        applyBtn.addActionListener(e -> applyQuery());
+        userFilterField.addActionListener(e -> applyQuery());
+        minScoreField.addActionListener(e -> applyQuery());
+        sortBox.addActionListener(e -> applyQuery());
+        prevPageBtn.addActionListener(e -> showPage(resultsModel.getPage() - 1));
+        nextPageBtn.addActionListener(e -> showPage(resultsModel.getPage() + 1));
+        updatePageLabel();
+
+        JPanel tablePanel = new JPanel(new BorderLayout());
+        tablePanel.setBorder(BorderFactory.createTitledBorder("Recommendations"));
+        tablePanel.add(queryPanel, BorderLayout.NORTH);
+        tablePanel.add(tableScrollPane, BorderLayout.CENTER);
+        panel.add(tablePanel, BorderLayout.CENTER);
         return panel;
     }
+
+    /**
+     * Filters and sorts the results in the background, then shows the first page.
+     */
+    private void applyQuery() {
+        RecommendationTableModel.Source source = resultsModel.getSource();
+        if (source == null) return;
+        String userFilter = userFilterField.getText();
+        float minScore;
+        try {
+            String text = minScoreField.getText().trim();
+            minScore = text.isEmpty() ? Float.NEGATIVE_INFINITY : Float.parseFloat(text);
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Min score must be a number.", "Filter", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        RecommendationTableModel.SortKey sort = (RecommendationTableModel.SortKey) sortBox.getSelectedItem();
+        int generation = ++queryGeneration;
+        pageLabel.setText("Filtering...");
+        new SwingWorker<RecommendationTableModel.View, Void>() {
+            @Override
+            protected RecommendationTableModel.View doInBackground() {
+                return source.query(userFilter, minScore, sort);
+            }
+
+            @Override
+            protected void done() {
+                // A newer query or run replaced this one
+                if (generation != queryGeneration) return;
+                try {
+                    resultsModel.setView(get());
+                } catch (InterruptedException | ExecutionException e) {
+                    log("Filtering failed: " + e);
+                }
+                updatePageLabel();
+            }
+        }.execute();
+    }
+
+    private void showPage(int page) {
+        resultsModel.setPage(page);
+        updatePageLabel();
+    }
+
+    private void updatePageLabel() {
+        int page = resultsModel.getPage();
+        int rows = resultsModel.viewSize();
+        int first = rows == 0 ? 0 : page * resultsModel.getPageSize() + 1;
+        int last = Math.min(rows, (page + 1) * resultsModel.getPageSize());
+        pageLabel.setText(String.format("Rows %d-%d of %d (%d total), page %d/%d", first, last, rows,
+                resultsModel.totalSize(), page + 1, resultsModel.pageCount()));
+        prevPageBtn.setEnabled(page > 0);
+        nextPageBtn.setEnabled(page + 1 < resultsModel.pageCount());
+    }
     
     private JScrollPane createLogSection() {
         logArea.setEditable(false);
@@ -181,11 +306,27 @@ public class RecommenderDashboard extends JFrame {
         return scrollPane;
     }
 
+    private JPanel createPerformancePanel() {
+        JPanel panel = new JPanel(new BorderLayout(10, 10));
+        panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        performanceLabel.setFont(new Font("SansSerif", Font.BOLD, 14));
+        panel.add(performanceLabel, BorderLayout.NORTH);
+
+        JTable stagesTable = new JTable(stagesModel);
+        JScrollPane scrollPane = new JScrollPane(stagesTable);
+        scrollPane.setBorder(BorderFactory.createTitledBorder("Pipeline Stages"));
+        panel.add(scrollPane, BorderLayout.CENTER);
+        return panel;
+    }
+
     private void runRecommender() {
         log("--- Starting Recommender Process ---");
         statusLabel.setText("Status: Running...");
         runBtn.setEnabled(false);
-        resultsModel.setRowCount(0);
+        queryGeneration++;
+        resultsModel.setSource(null);
+        updatePageLabel();
+        stagesModel.setRowCount(0);
 
         if (!buildPropertiesFromUI()) {
             // Error message is shown by buildPropertiesFromUI
@@ -194,42 +335,51 @@ public class RecommenderDashboard extends JFrame {
             return;
         }
 
+        Path logFile = saveLogBox.isSelected() ? Paths.get(configProperties.getProperty("output.tmp"),
+                "dashboard-run-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".log") : null;
+        Properties props = new Properties();
+        props.putAll(configProperties);
         new Thread(() -> {
-            PrintStream printStream = new PrintStream(new CustomOutputStream(logArea));
-            PrintStream originalOut = System.out;
-            PrintStream originalErr = System.err;
-            System.setOut(printStream);
-            System.setErr(printStream);
-            File tempConfigFile = null;
+            RunLog runLog = null;
 
             try {
-                tempConfigFile = File.createTempFile("recommender_config", ".properties");
-                try (FileOutputStream out = new FileOutputStream(tempConfigFile)) {
-                    configProperties.store(out, "Dynamic configuration from Dashboard");
+                // Only this run's output goes to the log view; the console keeps everything else
+                runLog = new RunLog(MAX_LOG_CHARS, logFile, SwingUtilities::invokeLater, this::appendLog);
+                if (logFile != null) log("Full log: " + logFile.toAbsolutePath());
+                RecommenderSession.Result result;
+                try (ThreadOutput.Capture capture = ThreadOutput.capture(runLog.printStream())) {
+                    result = new RecommenderSession(props, null, runLog.printStream()).run();
                 }
                 
-                System.setProperty("config.file", tempConfigFile.getAbsolutePath());
-                Main.main(new String[0]);
-                
-                RecommendedList recs = Main.getLastRecommendedList();
-                TextDataModel dataModel = Main.getLastDataModel();
+                // Id lookups and sort orders are prepared here, off the event thread
+                RecommendationTableModel.Source source = result.getResults() != null && result.getDataModel() != null
+                        ? RecommendationTableModel.Source.of(result.getResults(), result.getDataModel()) : null;
                 
                 SwingUtilities.invokeLater(() -> {
-                    updateMetrics(Main.getLastNdcg(), Main.getLastPrecision(), Main.getLastRecall(), Main.getLastF1());
-                    if (recs != null && dataModel != null) {
-                        updateResultsTable(recs, dataModel);
+                    updatePerformance(result.getMetrics());
+                    updateMetrics(result);
+                    resultsModel.setSource(source);
+                    if (source != null) {
+                        applyQuery();
                     }
+                    updatePageLabel();
                     statusLabel.setText("Status: Process Finished Successfully.");
                 });
 
             } catch (Exception e) {
                 SwingUtilities.invokeLater(() -> statusLabel.setText("Status: Process Failed. See log for details."));
-                e.printStackTrace();
+                if (runLog != null) {
+                    log("Run failed: " + e);
+                    e.printStackTrace(runLog.printStream());
+                } else {
+                    // The log could not be opened (e.g. the log file), so the trace goes to the view directly
+                    StringWriter trace = new StringWriter();
+                    e.printStackTrace(new PrintWriter(trace));
+                    log("Run failed: " + trace);
+                }
             } finally {
-                System.setOut(originalOut);
-                System.setErr(originalErr);
-                if (tempConfigFile != null) {
-                    tempConfigFile.delete();
+                if (runLog != null) {
+                    runLog.close();
                 }
                 SwingUtilities.invokeLater(() -> runBtn.setEnabled(true));
             }
@@ -288,25 +438,43 @@ public class RecommenderDashboard extends JFrame {
         }
     }
     
-    private void updateResultsTable(RecommendedList recs, TextDataModel dataModel) {
-        BiMap<String, Integer> userMapping = dataModel.getUserMappingData();
-        BiMap<String, Integer> itemMapping = dataModel.getItemMappingData();
-        for (int userIdx = 0; userIdx < recs.size(); userIdx++) {
-            List<KeyValue<Integer, Double>> items = recs.getKeyValueListByContext(userIdx);
-            if (items == null) continue;
-            String userId = userMapping.inverse().get(userIdx);
-            for (KeyValue<Integer, Double> kv : items) {
-                String itemId = itemMapping.inverse().get(kv.getKey());
-                resultsModel.addRow(new Object[]{userId, itemId, String.format("%.4f", kv.getValue())});
-            }
+    private void updatePerformance(PipelineMetrics metrics) {
+        double wallMs = metrics.wallNanos() / 1e6;
+        for (PipelineMetrics.Stage stage : metrics.stages()) {
+            stagesModel.addRow(new Object[]{stage.name(), round(stage.wallNanos() / 1e6),
+                    round(wallMs > 0 ? 100.0 * stage.wallNanos() / 1e6 / wallMs : 0.0), round(stage.cpuNanos() / 1e6),
+                    round(stage.allocatedBytes() / 1048576.0), stage.gcCount(), count(stage.users()),
+                    count(stage.items()), count(stage.ratings()), count(stage.neighbors())});
         }
+        performanceLabel.setText(String.format("Run: %.1f ms wall, %.1f ms CPU, %.1f MB allocated",
+                wallMs, metrics.cpuNanos() / 1e6, metrics.allocatedBytes() / 1048576.0));
     }
-    
-    private void updateMetrics(double ndcg, double precision, double recall, double f1) {
-        ndcgLabel.setText(String.format("%.4f", ndcg));
-        precisionLabel.setText(String.format("%.4f", precision));
-        recallLabel.setText(String.format("%.4f", recall));
-        f1Label.setText(String.format("%.4f", f1));
+
+    private static double round(double value) {
+        return Math.round(value * 10.0) / 10.0;
+    }
+
+    private static Long count(long value) {
+        return value < 0 ? null : value;
+    }
+
+    private void updateMetrics(RecommenderSession.Result result) {
+        int cutoff = result.getCutoff();
+        setMetric(ndcgLabel, metricTitle("NDCG", cutoff), result.getNdcg());
+        setMetric(precisionLabel, metricTitle("Precision", cutoff), result.getPrecision());
+        setMetric(recallLabel, metricTitle("Recall", cutoff), result.getRecall());
+        setMetric(f1Label, metricTitle("F1", cutoff), result.getF1());
+    }
+
+    // The summary metrics are at the result's cutoff, which is 0 when nothing was evaluated
+    private static String metricTitle(String name, int cutoff) {
+        return cutoff > 0 ? name + "@" + cutoff : name;
+    }
+
+    private static void setMetric(JLabel label, String title, double value) {
+        ((TitledBorder) label.getBorder()).setTitle(title);
+        label.setText(String.format("%.4f", value));
+        label.repaint();
     }
 
     private JLabel createMetricLabel(String title) {
@@ -317,27 +485,29 @@ public class RecommenderDashboard extends JFrame {
     }
 
     private void log(String message) {
-        SwingUtilities.invokeLater(() -> {
-            String timestamp = new SimpleDateFormat("HH:mm:ss").format(new Date());
-            logArea.append("[" + timestamp + "] " + message + "\n");
-        });
+        String timestamp = new SimpleDateFormat("HH:mm:ss").format(new Date());
+        SwingUtilities.invokeLater(() -> appendLog("[" + timestamp + "] " + message + "\n"));
+    }
+
+    /**
+     * Appends to the log view (on the event thread) and drops the oldest lines beyond
+     * MAX_LOG_CHARS, down to three quarters of it so this does not happen on every append.
+     */
+    private void appendLog(String text) {
+        logArea.append(text);
+        int length = logArea.getDocument().getLength();
+        if (length > MAX_LOG_CHARS) {
+            try {
+                int line = logArea.getLineOfOffset(length - MAX_LOG_CHARS * 3 / 4);
+                logArea.replaceRange("", 0, logArea.getLineEndOffset(line));
+            } catch (BadLocationException e) {
+                logArea.setText("");
+            }
+        }
+        logArea.setCaretPosition(logArea.getDocument().getLength());
     }
 
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> new RecommenderDashboard().setVisible(true));
     }
 }
-
-class CustomOutputStream extends OutputStream {
-    private final JTextArea textArea;
-    public CustomOutputStream(JTextArea textArea) {
-        this.textArea = textArea;
-    }
-    @Override
-    public void write(int b) throws IOException {
-        SwingUtilities.invokeLater(() -> {
-            textArea.append(String.valueOf((char)b));
-            textArea.setCaretPosition(textArea.getDocument().getLength());
-        });
-    }
-}
\ No newline at end of file
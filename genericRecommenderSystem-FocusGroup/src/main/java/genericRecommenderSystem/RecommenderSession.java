@@ -0,0 +1,1072 @@
+package genericRecommenderSystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.xmi.impl.EcoreResourceFactoryImpl;
+import org.eclipse.emf.ecore.xmi.impl.XMIResourceFactoryImpl;
+import org.eclipse.epsilon.emc.emf.EmfModel;
+import org.eclipse.epsilon.emc.emf.InMemoryEmfModel;
+import org.eclipse.epsilon.eol.EolModule;
+import org.eclipse.epsilon.eol.IEolModule;
+import org.eclipse.epsilon.eol.execute.context.Variable;
+
+import com.google.common.collect.BiMap;
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.data.model.TextDataModel;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.recommender.Recommender;
+import net.librec.recommender.RecommenderContext;
+import net.librec.recommender.cf.ItemKNNRecommender;
+import net.librec.similarity.CosineSimilarity;
+import net.librec.similarity.PCCSimilarity;
+import net.librec.similarity.RecommenderSimilarity;
+
+/**
+ * One run of the pipeline for one configuration: models to ratings, ratings to a trained
+ * model, top-N lists and their evaluation. A session keeps everything it needs to itself,
+ * its own copy of the properties, its own resource set with the metamodels registered in it
+ * (not in the global EPackage registry) and its own output stream, and {@link #run()}
+ * returns the outcome as a {@link Result} instead of leaving it in static fields. Sessions
+ * can therefore run concurrently, e.g. one per domain, optionally sharing one fork-join pool
+ * for their parallel stages:
+ * <pre>
+ *   ForkJoinPool pool = SimilarityEngine.newPool(0);
+ *   RecommenderSession.Result movies = new RecommenderSession(movieProps, pool, System.out).run();
+ * </pre>
+ */
+public class RecommenderSession {
+
+    static {
+        Map<String, Object> extensionMap = Resource.Factory.Registry.INSTANCE.getExtensionToFactoryMap();
+        extensionMap.put("ecore", new EcoreResourceFactoryImpl());
+        extensionMap.put(Resource.Factory.Registry.DEFAULT_EXTENSION, new XMIResourceFactoryImpl());
+    }
+
+    static final String LIBREC_INPUT_FILENAME = "librec_input.txt";
+
+    private final Properties props;
+    private final ForkJoinPool pool;
+    private final PrintStream out;
+
+    public RecommenderSession(Properties props) {
+        this(props, null, System.out);
+    }
+
+    /**
+     * @param pool runs the parallel stages; null gives each stage a pool of its own, sized by
+     *             rec.similarity.threads or rec.ranking.threads and shut down after the stage
+     * @param out  receives the progress and results the pipeline prints
+     */
+    public RecommenderSession(Properties props, ForkJoinPool pool, PrintStream out) {
+        this.props = new Properties();
+        this.props.putAll(props);
+        this.pool = pool;
+        this.out = out;
+    }
+
+    /**
+     * Runs the whole pipeline once. The time and memory spent in each stage are in the
+     * result's metrics and in the run report (metrics.report.file, by default run-report.json
+     * in output.tmp).
+     */
+    public Result run() throws Exception {
+        PipelineMetrics metrics = new PipelineMetrics();
+        try {
+            return run(metrics);
+        } finally {
+            metrics.finish();
+            writeRunReport(metrics);
+        }
+    }
+
+    private Result run(PipelineMetrics metrics) throws Exception {
+        String recommenderType = props.getProperty("rec.recommender", "itemknn");
+        boolean contentBased = "content".equals(recommenderType);
+        HybridRanker.Components hybrid = "hybrid".equals(recommenderType) ? new HybridRanker.Components() : null;
+        ContentIndex.Builder content = contentBased || hybrid != null ? new ContentIndex.Builder() : null;
+        RuleFilter.Builder ruleBuilder = Boolean.parseBoolean(props.getProperty("rec.rules.enabled", "true"))
+                ? new RuleFilter.Builder() : null;
+        ModelSimilarity similarity = new ModelSimilarity();
+        List<ModelVisitor> visitors = new ArrayList<>();
+        visitors.add((models, uris, r) -> extractSimilarity(models, uris, r, similarity));
+        if (content != null) visitors.add((models, uris, r) -> extractContent(models, uris, r, content));
+        if (ruleBuilder != null) visitors.add((models, uris, r) -> extractRules(models, uris, r, ruleBuilder));
+        if (hybrid != null) visitors.add((models, uris, r) -> extractHybrid(models, uris, hybrid));
+        RatingEncoder ratings = extractRatings(metrics, visitors.toArray(new ModelVisitor[0]));
+
+        if (ratings.size() == 0) {
+            out.println("No rating data available from the models. Exiting.");
+            return new Result(null, null, null, null, metrics);
+        }
+
+        Path tmpDir = Paths.get(props.getProperty("output.tmp")).toAbsolutePath();
+        Files.createDirectories(tmpDir);
+        Configuration conf = prepareLibRecConfiguration(tmpDir, props);
+        conf.set("rec.similarity.function", similarity.function.name().toLowerCase(Locale.ROOT));
+        GeoNeighbors coordinates = similarity.coordinates == null ? null : similarity.coordinates.build(ratings.numItems());
+        RuleFilter rules = compileRules(ruleBuilder, ratings, metrics);
+        if (contentBased) {
+            return new ContentPipeline(this).run(ratings, content, rules, conf, metrics);
+        }
+        if (hybrid != null) {
+            return new HybridPipeline(this).run(ratings, content, hybrid, rules, coordinates, conf, metrics);
+        }
+        if ("als".equals(recommenderType)) {
+            return new AlsPipeline(this).run(ratings, rules, conf, metrics);
+        }
+
+        // A model trained on exactly these ratings and settings is served from the cache
+        boolean debugInput = Boolean.parseBoolean(props.getProperty("debug.librec.input", "false"));
+        // Coordinates are not part of the cache key, so HAVERSINE neighbors are never cached
+        ModelCache cache = debugInput || coordinates != null ? null : openModelCache(tmpDir);
+        String cacheKey, settingsKey;
+        ModelCache.Entry cached;
+        try (PipelineMetrics.Stage stage = metrics.stage("cache")) {
+            cacheKey = cache == null ? null : ModelCache.fingerprint(ratings, conf);
+            settingsKey = cache == null ? null : ModelCache.settingsFingerprint(conf, domainKey());
+            cached = loadCachedModel(cache, cacheKey, ratings);
+            String outcome = cache == null ? "disabled" : cached != null ? "hit" : "miss";
+            // An update recomputes the changed rows exactly, which an approximate index would not match
+            if (cached == null && cache != null && !conf.getBoolean("rec.similarity.lsh", false)
+                    && Boolean.parseBoolean(props.getProperty("rec.incremental", "true"))) {
+                cached = updateIncrementally(cache, settingsKey, cacheKey, ratings, conf);
+                if (cached != null) outcome = "incremental";
+            }
+            metrics.set("model.cache", outcome);
+            if (cached != null) {
+                cache.markLatest(settingsKey, cacheKey);
+                stage.users(cached.numUsers).items(cached.numItems).ratings(ratings.size()).neighbors(cached.getIndex().numEntries());
+            }
+        }
+        if (cached != null) {
+            // The data model is never built here; it only provides the id mappings
+            DataModel dataModel = new InMemoryDataModel(conf, ratings);
+            RankedResults results;
+            try (PipelineMetrics.Stage stage = metrics.stage("rank")) {
+                results = rankTopN(cached, rules, conf);
+                stage.users(results.numUsers()).items(cached.numItems);
+            }
+            try (PipelineMetrics.Stage stage = metrics.stage("output")) {
+                dumpRecommendations(results, dataModel);
+            }
+            RankingEvaluator.Result evaluation = evaluate(conf, cached.testMatrix(), results, metrics);
+            return new Result(results, dataModel, cached, evaluation, metrics);
+        }
+
+        // The text round trip through librec_input.txt is only kept as a debug mode
+        DataModel dataModel;
+        try (PipelineMetrics.Stage stage = metrics.stage("data model")) {
+            if (debugInput) {
+                ratings.writeLibrecInput(tmpDir.resolve(LIBREC_INPUT_FILENAME));
+                dataModel = new TextDataModel(conf);
+            } else {
+                dataModel = new InMemoryDataModel(conf, ratings);
+            }
+            dataModel.buildDataModel();
+            stage.users(dataModel.getUserMappingData().size()).items(dataModel.getItemMappingData().size())
+                    .ratings(dataModel.getTrainDataSet().size());
+        }
+
+        Recommender recommender = trainItemKnn(dataModel, rules, coordinates, conf, metrics);
+        RankedResults results;
+        try (PipelineMetrics.Stage stage = metrics.stage("rank")) {
+            results = rankTopN(recommender, conf);
+            stage.users(results.numUsers()).items(dataModel.getItemMappingData().size());
+        }
+        ModelCache.Entry model = null;
+        if (!debugInput && recommender instanceof TopKItemKNNRecommender) {
+            NeighborIndex index = ((TopKItemKNNRecommender) recommender).getNeighborIndex();
+            model = ModelCache.Entry.of(ratings, dataModel, index);
+            // Lists filtered by rules are served but not cached, as the rules are not part of the key
+            model.setResults(rules == null ? results : null);
+            if (cache != null) {
+                try (PipelineMetrics.Stage stage = metrics.stage("cache store")) {
+                    cache.store(cacheKey, model);
+                    cache.markLatest(settingsKey, cacheKey);
+                    stage.neighbors(index.numEntries());
+                }
+            }
+            model.setResults(results);
+        }
+
+        try (PipelineMetrics.Stage stage = metrics.stage("output")) {
+            dumpRecommendations(results, dataModel);
+        }
+
+        RankingEvaluator.Result evaluation = evaluate(conf, (SequentialAccessSparseMatrix) dataModel.getTestDataSet(), results, metrics);
+        return new Result(results, dataModel, model, evaluation, metrics);
+    }
+
+    /**
+     * Computes the item similarities of {@code dataModel} and trains ItemKNN on them: the
+     * top-K recommender on the parallel engine, LibRec's ItemKNNRecommender otherwise.
+     */
+    Recommender trainItemKnn(DataModel dataModel, RuleFilter rules, GeoNeighbors coordinates, Configuration conf,
+            PipelineMetrics metrics) throws LibrecException {
+        RecommenderContext context = new RecommenderContext(conf, dataModel);
+        RecommenderSimilarity similarity;
+        try (PipelineMetrics.Stage stage = metrics.stage("similarity")) {
+            similarity = buildSimilarity(dataModel, coordinates);
+            NeighborIndex index = similarity instanceof ParallelItemSimilarity
+                    ? ((ParallelItemSimilarity) similarity).getNeighborIndex() : null;
+            if (index != null) stage.items(index.count()).neighbors(index.numEntries());
+        }
+        context.setSimilarity(similarity);
+
+        Recommender recommender;
+        if (similarity instanceof ParallelItemSimilarity) {
+            TopKItemKNNRecommender topK = new TopKItemKNNRecommender();
+            topK.setPool(pool);
+            topK.setRules(rules);
+            recommender = topK;
+        } else {
+            recommender = new ItemKNNRecommender();
+            if (rules != null) out.println("Rules are only applied with rec.similarity.engine=parallel; ignoring them.");
+        }
+        try (PipelineMetrics.Stage stage = metrics.stage("train")) {
+            recommender.setContext(context);
+            recommender.train(context);
+        }
+        return recommender;
+    }
+
+    /**
+     * Splits the ratings in memory as configured, for the runs that are never cached.
+     */
+    DataModel buildDataModel(Configuration conf, RatingEncoder ratings, PipelineMetrics metrics) throws LibrecException {
+        try (PipelineMetrics.Stage stage = metrics.stage("data model")) {
+            DataModel dataModel = new InMemoryDataModel(conf, ratings);
+            dataModel.buildDataModel();
+            stage.users(ratings.numUsers()).items(ratings.numItems()).ratings(dataModel.getTrainDataSet().size());
+            return dataModel;
+        }
+    }
+
+    /**
+     * Exports and evaluates the lists ranked on {@code dataModel}'s split.
+     */
+    Result finish(RankedResults results, DataModel dataModel, Configuration conf, PipelineMetrics metrics) {
+        try (PipelineMetrics.Stage stage = metrics.stage("output")) {
+            dumpRecommendations(results, dataModel);
+        }
+        RankingEvaluator.Result evaluation = evaluate(conf, (SequentialAccessSparseMatrix) dataModel.getTestDataSet(), results, metrics);
+        return new Result(results, dataModel, null, evaluation, metrics);
+    }
+
+    String property(String key, String defaultValue) {
+        return props.getProperty(key, defaultValue);
+    }
+
+    PrintStream out() {
+        return out;
+    }
+
+    private RankingEvaluator.Result evaluate(Configuration conf, SequentialAccessSparseMatrix testMatrix, RankedResults results,
+            PipelineMetrics metrics) {
+        RankingEvaluator.Result evaluation;
+        try (PipelineMetrics.Stage stage = metrics.stage("evaluate")) {
+            evaluation = evaluateRecommendations(conf, testMatrix, results);
+            if (evaluation != null) stage.users(evaluation.numTestUsers()).ratings(testMatrix.size());
+        }
+        if (evaluation == null) return null;
+        for (RankingEvaluator.Metric metric : evaluation.metrics()) {
+            for (int cutoff : evaluation.cutoffs()) {
+                metrics.set("eval." + metric.name().toLowerCase(Locale.ROOT) + "@" + cutoff, evaluation.get(metric, cutoff));
+            }
+        }
+        return evaluation;
+    }
+
+    /**
+     * Prints the stage breakdown and writes it as JSON, unless metrics.report.enabled is false.
+     */
+    void writeRunReport(PipelineMetrics metrics) {
+        out.println("\n=== Pipeline Stages ===\n" + metrics.table());
+        if (!Boolean.parseBoolean(props.getProperty("metrics.report.enabled", "true"))) return;
+        String file = props.getProperty("metrics.report.file");
+        Path report = file != null ? Paths.get(file) : Paths.get(props.getProperty("output.tmp", "."), "run-report.json");
+        try {
+            metrics.writeJson(report);
+            out.println("Run report written to " + report.toAbsolutePath());
+        } catch (IOException e) {
+            out.println("Could not write the run report " + report + ": " + e);
+        }
+    }
+
+    /**
+     * Loads the configured models and reads their ratings. By default (rating.extraction=java)
+     * the rows of the recommender model's UserItemMatrix are read directly; with
+     * rating.extraction=eol, eol.script runs instead and passes each rating to the
+     * {@code ratingSink} variable, or returns a map with a "ratingsData" list. Then each of
+     * {@code visitors} reads what else it needs, before the models are disposed.
+     */
+    RatingEncoder extractRatings(PipelineMetrics metrics, ModelVisitor... visitors) throws Exception {
+        List<EmfModel> models = new ArrayList<>();
+        List<String> metamodelUris = new ArrayList<>();
+        try (PipelineMetrics.Stage stage = metrics.stage("load models")) {
+            EmfResourceCache emfCache = openEmfCache();
+            ResourceSet resourceSet = createResourceSet(emfCache);
+            registerMetamodels(resourceSet, emfCache);
+            String[] modelKeys = props.getProperty("models.to.load", "").split(",");
+            for (String key : modelKeys) {
+                key = key.trim();
+                if (key.isEmpty()) continue;
+
+                String name = props.getProperty("model." + key + ".name");
+                String path = props.getProperty("model." + key + ".path");
+                String nsUri = props.getProperty("model." + key + ".metamodel_uri");
+
+                long start = System.nanoTime();
+                models.add(loadEmfModel(resourceSet, name, path, nsUri));
+                metamodelUris.add(nsUri);
+                out.printf("Loaded model '%s' from: %s (%s, %.1f ms)%n", name, path,
+                        loadOrigin(emfCache, path), (System.nanoTime() - start) / 1e6);
+            }
+        } catch (Exception | Error e) {
+            for (EmfModel model : models) model.dispose();
+            throw e;
+        }
+
+        long start = System.nanoTime();
+        RatingEncoder ratings;
+        String shards = props.getProperty("rating.shards", "").trim();
+        String extraction = shards.isEmpty() ? props.getProperty("rating.extraction", "java") : "shards";
+        int numRows;
+        try (PipelineMetrics.Stage stage = metrics.stage("extract")) {
+            if (!shards.isEmpty()) {
+                ShardedIngestion ingestion = ingestShards(shards, metrics);
+                ratings = ingestion.ratings;
+                numRows = ingestion.rows;
+            } else {
+                ratings = new RatingEncoder();
+                numRows = "eol".equals(extraction) ? runExtractionScript(models, ratings)
+                        : extractFromMatrix(models, metamodelUris, ratings);
+            }
+            for (ModelVisitor visitor : visitors) visitor.visit(models, metamodelUris, ratings);
+            stage.users(ratings.numUsers()).items(ratings.numItems()).ratings(ratings.size());
+        } finally {
+            for (EmfModel model : models) model.dispose();
+        }
+        metrics.set("extraction", extraction);
+        metrics.set("extraction.rows", numRows);
+        out.printf("Extracted %d ratings (%d users, %d items) from %d rows with %s in %.1f ms%n",
+                ratings.size(), ratings.numUsers(), ratings.numItems(), numRows, extraction,
+                (System.nanoTime() - start) / 1e6);
+        return ratings;
+    }
+
+    /**
+     * Reads the ratings of the rating.shards model files with {@link ShardedIngestion}, on
+     * rating.shards.threads workers; each shard gets a resource set of its own with the
+     * metamodels registered. The models of models.to.load are still loaded for everything
+     * but the ratings.
+     */
+    ShardedIngestion ingestShards(String spec, PipelineMetrics metrics) throws IOException {
+        List<Path> paths = ShardedIngestion.resolve(spec);
+        if (paths.isEmpty()) throw new IllegalArgumentException("rating.shards matches no files: " + spec);
+        EmfResourceCache emfCache = openEmfCache();
+        ForkJoinPool stagePool = acquirePool(Integer.parseInt(props.getProperty("rating.shards.threads", "0")));
+        ShardedIngestion ingestion;
+        try {
+            ingestion = ShardedIngestion.ingest(paths, () -> {
+                ResourceSet resourceSet = createResourceSet(emfCache);
+                registerMetamodels(resourceSet, emfCache, false);
+                return resourceSet;
+            }, stagePool);
+            out.printf("Read %d rating shards (%d rows, %d duplicates replaced) on %d threads%n",
+                    paths.size(), ingestion.rows, ingestion.duplicates, stagePool.getParallelism());
+        } finally {
+            releasePool(stagePool);
+        }
+        long slowest = 0;
+        for (ShardedIngestion.Shard shard : ingestion.shards) slowest = Math.max(slowest, shard.nanos);
+        metrics.set("shards", paths.size());
+        metrics.set("shards.duplicates", ingestion.duplicates);
+        metrics.set("shards.slowest.ms", slowest / 1e6);
+        return ingestion;
+    }
+
+    int extractFromMatrix(List<EmfModel> models, List<String> metamodelUris, RatingEncoder ratings) {
+        for (int m = 0; m < models.size(); m++) {
+            Resource resource = models.get(m).getResource();
+            RatingExtractor extractor = RatingExtractor.forPackage(
+                    resource.getResourceSet().getPackageRegistry().getEPackage(metamodelUris.get(m)));
+            EObject matrix = extractor == null ? null : extractor.findMatrix(resource);
+            if (matrix != null) {
+                return extractor.extract(matrix, ratings::add);
+            }
+        }
+        out.println("None of the loaded models contains a UserItemMatrix.");
+        return 0;
+    }
+
+    /**
+     * Reads the item features and preferences of every loaded model, interning their ids in
+     * {@code ratings}. Returns the number of items and preferences visited.
+     */
+    int extractContent(List<EmfModel> models, List<String> metamodelUris, RatingEncoder ratings, ContentIndex.Builder content) {
+        ContentExtractor extractor = null;
+        for (int m = 0; m < models.size() && extractor == null; m++) {
+            Resource resource = models.get(m).getResource();
+            extractor = ContentExtractor.forPackage(
+                    resource.getResourceSet().getPackageRegistry().getEPackage(metamodelUris.get(m)));
+        }
+        if (extractor == null) {
+            out.println("None of the loaded models uses the recommender metamodel; no content to index.");
+            return 0;
+        }
+        ContentExtractor.Sink sink = new ContentExtractor.Sink() {
+            @Override
+            public void itemFeature(String itemId, String feature) {
+                content.addItemFeature(ratings.internItem(itemId), feature);
+            }
+
+            @Override
+            public void userPreference(String userId, String feature) {
+                content.addPreference(ratings.internUser(userId), feature);
+            }
+        };
+        int visited = 0;
+        for (EmfModel model : models) {
+            visited += extractor.extract(model.getResource(), sink);
+        }
+        out.printf("Extracted %d item features and %d preferences from %d objects%n",
+                content.numItemFeatures(), content.numPreferences(), visited);
+        return visited;
+    }
+
+    /**
+     * Reads the item tags, rules and recommendation queries of every loaded model into
+     * {@code rules}. Returns the number of objects visited.
+     */
+    int extractRules(List<EmfModel> models, List<String> metamodelUris, RatingEncoder ratings, RuleFilter.Builder rules) {
+        RuleExtractor extractor = null;
+        for (int m = 0; m < models.size() && extractor == null; m++) {
+            Resource resource = models.get(m).getResource();
+            extractor = RuleExtractor.forPackage(
+                    resource.getResourceSet().getPackageRegistry().getEPackage(metamodelUris.get(m)));
+        }
+        if (extractor == null) return 0;
+        RuleExtractor.Sink sink = new RuleExtractor.Sink() {
+            @Override
+            public void itemTag(String itemId, String tag) {
+                int item = ratings.itemIndexOf(itemId);
+                if (item >= 0) rules.itemTag(item, tag);
+            }
+
+            @Override
+            public void rule(String ruleId, String inputTask, List<String> requiredTags, List<String> recommendedTags) {
+                rules.rule(ruleId, inputTask, requiredTags, recommendedTags);
+            }
+
+            @Override
+            public void query(String userId, String task) {
+                int user = ratings.userIndexOf(userId);
+                if (user >= 0) rules.query(user, task);
+            }
+        };
+        int visited = 0;
+        for (EmfModel model : models) {
+            visited += extractor.extract(model.getResource(), sink);
+        }
+        return visited;
+    }
+
+    /**
+     * Reads something from the loaded models once their ratings are extracted, mapping or
+     * interning item and user ids through {@code ratings}.
+     */
+    interface ModelVisitor {
+        void visit(List<EmfModel> models, List<String> metamodelUris, RatingEncoder ratings);
+    }
+
+    /**
+     * The similarity function of a run and, for HAVERSINE, the coordinates of the items.
+     */
+    static final class ModelSimilarity {
+        SimilarityFunction function = SimilarityFunction.COSINE;
+        GeoNeighbors.Builder coordinates;
+    }
+
+    /**
+     * Resolves the similarity function: rec.similarity.function when set, otherwise the
+     * similarityFunction of the first CollaborativeFiltering that sets one, otherwise COSINE.
+     * For HAVERSINE, the rated items' rec.similarity.geo.latitude and .longitude features
+     * (by default latitude and longitude) are read as well.
+     */
+    void extractSimilarity(List<EmfModel> models, List<String> metamodelUris, RatingEncoder ratings,
+            ModelSimilarity similarity) {
+        String configured = props.getProperty("rec.similarity.function", "").trim();
+        if (configured.isEmpty()) configured = null;
+        String declared = null;
+        for (int m = 0; m < models.size() && configured == null && declared == null; m++) {
+            Resource resource = models.get(m).getResource();
+            EPackage recommender = resource.getResourceSet().getPackageRegistry().getEPackage(metamodelUris.get(m));
+            if (recommender == null || !(recommender.getEClassifier("CollaborativeFiltering") instanceof EClass)) continue;
+            EClass cfClass = (EClass) recommender.getEClassifier("CollaborativeFiltering");
+            EStructuralFeature feature = cfClass.getEStructuralFeature("similarityFunction");
+            if (feature == null) continue;
+            for (TreeIterator<EObject> it = resource.getAllContents(); it.hasNext() && declared == null; ) {
+                EObject eObject = it.next();
+                if (cfClass.isSuperTypeOf(eObject.eClass()) && eObject.eIsSet(feature)) {
+                    declared = String.valueOf(eObject.eGet(feature));
+                    out.println("Similarity function from the model: " + declared);
+                }
+            }
+        }
+        similarity.function = configured != null ? SimilarityFunction.parse(configured)
+                : declared != null ? SimilarityFunction.parse(declared) : SimilarityFunction.COSINE;
+        if (similarity.function != SimilarityFunction.HAVERSINE) return;
+
+        ContentExtractor extractor = null;
+        for (int m = 0; m < models.size() && extractor == null; m++) {
+            Resource resource = models.get(m).getResource();
+            extractor = ContentExtractor.forPackage(
+                    resource.getResourceSet().getPackageRegistry().getEPackage(metamodelUris.get(m)));
+        }
+        if (extractor == null) return;
+        String latitude = props.getProperty("rec.similarity.geo.latitude", "latitude") + "=";
+        String longitude = props.getProperty("rec.similarity.geo.longitude", "longitude") + "=";
+        GeoNeighbors.Builder coordinates = new GeoNeighbors.Builder();
+        ContentExtractor.Sink sink = new ContentExtractor.Sink() {
+            @Override
+            public void itemFeature(String itemId, String feature) {
+                int item = ratings.itemIndexOf(itemId);
+                if (item < 0) return;
+                try {
+                    if (feature.startsWith(latitude)) {
+                        coordinates.latitude(item, Double.parseDouble(feature.substring(latitude.length())));
+                    } else if (feature.startsWith(longitude)) {
+                        coordinates.longitude(item, Double.parseDouble(feature.substring(longitude.length())));
+                    }
+                } catch (NumberFormatException e) {
+                    // Not a coordinate; the item stays unlocated
+                }
+            }
+
+            @Override
+            public void userPreference(String userId, String feature) {
+            }
+        };
+        for (EmfModel model : models) extractor.extract(model.getResource(), sink);
+        similarity.coordinates = coordinates;
+    }
+
+    /**
+     * Finds the first HybridBased of the loaded models and records which components it has.
+     */
+    void extractHybrid(List<EmfModel> models, List<String> metamodelUris, HybridRanker.Components components) {
+        for (int m = 0; m < models.size(); m++) {
+            Resource resource = models.get(m).getResource();
+            EPackage recommender = resource.getResourceSet().getPackageRegistry().getEPackage(metamodelUris.get(m));
+            if (recommender == null || !(recommender.getEClassifier("HybridBased") instanceof EClass)) continue;
+            EClass hybridClass = (EClass) recommender.getEClassifier("HybridBased");
+            for (TreeIterator<EObject> it = resource.getAllContents(); it.hasNext(); ) {
+                EObject hybrid = it.next();
+                if (!hybridClass.isSuperTypeOf(hybrid.eClass())) continue;
+                EObject cf = (EObject) hybrid.eGet(hybridClass.getEStructuralFeature("_cfComponent"));
+                EObject cb = (EObject) hybrid.eGet(hybridClass.getEStructuralFeature("_cbComponent"));
+                components.found = true;
+                components.name = String.valueOf(hybrid.eGet(hybridClass.getEStructuralFeature("_name")));
+                // A HybridBased without components still runs both
+                components.collaborative = cf != null || cb == null;
+                components.contentBased = cb != null || cf == null;
+                Object neighbors = cf == null ? null : cf.eGet(cf.eClass().getEStructuralFeature("_neighbors"));
+                if (neighbors instanceof Integer) components.neighbors = (Integer) neighbors;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Compiles the extracted rules over the ratings' items and users, or returns null when
+     * there are none (or rec.rules.enabled is false).
+     */
+    RuleFilter compileRules(RuleFilter.Builder builder, RatingEncoder ratings, PipelineMetrics metrics) {
+        if (builder == null || builder.numRules() == 0) return null;
+        try (PipelineMetrics.Stage stage = metrics.stage("rules")) {
+            long start = System.nanoTime();
+            RuleFilter rules = builder.compile(ratings.numItems(), ratings.numUsers(),
+                    1.0 + Double.parseDouble(props.getProperty("rec.rules.boost", "0.5")));
+            out.printf("Compiled %d rules into %d user groups, %d bytes in %.1f ms%n", rules.numRules(),
+                    rules.numGroups(), rules.sizeInBytes(), (System.nanoTime() - start) / 1e6);
+            stage.users(ratings.numUsers()).items(ratings.numItems());
+            return rules;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    int runExtractionScript(List<EmfModel> models, RatingEncoder ratings) throws Exception {
+        IEolModule module = new EolModule();
+        module.parse(new File(props.getProperty("eol.script")));
+        module.getContext().setOutputStream(out);
+        for (EmfModel model : models) {
+            module.getContext().getModelRepository().addModel(model);
+        }
+        module.getContext().getFrameStack().put(Variable.createReadOnlyVariable("ratingSink", new EolRatingSink(ratings)));
+
+        Object result = module.execute();
+        module.getContext().getModelRepository().getModels().clear();
+
+        // Scripts written before the sink existed return their ratings as a list of maps
+        if (ratings.size() == 0 && result instanceof Map) {
+            Object ratingsObj = ((Map<?, ?>) result).get("ratingsData");
+            if (ratingsObj instanceof List) {
+                List<Map<String, Object>> ratingsList = (List<Map<String, Object>>) ratingsObj;
+                for (Map<String, Object> r : ratingsList) {
+                    ratings.add(r.get("userId"), r.get("itemId"), r.get("rating"));
+                }
+                return ratingsList.size();
+            }
+        }
+        return ratings.size();
+    }
+
+    /**
+     * The {@code ratingSink} variable of extraction scripts: {@code ratingSink.add(userId, itemId, value)}.
+     */
+    public static final class EolRatingSink {
+        private final RatingEncoder ratings;
+
+        EolRatingSink(RatingEncoder ratings) {
+            this.ratings = ratings;
+        }
+
+        public void add(Object userId, Object itemId, Object value) {
+            ratings.add(userId, itemId, value);
+        }
+    }
+
+    /**
+     * The resource set models and metamodels of this session are loaded into, reading
+     * through the binary cache when there is one.
+     */
+    static ResourceSet createResourceSet(EmfResourceCache emfCache) {
+        return emfCache == null ? new ResourceSetImpl() : emfCache.createResourceSet();
+    }
+
+    /**
+     * Loads metamodels.to.register into {@code resourceSet} and registers them in its own
+     * package registry, so sessions with other versions of a metamodel are not affected.
+     */
+    void registerMetamodels(ResourceSet resourceSet, EmfResourceCache emfCache) {
+        registerMetamodels(resourceSet, emfCache, true);
+    }
+
+    private void registerMetamodels(ResourceSet resourceSet, EmfResourceCache emfCache, boolean print) {
+        String[] metamodelKeys = props.getProperty("metamodels.to.register", "").split(",");
+        for (String key : metamodelKeys) {
+            key = key.trim();
+            if (key.isEmpty()) continue;
+            String path = props.getProperty("metamodel." + key + ".path");
+            long start = System.nanoTime();
+            EPackage ePackage = (EPackage) resourceSet.getResource(URI.createFileURI(path), true).getContents().get(0);
+            resourceSet.getPackageRegistry().put(ePackage.getNsURI(), ePackage);
+            if (!print) continue;
+            out.printf("Registered metamodel '%s' from: %s (%s, %.1f ms)%n", key, path,
+                    loadOrigin(emfCache, path), (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    static EmfModel loadEmfModel(ResourceSet resourceSet, String name, String modelPath, String metamodelUri) {
+        Resource resource = resourceSet.getResource(URI.createFileURI(modelPath), true);
+        EPackage metamodel = resourceSet.getPackageRegistry().getEPackage(metamodelUri);
+        return metamodel == null ? new InMemoryEmfModel(name, resource) : new InMemoryEmfModel(name, resource, metamodel);
+    }
+
+    /**
+     * The binary resource cache (emf.cache.dir, by default under output.tmp), or null when
+     * emf.cache.enabled is false. Copies older than any registered metamodel are not used.
+     */
+    EmfResourceCache openEmfCache() throws IOException {
+        if (!Boolean.parseBoolean(props.getProperty("emf.cache.enabled", "true"))) return null;
+        String dir = props.getProperty("emf.cache.dir");
+        Path cacheDir = dir != null ? Paths.get(dir) : Paths.get(props.getProperty("output.tmp", "."), "emf-cache");
+        long metamodelsModified = 0L;
+        for (String key : props.getProperty("metamodels.to.register", "").split(",")) {
+            String path = props.getProperty("metamodel." + key.trim() + ".path");
+            if (path != null && Files.isRegularFile(Paths.get(path))) {
+                metamodelsModified = Math.max(metamodelsModified, Files.getLastModifiedTime(Paths.get(path)).toMillis());
+            }
+        }
+        return new EmfResourceCache(cacheDir.toAbsolutePath(), metamodelsModified, out);
+    }
+
+    private static String loadOrigin(EmfResourceCache emfCache, String path) {
+        String origin = emfCache == null ? null : emfCache.origin(URI.createFileURI(path));
+        return origin != null ? origin : "XMI";
+    }
+
+    public static void writeLibrecInputFile(File outFile, List<Map<String, Object>> ratingsList) throws IOException {
+        RatingEncoder encoder = new RatingEncoder(ratingsList.size());
+        for (Map<String, Object> r : ratingsList) encoder.add(r.get("userId"), r.get("itemId"), r.get("rating"));
+        encoder.writeLibrecInput(outFile.toPath());
+    }
+
+    RecommenderSimilarity buildSimilarity(DataModel dataModel) {
+        return buildSimilarity(dataModel, null);
+    }
+
+    /**
+     * Builds the similarities with the function in rec.similarity.function; LibRec's engine
+     * only has COSINE and PEARSON, the other functions always use the parallel one.
+     */
+    RecommenderSimilarity buildSimilarity(DataModel dataModel, GeoNeighbors coordinates) {
+        String engine = props.getProperty("rec.similarity.engine", "parallel");
+        Configuration conf = dataModel.getContext().getConf();
+        SimilarityFunction function = SimilarityFunction.parse(conf.get("rec.similarity.function", "cosine"));
+        RecommenderSimilarity similarity = "librec".equals(engine) ? librecSimilarity(function) : null;
+        if (similarity == null) {
+            if ("librec".equals(engine)) out.println("LibRec has no " + function + " similarity; using the parallel engine.");
+            engine = "parallel";
+            ParallelItemSimilarity parallel = new ParallelItemSimilarity();
+            parallel.setPool(pool);
+            parallel.setCoordinates(coordinates);
+            similarity = parallel;
+        }
+        long start = System.nanoTime();
+        similarity.buildSimilarityMatrix(dataModel);
+        boolean lsh = similarity instanceof ParallelItemSimilarity && conf.getBoolean("rec.similarity.lsh", false);
+        String mode = lsh ? String.format(", lsh %dx%d", conf.getInt("rec.similarity.lsh.bands", 32), conf.getInt("rec.similarity.lsh.rows", 2))
+                : "";
+        out.printf("Similarity matrix (%s, %s%s) built in %.1f ms%n", engine, function.name().toLowerCase(Locale.ROOT), mode,
+                (System.nanoTime() - start) / 1e6);
+        if (similarity instanceof ParallelItemSimilarity && ((ParallelItemSimilarity) similarity).getNeighborIndex() != null) {
+            NeighborIndex index = ((ParallelItemSimilarity) similarity).getNeighborIndex();
+            out.printf("Neighbor index: %d lists, %d entries (k=%d), %d bytes off-heap%n",
+                    index.count(), index.numEntries(), index.k(), index.sizeInBytes());
+        }
+
+        // Optionally rebuild with LibRec's implementation of the function and compare the neighbor lists
+        RecommenderSimilarity reference = librecSimilarity(function);
+        if (similarity instanceof ParallelItemSimilarity && reference != null
+                && Boolean.parseBoolean(props.getProperty("rec.similarity.verify", "false"))) {
+            reference.buildSimilarityMatrix(dataModel);
+            int knn = conf.getInt("rec.neighbors.knn.number", 0);
+            NeighborIndex expected = NeighborIndex.fromSymmMatrix(reference.getSimilarityMatrix(), knn);
+            NeighborIndex actual = ((ParallelItemSimilarity) similarity).getNeighborIndex();
+            if (actual == null) actual = NeighborIndex.fromSymmMatrix(similarity.getSimilarityMatrix(), knn);
+            out.println("Similarity check against LibRec " + reference.getClass().getSimpleName() + ": "
+                    + actual.countDifferences(expected) + " of " + expected.count() + " neighbor lists differ"
+                    + (lsh ? String.format(", neighbor recall %.4f", actual.recall(expected)) : ""));
+        }
+        return similarity;
+    }
+
+    private static RecommenderSimilarity librecSimilarity(SimilarityFunction function) {
+        switch (function) {
+            case COSINE:
+                return new CosineSimilarity();
+            case PEARSON:
+                return new PCCSimilarity();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * The model cache under output.tmp (or model.cache.dir), or null when it is disabled or
+     * the configured engine does not produce a neighbor index.
+     */
+    ModelCache openModelCache(Path tmpDir) {
+        if (!Boolean.parseBoolean(props.getProperty("model.cache.enabled", "true"))
+                || "librec".equals(props.getProperty("rec.similarity.engine", "parallel"))
+                || Boolean.parseBoolean(props.getProperty("rec.similarity.full", "false"))) {
+            return null;
+        }
+        String dir = props.getProperty("model.cache.dir");
+        return new ModelCache(dir != null ? Paths.get(dir).toAbsolutePath() : tmpDir.resolve("model-cache"));
+    }
+
+    // The metamodels and models the ratings are read from, as absolute paths
+    String domainKey() {
+        StringBuilder key = new StringBuilder();
+        for (String name : props.getProperty("metamodels.to.register", "").split(",")) {
+            appendPath(key, props.getProperty("metamodel." + name.trim() + ".path"));
+        }
+        for (String name : props.getProperty("models.to.load", "").split(",")) {
+            appendPath(key, props.getProperty("model." + name.trim() + ".path"));
+        }
+        return key.append(props.getProperty("rating.shards", "").trim()).toString();
+    }
+
+    private static void appendPath(StringBuilder key, String path) {
+        if (path != null && !path.trim().isEmpty()) key.append(Paths.get(path.trim()).toAbsolutePath().normalize()).append('\n');
+    }
+
+    ModelCache.Entry loadCachedModel(ModelCache cache, String key, RatingEncoder ratings) {
+        if (cache == null) return null;
+        long start = System.nanoTime();
+        try {
+            ModelCache.Entry entry = cache.load(key);
+            if (entry == null || !entry.matches(ratings)) {
+                out.println("Model cache miss: " + key);
+                return null;
+            }
+            out.printf("Model cache hit: %s (mapped in %.1f ms)%n", key, (System.nanoTime() - start) / 1e6);
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            out.println("Ignoring unreadable model cache entry " + key + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Applies the difference between the last cached run with the same settings and these
+     * ratings, and stores the result under {@code key}. Returns null when there is no previous
+     * run or the change is too large (rec.incremental.max.change) to be worth it.
+     */
+    ModelCache.Entry updateIncrementally(ModelCache cache, String settingsKey, String key,
+            RatingEncoder ratings, Configuration conf) {
+        long start = System.nanoTime();
+        ForkJoinPool stagePool = acquirePool(conf.getInt("rec.similarity.threads", 0));
+        try {
+            String previousKey = cache.latest(settingsKey);
+            ModelCache.Entry previous = previousKey == null ? null : cache.load(previousKey);
+            if (previous == null) return null;
+            IncrementalUpdate update = IncrementalUpdate.apply(previous, ratings,
+                    conf.getInt("rec.similarity.shrinkage", 0), SimilarityFunction.parse(conf.get("rec.similarity.function", "cosine")),
+                    conf.getDouble("data.convert.binarize.threshold", -1.0),
+                    conf.getInt("rec.recommender.ranking.topn", 10),
+                    Double.parseDouble(props.getProperty("rec.incremental.max.change", "0.2")), stagePool);
+            if (update == null) {
+                out.println("Incremental update skipped: too many changes since " + previousKey);
+                return null;
+            }
+            cache.store(key, update.entry);
+            out.printf("Incremental update from %s: %d changed ratings, %d items recomputed, %d lists patched, "
+                    + "%d lists rebuilt, %d users re-ranked in %.1f ms%n", previousKey, update.changedRatings,
+                    update.changedItems, update.patchedLists, update.recomputedLists, update.rerankedUsers,
+                    (System.nanoTime() - start) / 1e6);
+            return update.entry;
+        } catch (IOException | RuntimeException e) {
+            out.println("Incremental update failed, rebuilding: " + e);
+            return null;
+        } finally {
+            releasePool(stagePool);
+        }
+    }
+
+    RankedResults rankTopN(ModelCache.Entry cached, Configuration conf) {
+        return rankTopN(cached, null, conf);
+    }
+
+    RankedResults rankTopN(ModelCache.Entry cached, RuleFilter rules, Configuration conf) {
+        long start = System.nanoTime();
+        ForkJoinPool stagePool = acquirePool(conf.getInt("rec.ranking.threads", 0));
+        try {
+            RankedResults results = cached.rank(conf.getInt("rec.recommender.ranking.topn", 10), stagePool, rules);
+            out.printf("Ranked top-%d for %d users in %.1f ms%n", results.topN(), results.numUsers(), (System.nanoTime() - start) / 1e6);
+            return results;
+        } finally {
+            releasePool(stagePool);
+        }
+    }
+
+    RankedResults rankTopN(Recommender recommender, Configuration conf) throws LibrecException {
+        long start = System.nanoTime();
+        RankedResults results = recommender instanceof TopKItemKNNRecommender
+                ? ((TopKItemKNNRecommender) recommender).rankTopN()
+                : RankedResults.fromRecommendedList(recommender.recommendRank(), conf.getInt("rec.recommender.ranking.topn", 10));
+        out.printf("Ranked top-%d for %d users in %.1f ms%n", results.topN(), results.numUsers(), (System.nanoTime() - start) / 1e6);
+        return results;
+    }
+
+    // The session's pool when it has one, otherwise a new pool for one stage
+    ForkJoinPool acquirePool(int threads) {
+        return pool != null ? pool : SimilarityEngine.newPool(threads);
+    }
+
+    void releasePool(ForkJoinPool stagePool) {
+        if (stagePool != pool) stagePool.shutdown();
+    }
+
+    static Configuration prepareLibRecConfiguration(Path tmpDir, Properties props) {
+        Configuration conf = new Configuration();
+        conf.set("dfs.data.dir", tmpDir.toString());
+        conf.set("data.input.path", LIBREC_INPUT_FILENAME);
+        conf.set("rec.recommender.similarity.key", props.getProperty("rec.similarity.key", "item"));
+        conf.setBoolean("rec.recommender.isranking", Boolean.parseBoolean(props.getProperty("rec.isranking", "true")));
+        conf.setInt("rec.similarity.shrinkage", Integer.parseInt(props.getProperty("rec.similarity.shrinkage", "10")));
+        String function = props.getProperty("rec.similarity.function", "").trim();
+        conf.set("rec.similarity.function", function.isEmpty() ? "cosine" : function);
+        conf.set("rec.neighbors.knn.number", props.getProperty("rec.knn", "200"));
+        conf.setBoolean("rec.neighbors.target.mean", Boolean.parseBoolean(props.getProperty("rec.knn.target.mean", "true")));
+        conf.setInt("rec.similarity.threads", Integer.parseInt(props.getProperty("rec.similarity.threads", "0")));
+        conf.setBoolean("rec.similarity.full", Boolean.parseBoolean(props.getProperty("rec.similarity.full", "false")));
+        conf.setBoolean("rec.similarity.lsh", Boolean.parseBoolean(props.getProperty("rec.similarity.lsh", "false")));
+        conf.setInt("rec.similarity.lsh.bands", Integer.parseInt(props.getProperty("rec.similarity.lsh.bands", "32")));
+        conf.setInt("rec.similarity.lsh.rows", Integer.parseInt(props.getProperty("rec.similarity.lsh.rows", "2")));
+        conf.setInt("rec.similarity.lsh.max.bucket", Integer.parseInt(props.getProperty("rec.similarity.lsh.max.bucket", "100")));
+        conf.setInt("rec.similarity.lsh.candidates", Integer.parseInt(props.getProperty("rec.similarity.lsh.candidates", "200")));
+        conf.setInt("rec.similarity.lsh.popular", Integer.parseInt(props.getProperty("rec.similarity.lsh.popular", "100")));
+        conf.setInt("rec.ranking.threads", Integer.parseInt(props.getProperty("rec.ranking.threads", "0")));
+        conf.set("rec.eval.cutoffs", props.getProperty("rec.eval.cutoffs", "10"));
+        conf.set("rec.eval.metrics", props.getProperty("rec.eval.metrics", "ndcg,precision,recall"));
+        // Lists are ranked deep enough for the largest cutoff
+        conf.setInt("rec.recommender.ranking.topn", Math.max(10, RankingEvaluator.fromConfiguration(conf).maxCutoff()));
+        return conf;
+    }
+
+    /**
+     * Exports every list with {@link RecommendationExport} (output.export.format: csv, jsonl,
+     * binary or none; output.export.file, by default recommendations.&lt;csv|jsonl|bin&gt; in
+     * output.tmp) and prints a summary and the lists of the first output.sample.users users.
+     */
+    void dumpRecommendations(RankedResults results, DataModel dataModel) {
+        if (results == null || dataModel == null) {
+            out.println("Recommendation list or data model is null. Cannot dump results.");
+            return;
+        }
+        // Reverse mappings as arrays, from LibRec's internal integers to the model's ids
+        String[] userIds = reverseMapping(dataModel.getUserMappingData());
+        String[] itemIds = reverseMapping(dataModel.getItemMappingData());
+
+        String formatName = props.getProperty("output.export.format", "csv").trim();
+        if (!"none".equalsIgnoreCase(formatName)) {
+            RecommendationExport.Format format = RecommendationExport.Format.parse(formatName);
+            String file = props.getProperty("output.export.file", "").trim();
+            Path path = !file.isEmpty() ? Paths.get(file)
+                    : Paths.get(props.getProperty("output.tmp", "."), "recommendations." + format.extension);
+            ForkJoinPool stagePool = acquirePool(Integer.parseInt(props.getProperty("rec.ranking.threads", "0")));
+            try {
+                RecommendationExport.Summary summary = RecommendationExport.write(results, userIds, itemIds, format, path, stagePool);
+                out.printf("Exported %d recommendations for %d users to %s (%s, %d bytes) in %.1f ms%n",
+                        summary.recommendations, summary.users, path.toAbsolutePath(),
+                        format.name().toLowerCase(Locale.ROOT), summary.bytes, summary.nanos / 1e6);
+            } catch (IOException e) {
+                out.println("Could not export the recommendations to " + path + ": " + e);
+            } finally {
+                releasePool(stagePool);
+            }
+        }
+
+        int sample = Integer.parseInt(props.getProperty("output.sample.users", "3"));
+        if (sample <= 0) return;
+        out.println("\n=== Recommendations Result ===");
+        for (int userIdx = 0, shown = 0; userIdx < results.numUsers() && shown < sample; userIdx++) {
+            if (results.size(userIdx) == 0) continue;
+            shown++;
+            out.println("\nRecommendations for User '" + userIds[userIdx] + "':");
+            for (int rank = 0; rank < results.size(userIdx); rank++) {
+                String itemId = itemIds[results.itemAt(userIdx, rank)];
+                out.printf("  - Item: %-15s | Score: %.4f%n", itemId, results.scoreAt(userIdx, rank));
+            }
+        }
+        out.println("============================");
+    }
+
+    static String[] reverseMapping(BiMap<String, Integer> mapping) {
+        String[] ids = new String[mapping.size()];
+        for (Map.Entry<String, Integer> entry : mapping.entrySet()) ids[entry.getValue()] = entry.getKey();
+        return ids;
+    }
+
+    private RankingEvaluator.Result evaluateRecommendations(Configuration conf, SequentialAccessSparseMatrix testMatrix, RankedResults results) {
+        if (results == null || testMatrix == null || testMatrix.size() == 0) {
+            out.println("Evaluation skipped: No recommendations or test data available.");
+            return null;
+        }
+
+        // All metrics at all cutoffs in one pass over the lists already ranked
+        RankingEvaluator evaluator = RankingEvaluator.fromConfiguration(conf);
+        RankingEvaluator.Result evaluation;
+        ForkJoinPool stagePool = acquirePool(conf.getInt("rec.ranking.threads", 0));
+        try {
+            evaluation = evaluator.evaluate(results, testMatrix, stagePool);
+        } finally {
+            releasePool(stagePool);
+        }
+        out.printf("Evaluated %d test users in %.1f ms:%n%s%n", evaluation.numTestUsers(),
+                evaluation.elapsedNanos() / 1e6, evaluation.table());
+
+        int cutoff = Result.summaryCutoff(evaluation);
+        double ndcg = Result.orZero(evaluation.get(RankingEvaluator.Metric.NDCG, cutoff));
+        double precision = Result.orZero(evaluation.get(RankingEvaluator.Metric.PRECISION, cutoff));
+        double recall = Result.orZero(evaluation.get(RankingEvaluator.Metric.RECALL, cutoff));
+        out.printf("Evaluation Metrics @%d -> NDCG: %.4f, Precision: %.4f, Recall: %.4f, F1: %.4f%n",
+                cutoff, ndcg, precision, recall, Result.f1(precision, recall));
+        return evaluation;
+    }
+
+    /**
+     * The outcome of a run. Every field is set once; the ranked lists, model and data model
+     * are the session's own and are not changed after the run.
+     */
+    public static final class Result {
+        private final RankedResults results;
+        private final DataModel dataModel;
+        private final ModelCache.Entry model;
+        private final RankingEvaluator.Result evaluation;
+        private final PipelineMetrics metrics;
+        private final int cutoff;
+        private final double ndcg, precision, recall, f1;
+
+        Result(RankedResults results, DataModel dataModel, ModelCache.Entry model,
+                RankingEvaluator.Result evaluation, PipelineMetrics metrics) {
+            this.results = results;
+            this.dataModel = dataModel;
+            this.model = model;
+            this.evaluation = evaluation;
+            this.metrics = metrics;
+            this.cutoff = evaluation == null ? 0 : summaryCutoff(evaluation);
+            this.ndcg = evaluation == null ? 0.0 : orZero(evaluation.get(RankingEvaluator.Metric.NDCG, cutoff));
+            this.precision = evaluation == null ? 0.0 : orZero(evaluation.get(RankingEvaluator.Metric.PRECISION, cutoff));
+            this.recall = evaluation == null ? 0.0 : orZero(evaluation.get(RankingEvaluator.Metric.RECALL, cutoff));
+            this.f1 = f1(precision, recall);
+        }
+
+        // The summary metrics are reported at @10, or at the smallest cutoff if 10 is not evaluated
+        static int summaryCutoff(RankingEvaluator.Result evaluation) {
+            int[] cutoffs = evaluation.cutoffs();
+            return Arrays.binarySearch(cutoffs, 10) >= 0 ? 10 : cutoffs[0];
+        }
+
+        static double orZero(double value) {
+            return Double.isNaN(value) ? 0.0 : value;
+        }
+
+        static double f1(double precision, double recall) {
+            return (precision + recall) > 0 ? 2 * precision * recall / (precision + recall) : 0.0;
+        }
+
+        /** Top-N lists, or null when there were no ratings. */
+        public RankedResults getResults() { return results; }
+        /** Id mappings of the results' inner indices, or null when there were no ratings. */
+        public DataModel getDataModel() { return dataModel; }
+        /** The trained model when the engine produced a neighbor index, otherwise null. */
+        public ModelCache.Entry getModel() { return model; }
+        /** All metrics at all cutoffs, or null when there was nothing to evaluate. */
+        public RankingEvaluator.Result getEvaluation() { return evaluation; }
+        public PipelineMetrics getMetrics() { return metrics; }
+        /** The cutoff of the summary metrics below, 0 without an evaluation. */
+        public int getCutoff() { return cutoff; }
+        public double getNdcg() { return ndcg; }
+        public double getPrecision() { return precision; }
+        public double getRecall() { return recall; }
+        public double getF1() { return f1; }
+    }
+}
@@ -0,0 +1,116 @@
+package genericRecommenderSystem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.resource.Resource;
+
+/**
+ * Reads what knowledge-based filtering needs from the loaded models: the tags of every
+ * Item, every Rule (wherever it is contained, usually a KnowledgeBased) and every
+ * RecommendationQuery, which gives the tasks a user asks for.
+ */
+class RuleExtractor {
+
+    /**
+     * Receives item tags, rules and queries in document order.
+     */
+    interface Sink {
+        void itemTag(String itemId, String tag);
+
+        void rule(String ruleId, String inputTask, List<String> requiredTags, List<String> recommendedTags);
+
+        void query(String userId, String task);
+    }
+
+    private final EClass itemClass;
+    private final EClass ruleClass;
+    private final EClass queryClass;
+    private final EAttribute itemId;
+    private final EAttribute tags;
+    private final EAttribute userId;
+    private final EAttribute ruleId;
+    private final EAttribute inputTask;
+    private final EAttribute requiredTags;
+    private final EAttribute recommendedTags;
+    private final EReference queryUser;
+    private final EAttribute task;
+
+    private RuleExtractor(EPackage recommender) {
+        itemClass = (EClass) recommender.getEClassifier("Item");
+        ruleClass = (EClass) recommender.getEClassifier("Rule");
+        queryClass = (EClass) recommender.getEClassifier("RecommendationQuery");
+        itemId = (EAttribute) itemClass.getEStructuralFeature("itemId");
+        tags = (EAttribute) itemClass.getEStructuralFeature("tags");
+        userId = (EAttribute) ((EClass) recommender.getEClassifier("User")).getEStructuralFeature("userId");
+        ruleId = (EAttribute) ruleClass.getEStructuralFeature("ruleId");
+        inputTask = (EAttribute) ruleClass.getEStructuralFeature("inputTask");
+        requiredTags = (EAttribute) ruleClass.getEStructuralFeature("requiredTags");
+        recommendedTags = (EAttribute) ruleClass.getEStructuralFeature("recommendedTags");
+        queryUser = (EReference) queryClass.getEStructuralFeature("user");
+        task = (EAttribute) queryClass.getEStructuralFeature("task");
+    }
+
+    /**
+     * An extractor for models of {@code recommender}, or null if it is not the recommender metamodel.
+     */
+    static RuleExtractor forPackage(EPackage recommender) {
+        if (recommender == null || !(recommender.getEClassifier("Item") instanceof EClass)
+                || !(recommender.getEClassifier("User") instanceof EClass)
+                || !(recommender.getEClassifier("Rule") instanceof EClass)
+                || !(recommender.getEClassifier("RecommendationQuery") instanceof EClass)) {
+            return null;
+        }
+        return new RuleExtractor(recommender);
+    }
+
+    /**
+     * Passes the item tags, rules and queries in {@code resource} to {@code sink} and
+     * returns the number of objects visited.
+     */
+    @SuppressWarnings("unchecked")
+    int extract(Resource resource, Sink sink) {
+        int visited = 0;
+        for (TreeIterator<EObject> it = resource.getAllContents(); it.hasNext(); ) {
+            EObject eObject = it.next();
+            EClass eClass = eObject.eClass();
+            if (itemClass.isSuperTypeOf(eClass)) {
+                Object id = eObject.eGet(itemId);
+                if (id == null) continue;
+                for (Object tag : (List<Object>) eObject.eGet(tags)) {
+                    if (tag != null) sink.itemTag(id.toString(), tag.toString());
+                }
+                visited++;
+            } else if (ruleClass.isSuperTypeOf(eClass)) {
+                Object id = eObject.eGet(ruleId);
+                Object input = eObject.eGet(inputTask);
+                sink.rule(id == null ? null : id.toString(), input == null ? null : input.toString(),
+                        strings((List<Object>) eObject.eGet(requiredTags)),
+                        strings((List<Object>) eObject.eGet(recommendedTags)));
+                visited++;
+            } else if (queryClass.isSuperTypeOf(eClass)) {
+                EObject user = (EObject) eObject.eGet(queryUser);
+                Object id = user == null || user.eIsProxy() ? null : user.eGet(userId);
+                Object t = eObject.eGet(task);
+                if (id == null || t == null) continue;
+                sink.query(id.toString(), t.toString());
+                visited++;
+            }
+        }
+        return visited;
+    }
+
+    private static List<String> strings(List<Object> values) {
+        List<String> strings = new ArrayList<>(values.size());
+        for (Object value : values) {
+            if (value != null) strings.add(value.toString());
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,186 @@
+package genericRecommenderSystem;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The KnowledgeBased rules of the models, compiled once into item bitsets. A rule applies to
+ * a user when it has no inputTask, or when a RecommendationQuery of the user asks for that
+ * task. Items must carry every requiredTag of every rule that applies (they are masked out
+ * otherwise), and items carrying a recommendedTag of one of them have their score multiplied
+ * by {@code boostFactor}.
+ *
+ * Users asking for the same tasks share one mask and one boost set, combined from the rules'
+ * bitsets at compile time, so however many rules there are, the rankers only test an item's
+ * bit in the user's mask (a single AND) before scoring it.
+ */
+class RuleFilter {
+
+    private final int numRules;
+    private final double boostFactor;
+    // user -> rule group, -1 when no rule applies
+    private final int[] userGroup;
+    // per group: allowed items, or null when nothing is required; boosted items, or null
+    private final long[][] masks;
+    private final long[][] boosts;
+
+    private RuleFilter(int numRules, double boostFactor, int[] userGroup, long[][] masks, long[][] boosts) {
+        this.numRules = numRules;
+        this.boostFactor = boostFactor;
+        this.userGroup = userGroup;
+        this.masks = masks;
+        this.boosts = boosts;
+    }
+
+    static boolean contains(long[] bits, int item) {
+        return (bits[item >>> 6] & 1L << item) != 0;
+    }
+
+    /** The items {@code userIdx} may be recommended, or null for all of them. */
+    long[] mask(int userIdx) {
+        int group = userIdx < userGroup.length ? userGroup[userIdx] : -1;
+        return group < 0 ? null : masks[group];
+    }
+
+    /** The items whose score is boosted for {@code userIdx}, or null for none. */
+    long[] boost(int userIdx) {
+        int group = userIdx < userGroup.length ? userGroup[userIdx] : -1;
+        return group < 0 ? null : boosts[group];
+    }
+
+    double boostFactor() {
+        return boostFactor;
+    }
+
+    int numRules() {
+        return numRules;
+    }
+
+    int numGroups() {
+        return masks.length;
+    }
+
+    long sizeInBytes() {
+        long bytes = 4L * userGroup.length;
+        for (long[] mask : masks) bytes += mask == null ? 0 : 8L * mask.length;
+        for (long[] boost : boosts) bytes += boost == null ? 0 : 8L * boost.length;
+        return bytes;
+    }
+
+    /**
+     * Collects item tags, rules and queries; {@link #compile} turns them into a filter.
+     */
+    static final class Builder {
+        private final Map<String, List<Integer>> taggedItems = new HashMap<>();
+        private final List<Rule> rules = new ArrayList<>();
+        private final Map<Integer, TreeSet<String>> userTasks = new HashMap<>();
+
+        void itemTag(int item, String tag) {
+            taggedItems.computeIfAbsent(tag, t -> new ArrayList<>()).add(item);
+        }
+
+        void rule(String ruleId, String task, List<String> requiredTags, List<String> recommendedTags) {
+            rules.add(new Rule(ruleId, task == null || task.isEmpty() ? null : task, requiredTags, recommendedTags));
+        }
+
+        void query(int userIdx, String task) {
+            if (task != null && !task.isEmpty()) userTasks.computeIfAbsent(userIdx, u -> new TreeSet<>()).add(task);
+        }
+
+        int numRules() {
+            return rules.size();
+        }
+
+        /**
+         * The rules over items {@code [0, numItems)} for users {@code [0, numUsers)}, or null
+         * when there are none.
+         */
+        RuleFilter compile(int numItems, int numUsers, double boostFactor) {
+            if (rules.isEmpty()) return null;
+            int words = (numItems + 63) >>> 6;
+            Map<String, long[]> tagBits = new HashMap<>();
+            for (Map.Entry<String, List<Integer>> entry : taggedItems.entrySet()) {
+                long[] bits = new long[words];
+                for (int item : entry.getValue()) bits[item >>> 6] |= 1L << item;
+                tagBits.put(entry.getKey(), bits);
+            }
+            long[] none = new long[words];
+            for (Rule rule : rules) {
+                for (String tag : rule.requiredTags) {
+                    long[] bits = tagBits.getOrDefault(tag, none);
+                    if (rule.required == null) rule.required = bits.clone();
+                    else and(rule.required, bits);
+                }
+                for (String tag : rule.recommendedTags) {
+                    long[] bits = tagBits.get(tag);
+                    if (bits == null) continue;
+                    if (rule.recommended == null) rule.recommended = bits.clone();
+                    else or(rule.recommended, bits);
+                }
+            }
+
+            // One group per distinct set of tasks; users without a query get the task-free rules
+            Map<TreeSet<String>, Integer> groups = new HashMap<>();
+            List<long[]> masks = new ArrayList<>();
+            List<long[]> boosts = new ArrayList<>();
+            int[] userGroup = new int[numUsers];
+            TreeSet<String> noTasks = new TreeSet<>();
+            for (int u = 0; u < numUsers; u++) {
+                TreeSet<String> tasks = userTasks.getOrDefault(u, noTasks);
+                Integer group = groups.get(tasks);
+                if (group == null) {
+                    long[] mask = null, boost = null;
+                    boolean applies = false;
+                    for (Rule rule : rules) {
+                        if (rule.task != null && !tasks.contains(rule.task)) continue;
+                        applies = true;
+                        if (rule.required != null) {
+                            if (mask == null) mask = rule.required.clone();
+                            else and(mask, rule.required);
+                        }
+                        if (rule.recommended != null) {
+                            if (boost == null) boost = rule.recommended.clone();
+                            else or(boost, rule.recommended);
+                        }
+                    }
+                    group = applies ? masks.size() : -1;
+                    if (applies) {
+                        masks.add(mask);
+                        boosts.add(boost);
+                    }
+                    groups.put(tasks, group);
+                }
+                userGroup[u] = group;
+            }
+            return new RuleFilter(rules.size(), boostFactor, userGroup,
+                    masks.toArray(new long[0][]), boosts.toArray(new long[0][]));
+        }
+
+        private static void and(long[] bits, long[] other) {
+            for (int w = 0; w < bits.length; w++) bits[w] &= other[w];
+        }
+
+        private static void or(long[] bits, long[] other) {
+            for (int w = 0; w < bits.length; w++) bits[w] |= other[w];
+        }
+    }
+
+    private static final class Rule {
+        final String ruleId;
+        final String task;
+        final List<String> requiredTags;
+        final List<String> recommendedTags;
+        long[] required;
+        long[] recommended;
+
+        Rule(String ruleId, String task, List<String> requiredTags, List<String> recommendedTags) {
+            this.ruleId = ruleId;
+            this.task = task;
+            this.requiredTags = requiredTags;
+            this.recommendedTags = recommendedTags;
+        }
+    }
+}
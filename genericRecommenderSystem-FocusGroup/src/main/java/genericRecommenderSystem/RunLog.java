@@ -0,0 +1,216 @@
+package genericRecommenderSystem;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Output of one run on its way to a log view. Writers only copy their bytes into a
+ * lock-free ring; a flusher thread drains it every {@link #FLUSH_MILLIS} ms, writes
+ * everything to the spill file (if any), and hands the view the new text in one piece,
+ * through {@code uiExecutor}, with at most one delivery pending at a time. Text that
+ * piles up while the view is busy is capped to the last {@code maxChars} characters,
+ * so memory stays bounded however much the run prints.
+ */
+class RunLog extends OutputStream {
+
+    static final long FLUSH_MILLIS = 100;
+    private static final int RING_SIZE = 8192;
+
+    private final int maxChars;
+    private final Writer spill;
+    private final Executor uiExecutor;
+    private final Consumer<String> view;
+    private final PrintStream printStream;
+
+    // Bounded multi-producer, single-consumer ring of byte chunks
+    private final byte[][] chunks = new byte[RING_SIZE][];
+    private final AtomicLongArray sequences = new AtomicLongArray(RING_SIZE);
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharBuffer decoded = CharBuffer.allocate(8192);
+    private ByteBuffer carry = ByteBuffer.allocate(0);
+    private final StringBuilder pending = new StringBuilder();
+    private final AtomicBoolean deliveryQueued = new AtomicBoolean();
+    private long droppedChars;
+
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    /**
+     * @param spillFile receives the complete output, or null to keep only what the view shows
+     */
+    RunLog(int maxChars, Path spillFile, Executor uiExecutor, Consumer<String> view) throws IOException {
+        this.maxChars = maxChars;
+        this.spill = spillFile == null ? null : Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8);
+        this.uiExecutor = uiExecutor;
+        this.view = view;
+        for (int i = 0; i < RING_SIZE; i++) sequences.set(i, i);
+        this.printStream = new PrintStream(this, true, "UTF-8");
+        this.flusher = new Thread(this::flushLoop, "run-log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * An autoflushing UTF-8 stream into this log.
+     */
+    PrintStream printStream() {
+        return printStream;
+    }
+
+    @Override
+    public void write(int b) {
+        offer(new byte[] {(byte) b});
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (len > 0) offer(Arrays.copyOfRange(b, off, off + len));
+    }
+
+    private void offer(byte[] chunk) {
+        if (closed) return;
+        int spins = 0;
+        while (!tryOffer(chunk)) {
+            // Full: the flusher is behind, so wake it and wait for room
+            LockSupport.unpark(flusher);
+            if (++spins < 64) Thread.yield();
+            else LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+            if (closed) return;
+        }
+    }
+
+    private boolean tryOffer(byte[] chunk) {
+        long pos = tail.get();
+        while (true) {
+            int slot = (int) (pos & (RING_SIZE - 1));
+            long diff = sequences.get(slot) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    chunks[slot] = chunk;
+                    sequences.lazySet(slot, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    private byte[] poll() {
+        int slot = (int) (head & (RING_SIZE - 1));
+        if (sequences.get(slot) != head + 1) return null;
+        byte[] chunk = chunks[slot];
+        chunks[slot] = null;
+        sequences.lazySet(slot, head + RING_SIZE);
+        head++;
+        return chunk;
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(FLUSH_MILLIS));
+            drain(false);
+        }
+        drain(true);
+    }
+
+    private void drain(boolean last) {
+        StringBuilder text = new StringBuilder();
+        for (byte[] chunk; (chunk = poll()) != null; ) decode(chunk, text, false);
+        if (last) decode(new byte[0], text, true);
+        if (spill != null) {
+            try {
+                spill.append(text);
+                if (last) spill.close();
+                else spill.flush();
+            } catch (IOException e) {
+                text.append("\n[log file: ").append(e).append("]\n");
+            }
+        }
+        synchronized (pending) {
+            pending.append(text);
+            if (pending.length() > maxChars) {
+                droppedChars += pending.length() - maxChars;
+                pending.delete(0, pending.length() - maxChars);
+            }
+            if (pending.length() == 0 || !deliveryQueued.compareAndSet(false, true)) return;
+        }
+        uiExecutor.execute(this::deliver);
+    }
+
+    private void deliver() {
+        String text;
+        synchronized (pending) {
+            text = droppedChars > 0 ? "[... " + droppedChars + " characters not shown ...]\n" + pending : pending.toString();
+            pending.setLength(0);
+            droppedChars = 0;
+            deliveryQueued.set(false);
+        }
+        view.accept(text);
+    }
+
+    private void decode(byte[] chunk, StringBuilder out, boolean endOfInput) {
+        // A multi-byte character may be split between chunks
+        ByteBuffer in;
+        if (carry.hasRemaining()) {
+            in = ByteBuffer.allocate(carry.remaining() + chunk.length);
+            in.put(carry).put(chunk).flip();
+        } else {
+            in = ByteBuffer.wrap(chunk);
+        }
+        while (true) {
+            decoded.clear();
+            boolean overflow = decoder.decode(in, decoded, endOfInput).isOverflow();
+            decoded.flip();
+            out.append(decoded);
+            if (!overflow) break;
+        }
+        if (endOfInput) {
+            decoded.clear();
+            decoder.flush(decoded);
+            decoded.flip();
+            out.append(decoded);
+        }
+        carry = in;
+    }
+
+    /**
+     * Stops accepting output and delivers what is left.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        printStream.flush();
+        closed = true;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package genericRecommenderSystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+/**
+ * Reads the ratings of many recommender model files (shards, e.g. one per region or month)
+ * into one {@link RatingEncoder}. Every shard is loaded in a resource set of its own, on a
+ * fork-join pool, and its UserItemMatrix read with a {@link RatingExtractor} into a local
+ * encoder; shards share nothing until they are merged, so the time taken follows the number
+ * of workers rather than the number of shards.
+ *
+ * The merge interns the shards' dictionaries in shard order, so ids keep their first-seen
+ * order as if the shards were one model, then keeps one rating per (user, item) pair: the
+ * row where the pair first appears, with the value it has last. Shards are taken in path
+ * order, so with names like {@code ratings-2024-01.model} a later month overrides an
+ * earlier one; within a shard, a later row overrides an earlier one.
+ */
+final class ShardedIngestion {
+
+    /** What one shard held. */
+    static final class Shard {
+        final Path path;
+        final RatingEncoder ratings = new RatingEncoder();
+        int rows;
+        long nanos;
+
+        Shard(Path path) {
+            this.path = path;
+        }
+    }
+
+    final List<Shard> shards;
+    final RatingEncoder ratings;
+    final int rows;
+    final int duplicates;
+
+    private ShardedIngestion(List<Shard> shards, RatingEncoder ratings, int rows, int duplicates) {
+        this.shards = shards;
+        this.ratings = ratings;
+        this.rows = rows;
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * The files named by {@code spec}, sorted by path: a comma-separated list of directories
+     * (their *.model files), files and glob patterns such as {@code data/2024-*.model} or
+     * {@code data/**.model}.
+     */
+    static List<Path> resolve(String spec) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            part = part.trim();
+            if (part.isEmpty()) continue;
+            Path path = Paths.get(part);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.list(path)) {
+                    paths.addAll(files.filter(f -> Files.isRegularFile(f) && f.getFileName().toString().endsWith(".model"))
+                            .collect(Collectors.toList()));
+                }
+            } else if (Files.isRegularFile(path)) {
+                paths.add(path);
+            } else {
+                paths.addAll(glob(part));
+            }
+        }
+        return paths.stream().map(p -> p.toAbsolutePath().normalize()).distinct().sorted().collect(Collectors.toList());
+    }
+
+    private static List<Path> glob(String pattern) throws IOException {
+        // Walk from the deepest directory without wildcards
+        String absolute = Paths.get("").toAbsolutePath().resolve(pattern).toString();
+        int wildcard = indexOfAny(absolute, "*?[{");
+        if (wildcard < 0) return new ArrayList<>();
+        Path base = Paths.get(absolute.substring(0, absolute.lastIndexOf(File.separatorChar, wildcard) + 1));
+        if (!Files.isDirectory(base)) return new ArrayList<>();
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + absolute);
+        try (Stream<Path> files = Files.walk(base)) {
+            return files.filter(f -> Files.isRegularFile(f) && matcher.matches(f)).collect(Collectors.toList());
+        }
+    }
+
+    private static int indexOfAny(String s, String chars) {
+        for (int k = 0; k < s.length(); k++) {
+            if (chars.indexOf(s.charAt(k)) >= 0) return k;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads {@code paths} in parallel, each in a resource set from {@code resourceSets} with
+     * the recommender metamodel registered, and merges their ratings.
+     */
+    static ShardedIngestion ingest(List<Path> paths, Supplier<ResourceSet> resourceSets, ForkJoinPool pool) {
+        List<Shard> shards = new ArrayList<>(paths.size());
+        for (Path path : paths) shards.add(new Shard(path));
+        if (!shards.isEmpty()) pool.invoke(new ReadTask(shards, resourceSets, 0, shards.size()));
+        return merge(shards, pool);
+    }
+
+    private static void read(Shard shard, ResourceSet resourceSet) {
+        long start = System.nanoTime();
+        try {
+            Resource resource = resourceSet.getResource(URI.createFileURI(shard.path.toString()), true);
+            RatingExtractor extractor = null;
+            for (Object value : resourceSet.getPackageRegistry().values()) {
+                if (value instanceof EPackage && (extractor = RatingExtractor.forPackage((EPackage) value)) != null) break;
+            }
+            EObject matrix = extractor == null ? null : extractor.findMatrix(resource);
+            if (matrix == null) throw new IllegalArgumentException("no UserItemMatrix");
+            shard.rows = extractor.extract(matrix, shard.ratings::add);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Could not read the rating shard " + shard.path + ": " + e.getMessage(), e);
+        } finally {
+            // The shard's models, and the domain models its rows pointed into, are not needed any more
+            for (Resource loaded : resourceSet.getResources()) loaded.unload();
+            resourceSet.getResources().clear();
+        }
+        shard.nanos = System.nanoTime() - start;
+    }
+
+    private static ShardedIngestion merge(List<Shard> shards, ForkJoinPool pool) {
+        int total = 0, rows = 0;
+        for (Shard shard : shards) {
+            total += shard.ratings.size();
+            rows += shard.rows;
+        }
+        // Global dictionaries, and each shard's local indices mapped to them
+        RatingEncoder merged = new RatingEncoder(total);
+        int[] offsets = new int[shards.size() + 1];
+        int[][] userMaps = new int[shards.size()][];
+        int[][] itemMaps = new int[shards.size()][];
+        for (int s = 0; s < shards.size(); s++) {
+            RatingEncoder local = shards.get(s).ratings;
+            userMaps[s] = new int[local.numUsers()];
+            for (int u = 0; u < userMaps[s].length; u++) userMaps[s][u] = merged.internUser(local.getUserId(u));
+            itemMaps[s] = new int[local.numItems()];
+            for (int i = 0; i < itemMaps[s].length; i++) itemMaps[s][i] = merged.internItem(local.getItemId(i));
+            offsets[s + 1] = offsets[s] + local.size();
+        }
+
+        int[] users = new int[total];
+        int[] items = new int[total];
+        double[] values = new double[total];
+        if (!shards.isEmpty()) {
+            pool.invoke(new RemapTask(shards, offsets, userMaps, itemMaps, users, items, values, 0, shards.size()));
+        }
+
+        // Users are split over the workers, so that each pair is seen by one of them, in row order:
+        // the rows are bucketed by partition with a counting sort, which keeps that order
+        int partitions = Math.max(1, pool.getParallelism());
+        int[] bucketPtr = new int[partitions + 1];
+        for (int r = 0; r < total; r++) bucketPtr[users[r] % partitions + 1]++;
+        for (int p = 0; p < partitions; p++) bucketPtr[p + 1] += bucketPtr[p];
+        int[] bucketRows = new int[total];
+        int[] fill = Arrays.copyOf(bucketPtr, partitions);
+        for (int r = 0; r < total; r++) bucketRows[fill[users[r] % partitions]++] = r;
+
+        boolean[] keep = new boolean[total];
+        int[] replaced = new int[partitions];
+        pool.invoke(new DedupTask(users, items, values, bucketPtr, bucketRows, keep, replaced, 0, partitions));
+        for (int r = 0; r < total; r++) {
+            if (keep[r]) merged.addIndexed(users[r], items[r], values[r]);
+        }
+        int duplicates = 0;
+        for (int n : replaced) duplicates += n;
+        return new ShardedIngestion(shards, merged, rows, duplicates);
+    }
+
+    private static final class ReadTask extends RecursiveAction {
+        private final List<Shard> shards;
+        private final Supplier<ResourceSet> resourceSets;
+        private final int from, to;
+
+        ReadTask(List<Shard> shards, Supplier<ResourceSet> resourceSets, int from, int to) {
+            this.shards = shards;
+            this.resourceSets = resourceSets;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ReadTask(shards, resourceSets, from, mid), new ReadTask(shards, resourceSets, mid, to));
+                return;
+            }
+            read(shards.get(from), resourceSets.get());
+        }
+    }
+
+    private static final class RemapTask extends RecursiveAction {
+        private final List<Shard> shards;
+        private final int[] offsets;
+        private final int[][] userMaps, itemMaps;
+        private final int[] users, items;
+        private final double[] values;
+        private final int from, to;
+
+        RemapTask(List<Shard> shards, int[] offsets, int[][] userMaps, int[][] itemMaps, int[] users, int[] items,
+                double[] values, int from, int to) {
+            this.shards = shards;
+            this.offsets = offsets;
+            this.userMaps = userMaps;
+            this.itemMaps = itemMaps;
+            this.users = users;
+            this.items = items;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RemapTask(shards, offsets, userMaps, itemMaps, users, items, values, from, mid),
+                        new RemapTask(shards, offsets, userMaps, itemMaps, users, items, values, mid, to));
+                return;
+            }
+            RatingEncoder local = shards.get(from).ratings;
+            int[] localUsers = local.getUsers(), localItems = local.getItems();
+            double[] localValues = local.getValues();
+            int[] userMap = userMaps[from], itemMap = itemMaps[from];
+            for (int k = 0, base = offsets[from]; k < local.size(); k++) {
+                users[base + k] = userMap[localUsers[k]];
+                items[base + k] = itemMap[localItems[k]];
+                values[base + k] = localValues[k];
+            }
+        }
+    }
+
+    private static final class DedupTask extends RecursiveAction {
+        private final int[] users, items;
+        private final double[] values;
+        private final int[] bucketPtr, bucketRows;
+        private final boolean[] keep;
+        private final int[] replaced;
+        private final int from, to;
+
+        DedupTask(int[] users, int[] items, double[] values, int[] bucketPtr, int[] bucketRows, boolean[] keep,
+                int[] replaced, int from, int to) {
+            this.users = users;
+            this.items = items;
+            this.values = values;
+            this.bucketPtr = bucketPtr;
+            this.bucketRows = bucketRows;
+            this.keep = keep;
+            this.replaced = replaced;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new DedupTask(users, items, values, bucketPtr, bucketRows, keep, replaced, from, mid),
+                        new DedupTask(users, items, values, bucketPtr, bucketRows, keep, replaced, mid, to));
+                return;
+            }
+            int partition = from;
+            Long2IntOpenHashMap firstRow = new Long2IntOpenHashMap(bucketPtr[partition + 1] - bucketPtr[partition]);
+            firstRow.defaultReturnValue(-1);
+            int n = 0;
+            for (int b = bucketPtr[partition]; b < bucketPtr[partition + 1]; b++) {
+                int r = bucketRows[b];
+                long pair = (long) users[r] << 32 | items[r];
+                int first = firstRow.putIfAbsent(pair, r);
+                if (first < 0) {
+                    keep[r] = true;
+                } else {
+                    // Last write wins, at the position of the first
+                    values[first] = values[r];
+                    n++;
+                }
+            }
+            replaced[partition] = n;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package genericRecommenderSystem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
+
+/**
+ * Sparse A^T·A kernel behind the native similarity builders. Each vector (an item
+ * column, or a user row for user-based similarity) is compared with every other
+ * vector it shares a rater with, by walking the transposed matrix row by row and
+ * accumulating the co-rated products into dense per-thread arrays (Gustavson's
+ * SpGEMM). Vectors are processed in fixed-size blocks on a fork-join pool.
+ *
+ * Sums are accumulated over co-rated entries in increasing index order, the same
+ * order LibRec's getCorrelation uses, so cosine similarities are bit-for-bit identical
+ * to CosineSimilarity. The other rating-based {@link SimilarityFunction}s are derived from
+ * the same sums (plus the sums of the values themselves for PEARSON) when a row is finished.
+ */
+class SimilarityEngine {
+
+    static final int BLOCK_SIZE = 64;
+
+    private final int count;
+    private final int otherCount;
+    private final int shrinkage;
+    private final SimilarityFunction function;
+
+    // Vectors being compared, and the transposed matrix used to find their co-raters
+    private final int[] vecPtr;
+    private final int[] vecIdx;
+    private final double[] vecVal;
+    private final int[] otherPtr;
+    private final int[] otherIdx;
+    private final double[] otherVal;
+
+    private final ThreadLocal<Scratch> scratch;
+
+    SimilarityEngine(int count, int otherCount, int[] vecPtr, int[] vecIdx, double[] vecVal,
+            int[] otherPtr, int[] otherIdx, double[] otherVal, int shrinkage) {
+        this(count, otherCount, vecPtr, vecIdx, vecVal, otherPtr, otherIdx, otherVal, shrinkage, SimilarityFunction.COSINE);
+    }
+
+    SimilarityEngine(int count, int otherCount, int[] vecPtr, int[] vecIdx, double[] vecVal,
+            int[] otherPtr, int[] otherIdx, double[] otherVal, int shrinkage, SimilarityFunction function) {
+        if (function == SimilarityFunction.HAVERSINE) {
+            throw new IllegalArgumentException("HAVERSINE compares coordinates, not ratings");
+        }
+        this.count = count;
+        this.otherCount = otherCount;
+        this.vecPtr = vecPtr;
+        this.vecIdx = vecIdx;
+        this.vecVal = vecVal;
+        this.otherPtr = otherPtr;
+        this.otherIdx = otherIdx;
+        this.otherVal = otherVal;
+        this.shrinkage = shrinkage;
+        this.function = function;
+        this.scratch = ThreadLocal.withInitial(Scratch::new);
+    }
+
+    static SimilarityEngine of(SequentialAccessSparseMatrix trainMatrix, boolean userBased, int shrinkage) {
+        return of(trainMatrix, userBased, shrinkage, SimilarityFunction.COSINE);
+    }
+
+    static SimilarityEngine of(SequentialAccessSparseMatrix trainMatrix, boolean userBased, int shrinkage,
+            SimilarityFunction function) {
+        int rows = trainMatrix.rowSize();
+        int columns = trainMatrix.columnSize();
+        int count = userBased ? rows : columns;
+        int otherCount = userBased ? columns : rows;
+
+        int[] vecPtr = new int[count + 1];
+        int[] otherPtr = new int[otherCount + 1];
+        int nnz = trainMatrix.size();
+        int[] vecIdx = new int[nnz];
+        double[] vecVal = new double[nnz];
+        int[] otherIdx = new int[nnz];
+        double[] otherVal = new double[nnz];
+        for (int v = 0; v < count; v++) {
+            SequentialSparseVector vector = userBased ? trainMatrix.row(v) : trainMatrix.column(v);
+            vecPtr[v + 1] = copyVector(vector, vecPtr[v], vecIdx, vecVal);
+        }
+        for (int o = 0; o < otherCount; o++) {
+            SequentialSparseVector vector = userBased ? trainMatrix.column(o) : trainMatrix.row(o);
+            otherPtr[o + 1] = copyVector(vector, otherPtr[o], otherIdx, otherVal);
+        }
+        return new SimilarityEngine(count, otherCount, vecPtr, vecIdx, vecVal, otherPtr, otherIdx, otherVal, shrinkage, function);
+    }
+
+    private static int copyVector(SequentialSparseVector vector, int offset, int[] idx, double[] val) {
+        int entries = vector.getNumEntries();
+        for (int p = 0; p < entries; p++) {
+            idx[offset + p] = vector.getIndexAtPosition(p);
+            val[offset + p] = vector.getAtPosition(p);
+        }
+        return offset + entries;
+    }
+
+    int count() {
+        return count;
+    }
+
+    SimilarityFunction function() {
+        return function;
+    }
+
+    int numEntries(int vector) {
+        return vecPtr[vector + 1] - vecPtr[vector];
+    }
+
+    /** Index of the {@code n}-th entry of {@code vector}, in increasing order. */
+    int entryIndex(int vector, int n) {
+        return vecIdx[vecPtr[vector] + n];
+    }
+
+    /**
+     * Per-thread accumulators, reused across rows and blocks.
+     */
+    final class Scratch {
+        final double[] dot = new double[count];
+        final double[] thisNorm = new double[count];
+        final double[] thatNorm = new double[count];
+        // Sums of the values, only for functions that need them
+        final double[] thisSum = function.needsSums() ? new double[count] : null;
+        final double[] thatSum = function.needsSums() ? new double[count] : null;
+        final int[] corated = new int[count];
+        final int[] touched = new int[count];
+        // A vector spread over the other dimension, allocated on first use
+        double[] scattered;
+        int[] scatteredStamp;
+        int scatterStamp;
+
+        /** Result of the last computeRow call. */
+        int[] neighbors = new int[16];
+        double[] sims = new double[16];
+        int[] counts = new int[16];
+        int length;
+
+        private void ensureCapacity(int size) {
+            if (neighbors.length < size) {
+                int capacity = Math.max(size, neighbors.length * 2);
+                neighbors = Arrays.copyOf(neighbors, capacity);
+                sims = Arrays.copyOf(sims, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+            }
+        }
+    }
+
+    Scratch scratch() {
+        return scratch.get();
+    }
+
+    /**
+     * Computes the similarities of {@code index} with every other vector it shares at
+     * least one rater with. Pairs whose similarity is NaN or zero are dropped, as in
+     * LibRec. The result is left in {@code s.neighbors/sims/counts[0, s.length)}.
+     */
+    int computeRow(int index, Scratch s) {
+        int numTouched = 0;
+        boolean sums = s.thisSum != null;
+        for (int p = vecPtr[index], end = vecPtr[index + 1]; p < end; p++) {
+            int other = vecIdx[p];
+            double x = vecVal[p];
+            double xx = x * x;
+            for (int q = otherPtr[other], qEnd = otherPtr[other + 1]; q < qEnd; q++) {
+                int that = otherIdx[q];
+                if (that == index) continue;
+                double y = otherVal[q];
+                if (s.corated[that] == 0) {
+                    s.touched[numTouched++] = that;
+                }
+                s.dot[that] += x * y;
+                s.thisNorm[that] += xx;
+                s.thatNorm[that] += y * y;
+                s.corated[that]++;
+                if (sums) {
+                    s.thisSum[that] += x;
+                    s.thatSum[that] += y;
+                }
+            }
+        }
+
+        s.ensureCapacity(numTouched);
+        int length = 0;
+        for (int t = 0; t < numTouched; t++) {
+            int that = s.touched[t];
+            int n = s.corated[that];
+            double sim = sums
+                    ? finish(n, s.thisSum[that], s.thatSum[that], s.thisNorm[that], s.thatNorm[that], s.dot[that])
+                    : finish(n, 0.0, 0.0, s.thisNorm[that], s.thatNorm[that], s.dot[that]);
+            if (sums) {
+                s.thisSum[that] = 0.0;
+                s.thatSum[that] = 0.0;
+            }
+            s.dot[that] = 0.0;
+            s.thisNorm[that] = 0.0;
+            s.thatNorm[that] = 0.0;
+            s.corated[that] = 0;
+            if (Double.isNaN(sim) || sim == 0.0) continue;
+            s.neighbors[length] = that;
+            s.sims[length] = sim;
+            s.counts[length++] = n;
+        }
+        s.length = length;
+        return length;
+    }
+
+    /**
+     * Spreads the entries of {@code vector} over {@code s}, for {@link #similarity} calls
+     * against it; a later call replaces it.
+     */
+    void scatter(int vector, Scratch s) {
+        int stamp = ++s.scatterStamp;
+        if (s.scattered == null) {
+            s.scattered = new double[otherCount];
+            s.scatteredStamp = new int[otherCount];
+        }
+        for (int p = vecPtr[vector], end = vecPtr[vector + 1]; p < end; p++) {
+            s.scattered[vecIdx[p]] = vecVal[p];
+            s.scatteredStamp[vecIdx[p]] = stamp;
+        }
+    }
+
+    /**
+     * The similarity of the vector last scattered over {@code s} with {@code that}; NaN or
+     * zero when {@link #computeRow} would drop the pair. The sums run over the co-rated
+     * entries in the same order, so the result is the same bit for bit.
+     */
+    double similarity(Scratch s, int that) {
+        int stamp = s.scatterStamp;
+        int n = 0;
+        double dot = 0.0, thisNorm = 0.0, thatNorm = 0.0, thisSum = 0.0, thatSum = 0.0;
+        for (int q = vecPtr[that], end = vecPtr[that + 1]; q < end; q++) {
+            int other = vecIdx[q];
+            if (s.scatteredStamp[other] != stamp) continue;
+            double x = s.scattered[other], y = vecVal[q];
+            dot += x * y;
+            thisNorm += x * x;
+            thatNorm += y * y;
+            thisSum += x;
+            thatSum += y;
+            n++;
+        }
+        return n == 0 ? Double.NaN : finish(n, thisSum, thatSum, thisNorm, thatNorm, dot);
+    }
+
+    private double finish(int n, double thisSum, double thatSum, double thisNorm, double thatNorm, double dot) {
+        double sim = function == SimilarityFunction.COSINE ? dot / Math.sqrt(thisNorm * thatNorm)
+                : function.fromSums(n, thisSum, thatSum, thisNorm, thatNorm, dot);
+        if (shrinkage > 0 && !Double.isNaN(sim)) {
+            sim *= (double) n / ((double) (n + shrinkage) + 0.0);
+        }
+        return sim;
+    }
+
+    interface BlockFunction<T> {
+        T apply(int from, int to, Scratch scratch);
+    }
+
+    /**
+     * Runs {@code fn} over consecutive blocks of vectors on the pool and returns the
+     * block results in vector order.
+     */
+    <T> List<T> mapBlocks(ForkJoinPool pool, BlockFunction<T> fn) {
+        return mapBlocks(pool, count, fn);
+    }
+
+    /**
+     * Same as {@link #mapBlocks(ForkJoinPool, BlockFunction)} over positions {@code [0, n)},
+     * e.g. into a list of vectors to recompute.
+     */
+    <T> List<T> mapBlocks(ForkJoinPool pool, int n, BlockFunction<T> fn) {
+        int numBlocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        Object[] results = new Object[numBlocks];
+        if (numBlocks > 0) {
+            pool.invoke(new BlockTask<>(fn, results, n, 0, numBlocks));
+        }
+        List<T> list = new ArrayList<>(numBlocks);
+        for (Object result : results) {
+            @SuppressWarnings("unchecked")
+            T t = (T) result;
+            list.add(t);
+        }
+        return list;
+    }
+
+    private final class BlockTask<T> extends RecursiveAction {
+        private final BlockFunction<T> fn;
+        private final Object[] results;
+        private final int n;
+        private final int fromBlock, toBlock;
+
+        BlockTask(BlockFunction<T> fn, Object[] results, int n, int fromBlock, int toBlock) {
+            this.fn = fn;
+            this.results = results;
+            this.n = n;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+        }
+
+        @Override
+        protected void compute() {
+            if (toBlock - fromBlock > 1) {
+                int mid = (fromBlock + toBlock) >>> 1;
+                invokeAll(new BlockTask<>(fn, results, n, fromBlock, mid), new BlockTask<>(fn, results, n, mid, toBlock));
+                return;
+            }
+            int from = fromBlock * BLOCK_SIZE;
+            int to = Math.min(from + BLOCK_SIZE, n);
+            results[fromBlock] = fn.apply(from, to, scratch());
+        }
+    }
+
+    static ForkJoinPool newPool(int threads) {
+        return new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(),
+                PipelineMetrics.WORKER_FACTORY, null, false);
+    }
+}
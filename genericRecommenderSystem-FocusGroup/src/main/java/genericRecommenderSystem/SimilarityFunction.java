@@ -0,0 +1,48 @@
+package genericRecommenderSystem;
+
+import java.util.Locale;
+
+/**
+ * The SimilarityFunction literals of the recommender metamodel. COSINE, PEARSON and
+ * EUCLIDEAN compare two rating vectors over their co-rated entries and are computed by
+ * {@link SimilarityEngine} from running sums; HAVERSINE compares item coordinates and is
+ * computed by {@link GeoNeighbors}.
+ */
+enum SimilarityFunction {
+    COSINE, PEARSON, EUCLIDEAN, HAVERSINE;
+
+    static SimilarityFunction parse(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /** Whether the function needs the sums of x and y, not only the products. */
+    boolean needsSums() {
+        return this == PEARSON;
+    }
+
+    /**
+     * The similarity of two vectors from sums over their {@code n} co-rated entries, NaN when
+     * undefined. COSINE is computed exactly as LibRec's CosineSimilarity; PEARSON is
+     * PCCSimilarity's coefficient from the one-pass sums, equal up to rounding; EUCLIDEAN is
+     * 1 / (1 + distance).
+     */
+    double fromSums(int n, double sumX, double sumY, double sumXX, double sumYY, double sumXY) {
+        switch (this) {
+            case COSINE:
+                return sumXY / Math.sqrt(sumXX * sumYY);
+            case PEARSON: {
+                if (n < 2) return Double.NaN;
+                double covariance = sumXY - sumX * sumY / n;
+                double varianceX = sumXX - sumX * sumX / n;
+                double varianceY = sumYY - sumY * sumY / n;
+                // Constant vectors give 0 / 0, as in LibRec; rounding must not make it 0 / tiny
+                if (varianceX <= 1e-12 * sumXX || varianceY <= 1e-12 * sumYY) return Double.NaN;
+                return covariance / (Math.sqrt(varianceX) * Math.sqrt(varianceY));
+            }
+            case EUCLIDEAN:
+                return 1.0 / (1.0 + Math.sqrt(Math.max(sumXX + sumYY - 2.0 * sumXY, 0.0)));
+            default:
+                throw new UnsupportedOperationException(this + " is not computed from rating sums");
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package genericRecommenderSystem;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * Captures what one thread prints to System.out and System.err, without redirecting the
+ * output of any other thread. The standard streams are wrapped once, by a stream that
+ * forwards each call to the stream captured for the calling thread, or to the original.
+ * Threads started by the captured thread (e.g. pool workers) are not captured.
+ */
+final class ThreadOutput {
+
+    private static final ThreadLocal<PrintStream> captured = new ThreadLocal<>();
+    private static boolean installed;
+
+    private ThreadOutput() {
+    }
+
+    /**
+     * Sends the calling thread's System.out and System.err to {@code target} until the
+     * returned capture is closed, on the same thread.
+     */
+    static Capture capture(PrintStream target) {
+        install();
+        PrintStream previous = captured.get();
+        captured.set(target);
+        return () -> {
+            if (previous != null) captured.set(previous);
+            else captured.remove();
+        };
+    }
+
+    private static synchronized void install() {
+        if (installed) return;
+        System.setOut(new Router(System.out));
+        System.setErr(new Router(System.err));
+        installed = true;
+    }
+
+    interface Capture extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Forwards every call, so the target stream does its own encoding.
+     */
+    private static final class Router extends PrintStream {
+        private final PrintStream original;
+
+        Router(PrintStream original) {
+            super(original, true);
+            this.original = original;
+        }
+
+        private PrintStream target() {
+            PrintStream target = captured.get();
+            return target != null ? target : original;
+        }
+
+        @Override public void flush() { target().flush(); }
+        @Override public void close() { target().flush(); }
+        @Override public boolean checkError() { return target().checkError(); }
+        @Override public void write(int b) { target().write(b); }
+        @Override public void write(byte[] buf, int off, int len) { target().write(buf, off, len); }
+        @Override public void print(boolean b) { target().print(b); }
+        @Override public void print(char c) { target().print(c); }
+        @Override public void print(int i) { target().print(i); }
+        @Override public void print(long l) { target().print(l); }
+        @Override public void print(float f) { target().print(f); }
+        @Override public void print(double d) { target().print(d); }
+        @Override public void print(char[] s) { target().print(s); }
+        @Override public void print(String s) { target().print(s); }
+        @Override public void print(Object obj) { target().print(obj); }
+        @Override public void println() { target().println(); }
+        @Override public void println(boolean x) { target().println(x); }
+        @Override public void println(char x) { target().println(x); }
+        @Override public void println(int x) { target().println(x); }
+        @Override public void println(long x) { target().println(x); }
+        @Override public void println(float x) { target().println(x); }
+        @Override public void println(double x) { target().println(x); }
+        @Override public void println(char[] x) { target().println(x); }
+        @Override public void println(String x) { target().println(x); }
+        @Override public void println(Object x) { target().println(x); }
+        @Override public PrintStream printf(String format, Object... args) { target().printf(format, args); return this; }
+        @Override public PrintStream printf(Locale l, String format, Object... args) { target().printf(l, format, args); return this; }
+        @Override public PrintStream format(String format, Object... args) { target().format(format, args); return this; }
+        @Override public PrintStream format(Locale l, String format, Object... args) { target().format(l, format, args); return this; }
+        @Override public PrintStream append(CharSequence csq) { target().append(csq); return this; }
+        @Override public PrintStream append(CharSequence csq, int start, int end) { target().append(csq, start, end); return this; }
+        @Override public PrintStream append(char c) { target().append(c); return this; }
+    }
+}
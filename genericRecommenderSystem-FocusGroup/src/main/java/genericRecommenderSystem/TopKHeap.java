@@ -0,0 +1,117 @@
+package genericRecommenderSystem;
+
+/**
+ * Bounded min-heap of (id, score) pairs on primitive arrays, used to keep the best K
+ * entries of a stream without boxing. Higher scores win; on equal scores the lower id wins,
+ * so the selection is deterministic regardless of the order entries are offered in.
+ */
+final class TopKHeap {
+
+    private final int[] ids;
+    private final double[] scores;
+    private int size;
+
+    TopKHeap(int capacity) {
+        ids = new int[Math.max(capacity, 0)];
+        scores = new double[Math.max(capacity, 0)];
+    }
+
+    int capacity() {
+        return ids.length;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /** Lowest score currently kept, or -Infinity while the heap is not full. */
+    double threshold() {
+        if (ids.length == 0) return Double.POSITIVE_INFINITY;
+        return size < ids.length ? Double.NEGATIVE_INFINITY : scores[0];
+    }
+
+    void offer(int id, double score) {
+        if (size < ids.length) {
+            int pos = size++;
+            ids[pos] = id;
+            scores[pos] = score;
+            siftUp(pos);
+        } else if (size > 0 && better(id, score, ids[0], scores[0])) {
+            ids[0] = id;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Empties the heap into {@code outIds/outScores[offset, offset + size)}, best first,
+     * and returns the number of entries written.
+     */
+    int drainDescending(int[] outIds, float[] outScores, int offset) {
+        int n = size;
+        for (int k = n - 1; k >= 0; k--) {
+            outIds[offset + k] = ids[0];
+            outScores[offset + k] = (float) scores[0];
+            pop();
+        }
+        return n;
+    }
+
+    int drainDescending(int[] outIds, double[] outScores, int offset) {
+        int n = size;
+        for (int k = n - 1; k >= 0; k--) {
+            outIds[offset + k] = ids[0];
+            outScores[offset + k] = scores[0];
+            pop();
+        }
+        return n;
+    }
+
+    private void pop() {
+        size--;
+        ids[0] = ids[size];
+        scores[0] = scores[size];
+        siftDown(0);
+    }
+
+    private static boolean better(int id, double score, int otherId, double otherScore) {
+        return score > otherScore || (score == otherScore && id < otherId);
+    }
+
+    private void siftUp(int pos) {
+        int id = ids[pos];
+        double score = scores[pos];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (!better(ids[parent], scores[parent], id, score)) break;
+            ids[pos] = ids[parent];
+            scores[pos] = scores[parent];
+            pos = parent;
+        }
+        ids[pos] = id;
+        scores[pos] = score;
+    }
+
+    private void siftDown(int pos) {
+        int id = ids[pos];
+        double score = scores[pos];
+        int half = size >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int right = child + 1;
+            if (right < size && better(ids[child], scores[child], ids[right], scores[right])) {
+                child = right;
+            }
+            if (!better(id, score, ids[child], scores[child])) break;
+            ids[pos] = ids[child];
+            scores[pos] = scores[child];
+            pos = child;
+        }
+        ids[pos] = id;
+        scores[pos] = score;
+    }
+}
@@ -0,0 +1,152 @@
+package genericRecommenderSystem;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import net.librec.common.LibrecException;
+import net.librec.math.structure.SequentialSparseVector;
+import net.librec.recommender.MatrixRecommender;
+import net.librec.recommender.item.RecommendedList;
+import net.librec.similarity.RecommenderSimilarity;
+
+/**
+ * Item-based KNN that predicts from a {@link NeighborIndex} instead of ItemKNN's
+ * per-item lists of boxed entries. Scores follow ItemKNNRecommender: in ranking mode
+ * the sum of similarities of the neighbors the user rated, otherwise a mean-centred
+ * weighted average over the positively similar ones.
+ *
+ * That average is added to the mean of the target item. ItemKNNRecommender adds
+ * {@code itemMeans[userIdx]} instead; {@code rec.neighbors.target.mean=false} does the same
+ * to reproduce its ratings, falling back to the target item's mean for users whose index
+ * has no item.
+ *
+ * In ranking mode the top-N lists are produced by {@link TopNRanker} on
+ * {@code rec.ranking.threads} workers rather than by predicting every (user, item) pair.
+ */
+public class TopKItemKNNRecommender extends MatrixRecommender {
+
+    private int knn;
+    private NeighborIndex neighborIndex;
+    private double[] itemMeans;
+    private boolean targetMean;
+    private ForkJoinPool sharedPool;
+    private RuleFilter rules;
+
+    // Train matrix rows as CSR, for binary searches of a user's rated items
+    private int[] userPtr;
+    private int[] userItems;
+    private double[] userRatings;
+
+    @Override
+    protected void setup() throws LibrecException {
+        super.setup();
+        knn = conf.getInt("rec.neighbors.knn.number", 50);
+        targetMean = conf.getBoolean("rec.neighbors.target.mean", true);
+        RecommenderSimilarity similarity = context.getSimilarity();
+        if (similarity instanceof ParallelItemSimilarity
+                && ((ParallelItemSimilarity) similarity).getNeighborIndex() != null) {
+            neighborIndex = ((ParallelItemSimilarity) similarity).getNeighborIndex();
+        } else {
+            neighborIndex = NeighborIndex.fromSymmMatrix(similarity.getSimilarityMatrix(), knn);
+        }
+        if (neighborIndex.count() != numItems) {
+            throw new LibrecException("Neighbor index has " + neighborIndex.count()
+                    + " entries but there are " + numItems + " items; item similarity is required");
+        }
+    }
+
+    @Override
+    protected void trainModel() throws LibrecException {
+        itemMeans = new double[numItems];
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            SequentialSparseVector column = trainMatrix.column(itemIdx);
+            itemMeans[itemIdx] = column.getNumEntries() > 0 ? column.mean() : globalMean;
+        }
+
+        userPtr = new int[numUsers + 1];
+        userItems = new int[trainMatrix.size()];
+        userRatings = new double[trainMatrix.size()];
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            SequentialSparseVector row = trainMatrix.row(userIdx);
+            int offset = userPtr[userIdx];
+            for (int p = 0, n = row.getNumEntries(); p < n; p++) {
+                userItems[offset + p] = row.getIndexAtPosition(p);
+                userRatings[offset + p] = row.getAtPosition(p);
+            }
+            userPtr[userIdx + 1] = offset + row.getNumEntries();
+        }
+    }
+
+    @Override
+    protected double predict(int userIdx, int itemIdx) throws LibrecException {
+        int from = userPtr[userIdx], to = userPtr[userIdx + 1];
+        int start = neighborIndex.start(itemIdx), end = neighborIndex.end(itemIdx);
+        if (from == to || start == end) {
+            return isRanking ? 0.0 : globalMean;
+        }
+        double predictValue = 0.0, simSum = 0.0;
+        for (int p = start; p < end; p++) {
+            int pos = Arrays.binarySearch(userItems, from, to, neighborIndex.neighborAt(p));
+            if (pos < 0) continue;
+            double sim = neighborIndex.scoreAt(p);
+            if (isRanking) {
+                predictValue += sim;
+            } else if (sim > 0.0) {
+                predictValue += sim * (userRatings[pos] - itemMeans[neighborIndex.neighborAt(p)]);
+                simSum += sim;
+            }
+        }
+        if (isRanking) {
+            return predictValue;
+        }
+        if (predictValue <= 0.0) {
+            return globalMean;
+        }
+        double mean = targetMean || userIdx >= numItems ? itemMeans[itemIdx] : itemMeans[userIdx];
+        return mean + predictValue / simSum;
+    }
+
+    /**
+     * Ranks on {@code pool} instead of a pool of its own; the pool is not shut down.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.sharedPool = pool;
+    }
+
+    /**
+     * Filters and boosts the ranked items by {@code rules}, or not at all when null.
+     */
+    void setRules(RuleFilter rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Ranks the unrated items of every user and keeps the best {@code rec.recommender.ranking.topn}.
+     */
+    public RankedResults rankTopN() throws LibrecException {
+        if (!isRanking) {
+            return RankedResults.fromRecommendedList(super.recommendRank(), topN);
+        }
+        LOG.info("begin recommend");
+        ForkJoinPool pool = sharedPool != null ? sharedPool : SimilarityEngine.newPool(conf.getInt("rec.ranking.threads", 0));
+        try {
+            return new TopNRanker(neighborIndex, userPtr, userItems, rules).rank(topN, pool);
+        } finally {
+            if (pool != sharedPool) pool.shutdown();
+            LOG.info("end recommend");
+        }
+    }
+
+    @Override
+    public RecommendedList recommendRank() throws LibrecException {
+        return isRanking ? rankTopN().toRecommendedList() : super.recommendRank();
+    }
+
+    public NeighborIndex getNeighborIndex() {
+        return neighborIndex;
+    }
+
+    public int getKnn() {
+        return knn;
+    }
+}
@@ -0,0 +1,167 @@
+package genericRecommenderSystem;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Ranks every user's unrated items against a {@link NeighborIndex}, as ItemKNN does in
+ * ranking mode: the score of item i is the sum of sim(i, j) over the user's rated items
+ * j among i's neighbors. Instead of calling predict for every (user, item) pair, the
+ * index is transposed once (j -> items that list j as a neighbor) and each user's
+ * rated items scatter their similarities into a dense accumulator. Only the touched
+ * items are then offered to a bounded heap, so each user costs O(ratings * K + touched * log N).
+ *
+ * With a {@link RuleFilter}, items outside the user's rule mask are skipped before they
+ * are accumulated, and the scores of boosted items are scaled when offered.
+ *
+ * Users are processed in blocks on a fork-join pool, each worker with its own scratch.
+ */
+class TopNRanker {
+
+    static final int BLOCK_SIZE = 256;
+
+    private final int numItems;
+    private final int numUsers;
+    private final int[] userPtr;
+    private final int[] userItems;
+    private final RuleFilter rules;
+
+    // Transposed neighbor index: for item j, the items whose top-K contains j
+    private final int[] reversePtr;
+    private final int[] reverseItems;
+    private final float[] reverseScores;
+
+    TopNRanker(NeighborIndex index, int[] userPtr, int[] userItems) {
+        this(index, userPtr, userItems, null);
+    }
+
+    TopNRanker(NeighborIndex index, int[] userPtr, int[] userItems, RuleFilter rules) {
+        this.rules = rules;
+        this.numItems = index.count();
+        this.numUsers = userPtr.length - 1;
+        this.userPtr = userPtr;
+        this.userItems = userItems;
+
+        int numEntries = index.numEntries();
+        reversePtr = new int[numItems + 1];
+        reverseItems = new int[numEntries];
+        reverseScores = new float[numEntries];
+        for (int p = 0; p < numEntries; p++) {
+            reversePtr[index.neighborAt(p) + 1]++;
+        }
+        for (int j = 0; j < numItems; j++) {
+            reversePtr[j + 1] += reversePtr[j];
+        }
+        int[] fill = new int[numItems];
+        System.arraycopy(reversePtr, 0, fill, 0, numItems);
+        for (int i = 0; i < numItems; i++) {
+            for (int p = index.start(i), end = index.end(i); p < end; p++) {
+                int slot = fill[index.neighborAt(p)]++;
+                reverseItems[slot] = i;
+                reverseScores[slot] = index.scoreAt(p);
+            }
+        }
+    }
+
+    RankedResults rank(int topN, ForkJoinPool pool) {
+        RankedResults results = new RankedResults(numUsers, topN);
+        rankUsers(results, null, numUsers, pool);
+        return results;
+    }
+
+    /**
+     * Re-ranks only {@code users[0, n)} into {@code results}, leaving the other users' lists as they are.
+     */
+    void rankUsers(RankedResults results, int[] users, int n, ForkJoinPool pool) {
+        int numBlocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int topN = results.topN();
+        ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(() -> new Scratch(topN));
+        pool.invoke(new RankTask(results, scratch, users, n, 0, numBlocks));
+    }
+
+    private final class Scratch {
+        final double[] acc = new double[numItems];
+        final int[] touched = new int[numItems];
+        // Stamp arrays avoid clearing per user: an entry is set when it equals the user stamp
+        final int[] ratedStamp = new int[numItems];
+        final int[] touchedStamp = new int[numItems];
+        final TopKHeap heap;
+
+        Scratch(int topN) {
+            heap = new TopKHeap(topN);
+        }
+    }
+
+    private void rankUser(int userIdx, Scratch s, RankedResults results) {
+        int stamp = userIdx + 1;
+        int from = userPtr[userIdx], to = userPtr[userIdx + 1];
+        long[] mask = rules == null ? null : rules.mask(userIdx);
+        long[] boost = rules == null ? null : rules.boost(userIdx);
+        for (int p = from; p < to; p++) {
+            s.ratedStamp[userItems[p]] = stamp;
+        }
+
+        int numTouched = 0;
+        for (int p = from; p < to; p++) {
+            int j = userItems[p];
+            for (int q = reversePtr[j], end = reversePtr[j + 1]; q < end; q++) {
+                int i = reverseItems[q];
+                if (s.ratedStamp[i] == stamp || mask != null && !RuleFilter.contains(mask, i)) continue;
+                if (s.touchedStamp[i] != stamp) {
+                    s.touchedStamp[i] = stamp;
+                    s.acc[i] = 0.0;
+                    s.touched[numTouched++] = i;
+                }
+                s.acc[i] += reverseScores[q];
+            }
+        }
+
+        TopKHeap heap = s.heap;
+        heap.clear();
+        for (int t = 0; t < numTouched; t++) {
+            int i = s.touched[t];
+            double score = s.acc[i];
+            if (boost != null && RuleFilter.contains(boost, i)) score *= rules.boostFactor();
+            heap.offer(i, score);
+        }
+        // Like recommendRank, unrated items nobody points at still compete with a score of 0
+        for (int i = 0; i < numItems && (heap.size() < heap.capacity() || heap.threshold() < 0.0); i++) {
+            if (s.ratedStamp[i] != stamp && s.touchedStamp[i] != stamp && (mask == null || RuleFilter.contains(mask, i))) {
+                heap.offer(i, 0.0);
+            }
+        }
+        results.set(userIdx, heap.drainDescending(results.items(), results.scores(), userIdx * results.topN()));
+    }
+
+    private final class RankTask extends RecursiveAction {
+        private final RankedResults results;
+        private final ThreadLocal<Scratch> scratch;
+        private final int[] users;
+        private final int n;
+        private final int fromBlock, toBlock;
+
+        RankTask(RankedResults results, ThreadLocal<Scratch> scratch, int[] users, int n, int fromBlock, int toBlock) {
+            this.results = results;
+            this.scratch = scratch;
+            this.users = users;
+            this.n = n;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+        }
+
+        @Override
+        protected void compute() {
+            if (toBlock - fromBlock > 1) {
+                int mid = (fromBlock + toBlock) >>> 1;
+                invokeAll(new RankTask(results, scratch, users, n, fromBlock, mid),
+                        new RankTask(results, scratch, users, n, mid, toBlock));
+                return;
+            }
+            Scratch s = scratch.get();
+            int to = Math.min((fromBlock + 1) * BLOCK_SIZE, n);
+            for (int k = fromBlock * BLOCK_SIZE; k < to; k++) {
+                rankUser(users == null ? k : users[k], s, results);
+            }
+        }
+    }
+}
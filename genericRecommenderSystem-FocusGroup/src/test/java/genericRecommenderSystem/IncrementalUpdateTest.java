@@ -0,0 +1,135 @@
+package genericRecommenderSystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+
+class IncrementalUpdateTest {
+
+    private static final int TOP_N = 10;
+
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void startPool() {
+        pool = SimilarityEngine.newPool(2);
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    void matchesRebuildAfterAddedRemovedAndChangedRatings() {
+        RatingEncoder ratings = TestRatings.random(60, 40, 10, 1L);
+        ModelCache.Entry previous = TestRatings.entry(ratings, 8, TOP_N, pool);
+        RatingEncoder next = copy(ratings, Set.of(), Set.of(), (k, value) ->
+                k % 11 == 3 ? Double.NaN : k % 7 == 2 ? (value == 5.0 ? 1.0 : value + 0.5) : value);
+        // A new user, a new item, and new ratings of existing users
+        next.add("new-user", TestRatings.item(0), 4.0);
+        next.add("new-user", TestRatings.item(5), 2.5);
+        next.add(TestRatings.user(0), "new-item", 3.0);
+        next.add(TestRatings.user(1), "new-item", 5.0);
+        next.add(TestRatings.user(2), TestRatings.item(39), 1.5);
+
+        IncrementalUpdate update = IncrementalUpdate.apply(previous, next, 0, SimilarityFunction.COSINE, -1.0, TOP_N, 1.0, pool);
+        assertNotNull(update);
+        assertTrue(update.changedRatings > 0);
+        assertTrue(update.patchedLists > 0);
+        assertMatchesRebuild(update.entry, next);
+    }
+
+    @Test
+    void matchesRebuildAfterRemovedUsersAndItems() {
+        RatingEncoder ratings = TestRatings.random(60, 40, 10, 2L);
+        ModelCache.Entry previous = TestRatings.entry(ratings, 8, TOP_N, pool);
+        RatingEncoder next = copy(ratings, Set.of(TestRatings.user(3), TestRatings.user(17)),
+                Set.of(TestRatings.item(4), TestRatings.item(30)), (k, value) -> value);
+
+        IncrementalUpdate update = IncrementalUpdate.apply(previous, next, 0, SimilarityFunction.COSINE, -1.0, TOP_N, 1.0, pool);
+        assertNotNull(update);
+        assertEquals(ratings.numUsers() - 2, update.entry.numUsers);
+        assertEquals(ratings.numItems() - 2, update.entry.numItems);
+        assertMatchesRebuild(update.entry, next);
+    }
+
+    @Test
+    void recomputesFullListsWhoseLastEntryGotWorse() {
+        RatingEncoder ratings = TestRatings.random(60, 40, 10, 3L);
+        ModelCache.Entry previous = TestRatings.entry(ratings, 3, TOP_N, pool);
+        // Most ratings of the most rated item are gone, so it drops down or out of many full lists
+        String popular = TestRatings.item(0);
+        RatingEncoder next = copy(ratings, Set.of(), Set.of(), (k, value) ->
+                ratings.getItemId(ratings.getItems()[k]).equals(popular) && k % 3 != 0 ? Double.NaN : value);
+
+        IncrementalUpdate update = IncrementalUpdate.apply(previous, next, 0, SimilarityFunction.COSINE, -1.0, TOP_N, 1.0, pool);
+        assertNotNull(update);
+        assertTrue(update.recomputedLists > 0);
+        assertMatchesRebuild(update.entry, next);
+    }
+
+    @Test
+    void skipsUpdatesLargerThanTheMaximumChange() {
+        RatingEncoder ratings = TestRatings.random(60, 40, 10, 4L);
+        ModelCache.Entry previous = TestRatings.entry(ratings, 8, TOP_N, pool);
+        RatingEncoder next = copy(ratings, Set.of(), Set.of(), (k, value) -> k % 2 == 1 ? Double.NaN : value);
+
+        assertNull(IncrementalUpdate.apply(previous, next, 0, SimilarityFunction.COSINE, -1.0, TOP_N, 0.2, pool));
+    }
+
+    /**
+     * The updated index and lists must be the ones a full rebuild on the updated split gives.
+     */
+    private static void assertMatchesRebuild(ModelCache.Entry updated, RatingEncoder ratings) {
+        assertTrue(updated.matches(ratings));
+        int[] rows = new int[updated.trainItems.length];
+        for (int u = 0; u < updated.numUsers; u++) {
+            for (int p = updated.trainPtr[u]; p < updated.trainPtr[u + 1]; p++) rows[p] = u;
+        }
+        SequentialAccessSparseMatrix train = InMemoryDataModel.buildMatrix(updated.numUsers, updated.numItems, rows,
+                updated.trainItems, updated.trainValues, rows.length, -1.0);
+        NeighborIndex rebuilt = NeighborIndex.build(SimilarityEngine.of(train, false, 0), updated.index.k(), pool);
+        assertEquals(TestRatings.lists(rebuilt), TestRatings.lists(updated.index));
+        RankedResults ranked = new TopNRanker(rebuilt, updated.trainPtr, updated.trainItems).rank(TOP_N, pool);
+        assertEquals(TestRatings.lists(ranked), TestRatings.lists(updated.results));
+    }
+
+    /**
+     * {@code ratings} without the given users and items, in the same order so that the
+     * remaining ones keep their relative indices, with each value passed through
+     * {@code edit} (NaN drops the rating).
+     */
+    private static RatingEncoder copy(RatingEncoder ratings, Set<String> removedUsers, Set<String> removedItems,
+            Edit edit) {
+        RatingEncoder copy = new RatingEncoder();
+        for (int u = 0; u < ratings.numUsers(); u++) {
+            if (!removedUsers.contains(ratings.getUserId(u))) copy.internUser(ratings.getUserId(u));
+        }
+        for (int i = 0; i < ratings.numItems(); i++) {
+            if (!removedItems.contains(ratings.getItemId(i))) copy.internItem(ratings.getItemId(i));
+        }
+        for (int k = 0; k < ratings.size(); k++) {
+            String user = ratings.getUserId(ratings.getUsers()[k]);
+            String item = ratings.getItemId(ratings.getItems()[k]);
+            double value = edit.apply(k, ratings.getValues()[k]);
+            if (removedUsers.contains(user) || removedItems.contains(item) || Double.isNaN(value)) continue;
+            copy.add(user, item, value);
+        }
+        return copy;
+    }
+
+    private interface Edit {
+        double apply(int rating, double value);
+    }
+}
@@ -0,0 +1,162 @@
+package genericRecommenderSystem;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.librec.conf.Configuration;
+
+class ModelCacheTest {
+
+    private static final String KEY = "00112233445566778899aabbccddeeff00112233445566778899aabbccddeeff";
+
+    private static ForkJoinPool pool;
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void startPool() {
+        pool = SimilarityEngine.newPool(2);
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    void fingerprintCoversRatingsAndModelSettingsOnly() {
+        RatingEncoder ratings = TestRatings.random(40, 25, 8, 1L);
+        String key = ModelCache.fingerprint(ratings, conf("50"));
+        assertEquals(64, key.length());
+        assertEquals(key, ModelCache.fingerprint(TestRatings.random(40, 25, 8, 1L), conf("50")));
+
+        Configuration unrelated = conf("50");
+        unrelated.set("rec.ranking.threads", "4");
+        assertEquals(key, ModelCache.fingerprint(ratings, unrelated));
+        assertNotEquals(key, ModelCache.fingerprint(ratings, conf("20")));
+
+        RatingEncoder changed = TestRatings.random(40, 25, 8, 1L);
+        changed.getValues()[7] += 0.1;
+        assertNotEquals(key, ModelCache.fingerprint(changed, conf("50")));
+    }
+
+    @Test
+    void storesAndLoadsEntryWithResults() throws Exception {
+        RatingEncoder ratings = TestRatings.random(40, 25, 8, 1L);
+        ModelCache.Entry entry = TestRatings.entry(ratings, 5, 10, pool);
+        ModelCache cache = new ModelCache(dir);
+        cache.store(KEY, entry);
+
+        ModelCache.Entry loaded = cache.load(KEY);
+        assertNotNull(loaded);
+        assertEntryEquals(entry, loaded);
+        assertEquals(10, loaded.results.topN());
+        assertEquals(TestRatings.lists(entry.results), TestRatings.lists(loaded.results));
+    }
+
+    @Test
+    void storesAndLoadsEntryWithoutResults() throws Exception {
+        RatingEncoder ratings = TestRatings.random(40, 25, 8, 1L);
+        ModelCache.Entry entry = TestRatings.entry(ratings, 5, 0, pool);
+        ModelCache cache = new ModelCache(dir);
+        cache.store(KEY, entry);
+
+        ModelCache.Entry loaded = cache.load(KEY);
+        assertNotNull(loaded);
+        assertNull(loaded.results);
+        assertEntryEquals(entry, loaded);
+    }
+
+    @Test
+    void storesAndLoadsEntryRankedWithTopZero() throws Exception {
+        RatingEncoder ratings = TestRatings.random(40, 25, 8, 1L);
+        ModelCache.Entry entry = TestRatings.entry(ratings, 5, 0, pool);
+        // Rating mode ranks through LibRec, whose lists come back as top-0
+        entry.results = new RankedResults(ratings.numUsers(), 0);
+        ModelCache cache = new ModelCache(dir);
+        cache.store(KEY, entry);
+
+        ModelCache.Entry loaded = cache.load(KEY);
+        assertNotNull(loaded);
+        assertNull(loaded.results);
+        assertEntryEquals(entry, loaded);
+        assertEquals(true, loaded.matches(ratings));
+    }
+
+    @Test
+    void rejectsOtherDictionaries() throws Exception {
+        RatingEncoder ratings = TestRatings.random(40, 25, 8, 1L);
+        ModelCache.Entry entry = TestRatings.entry(ratings, 5, 0, pool);
+        assertTrue(entry.matches(ratings));
+
+        RatingEncoder moreUsers = TestRatings.random(40, 25, 8, 1L);
+        moreUsers.add("other", TestRatings.item(0), 3.0);
+        assertFalse(entry.matches(moreUsers));
+
+        // Same sizes, but the items are interned in another order
+        RatingEncoder reordered = new RatingEncoder();
+        for (int i = ratings.numItems() - 1; i >= 0; i--) reordered.internItem(TestRatings.item(i));
+        for (int k = 0; k < ratings.size(); k++) {
+            reordered.add(ratings.getUserId(ratings.getUsers()[k]), ratings.getItemId(ratings.getItems()[k]),
+                    ratings.getValues()[k]);
+        }
+        assertFalse(entry.matches(reordered));
+    }
+
+    @Test
+    void ignoresEntriesOfOtherVersionsAndKeys() throws Exception {
+        RatingEncoder ratings = TestRatings.random(40, 25, 8, 1L);
+        ModelCache cache = new ModelCache(dir);
+        cache.store(KEY, TestRatings.entry(ratings, 5, 10, pool));
+        // An entry copied under another key is not served for it
+        String other = KEY.replace('0', 'f');
+        Files.copy(cache.fileFor(KEY), cache.fileFor(other));
+        assertNotNull(cache.load(KEY));
+        assertNull(cache.load(other));
+
+        try (FileChannel channel = FileChannel.open(cache.fileFor(KEY), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, ModelCache.VERSION - 1), 4);
+        }
+        assertNull(cache.load(KEY));
+    }
+
+    private static Configuration conf(String knn) {
+        Configuration conf = new Configuration();
+        conf.set("rec.similarity.function", "cosine");
+        conf.set("rec.neighbors.knn.number", knn);
+        return conf;
+    }
+
+    static void assertEntryEquals(ModelCache.Entry expected, ModelCache.Entry actual) {
+        assertEquals(expected.numUsers, actual.numUsers);
+        assertEquals(expected.numItems, actual.numItems);
+        assertArrayEquals(expected.trainPtr, actual.trainPtr);
+        assertArrayEquals(expected.trainItems, actual.trainItems);
+        assertArrayEquals(expected.trainValues, actual.trainValues);
+        assertArrayEquals(expected.testPtr, actual.testPtr);
+        assertArrayEquals(expected.testItems, actual.testItems);
+        assertArrayEquals(expected.testValues, actual.testValues);
+        assertArrayEquals(expected.userIds, actual.userIds);
+        assertArrayEquals(expected.itemIds, actual.itemIds);
+        assertEquals(TestRatings.lists(expected.index), TestRatings.lists(actual.index));
+    }
+}
@@ -0,0 +1,80 @@
+package genericRecommenderSystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.EnumSet;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import net.librec.conf.Configuration;
+import net.librec.eval.AbstractRecommenderEvaluator;
+import net.librec.eval.EvalContext;
+import net.librec.eval.ranking.AveragePrecisionEvaluator;
+import net.librec.eval.ranking.NormalizedDCGEvaluator;
+import net.librec.eval.ranking.PrecisionEvaluator;
+import net.librec.eval.ranking.RecallEvaluator;
+import net.librec.eval.ranking.ReciprocalRankEvaluator;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+
+class RankingEvaluatorTest {
+
+    private static final int[] CUTOFFS = {1, 5, 10};
+
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void startPool() {
+        pool = SimilarityEngine.newPool(2);
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    void matchesLibRecEvaluators() {
+        RatingEncoder ratings = TestRatings.random(300, 60, 12, 5L);
+        RankedResults results = TestRatings.entry(ratings, 10, 10, pool).results;
+        SequentialAccessSparseMatrix test = TestRatings.test(ratings);
+
+        RankingEvaluator.Result evaluation = new RankingEvaluator(CUTOFFS, EnumSet.allOf(RankingEvaluator.Metric.class))
+                .evaluate(results, test, pool);
+        assertTrue(evaluation.numTestUsers() > 0);
+        assertTrue(evaluation.get(RankingEvaluator.Metric.PRECISION, 10) > 0.0);
+        EvalContext context = new EvalContext(new Configuration(), results.toRecommendedList(), test);
+        for (int cutoff : CUTOFFS) {
+            assertMatches(new NormalizedDCGEvaluator(), context, evaluation, RankingEvaluator.Metric.NDCG, cutoff);
+            assertMatches(new PrecisionEvaluator(), context, evaluation, RankingEvaluator.Metric.PRECISION, cutoff);
+            assertMatches(new RecallEvaluator(), context, evaluation, RankingEvaluator.Metric.RECALL, cutoff);
+            assertMatches(new AveragePrecisionEvaluator(), context, evaluation, RankingEvaluator.Metric.MAP, cutoff);
+            assertMatches(new ReciprocalRankEvaluator(), context, evaluation, RankingEvaluator.Metric.MRR, cutoff);
+        }
+    }
+
+    @Test
+    void evaluatesEveryCutoffAsItsOwnRun() {
+        RatingEncoder ratings = TestRatings.random(300, 60, 12, 6L);
+        RankedResults results = TestRatings.entry(ratings, 10, 10, pool).results;
+        SequentialAccessSparseMatrix test = TestRatings.test(ratings);
+        EnumSet<RankingEvaluator.Metric> metrics = EnumSet.allOf(RankingEvaluator.Metric.class);
+
+        RankingEvaluator.Result together = new RankingEvaluator(CUTOFFS, metrics).evaluate(results, test, pool);
+        for (int cutoff : CUTOFFS) {
+            RankingEvaluator.Result alone = new RankingEvaluator(new int[] {cutoff}, metrics).evaluate(results, test, pool);
+            for (RankingEvaluator.Metric metric : metrics) {
+                assertEquals(alone.get(metric, cutoff), together.get(metric, cutoff), 1e-12, metric + "@" + cutoff);
+            }
+        }
+    }
+
+    private static void assertMatches(AbstractRecommenderEvaluator librec, EvalContext context,
+            RankingEvaluator.Result evaluation, RankingEvaluator.Metric metric, int cutoff) {
+        librec.setTopN(cutoff);
+        assertEquals(librec.evaluate(context), evaluation.get(metric, cutoff), 1e-9, metric + "@" + cutoff);
+    }
+}
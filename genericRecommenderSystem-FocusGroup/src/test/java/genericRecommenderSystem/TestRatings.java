@@ -0,0 +1,104 @@
+package genericRecommenderSystem;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+
+/**
+ * Small seeded rating sets and models trained on them with a fixed split: every fifth
+ * rating is test data.
+ */
+final class TestRatings {
+
+    private TestRatings() {
+    }
+
+    /**
+     * {@code numUsers} users rating {@code perUser} distinct items each, drawn from
+     * {@code numItems} with a bias towards low indices, values 1 to 5 in steps of 0.5.
+     */
+    static RatingEncoder random(int numUsers, int numItems, int perUser, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        RatingEncoder ratings = new RatingEncoder();
+        // Intern the items in index order, so item i is index i
+        for (int i = 0; i < numItems; i++) ratings.internItem(item(i));
+        for (int u = 0; u < numUsers; u++) {
+            boolean[] rated = new boolean[numItems];
+            for (int n = 0; n < perUser; n++) {
+                int i = (int) (numItems * Math.pow(random.nextDouble(), 2));
+                if (rated[i]) continue;
+                rated[i] = true;
+                ratings.add(user(u), item(i), 1 + random.nextInt(9) * 0.5);
+            }
+        }
+        return ratings;
+    }
+
+    static String user(int u) {
+        return "u" + u;
+    }
+
+    static String item(int i) {
+        return "i" + i;
+    }
+
+    static SequentialAccessSparseMatrix train(RatingEncoder ratings) {
+        return matrix(ratings, false);
+    }
+
+    static SequentialAccessSparseMatrix test(RatingEncoder ratings) {
+        return matrix(ratings, true);
+    }
+
+    private static SequentialAccessSparseMatrix matrix(RatingEncoder ratings, boolean test) {
+        int n = 0;
+        int[] users = new int[ratings.size()], items = new int[ratings.size()];
+        double[] values = new double[ratings.size()];
+        for (int k = 0; k < ratings.size(); k++) {
+            if ((k % 5 == 0) != test) continue;
+            users[n] = ratings.getUsers()[k];
+            items[n] = ratings.getItems()[k];
+            values[n++] = ratings.getValues()[k];
+        }
+        return InMemoryDataModel.buildMatrix(ratings.numUsers(), ratings.numItems(), users, items, values, n, -1.0);
+    }
+
+    /**
+     * A model trained on the fixed split, with its top-{@code topN} lists unless 0.
+     */
+    static ModelCache.Entry entry(RatingEncoder ratings, int k, int topN, ForkJoinPool pool) {
+        SequentialAccessSparseMatrix train = train(ratings);
+        NeighborIndex index = NeighborIndex.build(SimilarityEngine.of(train, false, 0), k, pool);
+        ModelCache.Entry entry = ModelCache.Entry.of(ratings, train, test(ratings), index);
+        if (topN > 0) entry.results = new TopNRanker(index, entry.trainPtr, entry.trainItems).rank(topN, pool);
+        return entry;
+    }
+
+    /**
+     * Neighbor lists as (item, score) pairs per item, for comparing indexes.
+     */
+    static String lists(NeighborIndex index) {
+        StringBuilder lists = new StringBuilder();
+        for (int i = 0; i < index.count(); i++) {
+            lists.append(i).append(':');
+            for (int p = index.start(i); p < index.end(i); p++) {
+                lists.append(' ').append(index.neighborAt(p)).append('=').append(index.scoreAt(p));
+            }
+            lists.append('\n');
+        }
+        return lists.toString();
+    }
+
+    static String lists(RankedResults results) {
+        StringBuilder lists = new StringBuilder();
+        for (int u = 0; u < results.numUsers(); u++) {
+            lists.append(u).append(':');
+            for (int r = 0; r < results.size(u); r++) {
+                lists.append(' ').append(results.itemAt(u, r)).append('=').append(results.scoreAt(u, r));
+            }
+            lists.append('\n');
+        }
+        return lists.toString();
+    }
+}